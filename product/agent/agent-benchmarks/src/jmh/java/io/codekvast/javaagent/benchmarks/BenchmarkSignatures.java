@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import io.codekvast.javaagent.util.SignatureUtils;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import org.aspectj.lang.Signature;
+
+/** Creates AspectJ signatures of the same kind as the ones captured by the aspect. */
+final class BenchmarkSignatures {
+
+  private BenchmarkSignatures() {}
+
+  static Signature[] makeSignatures(Class<?> clazz, int maxCount) {
+    List<Signature> result = new ArrayList<>();
+    for (Method method : clazz.getDeclaredMethods()) {
+      Signature signature = SignatureUtils.makeSignature(clazz, method);
+      if (signature != null && result.size() < maxCount) {
+        result.add(signature);
+      }
+    }
+    return result.toArray(new Signature[0]);
+  }
+}
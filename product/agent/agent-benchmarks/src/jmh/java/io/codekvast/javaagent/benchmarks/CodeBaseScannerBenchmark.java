@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import io.codekvast.javaagent.codebase.CodeBase;
+import io.codekvast.javaagent.codebase.CodeBaseScanner;
+import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.config.AgentConfigFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures {@link CodeBaseScanner#scanSignatures(CodeBase)} on a synthetic set of jar files. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CodeBaseScannerBenchmark {
+
+  @Param({"10", "50"})
+  public int numJars;
+
+  @Param({"50"})
+  public int numClassesPerJar;
+
+  @Param({CodeBaseScanner.SCANNER_REFLECTION, CodeBaseScanner.SCANNER_BYTECODE})
+  public String codeBaseScanner;
+
+  /** Only the bytecode scanner uses the scan cache, which is warm after the first iteration. */
+  @Param({"false", "true"})
+  public boolean scanCache;
+
+  private File rootDir;
+  private AgentConfig config;
+
+  @Setup
+  public void setup() throws IOException {
+    rootDir = SyntheticCodeBase.create(numJars, numClassesPerJar, 10);
+    config =
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .codeBase(new File(rootDir, "lib").getAbsolutePath())
+            .packages(SyntheticCodeBase.PACKAGE_PREFIX)
+            .excludePackages("")
+            .codeBaseScanner(codeBaseScanner)
+            .codeBaseScanCacheDir(
+                scanCache ? new File(rootDir, "scan-cache").getAbsolutePath() : "none")
+            .build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    SyntheticCodeBase.delete(rootDir);
+  }
+
+  @Benchmark
+  public int scanSignatures() {
+    return CodeBaseScanner.create(config).scanSignatures(new CodeBase(config));
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import io.codekvast.javaagent.config.AgentConfigFactory;
+import io.codekvast.javaagent.model.binary.PublicationCodec;
+import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the intake can read large publications, Java serialized versus {@link
+ * PublicationCodec} encoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodePublicationBenchmark {
+
+  @Param({"10000", "100000"})
+  public int numInvocations;
+
+  private byte[] serialized;
+  private byte[] encoded;
+  private byte[] encodedCompressed;
+
+  @Setup
+  public void setup() throws IOException {
+    Set<String> invocations = new HashSet<>();
+    for (int i = 0; i < numInvocations; i++) {
+      invocations.add(
+          String.format(
+              "com.example.app.module%02d.SomeService%04d.someMethod%d(java.lang.String, int, java.util.Map)",
+              i % 50, i / 10, i % 10));
+    }
+
+    InvocationDataPublication2 publication =
+        InvocationDataPublication2.builder()
+            .commonData(
+                AgentConfigFactory.createSampleAgentConfig().commonPublicationData().toBuilder()
+                    .customerId(1L)
+                    .sequenceNumber(1)
+                    .build())
+            .recordingIntervalStartedAtMillis(System.currentTimeMillis())
+            .invocations(invocations)
+            .build();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+      oos.writeObject(publication);
+    }
+    serialized = out.toByteArray();
+
+    out = new ByteArrayOutputStream();
+    PublicationCodec.encode(publication, PublicationCodec.Compression.NONE, out);
+    encoded = out.toByteArray();
+
+    out = new ByteArrayOutputStream();
+    PublicationCodec.encode(publication, PublicationCodec.Compression.GZIP, out);
+    encodedCompressed = out.toByteArray();
+  }
+
+  @Benchmark
+  public Object deserialize() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream ois =
+        new ObjectInputStream(new BufferedInputStream(new ByteArrayInputStream(serialized)))) {
+      return ois.readObject();
+    }
+  }
+
+  @Benchmark
+  public Object decode() throws IOException {
+    return PublicationCodec.decode(new ByteArrayInputStream(encoded));
+  }
+
+  @Benchmark
+  public Object decodeCompressed() throws IOException {
+    return PublicationCodec.decode(new ByteArrayInputStream(encodedCompressed));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import io.codekvast.javaagent.InvocationRegistry;
+import io.codekvast.javaagent.config.AgentConfigFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.aspectj.lang.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the steady-state cost of {@link InvocationRegistry#registerMethodInvocation(Signature)}
+ * in the different recording modes, with one, four and as many threads as there are CPUs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordingModeBenchmark {
+
+  @Param({
+    InvocationRegistry.RECORDING_MODE_QUEUE,
+    InvocationRegistry.RECORDING_MODE_CACHED,
+    InvocationRegistry.RECORDING_MODE_BITSET,
+    InvocationRegistry.RECORDING_MODE_FIRST_HIT,
+    InvocationRegistry.RECORDING_MODE_RING_BUFFER
+  })
+  public String recordingMode;
+
+  private Signature[] signatures;
+
+  @Setup
+  public void setup() {
+    signatures = BenchmarkSignatures.makeSignatures(ConcurrentHashMap.class, 64);
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(recordingMode)
+            .build());
+  }
+
+  @TearDown
+  public void tearDown() {
+    InvocationRegistry.initialize(null);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void registerMethodInvocation1Thread(ThreadCursor cursor) {
+    InvocationRegistry.registerMethodInvocation(signatures[cursor.next(signatures.length)]);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void registerMethodInvocation4Threads(ThreadCursor cursor) {
+    InvocationRegistry.registerMethodInvocation(signatures[cursor.next(signatures.length)]);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void registerMethodInvocationMaxThreads(ThreadCursor cursor) {
+    InvocationRegistry.registerMethodInvocation(signatures[cursor.next(signatures.length)]);
+  }
+
+  /** Makes each benchmark thread walk through the signatures in its own pace. */
+  @State(Scope.Thread)
+  public static class ThreadCursor {
+    private int position;
+
+    int next(int length) {
+      position = position + 1 == length ? 0 : position + 1;
+      return position;
+    }
+  }
+}
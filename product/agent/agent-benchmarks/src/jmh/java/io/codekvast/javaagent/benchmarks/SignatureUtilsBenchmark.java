@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import io.codekvast.javaagent.util.SignatureUtils;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.aspectj.lang.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures the signature conversions in {@link SignatureUtils}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureUtilsBenchmark {
+
+  private Signature[] signatures;
+  private String[] signatureStrings;
+
+  @Setup
+  public void setup() {
+    signatures = BenchmarkSignatures.makeSignatures(ConcurrentHashMap.class, 64);
+    signatureStrings = new String[signatures.length];
+    for (int i = 0; i < signatures.length; i++) {
+      signatureStrings[i] = SignatureUtils.signatureToString(signatures[i]);
+    }
+  }
+
+  @Benchmark
+  public void signatureToString(Blackhole blackhole) {
+    for (Signature signature : signatures) {
+      blackhole.consume(SignatureUtils.signatureToString(signature));
+    }
+  }
+
+  @Benchmark
+  public void normalizeSignature(Blackhole blackhole) {
+    for (String signature : signatureStrings) {
+      blackhole.consume(SignatureUtils.normalizeSignature(signature));
+    }
+  }
+
+  @Benchmark
+  public void stripModifiers(Blackhole blackhole) {
+    for (String signature : signatureStrings) {
+      blackhole.consume(SignatureUtils.stripModifiers(signature));
+    }
+  }
+
+  @Benchmark
+  public void normalizeAndStripModifiers(Blackhole blackhole) {
+    for (String signature : signatureStrings) {
+      blackhole.consume(SignatureUtils.normalizeAndStripModifiers(signature));
+    }
+  }
+}
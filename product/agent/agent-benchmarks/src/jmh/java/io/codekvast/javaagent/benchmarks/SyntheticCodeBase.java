@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates a code base consisting of a number of jar files with synthetic classes.
+ *
+ * <p>The classes are compiled from generated sources, so the benchmarks must run on a JDK.
+ */
+final class SyntheticCodeBase {
+  static final String PACKAGE_PREFIX = "sample.synthetic";
+
+  private SyntheticCodeBase() {}
+
+  /**
+   * Creates the synthetic code base.
+   *
+   * @param numJars The number of jar files to create.
+   * @param numClassesPerJar The number of classes in each jar file.
+   * @param numMethodsPerClass The number of public methods in each class.
+   * @return A directory containing the jar files in a subdirectory named lib.
+   * @throws IOException when failing to create the files.
+   */
+  static File create(int numJars, int numClassesPerJar, int numMethodsPerClass) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IllegalStateException("The benchmarks must be executed by a JDK, not a JRE");
+    }
+
+    File rootDir = Files.createTempDirectory("codekvast-benchmark-").toFile();
+    File srcDir = new File(rootDir, "src");
+    File classesDir = new File(rootDir, "classes");
+    File libDir = new File(rootDir, "lib");
+    classesDir.mkdirs();
+    libDir.mkdirs();
+
+    List<String> compilerArgs = new ArrayList<>();
+    compilerArgs.add("-nowarn");
+    compilerArgs.add("-d");
+    compilerArgs.add(classesDir.getPath());
+
+    for (int j = 0; j < numJars; j++) {
+      String packageName = String.format("%s.jar%03d", PACKAGE_PREFIX, j);
+      File packageDir = new File(srcDir, packageName.replace('.', File.separatorChar));
+      packageDir.mkdirs();
+      for (int c = 0; c < numClassesPerJar; c++) {
+        String className = String.format("Class%03d", c);
+        File sourceFile = new File(packageDir, className + ".java");
+        Files.write(
+            sourceFile.toPath(),
+            generateSource(packageName, className, numMethodsPerClass).getBytes(UTF_8));
+        compilerArgs.add(sourceFile.getPath());
+      }
+    }
+
+    if (compiler.run(null, null, null, compilerArgs.toArray(new String[0])) != 0) {
+      throw new IllegalStateException("Cannot compile the synthetic code base");
+    }
+
+    for (int j = 0; j < numJars; j++) {
+      String packagePath = String.format("%s/jar%03d", PACKAGE_PREFIX.replace('.', '/'), j);
+      createJar(
+          new File(libDir, String.format("synthetic-%03d.jar", j)),
+          new File(classesDir, packagePath),
+          packagePath);
+    }
+
+    return rootDir;
+  }
+
+  private static String generateSource(String packageName, String className, int numMethods) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("package ").append(packageName).append(";\n\n");
+    sb.append("public class ").append(className).append(" {\n");
+    sb.append("  public ").append(className).append("() {}\n");
+    for (int m = 0; m < numMethods; m++) {
+      sb.append(
+          String.format(
+              "  public java.util.List<String> method%03d(int i, String s, java.util.Map<String, Long> m) { return null; }\n",
+              m));
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static void createJar(File jarFile, File classesDir, String packagePath)
+      throws IOException {
+    try (OutputStream os = new FileOutputStream(jarFile);
+        JarOutputStream jar = new JarOutputStream(os)) {
+      File[] classFiles = classesDir.listFiles();
+      if (classFiles != null) {
+        for (File classFile : classFiles) {
+          jar.putNextEntry(new JarEntry(packagePath + "/" + classFile.getName()));
+          jar.write(Files.readAllBytes(classFile.toPath()));
+          jar.closeEntry();
+        }
+      }
+    }
+  }
+
+  static void delete(File rootDir) throws IOException {
+    if (rootDir == null || !rootDir.exists()) {
+      return;
+    }
+    Files.walkFileTree(
+        rootDir.toPath(),
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
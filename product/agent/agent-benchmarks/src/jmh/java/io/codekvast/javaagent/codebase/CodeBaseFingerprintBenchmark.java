@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.codebase;
+
+import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.config.AgentConfigFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CodeBaseFingerprint.Builder#build()}.
+ *
+ * <p>Lives in the same package as CodeBaseFingerprint, since the builder can only be fed from
+ * within the package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodeBaseFingerprintBenchmark {
+
+  @Param({"100", "5000"})
+  public int numFiles;
+
+  private AgentConfig config;
+  private File dir;
+  private final List<File> files = new ArrayList<>();
+
+  @Setup
+  public void setup() throws IOException {
+    config = AgentConfigFactory.createSampleAgentConfig();
+    dir = Files.createTempDirectory("codekvast-benchmark-").toFile();
+    for (int i = 0; i < numFiles; i++) {
+      File file = new File(dir, String.format("Class%05d.class", i));
+      Files.write(file.toPath(), new byte[i % 100]);
+      files.add(file);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Benchmark
+  public CodeBaseFingerprint build() {
+    CodeBaseFingerprint.Builder builder = CodeBaseFingerprint.builder(config);
+    for (File file : files) {
+      builder.record(file);
+    }
+    return builder.build();
+  }
+}
@@ -34,8 +34,17 @@ public interface Endpoints {
     String V2_POLL_CONFIG = "/javaagent/v2/pollConfig";
     String V2_UPLOAD_CODEBASE = "/javaagent/v2/uploadCodeBase";
     String V3_UPLOAD_CODEBASE = "/javaagent/v3/uploadCodeBase";
+    String V4_UPLOAD_CODEBASE = "/javaagent/v4/uploadCodeBase";
+    String V5_UPLOAD_CODEBASE = "/javaagent/v5/uploadCodeBase";
     String V2_UPLOAD_INVOCATION_DATA = "/javaagent/v2/uploadInvocationData";
+    String V5_UPLOAD_INVOCATION_DATA = "/javaagent/v5/uploadInvocationData";
 
+    // The v6 uploads send the publication as the raw request body and the parameters in the query
+    String V6_UPLOAD_CODEBASE = "/javaagent/v6/uploadCodeBase";
+    String V6_UPLOAD_INVOCATION_DATA = "/javaagent/v6/uploadInvocationData";
+
+    String PARAM_APP_NAME = "appName";
+    String PARAM_BASE_FINGERPRINT = "baseFingerprint";
     String PARAM_FINGERPRINT = "fingerprint";
     String PARAM_LICENSE_KEY = "licenseKey";
     String PARAM_PUBLICATION_SIZE = "numMethods";
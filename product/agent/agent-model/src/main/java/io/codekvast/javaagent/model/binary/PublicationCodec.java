@@ -0,0 +1,823 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.model.binary;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3;
+import io.codekvast.javaagent.model.v3.CodeBasePublication3;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
+import io.codekvast.javaagent.model.v4.CodeBasePublication4;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.experimental.UtilityClass;
+
+/**
+ * A compact binary encoding of publications, used instead of Java serialization.
+ *
+ * <p>The layout is:
+ *
+ * <pre>
+ * magic "CKVB" | format version (byte) | compression (byte) | payload
+ * </pre>
+ *
+ * <p>The payload is optionally gzipped and consists of:
+ *
+ * <pre>
+ * publication type (byte) | string table | body length (varint) | body
+ * </pre>
+ *
+ * <p>The string table is a varint count followed by length-prefixed UTF-8 strings. Each distinct
+ * string (package names, types, parameter types, locations and so on) is stored once, and the body
+ * refers to it by its index in the table. Integers are stored as varints, and all collections are
+ * prefixed with their size.
+ *
+ * <p>Signatures are stored as the declaring type followed by the rest of the signature, so that
+ * only the method part is unique for each signature.
+ *
+ * <p>Decoding never instantiates classes named by the input, and rejects malformed input with an
+ * {@link InvalidPublicationException}. The body is decoded straight from the stream, so a {@link
+ * PublicationReader} can deliver the entries of a big code base in chunks.
+ */
+@UtilityClass
+public class PublicationCodec {
+
+  /** The file suffix used for encoded publications. */
+  public static final String SUFFIX = ".ckv";
+
+  public static final int FORMAT_VERSION = 1;
+
+  private static final byte[] MAGIC = {'C', 'K', 'V', 'B'};
+
+  private static final int TYPE_CODE_BASE_PUBLICATION_3 = 1;
+  private static final int TYPE_INVOCATION_DATA_PUBLICATION_2 = 2;
+  private static final int TYPE_CODE_BASE_PUBLICATION_4 = 3;
+
+  private static final int ENTRY_HAS_METHOD_SIGNATURE = 1;
+  private static final int ENTRY_ASPECTJ_STRING_IS_SIGNATURE = 2;
+  private static final int ENTRY_SIGNATURE_STARTS_WITH_DECLARING_TYPE = 4;
+  private static final int ENTRY_FLAGS = 7;
+
+  private static final int MAX_STRING_LENGTH = 1 << 20;
+  private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+  /** The compression of the payload. */
+  public enum Compression {
+    NONE,
+    GZIP
+  }
+
+  /**
+   * Encodes a publication.
+   *
+   * @param publication A CodeBasePublication3, CodeBasePublication4 or InvocationDataPublication2.
+   * @param compression How to compress the payload.
+   * @param out The stream to write to. It is not closed.
+   * @throws IOException If the publication cannot be written.
+   * @throws IllegalArgumentException If the publication is of an unsupported type.
+   */
+  public static void encode(Object publication, Compression compression, OutputStream out)
+      throws IOException {
+    Encoder encoder = new Encoder();
+    int type;
+    if (publication instanceof CodeBasePublication3) {
+      type = TYPE_CODE_BASE_PUBLICATION_3;
+      encoder.writeCodeBasePublication3((CodeBasePublication3) publication);
+    } else if (publication instanceof InvocationDataPublication2) {
+      type = TYPE_INVOCATION_DATA_PUBLICATION_2;
+      encoder.writeInvocationDataPublication2((InvocationDataPublication2) publication);
+    } else if (publication instanceof CodeBasePublication4) {
+      type = TYPE_CODE_BASE_PUBLICATION_4;
+      encoder.writeCodeBasePublication4((CodeBasePublication4) publication);
+    } else {
+      throw new IllegalArgumentException("Cannot encode a " + publication.getClass().getName());
+    }
+
+    out.write(MAGIC);
+    out.write(FORMAT_VERSION);
+    out.write(compression.ordinal());
+
+    if (compression == Compression.GZIP) {
+      // Buffer the many small writes, since each write to a GZIPOutputStream is costly
+      OutputStream gzip =
+          new BufferedOutputStream(
+              new GZIPOutputStream(new NonClosingOutputStream(out), 65536), 65536);
+      encoder.writePayload(type, gzip);
+      gzip.close();
+    } else {
+      encoder.writePayload(type, out);
+    }
+    out.flush();
+  }
+
+  /**
+   * Is the stream positioned at an encoded publication? The stream is reset to where it was.
+   *
+   * @param in A stream that supports mark and reset.
+   * @return true if the stream starts with the magic bytes of an encoded publication.
+   * @throws IOException If the stream cannot be read.
+   */
+  public static boolean isEncoded(InputStream in) throws IOException {
+    in.mark(MAGIC.length);
+    try {
+      for (byte b : MAGIC) {
+        if (in.read() != b) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Decodes a publication.
+   *
+   * @param in The stream to read from. It is not closed.
+   * @return A CodeBasePublication3, CodeBasePublication4 or InvocationDataPublication2.
+   * @throws InvalidPublicationException If the input is not a valid encoded publication.
+   * @throws IOException If the stream cannot be read.
+   */
+  public static Object decode(InputStream in) throws IOException {
+    return open(in).readPublication();
+  }
+
+  /**
+   * Starts decoding a publication incrementally.
+   *
+   * @param in The stream to read from. It is not closed, and must not be used by anyone else until
+   *     the publication has been read.
+   * @return A reader positioned after the string table.
+   * @throws InvalidPublicationException If the input is not a valid encoded publication.
+   * @throws IOException If the stream cannot be read.
+   */
+  public static PublicationReader open(InputStream in) throws IOException {
+    return decoding(() -> new PublicationReader(openDecoder(in)));
+  }
+
+  private static Decoder openDecoder(InputStream in) throws IOException {
+    DataInputStream header = new DataInputStream(in);
+    byte[] magic = new byte[MAGIC.length];
+    header.readFully(magic);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (magic[i] != MAGIC[i]) {
+        throw new InvalidPublicationException("Not an encoded publication");
+      }
+    }
+
+    int version = header.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new InvalidPublicationException("Unsupported format version " + version);
+    }
+
+    int compression = header.readUnsignedByte();
+    if (compression >= Compression.values().length) {
+      throw new InvalidPublicationException("Unsupported compression " + compression);
+    }
+
+    InputStream payload =
+        Compression.values()[compression] == Compression.GZIP ? new GZIPInputStream(in, 65536) : in;
+    Decoder decoder = new Decoder(new DataInputStream(new BufferedInputStream(payload, 65536)));
+    decoder.readHeader();
+    return decoder;
+  }
+
+  private static <T> T decoding(DecodeAction<T> action) throws IOException {
+    try {
+      return action.run();
+    } catch (EOFException e) {
+      throw new InvalidPublicationException("Truncated publication", e);
+    } catch (NullPointerException | IllegalArgumentException e) {
+      // Thrown by the builders when mandatory values are missing
+      throw new InvalidPublicationException("Malformed publication: " + e, e);
+    }
+  }
+
+  private interface DecodeAction<T> {
+    T run() throws IOException;
+  }
+
+  /**
+   * Decodes one publication incrementally.
+   *
+   * <p>A CodeBasePublication3 can be read in pieces: first {@link #readCommonData()} and then
+   * {@link #readEntries(int)} until it returns an empty list. Any publication can be read in one go
+   * with {@link #readPublication()}.
+   */
+  public static final class PublicationReader {
+    private final Decoder decoder;
+    private int remainingEntries = -1;
+
+    private PublicationReader(Decoder decoder) {
+      this.decoder = decoder;
+    }
+
+    /** @return true if the publication is a CodeBasePublication3. */
+    public boolean isCodeBasePublication3() {
+      return decoder.type == TYPE_CODE_BASE_PUBLICATION_3;
+    }
+
+    /**
+     * Decodes the complete publication.
+     *
+     * @return A CodeBasePublication3, CodeBasePublication4 or InvocationDataPublication2.
+     * @throws InvalidPublicationException If the input is not a valid encoded publication.
+     * @throws IOException If the stream cannot be read.
+     */
+    public Object readPublication() throws IOException {
+      checkState(remainingEntries < 0);
+      return decoding(decoder::readPayload);
+    }
+
+    /**
+     * Reads the common data of a CodeBasePublication3.
+     *
+     * @return The common data.
+     * @throws InvalidPublicationException If the input is not a valid encoded publication.
+     * @throws IOException If the stream cannot be read.
+     */
+    public CommonPublicationData2 readCommonData() throws IOException {
+      checkState(isCodeBasePublication3() && remainingEntries < 0);
+      return decoding(
+          () -> {
+            CommonPublicationData2 result = decoder.readCommonData();
+            remainingEntries = decoder.readCount();
+            return result;
+          });
+    }
+
+    /** @return The number of entries not yet read by {@link #readEntries(int)}. */
+    public int getRemainingEntries() {
+      checkState(remainingEntries >= 0);
+      return remainingEntries;
+    }
+
+    /**
+     * Reads the next entries of a CodeBasePublication3.
+     *
+     * @param maxEntries The max number of entries to return.
+     * @return The next entries, or an empty list when all entries have been read.
+     * @throws InvalidPublicationException If the input is not a valid encoded publication.
+     * @throws IOException If the stream cannot be read.
+     */
+    public List<CodeBaseEntry3> readEntries(int maxEntries) throws IOException {
+      checkState(remainingEntries >= 0 && maxEntries > 0);
+      return decoding(
+          () -> {
+            int count = Math.min(maxEntries, remainingEntries);
+            List<CodeBaseEntry3> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+              result.add(decoder.readEntry());
+            }
+            remainingEntries -= count;
+            if (remainingEntries == 0) {
+              decoder.checkEnd();
+            }
+            return result;
+          });
+    }
+
+    private static void checkState(boolean condition) {
+      if (!condition) {
+        throw new IllegalStateException("Not allowed at this point of the publication");
+      }
+    }
+  }
+
+  private static final class Encoder {
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Bytes body = new Bytes(65536);
+
+    void writePayload(int type, OutputStream out) throws IOException {
+      Bytes header = new Bytes(16);
+      header.write(type);
+      header.writeVarLong(strings.size());
+      header.writeTo(out);
+      for (String s : strings) {
+        byte[] bytes = s.getBytes(UTF_8);
+        header.reset();
+        header.writeVarLong(bytes.length);
+        header.writeTo(out);
+        out.write(bytes);
+      }
+
+      header.reset();
+      header.writeVarLong(body.size());
+      header.writeTo(out);
+      body.writeTo(out);
+    }
+
+    void writeCodeBasePublication3(CodeBasePublication3 publication) {
+      writeCommonData(publication.getCommonData());
+      writeEntries(publication.getEntries());
+    }
+
+    void writeCodeBasePublication4(CodeBasePublication4 publication) {
+      writeCommonData(publication.getCommonData());
+      writeString(publication.getBaseCodeBaseFingerprint());
+      body.writeVarLong(publication.getCodeBaseSize());
+      writeEntries(publication.getAddedEntries());
+      writeSignatures(publication.getRemovedSignatures());
+    }
+
+    void writeInvocationDataPublication2(InvocationDataPublication2 publication) {
+      writeCommonData(publication.getCommonData());
+      writeSignatures(publication.getInvocations());
+      body.writeVarLong(publication.getRecordingIntervalStartedAtMillis());
+
+      RecordingStatistics2 statistics = publication.getRecordingStatistics();
+      body.write(statistics == null ? 0 : 1);
+      if (statistics != null) {
+        writeString(statistics.getRecordingMode());
+        body.writeVarLong(statistics.getQueueCapacity());
+        body.writeVarLong(statistics.getMaxQueueDepth());
+        body.writeVarLong(statistics.getOverflowCount());
+        body.writeVarLong(statistics.getDroppedCount());
+        body.writeVarLong(statistics.getDrainLatencyMillis());
+      }
+    }
+
+    private void writeCommonData(CommonPublicationData2 data) {
+      body.writeVarLong(data.getCustomerId());
+      writeString(data.getAppName());
+      writeString(data.getAppVersion());
+      writeString(data.getCodeBaseFingerprint());
+      writeString(data.getAgentVersion());
+      writeString(data.getComputerId());
+      writeString(data.getEnvironment());
+      writeStrings(data.getExcludePackages());
+      writeString(data.getHostname());
+      body.writeVarLong(data.getJvmStartedAtMillis());
+      writeString(data.getJvmUuid());
+      writeString(data.getMethodVisibility());
+      writeStrings(data.getPackages());
+      body.writeVarLong(data.getPublishedAtMillis());
+      body.writeVarLong(data.getSequenceNumber());
+      writeString(data.getTags());
+    }
+
+    private void writeEntries(Collection<CodeBaseEntry3> entries) {
+      body.writeVarLong(entries.size());
+      for (CodeBaseEntry3 entry : entries) {
+        MethodSignature3 ms = entry.getMethodSignature();
+        String signature = entry.getSignature();
+        int flags = 0;
+        if (ms != null) {
+          flags |= ENTRY_HAS_METHOD_SIGNATURE;
+          if (signature.equals(ms.getAspectjString())) {
+            flags |= ENTRY_ASPECTJ_STRING_IS_SIGNATURE;
+          }
+          if (signature.startsWith(ms.getDeclaringType())) {
+            flags |= ENTRY_SIGNATURE_STARTS_WITH_DECLARING_TYPE;
+          }
+        }
+        body.write(flags);
+
+        if (ms != null) {
+          if ((flags & ENTRY_ASPECTJ_STRING_IS_SIGNATURE) == 0) {
+            writeString(ms.getAspectjString());
+          }
+          writeString(ms.getDeclaringType());
+          writeBoolean(ms.getBridge());
+          writeString(ms.getExceptionTypes());
+          writeString(ms.getMethodName());
+          writeString(ms.getModifiers());
+          writeString(ms.getPackageName());
+          writeString(ms.getParameterTypes());
+          writeString(ms.getReturnType());
+          writeBoolean(ms.getSynthetic());
+          writeString(ms.getLocation());
+        }
+        writeString(entry.getVisibility());
+        if ((flags & ENTRY_SIGNATURE_STARTS_WITH_DECLARING_TYPE) != 0) {
+          writeString(signature.substring(ms.getDeclaringType().length()));
+        } else {
+          writeString(signature);
+        }
+      }
+    }
+
+    /**
+     * Writes a signature as two references, the declaring type and the rest. The declaring types
+     * are shared between many signatures.
+     */
+    private void writeSignatures(Collection<String> signatures) {
+      body.writeVarLong(signatures.size());
+      for (String signature : signatures) {
+        int paren = signature.indexOf('(');
+        int dot = signature.lastIndexOf('.', paren < 0 ? signature.length() : paren);
+        int split = Math.max(dot, 0);
+        writeString(signature.substring(0, split));
+        writeString(signature.substring(split));
+      }
+    }
+
+    private void writeStrings(Collection<String> values) {
+      body.writeVarLong(values.size());
+      for (String value : values) {
+        writeString(value);
+      }
+    }
+
+    /** Writes a reference to the string table. 0 means null. */
+    private void writeString(String value) {
+      if (value == null) {
+        body.writeVarLong(0);
+        return;
+      }
+      Integer index = stringIndex.get(value);
+      if (index == null) {
+        index = strings.size();
+        strings.add(value);
+        stringIndex.put(value, index);
+      }
+      body.writeVarLong(index + 1L);
+    }
+
+    private void writeBoolean(Boolean value) {
+      body.write(value == null ? 0 : value ? 1 : 2);
+    }
+  }
+
+  /** An unsynchronized ByteArrayOutputStream. */
+  private static final class Bytes {
+    private byte[] buffer;
+    private int size;
+
+    Bytes(int initialCapacity) {
+      buffer = new byte[initialCapacity];
+    }
+
+    void write(int b) {
+      if (size == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      buffer[size++] = (byte) b;
+    }
+
+    void writeVarLong(long value) {
+      long v = value;
+      while ((v & ~0x7FL) != 0) {
+        write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      write((int) v);
+    }
+
+    int size() {
+      return size;
+    }
+
+    void reset() {
+      size = 0;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      out.write(buffer, 0, size);
+    }
+  }
+
+  private static final class Decoder {
+    private final DataInputStream in;
+    private final byte[] buffer = new byte[65536];
+    private int position;
+    private int limit;
+    private long unbufferedBodyBytes;
+    private String[] strings;
+    private int type;
+
+    Decoder(DataInputStream in) {
+      this.in = in;
+    }
+
+    void readHeader() throws IOException {
+      type = in.readUnsignedByte();
+
+      int numStrings = readCount(in);
+      List<String> table = new ArrayList<>(Math.min(numStrings, MAX_INITIAL_CAPACITY));
+      for (int i = 0; i < numStrings; i++) {
+        int length = readCount(in);
+        if (length > MAX_STRING_LENGTH) {
+          throw new InvalidPublicationException("Too long string: " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        table.add(new String(bytes, UTF_8));
+      }
+      strings = table.toArray(new String[0]);
+
+      unbufferedBodyBytes = readCount(in);
+    }
+
+    Object readPayload() throws IOException {
+      Object result;
+      switch (type) {
+        case TYPE_CODE_BASE_PUBLICATION_3:
+          result = readCodeBasePublication3();
+          break;
+        case TYPE_INVOCATION_DATA_PUBLICATION_2:
+          result = readInvocationDataPublication2();
+          break;
+        case TYPE_CODE_BASE_PUBLICATION_4:
+          result = readCodeBasePublication4();
+          break;
+        default:
+          throw new InvalidPublicationException("Unsupported publication type " + type);
+      }
+
+      checkEnd();
+      return result;
+    }
+
+    void checkEnd() throws InvalidPublicationException {
+      long trailing = limit - position + unbufferedBodyBytes;
+      if (trailing != 0) {
+        throw new InvalidPublicationException(
+            trailing + " unexpected trailing bytes in publication");
+      }
+    }
+
+    private CodeBasePublication3 readCodeBasePublication3() throws IOException {
+      return CodeBasePublication3.builder()
+          .commonData(readCommonData())
+          .entries(readEntries())
+          .build();
+    }
+
+    private CodeBasePublication4 readCodeBasePublication4() throws IOException {
+      return CodeBasePublication4.builder()
+          .commonData(readCommonData())
+          .baseCodeBaseFingerprint(readString())
+          .codeBaseSize(readInt())
+          .addedEntries(readEntries())
+          .removedSignatures(readSignatures(new ArrayList<>()))
+          .build();
+    }
+
+    private InvocationDataPublication2 readInvocationDataPublication2() throws IOException {
+      InvocationDataPublication2.InvocationDataPublication2Builder builder =
+          InvocationDataPublication2.builder()
+              .commonData(readCommonData())
+              .invocations(readSignatures(new HashSet<>()))
+              .recordingIntervalStartedAtMillis(readVarLong());
+
+      if (readPresence()) {
+        builder.recordingStatistics(
+            RecordingStatistics2.builder()
+                .recordingMode(readString())
+                .queueCapacity(readInt())
+                .maxQueueDepth(readInt())
+                .overflowCount(readVarLong())
+                .droppedCount(readVarLong())
+                .drainLatencyMillis(readVarLong())
+                .build());
+      }
+      return builder.build();
+    }
+
+    private CommonPublicationData2 readCommonData() throws IOException {
+      return CommonPublicationData2.builder()
+          .customerId(readVarLong())
+          .appName(readString())
+          .appVersion(readString())
+          .codeBaseFingerprint(readString())
+          .agentVersion(readString())
+          .computerId(readString())
+          .environment(readString())
+          .excludePackages(readStrings(new ArrayList<>()))
+          .hostname(readString())
+          .jvmStartedAtMillis(readVarLong())
+          .jvmUuid(readString())
+          .methodVisibility(readString())
+          .packages(readStrings(new ArrayList<>()))
+          .publishedAtMillis(readVarLong())
+          .sequenceNumber(readInt())
+          .tags(readString())
+          .build();
+    }
+
+    private List<CodeBaseEntry3> readEntries() throws IOException {
+      int size = readCount();
+      List<CodeBaseEntry3> result = new ArrayList<>(Math.min(size, MAX_INITIAL_CAPACITY));
+      for (int i = 0; i < size; i++) {
+        result.add(readEntry());
+      }
+      return result;
+    }
+
+    private CodeBaseEntry3 readEntry() throws IOException {
+      int flags = readByte();
+      if ((flags & ~ENTRY_FLAGS) != 0 || (flags & ENTRY_HAS_METHOD_SIGNATURE) == 0 && flags != 0) {
+        throw new InvalidPublicationException("Invalid entry flags " + flags);
+      }
+
+      MethodSignature3.MethodSignature3Builder ms = null;
+      String declaringType = null;
+      if ((flags & ENTRY_HAS_METHOD_SIGNATURE) != 0) {
+        ms = MethodSignature3.builder();
+        if ((flags & ENTRY_ASPECTJ_STRING_IS_SIGNATURE) == 0) {
+          ms.aspectjString(readString());
+        }
+        declaringType = readString();
+        ms.bridge(readBoolean())
+            .declaringType(declaringType)
+            .exceptionTypes(readString())
+            .methodName(readString())
+            .modifiers(readString())
+            .packageName(readString())
+            .parameterTypes(readString())
+            .returnType(readString())
+            .synthetic(readBoolean())
+            .location(readString());
+      }
+
+      String visibility = readString();
+      String signature = readString();
+      if ((flags & ENTRY_SIGNATURE_STARTS_WITH_DECLARING_TYPE) != 0) {
+        signature = declaringType + signature;
+      }
+      if ((flags & ENTRY_ASPECTJ_STRING_IS_SIGNATURE) != 0) {
+        ms.aspectjString(signature);
+      }
+
+      return CodeBaseEntry3.builder()
+          .methodSignature(ms == null ? null : ms.build())
+          .visibility(visibility)
+          .signature(signature)
+          .build();
+    }
+
+    private <C extends Collection<String>> C readSignatures(C result) throws IOException {
+      int size = readCount();
+      for (int i = 0; i < size; i++) {
+        String declaringType = readString();
+        String rest = readString();
+        if (declaringType == null || rest == null) {
+          throw new InvalidPublicationException("Invalid signature");
+        }
+        result.add(declaringType + rest);
+      }
+      return result;
+    }
+
+    private <C extends Collection<String>> C readStrings(C result) throws IOException {
+      int size = readCount();
+      for (int i = 0; i < size; i++) {
+        result.add(readString());
+      }
+      return result;
+    }
+
+    private String readString() throws IOException {
+      long ref = readVarLong();
+      if (ref == 0) {
+        return null;
+      }
+      if (ref < 0 || ref > strings.length) {
+        throw new InvalidPublicationException("Invalid string reference " + ref);
+      }
+      return strings[(int) ref - 1];
+    }
+
+    private Boolean readBoolean() throws IOException {
+      int b = readByte();
+      switch (b) {
+        case 0:
+          return null;
+        case 1:
+          return Boolean.TRUE;
+        case 2:
+          return Boolean.FALSE;
+        default:
+          throw new InvalidPublicationException("Invalid boolean " + b);
+      }
+    }
+
+    private boolean readPresence() throws IOException {
+      Boolean present = readBoolean();
+      return present != null && present;
+    }
+
+    private int readInt() throws IOException {
+      long value = readVarLong();
+      if (value > Integer.MAX_VALUE) {
+        throw new InvalidPublicationException("Too large int " + value);
+      }
+      return (int) value;
+    }
+
+    private int readByte() throws IOException {
+      if (position >= limit) {
+        fillBuffer();
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    /** Reads the body piecewise, without trusting the length enough to allocate it up front. */
+    private void fillBuffer() throws IOException {
+      if (unbufferedBodyBytes == 0) {
+        throw new EOFException();
+      }
+      int length = (int) Math.min(buffer.length, unbufferedBodyBytes);
+      in.readFully(buffer, 0, length);
+      unbufferedBodyBytes -= length;
+      position = 0;
+      limit = length;
+    }
+
+    private long readVarLong() throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new InvalidPublicationException("Malformed varint");
+    }
+
+    private int readCount() throws IOException {
+      return checkCount(readVarLong());
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+      return checkCount(readVarLong(in));
+    }
+
+    private static int checkCount(long value) throws InvalidPublicationException {
+      if (value < 0 || value > Integer.MAX_VALUE) {
+        throw new InvalidPublicationException("Invalid size " + value);
+      }
+      return (int) value;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = in.readUnsignedByte();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new InvalidPublicationException("Malformed varint");
+    }
+  }
+
+  /** Lets the GZIPOutputStream finish without closing the caller's stream. */
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
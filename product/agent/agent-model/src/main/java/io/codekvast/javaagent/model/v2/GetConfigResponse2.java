@@ -36,6 +36,9 @@ import lombok.Value;
 @Builder(toBuilder = true)
 public class GetConfigResponse2 {
 
+  /** The value of {@link #uploadCompression} that makes the agent gzip its uploads. */
+  public static final String UPLOAD_COMPRESSION_GZIP = "gzip";
+
   /** What customerId should I use when publishing data? */
   @NonNull Long customerId;
 
@@ -87,6 +90,13 @@ public class GetConfigResponse2 {
   /** How often shall a failed invocation data publishing be retried? */
   @NonNull Integer invocationDataPublisherRetryIntervalSeconds;
 
+  /**
+   * How may uploaded publications be compressed? {@value #UPLOAD_COMPRESSION_GZIP} or null.
+   *
+   * <p>Null means that the server cannot decompress uploads. Older servers never send this.
+   */
+  String uploadCompression;
+
   /**
    * Convert a format 2 response back to format 1.
    *
@@ -123,6 +133,7 @@ public class GetConfigResponse2 {
         .invocationDataPublisherName("no-op")
         .invocationDataPublisherIntervalSeconds(60)
         .invocationDataPublisherRetryIntervalSeconds(60)
+        .uploadCompression(UPLOAD_COMPRESSION_GZIP)
         .build();
   }
 }
@@ -52,10 +52,13 @@ public class InvocationDataPublication2 implements Serializable {
   @Min(1_490_000_000_000L)
   private long recordingIntervalStartedAtMillis;
 
+  /** How the invocations were recorded. Null unless the recording mode collects statistics. */
+  private RecordingStatistics2 recordingStatistics;
+
   @Override
   public String toString() {
     return String.format(
-        "InvocationDataPublication{commonData=%1$s, invocations.size=%2$d, recordingIntervalStartedAt=%3$tF:%3$tT%3$tz}",
-        commonData, invocations.size(), recordingIntervalStartedAtMillis);
+        "InvocationDataPublication{commonData=%1$s, invocations.size=%2$d, recordingIntervalStartedAt=%3$tF:%3$tT%3$tz, recordingStatistics=%4$s}",
+        commonData, invocations.size(), recordingIntervalStartedAtMillis, recordingStatistics);
   }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.model.v4;
+
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3;
+import java.io.Serializable;
+import java.util.Collection;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * Output of the CodeBasePublisher implementations when only a part of the code base has changed.
+ *
+ * <p>It contains the difference between the code base identified by {@link
+ * CommonPublicationData2#getCodeBaseFingerprint()} and a base code base that the server has already
+ * received in a {@link io.codekvast.javaagent.model.v3.CodeBasePublication3}.
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+@Setter(AccessLevel.PRIVATE)
+@Builder(toBuilder = true)
+public class CodeBasePublication4 implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  @NonNull private CommonPublicationData2 commonData;
+
+  /** The fingerprint of the code base that this publication is relative to. */
+  @NonNull private String baseCodeBaseFingerprint;
+
+  /** The number of entries in the complete code base. */
+  private int codeBaseSize;
+
+  /** Entries that are new or changed since the base code base. */
+  @NonNull private Collection<CodeBaseEntry3> addedEntries;
+
+  /** Signatures that are no longer present in the code base. */
+  @NonNull private Collection<String> removedSignatures;
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s(commonData=%s, baseCodeBaseFingerprint=%s, codeBaseSize=%d, addedEntries.size=%d, "
+            + "removedSignatures.size=%d)",
+        this.getClass().getSimpleName(),
+        commonData,
+        baseCodeBaseFingerprint,
+        codeBaseSize,
+        addedEntries.size(),
+        removedSignatures.size());
+  }
+}
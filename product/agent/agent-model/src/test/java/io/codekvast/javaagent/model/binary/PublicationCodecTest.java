@@ -0,0 +1,240 @@
+package io.codekvast.javaagent.model.binary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.codekvast.javaagent.model.binary.PublicationCodec.Compression;
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3;
+import io.codekvast.javaagent.model.v3.CodeBasePublication3;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
+import io.codekvast.javaagent.model.v4.CodeBasePublication4;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class PublicationCodecTest {
+
+  private final CommonPublicationData2 commonData =
+      CommonPublicationData2.sampleCommonPublicationData();
+
+  @Test
+  public void should_round_trip_code_base_publication3() throws IOException {
+    List<CodeBaseEntry3> entries = createEntries(100);
+    entries.add(CodeBaseEntry3.sampleCodeBaseEntry());
+    entries.add(CodeBaseEntry3.sampleCodeBaseEntry().toBuilder().methodSignature(null).build());
+    CodeBasePublication3 publication =
+        CodeBasePublication3.builder().commonData(commonData).entries(entries).build();
+
+    for (Compression compression : Compression.values()) {
+      CodeBasePublication3 decoded =
+          (CodeBasePublication3) decode(encode(publication, compression));
+
+      assertThat(decoded, is(publication));
+      assertLocationsAreEqual(decoded.getEntries(), publication.getEntries());
+    }
+  }
+
+  @Test
+  public void should_read_code_base_publication3_entries_in_chunks() throws IOException {
+    List<CodeBaseEntry3> entries = createEntries(5000);
+    CodeBasePublication3 publication =
+        CodeBasePublication3.builder().commonData(commonData).entries(entries).build();
+
+    PublicationCodec.PublicationReader reader =
+        PublicationCodec.open(new ByteArrayInputStream(encode(publication, Compression.GZIP)));
+    assertThat(reader.isCodeBasePublication3(), is(true));
+    assertThat(reader.readCommonData(), is(commonData));
+    assertThat(reader.getRemainingEntries(), is(5000));
+
+    List<CodeBaseEntry3> decoded = new ArrayList<>();
+    int chunks = 0;
+    for (List<CodeBaseEntry3> chunk = reader.readEntries(1000);
+        !chunk.isEmpty();
+        chunk = reader.readEntries(1000)) {
+      assertThat(chunk.size(), is(1000));
+      decoded.addAll(chunk);
+      chunks += 1;
+    }
+
+    assertThat(chunks, is(5));
+    assertThat(decoded, is(entries));
+    assertThat(reader.getRemainingEntries(), is(0));
+  }
+
+  @Test
+  public void should_round_trip_code_base_publication4() throws IOException {
+    CodeBasePublication4 publication =
+        CodeBasePublication4.builder()
+            .commonData(commonData)
+            .baseCodeBaseFingerprint("baseFingerprint")
+            .codeBaseSize(4711)
+            .addedEntries(createEntries(10))
+            .removedSignatures(Arrays.asList("public void sample.Sample.removed()"))
+            .build();
+
+    assertThat(decode(encode(publication, Compression.GZIP)), is(publication));
+  }
+
+  @Test
+  public void should_round_trip_invocation_data_publication2() throws IOException {
+    Set<String> invocations = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      invocations.add("sample.Sample" + i + ".m()");
+    }
+    InvocationDataPublication2 publication =
+        InvocationDataPublication2.builder()
+            .commonData(commonData)
+            .invocations(invocations)
+            .recordingIntervalStartedAtMillis(1509461136162L)
+            .recordingStatistics(
+                RecordingStatistics2.builder()
+                    .recordingMode("ringBuffer")
+                    .queueCapacity(8192)
+                    .maxQueueDepth(17)
+                    .overflowCount(3)
+                    .droppedCount(2)
+                    .drainLatencyMillis(1)
+                    .build())
+            .build();
+
+    assertThat(decode(encode(publication, Compression.NONE)), is(publication));
+    assertThat(
+        decode(encode(publication.toBuilder().recordingStatistics(null).build(), Compression.GZIP)),
+        is(publication.toBuilder().recordingStatistics(null).build()));
+  }
+
+  @Test
+  public void should_be_smaller_than_java_serialization() throws IOException {
+    CodeBasePublication3 publication =
+        CodeBasePublication3.builder().commonData(commonData).entries(createEntries(5000)).build();
+
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+      oos.writeObject(publication);
+    }
+
+    assertThat(encode(publication, Compression.NONE).length, lessThan(serialized.size() / 4));
+    assertThat(encode(publication, Compression.GZIP).length, lessThan(serialized.size() / 10));
+  }
+
+  @Test
+  public void should_recognize_encoded_publications() throws IOException {
+    byte[] encoded =
+        encode(
+            CodeBasePublication3.builder().commonData(commonData).entries(createEntries(1)).build(),
+            Compression.GZIP);
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+      oos.writeObject(commonData);
+    }
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(encoded));
+    assertThat(PublicationCodec.isEncoded(in), is(true));
+    assertThat(PublicationCodec.decode(in).getClass().getSimpleName(), is("CodeBasePublication3"));
+
+    assertThat(
+        PublicationCodec.isEncoded(
+            new BufferedInputStream(new ByteArrayInputStream(serialized.toByteArray()))),
+        is(false));
+  }
+
+  @Test
+  public void should_reject_malformed_input() throws IOException {
+    byte[] encoded =
+        encode(
+            CodeBasePublication3.builder()
+                .commonData(commonData)
+                .entries(createEntries(10))
+                .build(),
+            Compression.NONE);
+
+    byte[] wrongVersion = encoded.clone();
+    wrongVersion[4] = 99;
+    assertThrows(InvalidPublicationException.class, () -> decode(wrongVersion));
+
+    byte[] wrongType = encoded.clone();
+    wrongType[6] = 99;
+    assertThrows(InvalidPublicationException.class, () -> decode(wrongType));
+
+    byte[] truncated = Arrays.copyOf(encoded, encoded.length - 10);
+    assertThrows(InvalidPublicationException.class, () -> decode(truncated));
+
+    assertThrows(InvalidPublicationException.class, () -> decode("CKVX".getBytes()));
+  }
+
+  /** Creates entries the way the agent does, i.e., without sharing string instances. */
+  private List<CodeBaseEntry3> createEntries(int count) {
+    List<CodeBaseEntry3> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String packageName = String.format("com.example.app.module%02d", i % 50);
+      String declaringType = String.format("%s.SomeService%04d", packageName, i / 10);
+      String methodName = "someMethod" + i % 10;
+      String parameterTypes = String.join(", ", "java.lang.String", "int", "java.util.Map");
+      String signature = String.format("%s.%s(%s)", declaringType, methodName, parameterTypes);
+      result.add(
+          CodeBaseEntry3.builder()
+              .signature(signature)
+              .visibility(String.valueOf("public".toCharArray()))
+              .methodSignature(
+                  MethodSignature3.builder()
+                      .aspectjString(signature)
+                      .bridge(false)
+                      .declaringType(declaringType)
+                      .exceptionTypes("")
+                      .methodName(methodName)
+                      .modifiers(String.valueOf("public".toCharArray()))
+                      .packageName(packageName)
+                      .parameterTypes(parameterTypes)
+                      .returnType(String.valueOf("java.lang.String".toCharArray()))
+                      .synthetic(i % 7 == 0 ? null : Boolean.FALSE)
+                      .location(i % 3 == 0 ? null : String.format("app-%d.jar", i % 2))
+                      .build())
+              .build());
+    }
+    return result;
+  }
+
+  private static void assertLocationsAreEqual(
+      Collection<CodeBaseEntry3> actual, Collection<CodeBaseEntry3> expected) {
+    List<CodeBaseEntry3> a = new ArrayList<>(actual);
+    List<CodeBaseEntry3> e = new ArrayList<>(expected);
+    for (int i = 0; i < e.size(); i++) {
+      if (e.get(i).getMethodSignature() == null) {
+        continue;
+      }
+      assertThat(
+          a.get(i).getMethodSignature().getAspectjString(),
+          is(e.get(i).getMethodSignature().getAspectjString()));
+      assertThat(
+          a.get(i).getMethodSignature().getLocation(),
+          is(e.get(i).getMethodSignature().getLocation()));
+      assertThat(
+          a.get(i).getMethodSignature().getSynthetic(),
+          is(e.get(i).getMethodSignature().getSynthetic()));
+    }
+  }
+
+  private static byte[] encode(Object publication, Compression compression) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PublicationCodec.encode(publication, compression, out);
+    return out.toByteArray();
+  }
+
+  private static Object decode(byte[] bytes) throws IOException {
+    return PublicationCodec.decode(new ByteArrayInputStream(bytes));
+  }
+}
@@ -22,13 +22,26 @@
 package io.codekvast.javaagent;
 
 import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import io.codekvast.javaagent.publishing.CodekvastPublishingException;
 import io.codekvast.javaagent.publishing.InvocationDataPublisher;
+import io.codekvast.javaagent.util.AtomicBitSet;
 import io.codekvast.javaagent.util.SignatureUtils;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import lombok.extern.java.Log;
@@ -39,12 +52,36 @@ import org.aspectj.lang.Signature;
  *
  * <p>It holds data about method invocations and methods for publishing the data.
  *
+ * <p>AspectJ creates one Signature object per join point, and Signature has identity semantics. The
+ * receivers that do per join point bookkeeping therefore key it by the Signature object, in a
+ * {@link JoinPointMap}.
+ *
  * @author olle.hallin@crisp.se
  */
 @UtilityClass
 @Log
 public class InvocationRegistry {
 
+  /** The recording mode that uses a background thread for updating a set of signatures. */
+  public static final String RECORDING_MODE_QUEUE = "queue";
+
+  /** The recording mode that uses a lock-free bit set indexed by join point ids. */
+  public static final String RECORDING_MODE_BITSET = "bitset";
+
+  /**
+   * Like {@link #RECORDING_MODE_QUEUE}, but the signature string is computed once per join point.
+   */
+  public static final String RECORDING_MODE_CACHED = "cached";
+
+  /** The recording mode that records each join point only at the first hit in each interval. */
+  public static final String RECORDING_MODE_FIRST_HIT = "first-hit";
+
+  /**
+   * Like {@link #RECORDING_MODE_CACHED}, but with a bounded queue. Overflows are reported in the
+   * publications.
+   */
+  public static final String RECORDING_MODE_RING_BUFFER = "ring-buffer";
+
   private static InvocationReceiver receiver = new NullInvocationReceiver();
 
   /**
@@ -54,7 +91,35 @@ public class InvocationRegistry {
    * @param config The agent configuration. May be null, in which case the registry is disabled.
    */
   public static void initialize(AgentConfig config) {
-    receiver = config == null ? new NullInvocationReceiver() : new RealInvocationReceiver();
+    receiver = config == null ? new NullInvocationReceiver() : createReceiver(config);
+  }
+
+  private static InvocationReceiver createReceiver(AgentConfig config) {
+    String mode = config.getRecordingMode();
+    if (mode == null || mode.equals(RECORDING_MODE_QUEUE)) {
+      return new RealInvocationReceiver();
+    }
+
+    if (mode.equals(RECORDING_MODE_BITSET)) {
+      return new BitSetInvocationReceiver();
+    }
+
+    if (mode.equals(RECORDING_MODE_CACHED)) {
+      return new CachedSignatureInvocationReceiver();
+    }
+
+    if (mode.equals(RECORDING_MODE_FIRST_HIT)) {
+      return new FirstHitInvocationReceiver();
+    }
+
+    if (mode.equals(RECORDING_MODE_RING_BUFFER)) {
+      return new RingBufferInvocationReceiver(config.getRingBufferCapacity());
+    }
+
+    logger.warning(
+        String.format(
+            "Unrecognized recording mode: '%s', will use %s", mode, RECORDING_MODE_QUEUE));
+    return new RealInvocationReceiver();
   }
 
   /**
@@ -123,11 +188,16 @@ public class InvocationRegistry {
     // Toggle between two invocation sets to avoid synchronisation
     private final Set<String>[] invocations;
     // Do all updates to the current set from a single worker thread
-    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> queue;
     private volatile int currentInvocationIndex = 0;
     private long recordingIntervalStartedAtMillis = System.currentTimeMillis();
 
     RealInvocationReceiver() {
+      this(new LinkedBlockingQueue<>());
+    }
+
+    RealInvocationReceiver(BlockingQueue<String> queue) {
+      this.queue = queue;
       //noinspection unchecked
       this.invocations = new Set[] {new HashSet<String>(), new HashSet<String>()};
       startWorker();
@@ -159,20 +229,22 @@ public class InvocationRegistry {
      */
     @Override
     public void registerMethodInvocation(Signature signature) {
-      String sig = SignatureUtils.signatureToString(signature);
+      String sig = toSignatureString(signature);
 
       /*
        HashSet.contains() is thread-safe, so test first before deciding to add, but do the actual update from
        a background worker thread.
       */
       if (!invocations[currentInvocationIndex].contains(sig)) {
-        queue.add(sig);
+        enqueue(sig);
       }
     }
 
     @Override
     public void publishInvocationData(@NonNull InvocationDataPublisher publisher)
         throws CodekvastPublishingException {
+      awaitQueueDrained();
+
       long oldRecordingIntervalStartedAtMillis = recordingIntervalStartedAtMillis;
       int oldIndex = currentInvocationIndex;
 
@@ -183,7 +255,8 @@ public class InvocationRegistry {
         // avoid ConcurrentModificationException.
         Thread.sleep(10L);
 
-        publisher.publishInvocationData(oldRecordingIntervalStartedAtMillis, invocations[oldIndex]);
+        doPublishInvocationData(
+            publisher, oldRecordingIntervalStartedAtMillis, invocations[oldIndex]);
       } catch (InterruptedException ignored) {
         // Do nothing here
         Thread.currentThread().interrupt();
@@ -192,6 +265,30 @@ public class InvocationRegistry {
       }
     }
 
+    String toSignatureString(Signature signature) {
+      return SignatureUtils.signatureToString(signature);
+    }
+
+    void enqueue(String signature) {
+      queue.add(signature);
+    }
+
+    String takeFromQueue() throws InterruptedException {
+      return queue.take();
+    }
+
+    void awaitQueueDrained() {
+      // Queued invocations will be part of a later publication
+    }
+
+    void doPublishInvocationData(
+        InvocationDataPublisher publisher,
+        long recordingIntervalStartedAtMillis,
+        Set<String> invocations)
+        throws CodekvastPublishingException {
+      publisher.publishInvocationData(recordingIntervalStartedAtMillis, invocations);
+    }
+
     private synchronized void toggleInvocationsIndex() {
       recordingIntervalStartedAtMillis = System.currentTimeMillis();
       currentInvocationIndex = currentInvocationIndex == 0 ? 1 : 0;
@@ -202,7 +299,7 @@ public class InvocationRegistry {
       public void run() {
         while (!Thread.currentThread().isInterrupted()) {
           try {
-            invocations[currentInvocationIndex].add(queue.take());
+            invocations[currentInvocationIndex].add(takeFromQueue());
           } catch (InterruptedException e) {
             logger.fine("Interrupted");
             Thread.currentThread().interrupt();
@@ -212,4 +309,386 @@ public class InvocationRegistry {
       }
     }
   }
+
+  /**
+   * An InvocationReceiver that computes the published form of each signature only once.
+   *
+   * <p>The normalized signature without modifiers is cached in a map keyed by the Signature object
+   * (see the class comment), and is handed to the publisher as is.
+   */
+  public static class CachedSignatureInvocationReceiver extends RealInvocationReceiver {
+    private final JoinPointMap<String> signatureCache = new JoinPointMap<>();
+
+    CachedSignatureInvocationReceiver() {}
+
+    CachedSignatureInvocationReceiver(BlockingQueue<String> queue) {
+      super(queue);
+    }
+
+    @Override
+    String toSignatureString(Signature signature) {
+      if (signature == null) {
+        return null;
+      }
+
+      String sig = signatureCache.get(signature);
+      if (sig == null) {
+        sig =
+            SignatureUtils.normalizeAndStripModifiers(SignatureUtils.signatureToString(signature));
+        String previous = signatureCache.putIfAbsent(signature, sig);
+        if (previous != null) {
+          sig = previous;
+        }
+      }
+      return sig;
+    }
+
+    @Override
+    void doPublishInvocationData(
+        InvocationDataPublisher publisher,
+        long recordingIntervalStartedAtMillis,
+        Set<String> invocations)
+        throws CodekvastPublishingException {
+      publisher.publishNormalizedInvocationData(recordingIntervalStartedAtMillis, invocations);
+    }
+  }
+
+  /**
+   * A CachedSignatureInvocationReceiver with a bounded queue.
+   *
+   * <p>The queue is an {@link ArrayBlockingQueue}, i.e., a preallocated ring buffer, so queuing an
+   * invocation allocates nothing. When the queue is full the signature is spilled into a set
+   * instead, where duplicates are dropped. The spilled signatures are published together with the
+   * queued ones.
+   *
+   * <p>Queue depth, overflows, drops and drain latency are counted, and are attached to the next
+   * publication.
+   */
+  public static class RingBufferInvocationReceiver extends CachedSignatureInvocationReceiver {
+    private static final long MAX_DRAIN_WAIT_MILLIS = 1000L;
+
+    private final ArrayBlockingQueue<String> ringBuffer;
+    private final Set<String> spilled = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private long drainLatencyMillis;
+
+    RingBufferInvocationReceiver(int capacity) {
+      this(new ArrayBlockingQueue<>(Math.max(capacity, 1)));
+    }
+
+    private RingBufferInvocationReceiver(ArrayBlockingQueue<String> ringBuffer) {
+      super(ringBuffer);
+      this.ringBuffer = ringBuffer;
+    }
+
+    @Override
+    void enqueue(String signature) {
+      if (!ringBuffer.offer(signature)) {
+        overflowCount.increment();
+        if (!spilled.add(signature)) {
+          droppedCount.increment();
+        }
+      }
+    }
+
+    @Override
+    String takeFromQueue() throws InterruptedException {
+      String signature = super.takeFromQueue();
+      int depth = ringBuffer.size() + 1;
+      if (depth > maxQueueDepth.get()) {
+        maxQueueDepth.set(depth);
+      }
+      return signature;
+    }
+
+    /**
+     * Lets the InvocationsAdder empty the queue, so that it does not lag behind a whole interval.
+     */
+    @Override
+    void awaitQueueDrained() {
+      long startedAt = System.nanoTime();
+      long waitedMillis = 0L;
+      try {
+        while (!ringBuffer.isEmpty() && waitedMillis < MAX_DRAIN_WAIT_MILLIS) {
+          Thread.sleep(1L);
+          waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      drainLatencyMillis = waitedMillis;
+    }
+
+    @Override
+    void doPublishInvocationData(
+        InvocationDataPublisher publisher,
+        long recordingIntervalStartedAtMillis,
+        Set<String> invocations)
+        throws CodekvastPublishingException {
+      for (Iterator<String> iterator = spilled.iterator(); iterator.hasNext(); ) {
+        invocations.add(iterator.next());
+        iterator.remove();
+      }
+
+      publisher.publishNormalizedInvocationData(
+          recordingIntervalStartedAtMillis, invocations, getAndResetStatistics());
+    }
+
+    RecordingStatistics2 getAndResetStatistics() {
+      return RecordingStatistics2.builder()
+          .recordingMode(RECORDING_MODE_RING_BUFFER)
+          .queueCapacity(ringBuffer.size() + ringBuffer.remainingCapacity())
+          .maxQueueDepth(maxQueueDepth.getAndSet(0))
+          .overflowCount(overflowCount.sumThenReset())
+          .droppedCount(droppedCount.sumThenReset())
+          .drainLatencyMillis(drainLatencyMillis)
+          .build();
+    }
+  }
+
+  /**
+   * A lock-free implementation of InvocationReceiver.
+   *
+   * <p>Each join point is given a dense integer id the first time it is executed, and the
+   * invocation is recorded by setting the bit with that id in a bit set. The published form of the
+   * signature is computed only once per join point.
+   *
+   * <p>After the first execution of a join point, registering an invocation does no string
+   * building, no allocation and no locking.
+   */
+  public static class BitSetInvocationReceiver implements InvocationReceiver {
+    // Keyed by join point, see the class comment
+    private final JoinPointMap<Integer> joinPointIds = new JoinPointMap<>();
+    // Indexed by join point id. The ids of collected join points are not reused.
+    private final List<String> signatures = new ArrayList<>();
+    private final Object lock = new Object();
+    private volatile AtomicBitSet currentInvocations = new AtomicBitSet();
+    private AtomicBitSet spareInvocations = new AtomicBitSet();
+    private long recordingIntervalStartedAtMillis = System.currentTimeMillis();
+
+    BitSetInvocationReceiver() {}
+
+    @Override
+    @SuppressWarnings("MethodReturnAlwaysConstant")
+    public boolean isNullRegistry() {
+      return false;
+    }
+
+    /**
+     * Record this method invocation in the current recording interval.
+     *
+     * <p>Thread-safe.
+     *
+     * @param signature The captured method invocation signature.
+     */
+    @Override
+    public void registerMethodInvocation(Signature signature) {
+      if (signature != null) {
+        Integer id = joinPointIds.get(signature);
+        currentInvocations.set(id != null ? id : assignJoinPointId(signature));
+      }
+    }
+
+    private int assignJoinPointId(Signature signature) {
+      synchronized (lock) {
+        Integer id = joinPointIds.get(signature);
+        if (id == null) {
+          id = signatures.size();
+          signatures.add(
+              SignatureUtils.normalizeAndStripModifiers(
+                  SignatureUtils.signatureToString(signature)));
+
+          // Both bit sets must be able to hold the id before other threads can see it.
+          currentInvocations.ensureCapacity(id + 1);
+          spareInvocations.ensureCapacity(id + 1);
+          joinPointIds.put(signature, id);
+        }
+        return id;
+      }
+    }
+
+    /**
+     * Publishes the invocations recorded since the previous publishing.
+     *
+     * <p>New invocations are recorded in a fresh bit set while the old one is drained. Invocations
+     * that are recorded in the old bit set while it is being drained are not lost, they will be
+     * part of a later publication.
+     *
+     * @param publisher The publisher to hand the recorded invocations to.
+     * @throws CodekvastPublishingException if the publisher fails.
+     */
+    @Override
+    public void publishInvocationData(@NonNull InvocationDataPublisher publisher)
+        throws CodekvastPublishingException {
+      long oldRecordingIntervalStartedAtMillis;
+      Set<String> invocations = new HashSet<>();
+
+      synchronized (lock) {
+        oldRecordingIntervalStartedAtMillis = recordingIntervalStartedAtMillis;
+        recordingIntervalStartedAtMillis = System.currentTimeMillis();
+
+        AtomicBitSet oldInvocations = currentInvocations;
+        currentInvocations = spareInvocations;
+        spareInvocations = oldInvocations;
+
+        oldInvocations.drainTo(id -> invocations.add(signatures.get(id)));
+      }
+
+      publisher.publishNormalizedInvocationData(oldRecordingIntervalStartedAtMillis, invocations);
+    }
+  }
+
+  /**
+   * An InvocationReceiver that only records the first hit of each join point in each recording
+   * interval.
+   *
+   * <p>Each join point has a flag telling in which recording interval it was last recorded. Every
+   * hit looks up the flag in a {@link JoinPointMap} and compares it with the current interval,
+   * which costs a map lookup and a volatile read. Only the first hit in an interval also queues the
+   * join point. The flag cannot be a static field of the woven class, since the aspect is woven
+   * through aop.xml and cannot add fields.
+   *
+   * <p>Toggling the recording interval resets all flags at once, since they then refer to an old
+   * interval.
+   */
+  public static class FirstHitInvocationReceiver implements InvocationReceiver {
+    // Keyed by join point, see the class comment
+    private final JoinPointMap<JoinPointState> joinPoints = new JoinPointMap<>();
+    // The join points that were hit in even and odd recording intervals
+    private final ConcurrentLinkedQueue<JoinPointState> recordedInEvenInterval =
+        new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<JoinPointState> recordedInOddInterval =
+        new ConcurrentLinkedQueue<>();
+
+    private volatile int currentInterval = 0;
+    private long recordingIntervalStartedAtMillis = System.currentTimeMillis();
+
+    FirstHitInvocationReceiver() {}
+
+    @Override
+    @SuppressWarnings("MethodReturnAlwaysConstant")
+    public boolean isNullRegistry() {
+      return false;
+    }
+
+    /**
+     * Record this method invocation in the current recording interval, unless already done.
+     *
+     * <p>Thread-safe.
+     *
+     * @param signature The captured method invocation signature.
+     */
+    @Override
+    public void registerMethodInvocation(Signature signature) {
+      if (signature != null) {
+        JoinPointState joinPoint = joinPoints.get(signature);
+        if (joinPoint == null) {
+          joinPoint =
+              joinPoints.computeIfAbsent(
+                  signature,
+                  s ->
+                      new JoinPointState(
+                          SignatureUtils.normalizeAndStripModifiers(
+                              SignatureUtils.signatureToString(s))));
+        }
+
+        int interval = currentInterval;
+        if (joinPoint.recordedInInterval != interval) {
+          // A race here just makes the join point appear twice in the queue.
+          joinPoint.recordedInInterval = interval;
+          getRecorded(interval).add(joinPoint);
+        }
+      }
+    }
+
+    /**
+     * Publishes the invocations recorded since the previous publishing.
+     *
+     * <p>Join points that are recorded in the old interval while it is being drained are not lost,
+     * they will be part of a later publication.
+     *
+     * @param publisher The publisher to hand the recorded invocations to.
+     * @throws CodekvastPublishingException if the publisher fails.
+     */
+    @Override
+    public void publishInvocationData(@NonNull InvocationDataPublisher publisher)
+        throws CodekvastPublishingException {
+      long oldRecordingIntervalStartedAtMillis;
+      Set<String> invocations = new HashSet<>();
+
+      synchronized (this) {
+        oldRecordingIntervalStartedAtMillis = recordingIntervalStartedAtMillis;
+        recordingIntervalStartedAtMillis = System.currentTimeMillis();
+
+        int oldInterval = currentInterval;
+        currentInterval = oldInterval + 1;
+
+        ConcurrentLinkedQueue<JoinPointState> queue = getRecorded(oldInterval);
+        JoinPointState joinPoint;
+        while ((joinPoint = queue.poll()) != null) {
+          invocations.add(joinPoint.signature);
+        }
+      }
+
+      publisher.publishNormalizedInvocationData(oldRecordingIntervalStartedAtMillis, invocations);
+    }
+
+    private ConcurrentLinkedQueue<JoinPointState> getRecorded(int interval) {
+      return (interval & 1) == 0 ? recordedInEvenInterval : recordedInOddInterval;
+    }
+
+    private static class JoinPointState {
+      private final String signature;
+      private int recordedInInterval = -1;
+
+      JoinPointState(String signature) {
+        this.signature = signature;
+      }
+    }
+  }
+
+  /**
+   * A map keyed by join point, that does not keep the classes of the join points alive.
+   *
+   * <p>A Signature references its declaring class, and thereby the class loader of the application.
+   * The entries are therefore held by a {@link ClassValue} of the declaring class, i.e., by the
+   * class itself. When a web application is undeployed from a container, its classes and their
+   * entries can be collected together.
+   *
+   * @param <V> The type of the values.
+   */
+  static class JoinPointMap<V> {
+    private final ClassValue<ConcurrentMap<Signature, V>> entries =
+        new ClassValue<ConcurrentMap<Signature, V>>() {
+          @Override
+          protected ConcurrentMap<Signature, V> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+          }
+        };
+
+    V get(Signature signature) {
+      return entriesOf(signature).get(signature);
+    }
+
+    void put(Signature signature, V value) {
+      entriesOf(signature).put(signature, value);
+    }
+
+    V putIfAbsent(Signature signature, V value) {
+      return entriesOf(signature).putIfAbsent(signature, value);
+    }
+
+    V computeIfAbsent(Signature signature, Function<Signature, V> mappingFunction) {
+      return entriesOf(signature).computeIfAbsent(signature, mappingFunction);
+    }
+
+    private ConcurrentMap<Signature, V> entriesOf(Signature signature) {
+      // The declaring type is null only if AspectJ could not load it. Such join points are rare,
+      // and are kept as long as the map.
+      Class<?> type = signature.getDeclaringType();
+      return entries.get(type != null ? type : Object.class);
+    }
+  }
 }
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.codebase;
+
+import io.codekvast.javaagent.CodekvastThreadFactory;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
+import io.codekvast.javaagent.util.SignatureUtils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+/**
+ * A CodeBaseScanner that parses the class files instead of loading the classes.
+ *
+ * <p>No class is loaded, so no static initializers are executed and no metaspace is consumed.
+ * Classes with unresolvable dependencies are analyzed as well.
+ *
+ * <p>The jar files and class directories are scanned in parallel by a bounded thread pool. The
+ * results are merged in class path order, so that the first occurrence of a class wins, just like
+ * with a class loader.
+ *
+ * <p>The result of each jar file and class directory is cached on disk by {@link ScanCache}, so
+ * only the changed ones are parsed when the code base changes.
+ *
+ * <p>A Spring Boot executable jar is scanned in place. The nested jars are streamed straight out of
+ * the executable jar, so nothing is written to disk.
+ *
+ * <p>The produced signatures are identical to those produced by the reflective {@link
+ * CodeBaseScanner}.
+ */
+@Log
+public class BytecodeCodeBaseScanner extends CodeBaseScanner {
+  private static final int MAX_THREADS = 4;
+  private static final String CLASS_FILE_SUFFIX = ".class";
+
+  BytecodeCodeBaseScanner() {}
+
+  /**
+   * Scans the code base for methods in the correct packages. The result is stored in the code base.
+   *
+   * @param codeBase The code base to scan.
+   * @return The number of scanned classes in the included packages.
+   */
+  @Override
+  public int scanSignatures(CodeBase codeBase) {
+    long startedAt = System.currentTimeMillis();
+    logger.log(finest, "Scanning " + codeBase);
+
+    List<String> packages = codeBase.getConfig().getNormalizedPackages();
+    Set<String> scanned = new HashSet<>();
+    ScanCache scanCache = ScanCache.create(codeBase.getConfig());
+
+    JarFile springBootExecutableJar = getSpringBootExecutableJar(codeBase);
+    try {
+      List<ScanRoot> scanRoots =
+          springBootExecutableJar != null
+              ? getSpringBootScanRoots(springBootExecutableJar)
+              : getClassPathScanRoots(codeBase.getUrls());
+
+      int numThreads = Math.max(1, Math.min(scanRoots.size(), MAX_THREADS));
+      ExecutorService executor =
+          Executors.newFixedThreadPool(
+              numThreads, CodekvastThreadFactory.builder().name("scanner").build());
+      try {
+        List<Future<List<ScannedClass>>> futures = new ArrayList<>();
+        for (ScanRoot scanRoot : scanRoots) {
+          futures.add(executor.submit(() -> scan(scanRoot, packages, scanCache)));
+        }
+
+        for (int i = 0; i < scanRoots.size(); i++) {
+          for (ScannedClass scannedClass : getScannedClasses(scanRoots.get(i), futures.get(i))) {
+            if (scanned.add(scannedClass.getResourceName())) {
+              scannedClass.getSignatures().forEach(codeBase::addSignature);
+            } else {
+              logger.log(finest, "Ignoring duplicate " + scannedClass.getResourceName());
+            }
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    } finally {
+      close(springBootExecutableJar);
+    }
+
+    if (scanCache != null) {
+      scanCache.prune();
+      logger.fine(
+          String.format(
+              "Scan cache: %d hits, %d misses", scanCache.getNumHits(), scanCache.getNumMisses()));
+    }
+
+    int result = scanned.size();
+    logScanResult(codeBase, startedAt, result);
+    return result;
+  }
+
+  private List<ScanRoot> getClassPathScanRoots(URL[] urls) {
+    List<ScanRoot> result = new ArrayList<>();
+    for (URL url : urls) {
+      result.add(
+          new ScanRoot(
+              url.toString(),
+              SignatureUtils.makeLocation(url),
+              md -> updateWithClassPathRoot(md, toFile(url)),
+              packages -> scanRoot(url, packages)));
+    }
+    return result;
+  }
+
+  private static void updateWithClassPathRoot(MessageDigest md, File file) {
+    if (file.isDirectory()) {
+      ScanCache.update(md, file.getAbsolutePath());
+      ScanCache.updateWithDirectory(md, file, "");
+    } else {
+      ScanCache.updateWithFile(md, file);
+    }
+  }
+
+  /**
+   * Finds the classes directory and the nested jars of a Spring Boot executable jar, in the same
+   * order as the exploding {@link CodeBaseScanner#getScanRoots(CodeBase)}.
+   *
+   * <p>Nothing is extracted. The nested entries are read in place from the shared JarFile, which is
+   * safe to use from several threads.
+   */
+  private List<ScanRoot> getSpringBootScanRoots(JarFile jarFile) {
+    List<ScanRoot> result = new ArrayList<>();
+    try {
+      String classesDir = getSpringBootClassesDir(jarFile);
+      String libDir = getSpringBootLibDir(jarFile);
+      String jarUrl = "jar:" + new File(jarFile.getName()).toURI() + "!/";
+
+      Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (name.equals(classesDir)) {
+          String location = SignatureUtils.makeLocation(new URL(jarUrl + name));
+          result.add(
+              new ScanRoot(
+                  name,
+                  location,
+                  md -> updateWithNestedClasses(md, jarFile, classesDir),
+                  packages -> scanNestedClasses(jarFile, classesDir, packages, location)));
+        } else if (name.startsWith(libDir) && name.endsWith(".jar")) {
+          String location = SignatureUtils.makeLocation(new URL(jarUrl + name));
+          result.add(
+              new ScanRoot(
+                  name,
+                  location,
+                  md -> updateWithEntry(md, entry),
+                  packages -> scanNestedJar(jarFile, entry, packages, location)));
+        }
+      }
+    } catch (IOException e) {
+      logger.severe("Cannot read " + jarFile.getName() + ": " + e);
+    }
+    return result;
+  }
+
+  // The central directory holds the CRC of each entry, so a rebuilt executable jar only misses
+  // the cache for the nested jars that actually changed.
+  private static void updateWithNestedClasses(
+      MessageDigest md, JarFile jarFile, String classesDir) {
+    Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements()) {
+      JarEntry entry = entries.nextElement();
+      if (entry.getName().startsWith(classesDir)) {
+        updateWithEntry(md, entry);
+      }
+    }
+  }
+
+  private static void updateWithEntry(MessageDigest md, JarEntry entry) {
+    ScanCache.update(md, entry.getName());
+    ScanCache.update(md, entry.getSize() + ":" + entry.getCrc());
+  }
+
+  private List<ScannedClass> scan(ScanRoot scanRoot, List<String> packages, ScanCache scanCache)
+      throws IOException {
+    if (scanCache == null) {
+      return scanRoot.scan(packages);
+    }
+
+    String key = scanCache.makeKey(packages, scanRoot.getLocation(), scanRoot.getKeyMaker());
+    List<ScannedClass> result = scanCache.get(key);
+    if (result == null) {
+      result = scanRoot.scan(packages);
+      scanCache.put(key, result);
+    } else {
+      logger.log(finest, "Using cached scan result for " + scanRoot.getName());
+    }
+    return result;
+  }
+
+  private List<ScannedClass> getScannedClasses(
+      ScanRoot scanRoot, Future<List<ScannedClass>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.log(Level.WARNING, "Cannot scan " + scanRoot.getName(), e.getCause());
+    }
+    return new ArrayList<>();
+  }
+
+  private List<ScannedClass> scanRoot(URL url, List<String> packages) throws IOException {
+    List<ScannedClass> result = new ArrayList<>();
+    String location = SignatureUtils.makeLocation(url);
+    File file = toFile(url);
+
+    if (file.isDirectory()) {
+      scanDirectory(file, "", packages, location, result);
+    } else if (file.isFile()) {
+      try (JarFile jarFile = new JarFile(file)) {
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          String resourceName = entry.getName();
+          if (!entry.isDirectory() && isIncluded(resourceName, packages)) {
+            try (InputStream inputStream = jarFile.getInputStream(entry)) {
+              result.add(scanClass(resourceName, readAllBytes(inputStream), location));
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private List<ScannedClass> scanNestedClasses(
+      JarFile jarFile, String classesDir, List<String> packages, String location)
+      throws IOException {
+    List<ScannedClass> result = new ArrayList<>();
+    Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements()) {
+      JarEntry entry = entries.nextElement();
+      String name = entry.getName();
+      if (!entry.isDirectory() && name.startsWith(classesDir)) {
+        String resourceName = name.substring(classesDir.length());
+        if (isIncluded(resourceName, packages)) {
+          try (InputStream inputStream = jarFile.getInputStream(entry)) {
+            result.add(scanClass(resourceName, readAllBytes(inputStream), location));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private List<ScannedClass> scanNestedJar(
+      JarFile jarFile, JarEntry nestedJar, List<String> packages, String location)
+      throws IOException {
+    List<ScannedClass> result = new ArrayList<>();
+    try (ZipInputStream zipInputStream =
+        new ZipInputStream(new BufferedInputStream(jarFile.getInputStream(nestedJar)))) {
+      ZipEntry entry;
+      while ((entry = zipInputStream.getNextEntry()) != null) {
+        String resourceName = entry.getName();
+        if (!entry.isDirectory() && isIncluded(resourceName, packages)) {
+          // Reads the current entry only
+          result.add(scanClass(resourceName, readAllBytes(zipInputStream), location));
+        }
+      }
+    }
+    return result;
+  }
+
+  private void scanDirectory(
+      File dir, String prefix, List<String> packages, String location, List<ScannedClass> result)
+      throws IOException {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String resourceName = prefix + file.getName();
+        if (file.isDirectory()) {
+          scanDirectory(file, resourceName + "/", packages, location, result);
+        } else if (isIncluded(resourceName, packages)) {
+          result.add(scanClass(resourceName, Files.readAllBytes(file.toPath()), location));
+        }
+      }
+    }
+  }
+
+  private boolean isIncluded(String resourceName, List<String> packages) {
+    if (!resourceName.endsWith(CLASS_FILE_SUFFIX)) {
+      return false;
+    }
+    String packageName = getPackageName(getClassName(resourceName));
+    for (String aPackage : packages) {
+      if (packageName.startsWith(aPackage)) {
+        return true;
+      }
+    }
+    logger.log(finest, "Ignored " + resourceName);
+    return false;
+  }
+
+  private ScannedClass scanClass(String resourceName, byte[] bytes, String location) {
+    String className = getClassName(resourceName);
+    List<MethodSignature3> signatures = new ArrayList<>();
+    try {
+      ClassFileReader.ClassFile classFile = ClassFileReader.read(bytes);
+      if (!classFile.getClassName().equals(className)) {
+        // A class loader would refuse to load it
+        logger.log(
+            finest, "Ignoring " + resourceName + ", it contains " + classFile.getClassName());
+      } else {
+        String packageName = getPackageName(className);
+        for (ClassFileReader.MethodInfo method : classFile.getMethods()) {
+          if (!method.getName().equals("<clinit>")) {
+            MethodSignature3 signature =
+                SignatureUtils.makeMethodSignature(
+                    className,
+                    packageName,
+                    method.getModifiers(),
+                    method.getName(),
+                    method.getParameterTypes(),
+                    method.getExceptionTypes(),
+                    method.getReturnType(),
+                    location);
+            if (signature != null) {
+              signatures.add(signature);
+            }
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot analyze " + resourceName, e);
+    }
+    return new ScannedClass(resourceName, signatures);
+  }
+
+  private static String getClassName(String resourceName) {
+    return resourceName
+        .substring(0, resourceName.length() - CLASS_FILE_SUFFIX.length())
+        .replace('/', '.');
+  }
+
+  private static String getPackageName(String className) {
+    int pos = className.lastIndexOf('.');
+    return pos < 0 ? "" : className.substring(0, pos);
+  }
+
+  private static File toFile(URL url) {
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      // E.g., an unescaped path containing spaces
+      return new File(url.getPath());
+    }
+  }
+
+  private static byte[] readAllBytes(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int len;
+    while ((len = inputStream.read(buffer)) > 0) {
+      outputStream.write(buffer, 0, len);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static void close(JarFile jarFile) {
+    if (jarFile != null) {
+      try {
+        jarFile.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Cannot close " + jarFile.getName(), e);
+      }
+    }
+  }
+
+  private interface RootScanner {
+    List<ScannedClass> scan(List<String> packages) throws IOException;
+  }
+
+  @Value
+  private static class ScanRoot {
+    String name;
+    String location;
+    ScanCache.KeyMaker keyMaker;
+    RootScanner scanner;
+
+    List<ScannedClass> scan(List<String> packages) throws IOException {
+      return scanner.scan(packages);
+    }
+  }
+
+  @Value
+  static class ScannedClass {
+    String resourceName;
+    List<MethodSignature3> signatures;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.codebase;
+
+import io.codekvast.javaagent.util.SignatureUtils;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * A minimal reader of class files, that extracts the methods and constructors of a class without
+ * loading it.
+ *
+ * <p>Only the constant pool and the method table are parsed. Everything else is skipped.
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class file
+ *     format</a>
+ */
+final class ClassFileReader {
+  private static final int MAGIC = 0xCAFEBABE;
+
+  // The access flags that are reported by java.lang.reflect.Method.getModifiers()
+  private static final int RECOGNIZED_METHOD_MODIFIERS = 0x1DFF;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  private final byte[] bytes;
+  private final ByteBuffer buffer;
+  private int[] constantPoolOffsets;
+
+  private ClassFileReader(byte[] bytes) {
+    this.bytes = bytes;
+    this.buffer = ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * Parses a class file.
+   *
+   * @param bytes The contents of the class file.
+   * @return The parsed class file.
+   * @throws IOException if the bytes do not contain a valid class file.
+   */
+  static ClassFile read(byte[] bytes) throws IOException {
+    try {
+      return new ClassFileReader(bytes).readClassFile();
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Truncated or malformed class file", e);
+    }
+  }
+
+  private ClassFile readClassFile() throws IOException {
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    skip(4); // minor_version, major_version
+
+    readConstantPool();
+
+    skip(2); // access_flags
+    String className = getClassName(readU2());
+    skip(2); // super_class
+    skip(2 * readU2()); // interfaces
+
+    int fieldsCount = readU2();
+    for (int i = 0; i < fieldsCount; i++) {
+      skip(6); // access_flags, name_index, descriptor_index
+      skipAttributes();
+    }
+
+    int methodsCount = readU2();
+    List<MethodInfo> methods = new ArrayList<>(methodsCount);
+    for (int i = 0; i < methodsCount; i++) {
+      methods.add(readMethod());
+    }
+
+    return new ClassFile(className, methods);
+  }
+
+  private void readConstantPool() throws IOException {
+    int count = readU2();
+    constantPoolOffsets = new int[count];
+    for (int i = 1; i < count; i++) {
+      int tag = buffer.get();
+      constantPoolOffsets[i] = buffer.position();
+      switch (tag) {
+        case CONSTANT_UTF8:
+          skip(readU2());
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          skip(8);
+          i += 1; // Occupies two entries
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACE_METHODREF:
+        case CONSTANT_NAME_AND_TYPE:
+        case CONSTANT_DYNAMIC:
+        case CONSTANT_INVOKE_DYNAMIC:
+          skip(4);
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          skip(3);
+          break;
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+        case CONSTANT_MODULE:
+        case CONSTANT_PACKAGE:
+          skip(2);
+          break;
+        default:
+          throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+      }
+    }
+  }
+
+  private MethodInfo readMethod() throws IOException {
+    int accessFlags = readU2() & RECOGNIZED_METHOD_MODIFIERS;
+    String name = getUtf8(readU2());
+    String descriptor = getUtf8(readU2());
+
+    List<String> exceptionTypes = Collections.emptyList();
+    int attributesCount = readU2();
+    for (int i = 0; i < attributesCount; i++) {
+      String attributeName = getUtf8(readU2());
+      int length = buffer.getInt();
+      if (attributeName.equals("Exceptions")) {
+        int numExceptions = readU2();
+        exceptionTypes = new ArrayList<>(numExceptions);
+        for (int j = 0; j < numExceptions; j++) {
+          exceptionTypes.add(getClassName(readU2()));
+        }
+      } else {
+        skip(length);
+      }
+    }
+
+    List<String> parameterTypes = new ArrayList<>();
+    int pos = 1; // Skip the '('
+    while (descriptor.charAt(pos) != ')') {
+      int end = endOfFieldDescriptor(descriptor, pos);
+      parameterTypes.add(toTypeName(descriptor.substring(pos, end)));
+      pos = end;
+    }
+    String returnType = toTypeName(descriptor.substring(pos + 1));
+
+    return new MethodInfo(accessFlags, name, parameterTypes, exceptionTypes, returnType);
+  }
+
+  private void skipAttributes() {
+    int attributesCount = readU2();
+    for (int i = 0; i < attributesCount; i++) {
+      skip(2); // attribute_name_index
+      skip(buffer.getInt());
+    }
+  }
+
+  private String getClassName(int classIndex) throws IOException {
+    int nameIndex = buffer.getShort(constantPoolOffsets[classIndex]) & 0xFFFF;
+    return getUtf8(nameIndex).replace('/', '.');
+  }
+
+  /** Decodes a constant pool entry in modified UTF-8. */
+  private String getUtf8(int index) throws IOException {
+    int offset = constantPoolOffsets[index];
+    if (offset == 0) {
+      throw new IOException("Invalid constant pool index " + index);
+    }
+    int length = buffer.getShort(offset) & 0xFFFF;
+    char[] chars = new char[length];
+    int numChars = 0;
+    int pos = offset + 2;
+    int end = pos + length;
+    while (pos < end) {
+      int b = bytes[pos++] & 0xFF;
+      if (b < 0x80) {
+        chars[numChars++] = (char) b;
+      } else if ((b & 0xE0) == 0xC0) {
+        chars[numChars++] = (char) (((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+      } else {
+        chars[numChars++] =
+            (char) (((b & 0x0F) << 12) | ((bytes[pos++] & 0x3F) << 6) | (bytes[pos++] & 0x3F));
+      }
+    }
+    return new String(chars, 0, numChars);
+  }
+
+  private int readU2() {
+    return buffer.getShort() & 0xFFFF;
+  }
+
+  private void skip(int numBytes) {
+    buffer.position(buffer.position() + numBytes);
+  }
+
+  private static int endOfFieldDescriptor(String descriptor, int start) {
+    int pos = start;
+    while (descriptor.charAt(pos) == '[') {
+      pos += 1;
+    }
+    if (descriptor.charAt(pos) == 'L') {
+      pos = descriptor.indexOf(';', pos);
+    }
+    return pos + 1;
+  }
+
+  /** Converts a field descriptor to a type name in the form returned by {@link Class#getName()}. */
+  private static String toTypeName(String fieldDescriptor) {
+    char first = fieldDescriptor.charAt(0);
+    if (first == '[') {
+      return fieldDescriptor.replace('/', '.');
+    }
+    if (first == 'L') {
+      return fieldDescriptor.substring(1, fieldDescriptor.length() - 1).replace('/', '.');
+    }
+    return SignatureUtils.primitiveTypeName(first);
+  }
+
+  /** The parts of a class file that are needed for making method signatures. */
+  @Value
+  static class ClassFile {
+    /** The binary name, in the form returned by {@link Class#getName()}. */
+    String className;
+
+    List<MethodInfo> methods;
+  }
+
+  /** A method or a constructor in a class file. */
+  @Value
+  static class MethodInfo {
+    /**
+     * The access flags, in the form returned by {@link java.lang.reflect.Method#getModifiers()}.
+     */
+    int modifiers;
+
+    /** The method name. Constructors are named &lt;init&gt;, static initializers &lt;clinit&gt;. */
+    String name;
+
+    List<String> parameterTypes;
+    List<String> exceptionTypes;
+    String returnType;
+  }
+}
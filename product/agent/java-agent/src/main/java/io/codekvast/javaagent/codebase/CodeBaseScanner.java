@@ -23,6 +23,7 @@ package io.codekvast.javaagent.codebase;
 
 import com.google.common.io.Files;
 import com.google.common.reflect.ClassPath;
+import io.codekvast.javaagent.config.AgentConfig;
 import io.codekvast.javaagent.model.v3.MethodSignature3;
 import io.codekvast.javaagent.util.SignatureUtils;
 import java.io.BufferedInputStream;
@@ -58,7 +59,35 @@ import lombok.extern.java.Log;
 @Log
 public class CodeBaseScanner {
 
-  private final Level finest = getFinestLevel();
+  /** The scanner that loads the classes and uses reflection for finding the methods. */
+  public static final String SCANNER_REFLECTION = "reflection";
+
+  /** The scanner that parses the class files without loading them. */
+  public static final String SCANNER_BYTECODE = "bytecode";
+
+  final Level finest = getFinestLevel();
+
+  /**
+   * Creates the code base scanner to use.
+   *
+   * @param config The agent configuration.
+   * @return The scanner selected by {@link AgentConfig#getCodeBaseScanner()}.
+   */
+  public static CodeBaseScanner create(AgentConfig config) {
+    String scanner = config.getCodeBaseScanner();
+    if (scanner == null || scanner.equals(SCANNER_BYTECODE)) {
+      return new BytecodeCodeBaseScanner();
+    }
+
+    if (scanner.equals(SCANNER_REFLECTION)) {
+      return new CodeBaseScanner();
+    }
+
+    logger.warning(
+        String.format(
+            "Unrecognized code base scanner: '%s', will use %s", scanner, SCANNER_BYTECODE));
+    return new BytecodeCodeBaseScanner();
+  }
 
   private Level getFinestLevel() {
     String name = System.getenv("CODEKVAST_FINEST_LEVEL");
@@ -98,6 +127,12 @@ public class CodeBaseScanner {
       }
     }
 
+    int result = scanned.size();
+    logScanResult(codeBase, startedAt, result);
+    return result;
+  }
+
+  void logScanResult(CodeBase codeBase, long startedAt, int numClasses) {
     if (codeBase.isEmpty()) {
       logger.warning(
           String.format(
@@ -105,8 +140,6 @@ public class CodeBaseScanner {
               codeBase, codeBase.getConfig().getNormalizedPackages()));
     }
 
-    int result = scanned.size();
-
     logger.info(
         String.format(
             "Scanned %s with package prefix %s in %d ms, found %d methods in %d classes.",
@@ -114,30 +147,45 @@ public class CodeBaseScanner {
             codeBase.getConfig().getNormalizedPackages(),
             System.currentTimeMillis() - startedAt,
             codeBase.size(),
-            result));
-
-    return result;
+            numClasses));
   }
 
   private ScanResult scanCodeBase(CodeBase codeBase) {
-    File explodedDir = null;
-    URLClassLoader classLoader;
-    JarFile springBootExecutableJar = getSpringBootExecutableJar(codeBase);
-    if (springBootExecutableJar != null) {
-      explodedDir = Files.createTempDir();
-      URL[] urls = explodeSpringBootExecutableJar(springBootExecutableJar, explodedDir);
-      classLoader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader());
-    } else {
-      classLoader = new URLClassLoader(codeBase.getUrls(), ClassLoader.getSystemClassLoader());
-    }
+    ScanRoots scanRoots = getScanRoots(codeBase);
+    URLClassLoader classLoader =
+        new URLClassLoader(scanRoots.getUrls(), ClassLoader.getSystemClassLoader());
 
     return ScanResult.builder()
-        .explodedDir(explodedDir)
+        .explodedDir(scanRoots.getExplodedDir())
         .classInfos(getRecognizedClasses(classLoader, codeBase.getConfig().getNormalizedPackages()))
         .build();
   }
 
-  private JarFile getSpringBootExecutableJar(CodeBase codeBase) {
+  /**
+   * Finds the class directories and jar files to scan.
+   *
+   * <p>A Spring Boot executable jar is exploded into a temporary directory, which is deleted when
+   * the result is closed. The class loader needs real files; {@link BytecodeCodeBaseScanner} reads
+   * the nested jars in place instead.
+   */
+  ScanRoots getScanRoots(CodeBase codeBase) {
+    JarFile springBootExecutableJar = getSpringBootExecutableJar(codeBase);
+    if (springBootExecutableJar != null) {
+      File explodedDir = Files.createTempDir();
+      URL[] urls = explodeSpringBootExecutableJar(springBootExecutableJar, explodedDir);
+      return new ScanRoots(urls, explodedDir);
+    }
+    return new ScanRoots(codeBase.getUrls(), null);
+  }
+
+  /**
+   * Opens the code base as a Spring Boot executable jar.
+   *
+   * @param codeBase The code base.
+   * @return An open JarFile that the caller must close, or null if the code base is not a Spring
+   *     Boot executable jar.
+   */
+  JarFile getSpringBootExecutableJar(CodeBase codeBase) {
     if (codeBase.getUrls().length != 1) {
       return null;
     }
@@ -161,17 +209,8 @@ public class CodeBaseScanner {
     List<URL> result = new ArrayList<>();
 
     try {
-      Attributes attributes = jarFile.getManifest().getMainAttributes();
-      String classesDir = attributes.getValue("Spring-Boot-Classes");
-      if (classesDir == null) {
-        // Later versions of Spring Boot lacks this attribute
-        classesDir = "BOOT-INF/classes/";
-      }
-      String libDir = attributes.getValue("Spring-Boot-Lib");
-      if (libDir == null) {
-        // Later versions of Spring Boot lacks this attribute
-        libDir = "BOOT-INF/lib/";
-      }
+      String classesDir = getSpringBootClassesDir(jarFile);
+      String libDir = getSpringBootLibDir(jarFile);
 
       Enumeration<JarEntry> jarEntries = jarFile.entries();
       while (jarEntries.hasMoreElements()) {
@@ -216,6 +255,18 @@ public class CodeBaseScanner {
     return result.toArray(new URL[result.size()]);
   }
 
+  static String getSpringBootClassesDir(JarFile jarFile) throws IOException {
+    String classesDir = jarFile.getManifest().getMainAttributes().getValue("Spring-Boot-Classes");
+    // Later versions of Spring Boot lacks this attribute
+    return classesDir == null ? "BOOT-INF/classes/" : classesDir;
+  }
+
+  static String getSpringBootLibDir(JarFile jarFile) throws IOException {
+    String libDir = jarFile.getManifest().getMainAttributes().getValue("Spring-Boot-Lib");
+    // Later versions of Spring Boot lacks this attribute
+    return libDir == null ? "BOOT-INF/lib/" : libDir;
+  }
+
   private void copy(InputStream inputStream, File toFile) throws IOException {
     try (InputStream is = new BufferedInputStream(inputStream);
         OutputStream os = new BufferedOutputStream(new FileOutputStream(toFile))) {
@@ -304,6 +355,17 @@ public class CodeBaseScanner {
     }
   }
 
+  private static void delete(File file) {
+    if (file != null) {
+      if (file.isDirectory()) {
+        for (File f : file.listFiles()) {
+          delete(f);
+        }
+      }
+      file.delete();
+    }
+  }
+
   @Value
   @Builder
   static class ScanResult implements AutoCloseable {
@@ -315,16 +377,16 @@ public class CodeBaseScanner {
       classInfos.clear();
       delete(explodedDir);
     }
+  }
 
-    private void delete(File file) {
-      if (file != null) {
-        if (file.isDirectory()) {
-          for (File f : file.listFiles()) {
-            delete(f);
-          }
-        }
-        file.delete();
-      }
+  @Value
+  static class ScanRoots implements AutoCloseable {
+    private final URL[] urls;
+    private final File explodedDir;
+
+    @Override
+    public void close() {
+      delete(explodedDir);
     }
   }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
+import io.codekvast.javaagent.util.Constants;
+import io.codekvast.javaagent.util.FileUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * An on-disk cache of the classes found in one scan root, i.e., a jar file or a class directory.
+ *
+ * <p>The key is a SHA-256 of the agent version, the scanned packages and the name, size and
+ * modification time of the files in the root. An unchanged jar is therefore never parsed again,
+ * even if some other jar in the code base has changed.
+ *
+ * <p>The entries are written in a plain binary format, never with Java serialization, and the cache
+ * directory must be private to the current user. A cache directory that other users can write to
+ * disables the cache.
+ *
+ * <p>Entries that have not been used for a week are pruned.
+ */
+@Log
+final class ScanCache {
+  static final String DISABLED = "none";
+
+  private static final int MAGIC = 0x434b5343; // "CKSC"
+  private static final int FORMAT_VERSION = 2;
+  private static final int MAX_COUNT = 1_000_000;
+  private static final int MAX_STRING_BYTES = 1_000_000;
+  private static final String SUFFIX = ".bin";
+  private static final long MAX_IDLE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private final File cacheDir;
+  private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger numHits = new AtomicInteger();
+  private final AtomicInteger numMisses = new AtomicInteger();
+
+  ScanCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Creates the scan cache to use.
+   *
+   * @param config The agent configuration.
+   * @return A scan cache, or null if {@link AgentConfig#getCodeBaseScanCacheDir()} is blank,
+   *     {@value #DISABLED} or not a private directory.
+   */
+  static ScanCache create(AgentConfig config) {
+    String dir = config.getCodeBaseScanCacheDir();
+    if (dir == null || dir.trim().isEmpty() || dir.trim().equals(DISABLED)) {
+      return null;
+    }
+    File cacheDir = new File(dir.trim());
+    try {
+      FileUtils.createPrivateDirectory(cacheDir);
+    } catch (IOException e) {
+      logger.warning("Codebase scan cache is disabled: " + e.getMessage());
+      return null;
+    }
+    return new ScanCache(cacheDir);
+  }
+
+  /** Digests the content of a scan root into a cache key. */
+  interface KeyMaker {
+    void update(MessageDigest md) throws IOException;
+  }
+
+  String makeKey(List<String> packages, String location, KeyMaker keyMaker) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("Cannot make cache key", e);
+    }
+    update(md, FORMAT_VERSION + ":" + Constants.AGENT_VERSION);
+    update(md, packages.toString());
+    update(md, location);
+    keyMaker.update(md);
+    return String.format("%064x", new BigInteger(1, md.digest()));
+  }
+
+  /**
+   * Gets the cached classes of a scan root.
+   *
+   * @param key The key made by {@link #makeKey(List, String, KeyMaker)}.
+   * @return The cached classes, or null if not cached.
+   */
+  List<BytecodeCodeBaseScanner.ScannedClass> get(String key) {
+    usedKeys.add(key);
+    File file = getFile(key);
+    if (file.isFile()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        List<BytecodeCodeBaseScanner.ScannedClass> result = readScannedClasses(in);
+        file.setLastModified(System.currentTimeMillis());
+        numHits.incrementAndGet();
+        return result;
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.FINE, "Ignoring unreadable " + file, e);
+        FileUtils.safeDelete(file);
+      }
+    }
+    numMisses.incrementAndGet();
+    return null;
+  }
+
+  void put(String key, List<BytecodeCodeBaseScanner.ScannedClass> scannedClasses) {
+    File file = getFile(key);
+    File tmpFile = new File(cacheDir, key + ".tmp");
+    try {
+      FileUtils.createPrivateDirectory(cacheDir);
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        writeScannedClasses(scannedClasses, out);
+      }
+      // Another JVM may scan the same jar concurrently, so never expose a half-written file
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.FINE, "Cannot write " + file, e);
+      FileUtils.safeDelete(tmpFile);
+    }
+  }
+
+  /** Deletes the entries that have not been used for a long time. */
+  void prune() {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      long oldest = System.currentTimeMillis() - MAX_IDLE_MILLIS;
+      for (File file : files) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX) && !name.endsWith(".tmp")) {
+          // Not a cache entry
+          continue;
+        }
+        boolean used = name.endsWith(SUFFIX) && usedKeys.contains(name.replace(SUFFIX, ""));
+        if (!used && file.lastModified() < oldest) {
+          logger.finest("Pruning " + file);
+          FileUtils.safeDelete(file);
+        }
+      }
+    }
+  }
+
+  int getNumHits() {
+    return numHits.get();
+  }
+
+  int getNumMisses() {
+    return numMisses.get();
+  }
+
+  private File getFile(String key) {
+    return new File(cacheDir, key + SUFFIX);
+  }
+
+  private static void writeScannedClasses(
+      List<BytecodeCodeBaseScanner.ScannedClass> scannedClasses, DataOutputStream out)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(scannedClasses.size());
+    for (BytecodeCodeBaseScanner.ScannedClass scannedClass : scannedClasses) {
+      writeString(scannedClass.getResourceName(), out);
+      out.writeInt(scannedClass.getSignatures().size());
+      for (MethodSignature3 s : scannedClass.getSignatures()) {
+        writeString(s.getAspectjString(), out);
+        writeBoolean(s.getBridge(), out);
+        writeString(s.getDeclaringType(), out);
+        writeString(s.getExceptionTypes(), out);
+        writeString(s.getMethodName(), out);
+        writeString(s.getModifiers(), out);
+        writeString(s.getPackageName(), out);
+        writeString(s.getParameterTypes(), out);
+        writeString(s.getReturnType(), out);
+        writeBoolean(s.getSynthetic(), out);
+        writeString(s.getLocation(), out);
+      }
+    }
+  }
+
+  private static List<BytecodeCodeBaseScanner.ScannedClass> readScannedClasses(DataInputStream in)
+      throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Not a scan cache entry");
+    }
+    int numClasses = readCount(in);
+    List<BytecodeCodeBaseScanner.ScannedClass> result = new ArrayList<>(numClasses);
+    for (int i = 0; i < numClasses; i++) {
+      String resourceName = readString(in);
+      int numSignatures = readCount(in);
+      List<MethodSignature3> signatures = new ArrayList<>(numSignatures);
+      for (int j = 0; j < numSignatures; j++) {
+        signatures.add(
+            MethodSignature3.builder()
+                .aspectjString(readString(in))
+                .bridge(readBoolean(in))
+                .declaringType(readString(in))
+                .exceptionTypes(readString(in))
+                .methodName(readString(in))
+                .modifiers(readString(in))
+                .packageName(readString(in))
+                .parameterTypes(readString(in))
+                .returnType(readString(in))
+                .synthetic(readBoolean(in))
+                .location(readString(in))
+                .build());
+      }
+      result.add(new BytecodeCodeBaseScanner.ScannedClass(resourceName, signatures));
+    }
+    if (in.read() != -1) {
+      throw new IOException("Trailing garbage in scan cache entry");
+    }
+    return result;
+  }
+
+  private static void writeString(String s, DataOutputStream out) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > MAX_STRING_BYTES) {
+      throw new IOException("Illegal string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeBoolean(Boolean b, DataOutputStream out) throws IOException {
+    out.writeByte(b == null ? 2 : b ? 1 : 0);
+  }
+
+  private static Boolean readBoolean(DataInputStream in) throws IOException {
+    int b = in.readByte();
+    if (b < 0 || b > 2) {
+      throw new IOException("Illegal boolean " + b);
+    }
+    return b == 2 ? null : b == 1;
+  }
+
+  private static int readCount(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0 || count > MAX_COUNT) {
+      throw new IOException("Illegal count " + count);
+    }
+    return count;
+  }
+
+  static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(UTF_8));
+    md.update((byte) 0);
+  }
+
+  static void updateWithFile(MessageDigest md, File file) {
+    update(md, file.getAbsolutePath());
+    update(md, file.length() + ":" + file.lastModified());
+  }
+
+  static void updateWithDirectory(MessageDigest md, File dir, String prefix) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.isDirectory()) {
+          updateWithDirectory(md, file, prefix + file.getName() + "/");
+        } else if (file.getName().endsWith(".class")) {
+          update(md, prefix + file.getName());
+          update(md, file.length() + ":" + file.lastModified());
+        }
+      }
+    }
+  }
+}
@@ -24,6 +24,9 @@ package io.codekvast.javaagent.config;
 import static io.codekvast.javaagent.model.Endpoints.Agent.V2_POLL_CONFIG;
 import static io.codekvast.javaagent.model.Endpoints.Agent.V2_UPLOAD_INVOCATION_DATA;
 import static io.codekvast.javaagent.model.Endpoints.Agent.V3_UPLOAD_CODEBASE;
+import static io.codekvast.javaagent.model.Endpoints.Agent.V4_UPLOAD_CODEBASE;
+import static io.codekvast.javaagent.model.Endpoints.Agent.V5_UPLOAD_CODEBASE;
+import static io.codekvast.javaagent.model.Endpoints.Agent.V5_UPLOAD_INVOCATION_DATA;
 
 import io.codekvast.javaagent.appversion.AppVersionResolver;
 import io.codekvast.javaagent.model.v2.CommonPublicationData2;
@@ -101,6 +104,13 @@ public class AgentConfig implements Serializable {
   private String httpProxyPassword;
   private int schedulerInitialDelayMillis;
   private int schedulerIntervalMillis;
+  private String recordingMode;
+  private int ringBufferCapacity;
+  private String codeBaseScanner;
+  private String codeBaseScanCacheDir;
+  private String invocationSpoolDir;
+  private String publicationFormat;
+  private boolean compressPublications;
 
   private String resolvedAppVersion;
 
@@ -130,10 +140,22 @@ public class AgentConfig implements Serializable {
     return String.format("%s%s", serverUrl, V3_UPLOAD_CODEBASE);
   }
 
+  public String getCodeBaseDeltaUploadEndpoint() {
+    return String.format("%s%s", serverUrl, V4_UPLOAD_CODEBASE);
+  }
+
   public String getInvocationDataUploadEndpoint() {
     return String.format("%s%s", serverUrl, V2_UPLOAD_INVOCATION_DATA);
   }
 
+  public String getBinaryCodeBaseUploadEndpoint() {
+    return String.format("%s%s", serverUrl, V5_UPLOAD_CODEBASE);
+  }
+
+  public String getBinaryInvocationDataUploadEndpoint() {
+    return String.format("%s%s", serverUrl, V5_UPLOAD_INVOCATION_DATA);
+  }
+
   public String getResolvedAppVersion() {
     if (AppVersionResolver.isUnresolved(resolvedAppVersion)) {
       resolvedAppVersion =
@@ -21,6 +21,9 @@
  */
 package io.codekvast.javaagent.config;
 
+import io.codekvast.javaagent.InvocationRegistry;
+import io.codekvast.javaagent.codebase.CodeBaseScanner;
+import io.codekvast.javaagent.publishing.impl.AbstractPublisher;
 import io.codekvast.javaagent.util.ConfigUtils;
 import io.codekvast.javaagent.util.Constants;
 import io.codekvast.javaagent.util.FileUtils;
@@ -41,6 +44,9 @@ public class AgentConfigFactory {
   private static final String DEFAULT_ASPECTJ_OPTIONS = "";
   private static final boolean DEFAULT_BRIDGE_ASPECTJ_LOGGING_TO_JUL = false;
   private static final String DEFAULT_CODE_BASE = "missing-codeBase";
+  private static final String DEFAULT_CODE_BASE_SCANNER = CodeBaseScanner.SCANNER_BYTECODE;
+  private static final String DEFAULT_CODE_BASE_SCAN_CACHE_DIR =
+      new File(System.getProperty("user.home"), ".codekvast/scan-cache").getPath();
   private static final String DEFAULT_ENVIRONMENT = "<default>";
   private static final String DEFAULT_EXCLUDE_PACKAGES = "";
   private static final int DEFAULT_HTTP_CONNECT_TIMEOUT_SECONDS = 10;
@@ -50,8 +56,15 @@ public class AgentConfigFactory {
   private static final String DEFAULT_HTTP_PROXY_USERNAME = null;
   private static final int DEFAULT_HTTP_READ_TIMEOUT_SECONDS = 10;
   private static final int DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS = 30;
+  private static final String DEFAULT_INVOCATION_SPOOL_DIR =
+      new File(System.getProperty("user.home"), ".codekvast/spool").getPath();
   private static final String DEFAULT_METHOD_VISIBILITY = SignatureUtils.PROTECTED;
   private static final String DEFAULT_PACKAGES = "missing-packages";
+  private static final String DEFAULT_PUBLICATION_FORMAT =
+      AbstractPublisher.PUBLICATION_FORMAT_BINARY;
+  private static final boolean DEFAULT_COMPRESS_PUBLICATIONS = true;
+  private static final String DEFAULT_RECORDING_MODE = InvocationRegistry.RECORDING_MODE_QUEUE;
+  private static final int DEFAULT_RING_BUFFER_CAPACITY = 8192;
   private static final int DEFAULT_SCHEDULER_INITIAL_DELAY_MILLIS = 10_000;
   private static final int DEFAULT_SCHEDULER_INTERVAL_MILLIS = 10_000;
   private static final String DEFAULT_SERVER_URL = "http://localhost:8083";
@@ -124,6 +137,14 @@ public class AgentConfigFactory {
             ConfigUtils.getBooleanValue(
                 props, "bridgeAspectjMessagesToJUL", DEFAULT_BRIDGE_ASPECTJ_LOGGING_TO_JUL))
         .codeBase(codeBase.orElse(DEFAULT_CODE_BASE))
+        .codeBaseScanner(
+            ConfigUtils.getStringValue(props, "codeBaseScanner", DEFAULT_CODE_BASE_SCANNER))
+        .codeBaseScanCacheDir(
+            ConfigUtils.getStringValue(
+                props, "codeBaseScanCacheDir", DEFAULT_CODE_BASE_SCAN_CACHE_DIR))
+        .compressPublications(
+            ConfigUtils.getBooleanValue(
+                props, "compressPublications", DEFAULT_COMPRESS_PUBLICATIONS))
         .enabled(enabled)
         .environment(ConfigUtils.getStringValue(props, "environment", DEFAULT_ENVIRONMENT))
         .excludePackages(
@@ -144,10 +165,17 @@ public class AgentConfigFactory {
             ConfigUtils.getIntValue(
                 props, "httpWriteTimeoutSeconds", DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS))
         .hostname(ConfigUtils.getStringValue(props, "hostname", Constants.HOST_NAME))
+        .invocationSpoolDir(
+            ConfigUtils.getStringValue(props, "invocationSpoolDir", DEFAULT_INVOCATION_SPOOL_DIR))
         .licenseKey(ConfigUtils.getStringValue2(props, "licenseKey", "apiKey", TRIAL_LICENSE_KEY))
         .methodVisibility(
             ConfigUtils.getStringValue(props, "methodVisibility", DEFAULT_METHOD_VISIBILITY))
         .packages(packages.orElse(DEFAULT_PACKAGES))
+        .publicationFormat(
+            ConfigUtils.getStringValue(props, "publicationFormat", DEFAULT_PUBLICATION_FORMAT))
+        .recordingMode(ConfigUtils.getStringValue(props, "recordingMode", DEFAULT_RECORDING_MODE))
+        .ringBufferCapacity(
+            ConfigUtils.getIntValue(props, "ringBufferCapacity", DEFAULT_RING_BUFFER_CAPACITY))
         .serverUrl(ConfigUtils.getStringValue(props, "serverUrl", DEFAULT_SERVER_URL))
         .schedulerInitialDelayMillis(
             ConfigUtils.getIntValue(
@@ -219,6 +247,9 @@ public class AgentConfigFactory {
         .aspectjOptions(SAMPLE_ASPECTJ_OPTIONS)
         .bridgeAspectjMessagesToJUL(DEFAULT_BRIDGE_ASPECTJ_LOGGING_TO_JUL)
         .codeBase(UNSPECIFIED)
+        .codeBaseScanner(DEFAULT_CODE_BASE_SCANNER)
+        .codeBaseScanCacheDir(DEFAULT_CODE_BASE_SCAN_CACHE_DIR)
+        .compressPublications(DEFAULT_COMPRESS_PUBLICATIONS)
         .enabled(true)
         .environment(DEFAULT_ENVIRONMENT)
         .excludePackages("")
@@ -230,9 +261,13 @@ public class AgentConfigFactory {
         .httpProxyPassword(DEFAULT_HTTP_PROXY_PASSWORD)
         .httpReadTimeoutSeconds(DEFAULT_HTTP_READ_TIMEOUT_SECONDS)
         .httpWriteTimeoutSeconds(DEFAULT_HTTP_WRITE_TIMEOUT_SECONDS)
+        .invocationSpoolDir(DEFAULT_INVOCATION_SPOOL_DIR)
         .licenseKey(TRIAL_LICENSE_KEY)
         .methodVisibility(DEFAULT_METHOD_VISIBILITY)
         .packages(UNSPECIFIED)
+        .publicationFormat(DEFAULT_PUBLICATION_FORMAT)
+        .recordingMode(DEFAULT_RECORDING_MODE)
+        .ringBufferCapacity(DEFAULT_RING_BUFFER_CAPACITY)
         .schedulerInitialDelayMillis(DEFAULT_SCHEDULER_INITIAL_DELAY_MILLIS)
         .schedulerIntervalMillis(DEFAULT_SCHEDULER_INTERVAL_MILLIS)
         .serverUrl(DEFAULT_SERVER_URL)
@@ -22,6 +22,7 @@
 package io.codekvast.javaagent.publishing;
 
 import io.codekvast.javaagent.codebase.CodeBaseFingerprint;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import java.util.Set;
 
 /**
@@ -50,4 +51,35 @@ public interface InvocationDataPublisher extends Publisher {
    */
   void publishInvocationData(long recordingIntervalStartedAtMillis, Set<String> invocations)
       throws CodekvastPublishingException;
+
+  /**
+   * Publish invocation data where the signatures already have been normalized and stripped from
+   * modifiers.
+   *
+   * @param recordingIntervalStartedAtMillis When the recording of these invocations were started.
+   * @param invocations The set of normalized invocations to publish.
+   * @throws CodekvastPublishingException when publishing fails.
+   * @see io.codekvast.javaagent.util.SignatureUtils#normalizeAndStripModifiers(String)
+   */
+  default void publishNormalizedInvocationData(
+      long recordingIntervalStartedAtMillis, Set<String> invocations)
+      throws CodekvastPublishingException {
+    publishInvocationData(recordingIntervalStartedAtMillis, invocations);
+  }
+
+  /**
+   * Publish normalized invocation data together with statistics about how it was recorded.
+   *
+   * @param recordingIntervalStartedAtMillis When the recording of these invocations were started.
+   * @param invocations The set of normalized invocations to publish.
+   * @param recordingStatistics Statistics about the recording. May be null.
+   * @throws CodekvastPublishingException when publishing fails.
+   */
+  default void publishNormalizedInvocationData(
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics)
+      throws CodekvastPublishingException {
+    publishNormalizedInvocationData(recordingIntervalStartedAtMillis, invocations);
+  }
 }
@@ -40,6 +40,14 @@ public interface Publisher {
    */
   void configure(long customerId, String keyValuePairs);
 
+  /**
+   * Tell the publisher how the server accepts compressed uploads.
+   *
+   * @param uploadCompression The upload compression offered by the server, or null if none.
+   * @see io.codekvast.javaagent.model.v2.GetConfigResponse2#getUploadCompression()
+   */
+  void setUploadCompression(String uploadCompression);
+
   /**
    * How many times has a publication actually been executed?
    *
@@ -48,7 +48,7 @@ abstract class AbstractCodeBasePublisher extends AbstractPublisher implements Co
       CodeBase newCodeBase = new CodeBase(getConfig());
       if (!newCodeBase.getFingerprint().equals(codeBaseFingerprint)) {
         incrementSequenceNumber();
-        new CodeBaseScanner().scanSignatures(newCodeBase);
+        CodeBaseScanner.create(getConfig()).scanSignatures(newCodeBase);
         doPublishCodeBase(newCodeBase);
         codeBaseFingerprint = newCodeBase.getFingerprint();
       }
@@ -23,6 +23,7 @@ package io.codekvast.javaagent.publishing.impl;
 
 import io.codekvast.javaagent.codebase.CodeBaseFingerprint;
 import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import io.codekvast.javaagent.publishing.CodekvastPublishingException;
 import io.codekvast.javaagent.publishing.InvocationDataPublisher;
 import io.codekvast.javaagent.util.SignatureUtils;
@@ -50,27 +51,57 @@ public abstract class AbstractInvocationDataPublisher extends AbstractPublisher
   @Override
   public void publishInvocationData(long recordingIntervalStartedAtMillis, Set<String> invocations)
       throws CodekvastPublishingException {
+    doPublishIfEnabled(recordingIntervalStartedAtMillis, invocations, false, null);
+  }
+
+  @Override
+  public void publishNormalizedInvocationData(
+      long recordingIntervalStartedAtMillis, Set<String> invocations)
+      throws CodekvastPublishingException {
+    doPublishIfEnabled(recordingIntervalStartedAtMillis, invocations, true, null);
+  }
+
+  @Override
+  public void publishNormalizedInvocationData(
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics)
+      throws CodekvastPublishingException {
+    doPublishIfEnabled(recordingIntervalStartedAtMillis, invocations, true, recordingStatistics);
+  }
+
+  private void doPublishIfEnabled(
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      boolean isNormalized,
+      RecordingStatistics2 recordingStatistics)
+      throws CodekvastPublishingException {
     if (isEnabled() && getCodeBaseFingerprint() != null) {
       incrementSequenceNumber();
 
       logger.fine("Publishing invocation data #" + this.getSequenceNumber());
 
-      doPublishInvocationData(recordingIntervalStartedAtMillis, normalizeSignatures(invocations));
+      doPublishInvocationData(
+          recordingIntervalStartedAtMillis,
+          isNormalized ? invocations : normalizeSignatures(invocations),
+          recordingStatistics);
     }
   }
 
   private Set<String> normalizeSignatures(Set<String> invocations) {
     Set<String> result = new HashSet<>();
     for (String s : invocations) {
-      String normalizedSignature = SignatureUtils.normalizeSignature(s);
+      String normalizedSignature = SignatureUtils.normalizeAndStripModifiers(s);
       if (normalizedSignature != null) {
-        result.add(SignatureUtils.stripModifiers(normalizedSignature));
+        result.add(normalizedSignature);
       }
     }
     return result;
   }
 
   abstract void doPublishInvocationData(
-      long recordingIntervalStartedAtMillis, Set<String> invocations)
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics)
       throws CodekvastPublishingException;
 }
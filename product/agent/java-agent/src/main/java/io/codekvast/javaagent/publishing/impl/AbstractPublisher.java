@@ -25,12 +25,24 @@ import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_FINGERPRINT;
 import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_LICENSE_KEY;
 import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_PUBLICATION_FILE;
 import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_PUBLICATION_SIZE;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 
 import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.binary.PublicationCodec;
+import io.codekvast.javaagent.model.v2.GetConfigResponse2;
 import io.codekvast.javaagent.publishing.Publisher;
+import io.codekvast.javaagent.util.FileUtils;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 import lombok.Getter;
 import lombok.Setter;
 import okhttp3.MediaType;
@@ -47,8 +59,13 @@ import okhttp3.Response;
 @Getter
 public abstract class AbstractPublisher implements Publisher {
 
+  public static final String PUBLICATION_FORMAT_BINARY = "binary";
+  public static final String PUBLICATION_FORMAT_SERIALIZED = "serialized";
+
   private static final MediaType APPLICATION_OCTET_STREAM =
       MediaType.parse("application/octet-stream");
+  private static final MediaType APPLICATION_GZIP = MediaType.parse("application/gzip");
+  private static final String GZIP_SUFFIX = ".gz";
   protected final Logger logger;
   private final AgentConfig config;
   @Setter private boolean enabled;
@@ -57,6 +74,10 @@ public abstract class AbstractPublisher implements Publisher {
 
   private int sequenceNumber;
 
+  private boolean binaryUploadsUnsupported;
+
+  @Setter private String uploadCompression;
+
   AbstractPublisher(Logger logger, AgentConfig config) {
     this.logger = logger;
     this.config = config;
@@ -119,23 +140,139 @@ public abstract class AbstractPublisher implements Publisher {
     return false;
   }
 
+  /**
+   * Writes a publication to a temporary file and POSTs it to the server.
+   *
+   * <p>The publication is encoded in the compact binary format and sent to binaryUrl, unless the
+   * agent is configured to use Java serialization or the server has responded 404 to a binary
+   * upload before. In that case it is serialized and sent to url.
+   *
+   * @param publication The publication to upload.
+   * @param filenamePrefix The prefix of the temporary file.
+   * @param url The endpoint for serialized publications.
+   * @param binaryUrl The endpoint for binary publications. May be the same as url if that endpoint
+   *     accepts both formats.
+   * @param fingerprint The code base fingerprint.
+   * @param publicationSize The number of entries in the publication.
+   * @param extraFormData Additional form parameters.
+   * @return The number of uploaded bytes.
+   * @throws IOException If the upload fails.
+   */
+  long uploadPublication(
+      Object publication,
+      String filenamePrefix,
+      String url,
+      String binaryUrl,
+      String fingerprint,
+      int publicationSize,
+      Map<String, String> extraFormData)
+      throws IOException {
+    String prefix = getConfig().getFilenamePrefix(filenamePrefix);
+    if (isBinaryFormat()) {
+      PublicationCodec.Compression compression =
+          config.isCompressPublications()
+              ? PublicationCodec.Compression.GZIP
+              : PublicationCodec.Compression.NONE;
+      File file = FileUtils.encodeToFile(publication, compression, prefix);
+      try {
+        doPost(file, binaryUrl, fingerprint, publicationSize, extraFormData);
+        return file.length();
+      } catch (HttpStatusException e) {
+        if (e.getStatusCode() != HTTP_NOT_FOUND || binaryUrl.equals(url)) {
+          throw e;
+        }
+        logger.fine("The server does not accept binary publications, uses Java serialization");
+        binaryUploadsUnsupported = true;
+      } finally {
+        FileUtils.safeDelete(file);
+      }
+    }
+
+    File file = FileUtils.serializeToFile(publication, prefix, ".ser");
+    File uploadedFile = file;
+    try {
+      if (isGzipUploads()) {
+        uploadedFile = gzip(file);
+      }
+      doPost(uploadedFile, url, fingerprint, publicationSize, extraFormData);
+      return uploadedFile.length();
+    } finally {
+      FileUtils.safeDelete(file);
+      FileUtils.safeDelete(uploadedFile);
+    }
+  }
+
+  /**
+   * Shall serialized publications be gzipped before upload? Binary publications need not, since
+   * they are compressed by the {@link PublicationCodec}.
+   */
+  private boolean isGzipUploads() {
+    return config.isCompressPublications()
+        && GetConfigResponse2.UPLOAD_COMPRESSION_GZIP.equals(uploadCompression);
+  }
+
+  private File gzip(File file) throws IOException {
+    long startedAt = System.currentTimeMillis();
+    File result = new File(file.getPath() + GZIP_SUFFIX);
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(result), 65536)) {
+      byte[] buffer = new byte[65536];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+    }
+    logger.fine(
+        String.format(
+            "Gzipped %s from %d to %d bytes in %d ms",
+            file.getName(),
+            file.length(),
+            result.length(),
+            System.currentTimeMillis() - startedAt));
+    return result;
+  }
+
+  private boolean isBinaryFormat() {
+    return !binaryUploadsUnsupported
+        && !PUBLICATION_FORMAT_SERIALIZED.equals(config.getPublicationFormat());
+  }
+
   void doPost(File file, String url, String fingerprint, int publicationSize) throws IOException {
-    RequestBody requestBody =
+    doPost(file, url, fingerprint, publicationSize, Collections.emptyMap());
+  }
+
+  void doPost(
+      File file,
+      String url,
+      String fingerprint,
+      int publicationSize,
+      Map<String, String> extraFormData)
+      throws IOException {
+    MultipartBody.Builder builder =
         new MultipartBody.Builder()
             .setType(MultipartBody.FORM)
             .addFormDataPart(PARAM_LICENSE_KEY, getConfig().getLicenseKey())
             .addFormDataPart(PARAM_FINGERPRINT, fingerprint)
-            .addFormDataPart(PARAM_PUBLICATION_SIZE, String.valueOf(publicationSize))
+            .addFormDataPart(PARAM_PUBLICATION_SIZE, String.valueOf(publicationSize));
+    for (Map.Entry<String, String> entry : extraFormData.entrySet()) {
+      builder.addFormDataPart(entry.getKey(), entry.getValue());
+    }
+    RequestBody requestBody =
+        builder
             .addFormDataPart(
                 PARAM_PUBLICATION_FILE,
                 file.getName(),
-                RequestBody.create(APPLICATION_OCTET_STREAM, file))
+                RequestBody.create(
+                    file.getName().endsWith(GZIP_SUFFIX)
+                        ? APPLICATION_GZIP
+                        : APPLICATION_OCTET_STREAM,
+                    file))
             .build();
 
     Request request = new Request.Builder().url(url).post(requestBody).build();
     try (Response response = executeRequest(request)) {
       if (!response.isSuccessful()) {
-        throw new IOException(response.body().string());
+        throw new HttpStatusException(response.code(), response.body().string());
       }
     }
   }
@@ -144,4 +281,16 @@ public abstract class AbstractPublisher implements Publisher {
   Response executeRequest(Request request) throws IOException {
     return getConfig().getHttpClient().newCall(request).execute();
   }
+
+  /** Thrown by doPost when the server responds with an unsuccessful HTTP status. */
+  static class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final int statusCode;
+
+    HttpStatusException(int statusCode, String message) {
+      super(message);
+      this.statusCode = statusCode;
+    }
+  }
 }
@@ -21,14 +21,28 @@
  */
 package io.codekvast.javaagent.publishing.impl;
 
+import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_APP_NAME;
+import static io.codekvast.javaagent.model.Endpoints.Agent.PARAM_BASE_FINGERPRINT;
+import static java.net.HttpURLConnection.HTTP_CONFLICT;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+
 import io.codekvast.javaagent.codebase.CodeBase;
 import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3;
 import io.codekvast.javaagent.model.v3.CodeBasePublication3;
+import io.codekvast.javaagent.model.v4.CodeBasePublication4;
 import io.codekvast.javaagent.publishing.CodekvastPublishingException;
-import io.codekvast.javaagent.util.FileUtils;
 import io.codekvast.javaagent.util.LogUtil;
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import lombok.extern.java.Log;
 
 /**
@@ -37,6 +51,10 @@ import lombok.extern.java.Log;
  * <p>It uses the FileSystemCodeBasePublisherImpl for creating a file, which then is POSTed to the
  * server.
  *
+ * <p>When the code base changes, only the difference to the previously uploaded code base is sent.
+ * If the server does not know the previous code base, the complete code base is sent instead. The
+ * acknowledged code base is also kept on disk, so that a restarted JVM can send a delta as well.
+ *
  * @author olle.hallin@crisp.se
  */
 @Log
@@ -44,8 +62,14 @@ public class HttpCodeBasePublisherImpl extends AbstractCodeBasePublisher {
 
   static final String NAME = "http";
 
+  private final PublishedCodeBaseStore publishedCodeBaseStore;
+  private String publishedFingerprint;
+  private Set<CodeBaseEntry3> publishedEntries;
+  private boolean deltaUploadsUnsupported;
+
   HttpCodeBasePublisherImpl(AgentConfig config) {
     super(logger, config);
+    this.publishedCodeBaseStore = PublishedCodeBaseStore.create(config);
   }
 
   @Override
@@ -55,27 +79,146 @@ public class HttpCodeBasePublisherImpl extends AbstractCodeBasePublisher {
 
   @Override
   public void doPublishCodeBase(CodeBase codeBase) throws CodekvastPublishingException {
+    CodeBasePublication3 publication =
+        codeBase.getCodeBasePublication(getCustomerId(), this.getSequenceNumber());
+
+    if (publishedEntries == null) {
+      loadPublishedCodeBase(publication.getCommonData());
+    }
+
+    CodeBasePublication4 deltaPublication = makeDeltaPublication(publication);
+    if (deltaPublication == null || !uploadDeltaPublication(deltaPublication)) {
+      uploadPublication(publication);
+    }
+
+    publishedFingerprint = publication.getCommonData().getCodeBaseFingerprint();
+    publishedEntries = new HashSet<>(publication.getEntries());
+    if (publishedCodeBaseStore != null) {
+      publishedCodeBaseStore.save(publication);
+    }
+  }
+
+  private void loadPublishedCodeBase(CommonPublicationData2 commonData) {
+    CodeBasePublication3 published =
+        publishedCodeBaseStore == null
+            ? null
+            : publishedCodeBaseStore.load(commonData.getCustomerId(), commonData.getAppName());
+    if (published != null) {
+      publishedFingerprint = published.getCommonData().getCodeBaseFingerprint();
+      publishedEntries = new HashSet<>(published.getEntries());
+      logger.fine(
+          String.format(
+              "Codekvast uses the code base %s uploaded by an earlier JVM as delta base",
+              publishedFingerprint));
+    }
+  }
+
+  CodeBasePublication4 makeDeltaPublication(CodeBasePublication3 publication) {
+    if (publishedEntries == null || deltaUploadsUnsupported) {
+      return null;
+    }
+
+    Collection<CodeBaseEntry3> entries = publication.getEntries();
+    List<CodeBaseEntry3> addedEntries = new ArrayList<>();
+    Set<String> signatures = new HashSet<>();
+    for (CodeBaseEntry3 entry : entries) {
+      signatures.add(entry.getSignature());
+      if (!publishedEntries.contains(entry)) {
+        addedEntries.add(entry);
+      }
+    }
+
+    List<String> removedSignatures = new ArrayList<>();
+    for (CodeBaseEntry3 entry : publishedEntries) {
+      if (!signatures.contains(entry.getSignature())) {
+        removedSignatures.add(entry.getSignature());
+      }
+    }
+
+    if ((addedEntries.size() + removedSignatures.size()) * 2 > entries.size()) {
+      // Not worth it
+      return null;
+    }
+
+    return CodeBasePublication4.builder()
+        .commonData(publication.getCommonData())
+        .baseCodeBaseFingerprint(publishedFingerprint)
+        .codeBaseSize(entries.size())
+        .addedEntries(addedEntries)
+        .removedSignatures(removedSignatures)
+        .build();
+  }
+
+  private void uploadPublication(CodeBasePublication3 publication)
+      throws CodekvastPublishingException {
     String url = getConfig().getCodeBaseUploadEndpoint();
 
-    File file = null;
     try {
+      long length =
+          uploadPublication(
+              publication,
+              "codebase-",
+              url,
+              getConfig().getBinaryCodeBaseUploadEndpoint(),
+              publication.getCommonData().getCodeBaseFingerprint(),
+              publication.getEntries().size(),
+              Collections.emptyMap());
 
-      CodeBasePublication3 publication =
-          codeBase.getCodeBasePublication(getCustomerId(), this.getSequenceNumber());
-      file =
-          FileUtils.serializeToFile(
-              publication, getConfig().getFilenamePrefix("codebase-"), ".ser");
+      logger.fine(
+          String.format(
+              "Codekvast uploaded %d methods (%s) to %s",
+              publication.getEntries().size(), LogUtil.humanReadableByteCount(length), url));
+    } catch (IOException e) {
+      throw new CodekvastPublishingException("Cannot upload code base to " + url, e);
+    }
+  }
 
-      doPost(file, url, codeBase.getFingerprint().toString(), publication.getEntries().size());
+  /**
+   * Uploads a delta publication.
+   *
+   * @return true if the server accepted it, false if the complete code base must be uploaded.
+   */
+  private boolean uploadDeltaPublication(CodeBasePublication4 publication)
+      throws CodekvastPublishingException {
+    String url = getConfig().getCodeBaseDeltaUploadEndpoint();
+
+    try {
+      Map<String, String> formData = new HashMap<>();
+      formData.put(PARAM_BASE_FINGERPRINT, publication.getBaseCodeBaseFingerprint());
+      formData.put(PARAM_APP_NAME, publication.getCommonData().getAppName());
+
+      // The delta endpoint accepts both publication formats
+      long length =
+          uploadPublication(
+              publication,
+              "codebase-delta-",
+              url,
+              url,
+              publication.getCommonData().getCodeBaseFingerprint(),
+              publication.getCodeBaseSize(),
+              formData);
 
       logger.fine(
           String.format(
-              "Codekvast uploaded %d methods (%s) to %s",
-              publication.getEntries().size(), LogUtil.humanReadableByteCount(file.length()), url));
+              "Codekvast uploaded %d added and %d removed methods (%s) to %s",
+              publication.getAddedEntries().size(),
+              publication.getRemovedSignatures().size(),
+              LogUtil.humanReadableByteCount(length),
+              url));
+      return true;
+    } catch (HttpStatusException e) {
+      if (e.getStatusCode() == HTTP_CONFLICT) {
+        logger.fine("The server does not know the base code base, uploads all methods");
+        return false;
+      }
+      if (e.getStatusCode() == HTTP_NOT_FOUND) {
+        logger.fine("The server does not accept delta publications, uploads all methods");
+        deltaUploadsUnsupported = true;
+        return false;
+      }
+      throw new CodekvastPublishingException("Cannot upload code base to " + url, e);
     } catch (IOException e) {
       throw new CodekvastPublishingException("Cannot upload code base to " + url, e);
-    } finally {
-      FileUtils.safeDelete(file);
     }
   }
 }
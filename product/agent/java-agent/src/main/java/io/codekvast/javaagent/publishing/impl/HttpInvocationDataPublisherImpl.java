@@ -23,10 +23,10 @@ package io.codekvast.javaagent.publishing.impl;
 
 import io.codekvast.javaagent.config.AgentConfig;
 import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import io.codekvast.javaagent.publishing.CodekvastPublishingException;
-import io.codekvast.javaagent.util.FileUtils;
 import io.codekvast.javaagent.util.LogUtil;
-import java.io.File;
+import java.util.Collections;
 import java.util.Set;
 import lombok.extern.java.Log;
 
@@ -36,6 +36,10 @@ import lombok.extern.java.Log;
  * <p>It uses the FileSystemInvocationDataPublisherImpl for creating a file, which then is POSTed to
  * the server.
  *
+ * <p>Invocations that could not be uploaded are kept in an {@link InvocationDataSpool}, and are
+ * uploaded together with the next recording interval. The Scheduler backs off exponentially while
+ * the uploads keep failing.
+ *
  * @author olle.hallin@crisp.se
  */
 @Log
@@ -43,6 +47,8 @@ public class HttpInvocationDataPublisherImpl extends AbstractInvocationDataPubli
 
   static final String NAME = "http";
 
+  private InvocationDataSpool spool;
+
   HttpInvocationDataPublisherImpl(AgentConfig config) {
     super(logger, config);
   }
@@ -53,40 +59,63 @@ public class HttpInvocationDataPublisherImpl extends AbstractInvocationDataPubli
   }
 
   @Override
-  void doPublishInvocationData(long recordingIntervalStartedAtMillis, Set<String> invocations)
+  void doPublishInvocationData(
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics)
       throws CodekvastPublishingException {
 
-    if (invocations.isEmpty()) {
+    if (spool == null) {
+      spool = InvocationDataSpool.create(getConfig(), getCustomerId());
+    }
+    spool.add(recordingIntervalStartedAtMillis, invocations, recordingStatistics);
+
+    if (spool.isEmpty()) {
       logger.fine("Codekvast detected no invocations to publish");
       return;
     }
 
     String url = getConfig().getInvocationDataUploadEndpoint();
-    File file = null;
+    InvocationDataPublication2 publication =
+        createPublication(
+            getCustomerId(),
+            spool.getRecordingIntervalStartedAtMillis(),
+            spool.getInvocations(),
+            spool.getRecordingStatistics());
     try {
-      InvocationDataPublication2 publication =
-          createPublication(getCustomerId(), recordingIntervalStartedAtMillis, invocations);
-      file =
-          FileUtils.serializeToFile(
-              publication, getConfig().getFilenamePrefix("invocations-"), ".ser");
-
-      doPost(file, url, getCodeBaseFingerprint().toString(), publication.getInvocations().size());
+      long length =
+          uploadPublication(
+              publication,
+              "invocations-",
+              url,
+              getConfig().getBinaryInvocationDataUploadEndpoint(),
+              getCodeBaseFingerprint().toString(),
+              publication.getInvocations().size(),
+              Collections.emptyMap());
 
       logger.fine(
           String.format(
-              "Codekvast uploaded %d invocations (%s) to %s",
+              "Codekvast uploaded %d invocations from %d recording intervals (%s) to %s",
               publication.getInvocations().size(),
-              LogUtil.humanReadableByteCount(file.length()),
+              spool.getNumIntervals(),
+              LogUtil.humanReadableByteCount(length),
               url));
+      spool.clear();
     } catch (Exception e) {
-      throw new CodekvastPublishingException("Cannot upload invocation data to " + url, e);
-    } finally {
-      FileUtils.safeDelete(file);
+      spool.save(publication);
+      throw new CodekvastPublishingException(
+          String.format(
+              "Cannot upload invocation data to %s, spooled %d invocations",
+              url, publication.getInvocations().size()),
+          e);
     }
   }
 
   private InvocationDataPublication2 createPublication(
-      long customerId, long recordingIntervalStartedAtMillis, Set<String> invocations) {
+      long customerId,
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics) {
 
     return InvocationDataPublication2.builder()
         .commonData(
@@ -97,6 +126,7 @@ public class HttpInvocationDataPublisherImpl extends AbstractInvocationDataPubli
                 .build())
         .recordingIntervalStartedAtMillis(recordingIntervalStartedAtMillis)
         .invocations(invocations)
+        .recordingStatistics(recordingStatistics)
         .build();
   }
 }
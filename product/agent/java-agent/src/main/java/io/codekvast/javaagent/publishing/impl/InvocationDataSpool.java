@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.publishing.impl;
+
+import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.binary.PublicationCodec;
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
+import io.codekvast.javaagent.util.Constants;
+import io.codekvast.javaagent.util.FileUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Invocation data that has not yet been uploaded.
+ *
+ * <p>While the server is unreachable, the recording intervals are coalesced into one: the union of
+ * the invoked signatures, starting at the start of the oldest interval. When an upload fails, the
+ * coalesced publication is also written to a file, so that a restarted JVM can upload it.
+ *
+ * <p>The spool directory must be private to the current user. Each JVM holds a lock on a lock file
+ * next to its spool file for as long as it lives, and a spool file is only adopted when that lock
+ * can be taken, i.e., when the JVM that wrote it is gone. Only spool files of the same customer,
+ * environment and app are adopted.
+ */
+@Log
+final class InvocationDataSpool {
+  static final String DISABLED = "none";
+
+  private static final String PREFIX = "invocations-spool";
+  private static final String LOCK_SUFFIX = ".lock";
+  private static final long MAX_LOCK_FILE_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private final File spoolDir;
+  private final String filenamePrefix;
+  private final long customerId;
+  private final String environment;
+  private final String appName;
+
+  /** Never released, since it shall be held until the JVM terminates. */
+  private FileLock spoolFileLock;
+
+  @Getter private long recordingIntervalStartedAtMillis;
+  @Getter private final Set<String> invocations = new HashSet<>();
+  @Getter private RecordingStatistics2 recordingStatistics;
+  @Getter private int numIntervals;
+
+  private InvocationDataSpool(File spoolDir, AgentConfig config, long customerId) {
+    this.spoolDir = spoolDir;
+    this.filenamePrefix = config.getFilenamePrefix(PREFIX);
+    this.customerId = customerId;
+    this.environment = config.getEnvironment();
+    this.appName = config.getAppName();
+  }
+
+  /**
+   * Creates the spool to use.
+   *
+   * @param config The agent configuration.
+   * @param customerId The customer that the invocations are published for.
+   * @return A spool, which is kept in memory only if {@link AgentConfig#getInvocationSpoolDir()} is
+   *     blank, {@value #DISABLED} or not a private directory.
+   */
+  static InvocationDataSpool create(AgentConfig config, long customerId) {
+    String dir = config.getInvocationSpoolDir();
+    File spoolDir = null;
+    if (dir != null && !dir.trim().isEmpty() && !dir.trim().equals(DISABLED)) {
+      spoolDir = new File(dir.trim());
+      try {
+        FileUtils.createPrivateDirectory(spoolDir);
+      } catch (IOException e) {
+        logger.warning("Invocation data is spooled in memory only: " + e.getMessage());
+        spoolDir = null;
+      }
+    }
+    InvocationDataSpool result = new InvocationDataSpool(spoolDir, config, customerId);
+    result.adoptSpoolFiles();
+    return result;
+  }
+
+  /**
+   * Coalesces a recording interval with the spooled ones.
+   *
+   * @param recordingIntervalStartedAtMillis When the interval started.
+   * @param invocations The signatures invoked in the interval.
+   * @param recordingStatistics The recording statistics of the interval, or null.
+   */
+  void add(
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics) {
+    if (invocations.isEmpty() && this.invocations.isEmpty()) {
+      return;
+    }
+    if (numIntervals == 0
+        || recordingIntervalStartedAtMillis < this.recordingIntervalStartedAtMillis) {
+      this.recordingIntervalStartedAtMillis = recordingIntervalStartedAtMillis;
+    }
+    this.invocations.addAll(invocations);
+    this.recordingStatistics = merge(this.recordingStatistics, recordingStatistics);
+    numIntervals += 1;
+  }
+
+  boolean isEmpty() {
+    return invocations.isEmpty();
+  }
+
+  /** Forgets the spooled data, since it has been uploaded. */
+  void clear() {
+    invocations.clear();
+    recordingStatistics = null;
+    numIntervals = 0;
+    if (spoolDir != null) {
+      FileUtils.safeDelete(getSpoolFile());
+    }
+  }
+
+  /**
+   * Writes the spooled data to disk, where it survives a JVM restart.
+   *
+   * @param publication The publication of the spooled data that could not be uploaded.
+   */
+  void save(InvocationDataPublication2 publication) {
+    if (spoolDir == null) {
+      return;
+    }
+    File file = getSpoolFile();
+    File tmpFile = new File(spoolDir, file.getName() + ".tmp");
+    try {
+      FileUtils.createPrivateDirectory(spoolDir);
+      lockSpoolFile();
+      try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+        PublicationCodec.encode(publication, PublicationCodec.Compression.GZIP, os);
+      }
+      // Another JVM may adopt the file, so never expose a half-written file
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      logger.fine("Spooled " + invocations.size() + " invocations to " + file);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot write " + file, e);
+      FileUtils.safeDelete(tmpFile);
+    }
+  }
+
+  /** Takes the lock that tells other JVMs that this JVM's spool file is in use. */
+  private void lockSpoolFile() throws IOException {
+    if (spoolFileLock == null) {
+      // The channel is never closed, the lock is released by the OS when the JVM terminates
+      FileChannel channel =
+          FileChannel.open(
+              getLockFile(getSpoolFile()).toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE);
+      spoolFileLock = channel.lock();
+    }
+  }
+
+  /** Coalesces what was spooled to disk by earlier JVMs running the same app. */
+  private void adoptSpoolFiles() {
+    File[] files = spoolDir == null ? null : spoolDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(filenamePrefix) && name.endsWith(PublicationCodec.SUFFIX)) {
+          adoptSpoolFileIfUnlocked(file);
+        } else if (name.startsWith(PREFIX) && name.endsWith(LOCK_SUFFIX)) {
+          pruneLockFile(file);
+        }
+      }
+    }
+  }
+
+  private void adoptSpoolFileIfUnlocked(File file) {
+    // A lock file is created before the spool file, so a missing lock file means that the JVM that
+    // wrote the spool file is gone.
+    try (FileChannel channel =
+        FileChannel.open(getLockFile(file).toPath(), StandardOpenOption.WRITE)) {
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        logger.finest(file + " is in use by another JVM");
+        return;
+      }
+      try {
+        adoptSpoolFile(file);
+      } finally {
+        lock.release();
+      }
+    } catch (NoSuchFileException e) {
+      adoptSpoolFile(file);
+    } catch (OverlappingFileLockException e) {
+      logger.finest(file + " is in use by this JVM");
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Cannot lock " + file, e);
+    }
+  }
+
+  private void adoptSpoolFile(File file) {
+    try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+      InvocationDataPublication2 publication =
+          (InvocationDataPublication2) PublicationCodec.decode(is);
+      if (!isSameApp(publication.getCommonData())) {
+        logger.finest(file + " was spooled by another customer, environment or app");
+        return;
+      }
+      add(
+          publication.getRecordingIntervalStartedAtMillis(),
+          publication.getInvocations(),
+          publication.getRecordingStatistics());
+      logger.fine(
+          "Adopted " + publication.getInvocations().size() + " spooled invocations from " + file);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.FINE, "Ignoring unreadable " + file, e);
+    }
+    FileUtils.safeDelete(file);
+  }
+
+  private boolean isSameApp(CommonPublicationData2 commonData) {
+    return commonData.getCustomerId() == customerId
+        && commonData.getEnvironment().equals(environment)
+        && commonData.getAppName().equals(appName);
+  }
+
+  /**
+   * Deletes a lock file that has outlived its JVM. Only old lock files are considered, so that a
+   * lock file is never deleted between its creation and the locking of it.
+   */
+  private void pruneLockFile(File lockFile) {
+    String name = lockFile.getName();
+    File spoolFile =
+        new File(
+            spoolDir,
+            name.substring(0, name.length() - LOCK_SUFFIX.length()) + PublicationCodec.SUFFIX);
+    if (spoolFile.exists()
+        || lockFile.lastModified() > System.currentTimeMillis() - MAX_LOCK_FILE_AGE_MILLIS) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+      FileLock lock = channel.tryLock();
+      if (lock != null) {
+        FileUtils.safeDelete(lockFile);
+        lock.release();
+      }
+    } catch (IOException | OverlappingFileLockException e) {
+      logger.log(Level.FINEST, "Cannot prune " + lockFile, e);
+    }
+  }
+
+  private File getSpoolFile() {
+    return new File(spoolDir, filenamePrefix + Constants.JVM_UUID + PublicationCodec.SUFFIX);
+  }
+
+  private File getLockFile(File spoolFile) {
+    String name = spoolFile.getName();
+    return new File(
+        spoolDir,
+        name.substring(0, name.length() - PublicationCodec.SUFFIX.length()) + LOCK_SUFFIX);
+  }
+
+  static RecordingStatistics2 merge(RecordingStatistics2 older, RecordingStatistics2 newer) {
+    if (older == null || newer == null) {
+      return newer == null ? older : newer;
+    }
+    return newer.toBuilder()
+        .maxQueueDepth(Math.max(older.getMaxQueueDepth(), newer.getMaxQueueDepth()))
+        .overflowCount(older.getOverflowCount() + newer.getOverflowCount())
+        .droppedCount(older.getDroppedCount() + newer.getDroppedCount())
+        .drainLatencyMillis(Math.max(older.getDrainLatencyMillis(), newer.getDrainLatencyMillis()))
+        .build();
+  }
+}
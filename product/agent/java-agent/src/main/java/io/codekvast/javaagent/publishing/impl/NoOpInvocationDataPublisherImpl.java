@@ -22,6 +22,7 @@
 package io.codekvast.javaagent.publishing.impl;
 
 import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import java.util.Set;
 import lombok.extern.java.Log;
 
@@ -43,7 +44,9 @@ public class NoOpInvocationDataPublisherImpl extends AbstractInvocationDataPubli
 
   @Override
   public void doPublishInvocationData(
-      long recordingIntervalStartedAtMillis, Set<String> invocations) {
+      long recordingIntervalStartedAtMillis,
+      Set<String> invocations,
+      RecordingStatistics2 recordingStatistics) {
     // Nothing here
   }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.publishing.impl;
+
+import io.codekvast.javaagent.config.AgentConfig;
+import io.codekvast.javaagent.model.binary.PublicationCodec;
+import io.codekvast.javaagent.model.v2.CommonPublicationData2;
+import io.codekvast.javaagent.model.v3.CodeBasePublication3;
+import io.codekvast.javaagent.util.FileUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * The last code base that the server has acknowledged, kept on disk so that a restarted JVM can
+ * send a delta publication instead of the complete code base.
+ *
+ * <p>There is one file per customer and app, since that is how the server looks up the base of a
+ * delta publication. It is kept in the private directory {@link
+ * AgentConfig#getCodeBaseScanCacheDir()}.
+ */
+@Log
+final class PublishedCodeBaseStore {
+  static final String DISABLED = "none";
+
+  private static final String PREFIX = "published-codebase-";
+
+  private final File dir;
+
+  PublishedCodeBaseStore(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Creates the store to use.
+   *
+   * @param config The agent configuration.
+   * @return A store, or null if {@link AgentConfig#getCodeBaseScanCacheDir()} is blank or {@value
+   *     #DISABLED}.
+   */
+  static PublishedCodeBaseStore create(AgentConfig config) {
+    String dir = config.getCodeBaseScanCacheDir();
+    if (dir == null || dir.trim().isEmpty() || dir.trim().equals(DISABLED)) {
+      return null;
+    }
+    return new PublishedCodeBaseStore(new File(dir.trim()));
+  }
+
+  /**
+   * Reads the last acknowledged code base of an app.
+   *
+   * @param customerId The customer that owns the app.
+   * @param appName The name of the app.
+   * @return The publication that was last acknowledged by the server, or null if not known.
+   */
+  CodeBasePublication3 load(long customerId, String appName) {
+    File file = getFile(customerId, appName);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      FileUtils.createPrivateDirectory(dir);
+      try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+        Object publication = PublicationCodec.decode(is);
+        if (publication instanceof CodeBasePublication3) {
+          CommonPublicationData2 commonData = ((CodeBasePublication3) publication).getCommonData();
+          if (commonData.getCustomerId() == customerId && commonData.getAppName().equals(appName)) {
+            return (CodeBasePublication3) publication;
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.FINE, "Ignoring unreadable " + file, e);
+    }
+    return null;
+  }
+
+  /**
+   * Writes the code base that the server just acknowledged.
+   *
+   * @param publication The acknowledged publication.
+   */
+  void save(CodeBasePublication3 publication) {
+    CommonPublicationData2 commonData = publication.getCommonData();
+    File file = getFile(commonData.getCustomerId(), commonData.getAppName());
+    File tmpFile = new File(dir, file.getName() + ".tmp");
+    try {
+      FileUtils.createPrivateDirectory(dir);
+      try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+        PublicationCodec.encode(publication, PublicationCodec.Compression.GZIP, os);
+      }
+      // Other JVMs running the same app may read the file, so never expose a half-written file
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.FINE, "Cannot write " + file, e);
+      FileUtils.safeDelete(tmpFile);
+    }
+  }
+
+  private File getFile(long customerId, String appName) {
+    String name = String.format("%s%d-%s", PREFIX, customerId, appName);
+    return new File(
+        dir, name.toLowerCase().replaceAll("[^a-z0-9._+-]", "") + PublicationCodec.SUFFIX);
+  }
+}
@@ -214,6 +214,7 @@ public class Scheduler implements Runnable {
     }
     codeBasePublisher.configure(
         dynamicConfig.getCustomerId(), dynamicConfig.getCodeBasePublisherConfig());
+    codeBasePublisher.setUploadCompression(dynamicConfig.getUploadCompression());
   }
 
   private void configureInvocationDataPublisher() {
@@ -237,6 +238,7 @@ public class Scheduler implements Runnable {
 
     invocationDataPublisher.configure(
         dynamicConfig.getCustomerId(), dynamicConfig.getInvocationDataPublisherConfig());
+    invocationDataPublisher.setUploadCompression(dynamicConfig.getUploadCompression());
   }
 
   private void publishCodeBaseIfNeeded() {
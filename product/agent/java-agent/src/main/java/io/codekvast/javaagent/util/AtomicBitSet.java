@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A lock-free, growable bit set.
+ *
+ * <p>{@link #set(int)} never allocates nor blocks, and is cheap when the bit already is set. The
+ * bit set must have been grown by {@link #ensureCapacity(int)} before a bit beyond the current
+ * capacity is set.
+ *
+ * <p>Thread-safe.
+ */
+public class AtomicBitSet {
+  private static final int SEGMENT_SHIFT = 16;
+  private static final int BITS_PER_SEGMENT = 1 << SEGMENT_SHIFT;
+  private static final int WORDS_PER_SEGMENT = BITS_PER_SEGMENT / Long.SIZE;
+
+  private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+
+  /**
+   * Makes sure that bits with an index less than numBits can be set.
+   *
+   * @param numBits The wanted capacity.
+   */
+  public synchronized void ensureCapacity(int numBits) {
+    int numSegments = (numBits + BITS_PER_SEGMENT - 1) >>> SEGMENT_SHIFT;
+    AtomicLongArray[] oldSegments = segments;
+    if (numSegments > oldSegments.length) {
+      AtomicLongArray[] newSegments = new AtomicLongArray[numSegments];
+      System.arraycopy(oldSegments, 0, newSegments, 0, oldSegments.length);
+      for (int i = oldSegments.length; i < numSegments; i++) {
+        newSegments[i] = new AtomicLongArray(WORDS_PER_SEGMENT);
+      }
+      segments = newSegments;
+    }
+  }
+
+  /** @return The number of bits that can be set without growing the bit set. */
+  public int capacity() {
+    return segments.length * BITS_PER_SEGMENT;
+  }
+
+  /**
+   * Sets a bit.
+   *
+   * @param bitIndex The index of the bit to set. Must be less than {@link #capacity()}.
+   */
+  public void set(int bitIndex) {
+    AtomicLongArray segment = segments[bitIndex >>> SEGMENT_SHIFT];
+    int wordIndex = (bitIndex & (BITS_PER_SEGMENT - 1)) >>> 6;
+    long mask = 1L << bitIndex;
+
+    // Read before writing, to avoid cache line contention when the bit already is set.
+    long word = segment.get(wordIndex);
+    while ((word & mask) == 0) {
+      if (segment.compareAndSet(wordIndex, word, word | mask)) {
+        return;
+      }
+      word = segment.get(wordIndex);
+    }
+  }
+
+  /**
+   * Tests a bit.
+   *
+   * @param bitIndex The index of the bit to test.
+   * @return true if the bit is set.
+   */
+  public boolean get(int bitIndex) {
+    AtomicLongArray[] s = segments;
+    int segmentIndex = bitIndex >>> SEGMENT_SHIFT;
+    if (bitIndex < 0 || segmentIndex >= s.length) {
+      return false;
+    }
+    long word = s[segmentIndex].get((bitIndex & (BITS_PER_SEGMENT - 1)) >>> 6);
+    return (word & (1L << bitIndex)) != 0;
+  }
+
+  /**
+   * Clears all bits, and hands the index of each bit that was set to a consumer.
+   *
+   * <p>Each word is cleared atomically, so a bit that is set concurrently is either handed to the
+   * consumer or kept in the bit set. It is never lost.
+   *
+   * @param consumer Receives the indices of the bits that were set.
+   */
+  public void drainTo(IntConsumer consumer) {
+    AtomicLongArray[] s = segments;
+    for (int segmentIndex = 0; segmentIndex < s.length; segmentIndex++) {
+      AtomicLongArray segment = s[segmentIndex];
+      for (int wordIndex = 0; wordIndex < WORDS_PER_SEGMENT; wordIndex++) {
+        if (segment.get(wordIndex) != 0L) {
+          long word = segment.getAndSet(wordIndex, 0L);
+          int base = (segmentIndex << SEGMENT_SHIFT) + (wordIndex << 6);
+          while (word != 0L) {
+            consumer.accept(base + Long.numberOfTrailingZeros(word));
+            word &= word - 1;
+          }
+        }
+      }
+    }
+  }
+}
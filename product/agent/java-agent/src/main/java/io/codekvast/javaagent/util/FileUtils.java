@@ -23,6 +23,7 @@ package io.codekvast.javaagent.util;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import io.codekvast.javaagent.model.binary.PublicationCodec;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -33,10 +34,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 import lombok.experimental.UtilityClass;
 import lombok.extern.java.Log;
 
@@ -79,6 +90,59 @@ public final class FileUtils {
     }
   }
 
+  /**
+   * Makes sure that a directory exists and that no other user can access it, so that the files in
+   * it can be trusted to have been written by this user.
+   *
+   * <p>A missing directory is created with owner-only permissions. An existing directory is never
+   * modified, it is rejected if it is not owned by the current user or if it is accessible by group
+   * or others. On file systems without POSIX attributes the directory is just created.
+   *
+   * @param dir The directory.
+   * @throws IOException if the directory cannot be created or is not private.
+   */
+  public static void createPrivateDirectory(File dir) throws IOException {
+    Path path = dir.toPath();
+    boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      logger.fine("Creating " + dir);
+      if (posix) {
+        Files.createDirectories(
+            path,
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } else {
+        Files.createDirectories(path);
+      }
+    }
+
+    if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IOException(String.format("'%s' is not a directory", dir.getAbsolutePath()));
+    }
+
+    if (posix) {
+      PosixFileAttributes attributes =
+          Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      String user = System.getProperty("user.name");
+      if (!attributes.owner().getName().equals(user)) {
+        throw new IOException(
+            String.format("'%s' is not owned by %s", dir.getAbsolutePath(), user));
+      }
+
+      Set<PosixFilePermission> foreign = new HashSet<>(attributes.permissions());
+      foreign.removeAll(
+          EnumSet.of(
+              PosixFilePermission.OWNER_READ,
+              PosixFilePermission.OWNER_WRITE,
+              PosixFilePermission.OWNER_EXECUTE));
+      if (!foreign.isEmpty()) {
+        throw new IOException(
+            String.format(
+                "'%s' is accessible by other users (%s)",
+                dir.getAbsolutePath(), PosixFilePermissions.toString(attributes.permissions())));
+      }
+    }
+  }
+
   public static void writeToFile(String text, File file) {
     File parentDir = file.getParentFile();
     if (parentDir != null && !parentDir.isDirectory()) {
@@ -116,6 +180,28 @@ public final class FileUtils {
     return file;
   }
 
+  /**
+   * Writes a publication to a temporary file in the compact binary format.
+   *
+   * @see PublicationCodec
+   */
+  public static File encodeToFile(
+      Object publication, PublicationCodec.Compression compression, String prefix)
+      throws IOException {
+    long startedAt = System.currentTimeMillis();
+    File file = File.createTempFile(prefix, PublicationCodec.SUFFIX);
+    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+      PublicationCodec.encode(publication, compression, os);
+    }
+    logger.fine(
+        String.format(
+            "Encoded %s to %d bytes in %d ms",
+            publication.getClass().getSimpleName(),
+            file.length(),
+            System.currentTimeMillis() - startedAt));
+    return file;
+  }
+
   public static <T> T deserializeFromFile(File file, Class<T> classOfT) {
     try (ObjectInputStream ois =
         new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
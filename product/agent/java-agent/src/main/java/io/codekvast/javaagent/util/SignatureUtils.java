@@ -31,6 +31,7 @@ import java.net.URL;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 import lombok.experimental.UtilityClass;
 import lombok.extern.java.Log;
@@ -52,6 +53,10 @@ public class SignatureUtils {
   public static final String PACKAGE_PRIVATE = "package-private";
   public static final String PRIVATE = "private";
   private static final String[] VISIBILITY_KEYWORDS = {PUBLIC, PROTECTED, PACKAGE_PRIVATE, PRIVATE};
+  private static final String CONSTRUCTOR_NAME = "<init>";
+  // Access flags that are missing in java.lang.reflect.Modifier
+  private static final int ACC_BRIDGE = 0x0040;
+  private static final int ACC_SYNTHETIC = 0x1000;
 
   public static String normalizeSignature(MethodSignature3 methodSignature) {
     return methodSignature == null ? null : normalizeSignature(methodSignature.getAspectjString());
@@ -87,6 +92,18 @@ public class SignatureUtils {
     return signature == null ? null : signature.toLongString();
   }
 
+  /**
+   * Converts a signature to the form that is published to the server, that is without modifiers and
+   * return type.
+   *
+   * @param signature A signature as produced by {@link #signatureToString(Signature)}. May be null.
+   * @return The normalized signature without modifiers, or null.
+   */
+  public static String normalizeAndStripModifiers(String signature) {
+    String normalizedSignature = normalizeSignature(signature);
+    return normalizedSignature == null ? null : stripModifiers(normalizedSignature);
+  }
+
   public static String stripModifiers(String signature) {
     // Search backwards from the '(' for a space character...
     int pos = signature.indexOf("(");
@@ -202,24 +219,7 @@ public class SignatureUtils {
       if (protectionDomain != null) {
         CodeSource codeSource = protectionDomain.getCodeSource();
         if (codeSource != null) {
-          URL location = codeSource.getLocation();
-          if (location != null) {
-            String loc = location.toString();
-            if (loc.endsWith(".jar") || loc.endsWith(".zip")) {
-              int pos = loc.lastIndexOf("/");
-              return loc.substring(pos + 1);
-            }
-            for (String suffix :
-                Arrays.asList("BOOT-INF/classes/", "WEB-INF/classes/", "classes/")) {
-              if (loc.endsWith(suffix)) {
-                return suffix;
-              }
-            }
-
-            // Probably in dev environment, make location relative to $PWD
-            val pwd = "file:" + System.getProperty("user.dir") + "/";
-            return loc.replace(pwd, "");
-          }
+          return makeLocation(codeSource.getLocation());
         }
       }
     } catch (SecurityException ignore) {
@@ -228,6 +228,33 @@ public class SignatureUtils {
     return null;
   }
 
+  /**
+   * Converts the location of a jar file or a classes directory to the form that is published.
+   *
+   * @param location The URL of a jar file or a classes directory. May be null.
+   * @return The location to publish, or null.
+   */
+  public static String makeLocation(URL location) {
+    if (location == null) {
+      return null;
+    }
+
+    String loc = location.toString();
+    if (loc.endsWith(".jar") || loc.endsWith(".zip")) {
+      int pos = loc.lastIndexOf("/");
+      return loc.substring(pos + 1);
+    }
+    for (String suffix : Arrays.asList("BOOT-INF/classes/", "WEB-INF/classes/", "classes/")) {
+      if (loc.endsWith(suffix)) {
+        return suffix;
+      }
+    }
+
+    // Probably in dev environment, make location relative to $PWD
+    val pwd = "file:" + System.getProperty("user.dir") + "/";
+    return loc.replace(pwd, "");
+  }
+
   /**
    * Converts a java.lang.reflect.Constructor to a MethodSignature3 object.
    *
@@ -261,6 +288,145 @@ public class SignatureUtils {
         .build();
   }
 
+  /**
+   * Makes a MethodSignature3 from the raw data of a method or constructor in a class file.
+   *
+   * <p>The result is identical to what {@link #makeMethodSignature(Class, Method)} and {@link
+   * #makeConstructorSignature(Class, Constructor)} produce for the loaded class, without having to
+   * load it.
+   *
+   * @param declaringType The binary name of the class, as returned by {@link Class#getName()}.
+   * @param packageName The package of the class.
+   * @param modifiers The access flags of the method, as returned by {@link Method#getModifiers()}.
+   * @param methodName The method name. "&lt;init&gt;" for constructors.
+   * @param parameterTypes The parameter types, in the form returned by {@link Class#getName()}.
+   * @param exceptionTypes The declared exceptions, in the form returned by {@link Class#getName()}.
+   * @param returnType The return type, in the form returned by {@link Class#getName()}. Ignored for
+   *     constructors.
+   * @param location The location of the class, as produced by {@link #makeLocation(URL)}.
+   * @return A MethodSignature3, or null if the method is synthetic.
+   */
+  public static MethodSignature3 makeMethodSignature(
+      String declaringType,
+      String packageName,
+      int modifiers,
+      String methodName,
+      List<String> parameterTypes,
+      List<String> exceptionTypes,
+      String returnType,
+      String location) {
+    if (isSynthetic(modifiers)) {
+      return null;
+    }
+
+    boolean isConstructor = methodName.equals(CONSTRUCTOR_NAME);
+
+    // Same format as org.aspectj.runtime.reflect.MethodSignatureImpl.toLongString()
+    StringBuilder sb = new StringBuilder();
+    String modifiersString = Modifier.toString(modifiers);
+    if (!modifiersString.isEmpty()) {
+      sb.append(modifiersString).append(" ");
+    }
+    if (!isConstructor) {
+      sb.append(toAspectjTypeName(returnType)).append(" ");
+    }
+    sb.append(toAspectjTypeName(declaringType));
+    if (!isConstructor) {
+      sb.append(".").append(methodName);
+    }
+    sb.append("(");
+    appendAspectjTypeNames(sb, parameterTypes);
+    sb.append(")");
+
+    return MethodSignature3.builder()
+        .aspectjString(stripModifiersAndReturnType(sb.toString()))
+        .bridge(!isConstructor && (modifiers & ACC_BRIDGE) != 0)
+        .declaringType(declaringType)
+        .exceptionTypes(String.join(", ", exceptionTypes))
+        .methodName(methodName)
+        .modifiers(modifiersString)
+        .packageName(packageName)
+        .parameterTypes(String.join(", ", parameterTypes))
+        .returnType(isConstructor ? "" : returnType)
+        .synthetic(false)
+        .location(location)
+        .build();
+  }
+
+  private static boolean isSynthetic(int modifiers) {
+    return (modifiers & ACC_SYNTHETIC) != 0;
+  }
+
+  private static void appendAspectjTypeNames(StringBuilder sb, List<String> typeNames) {
+    String delimiter = "";
+    for (String typeName : typeNames) {
+      sb.append(delimiter).append(toAspectjTypeName(typeName));
+      delimiter = ", ";
+    }
+  }
+
+  /**
+   * Converts a type name in the form returned by {@link Class#getName()} to the form used by
+   * AspectJ in long signature strings.
+   *
+   * @param typeName A type name like "int", "a.b.Outer$Inner" or "[Ljava.lang.String;"
+   * @return A type name like "int", "a.b.Outer.Inner" or "java.lang.String[]"
+   */
+  @VisibleForTesting
+  static String toAspectjTypeName(String typeName) {
+    int dimensions = 0;
+    while (typeName.charAt(dimensions) == '[') {
+      dimensions += 1;
+    }
+    if (dimensions == 0) {
+      return typeName.replace('$', '.');
+    }
+
+    StringBuilder sb = new StringBuilder();
+    char kind = typeName.charAt(dimensions);
+    if (kind == 'L') {
+      sb.append(typeName, dimensions + 1, typeName.length() - 1);
+    } else {
+      sb.append(primitiveTypeName(kind));
+    }
+    for (int i = 0; i < dimensions; i++) {
+      sb.append("[]");
+    }
+    return sb.toString().replace('$', '.');
+  }
+
+  /**
+   * Converts a primitive type descriptor character to a type name.
+   *
+   * @param descriptor One of the characters BCDFIJSZV.
+   * @return The name of the primitive type, e.g., "int".
+   * @throws IllegalArgumentException if descriptor is not a primitive type descriptor.
+   */
+  public static String primitiveTypeName(char descriptor) {
+    switch (descriptor) {
+      case 'B':
+        return "byte";
+      case 'C':
+        return "char";
+      case 'D':
+        return "double";
+      case 'F':
+        return "float";
+      case 'I':
+        return "int";
+      case 'J':
+        return "long";
+      case 'S':
+        return "short";
+      case 'Z':
+        return "boolean";
+      case 'V':
+        return "void";
+      default:
+        throw new IllegalArgumentException("Not a primitive type descriptor: " + descriptor);
+    }
+  }
+
   private static String classArrayToString(Class<?>[] classes) {
     return Arrays.stream(classes).map(Class::getName).collect(Collectors.joining(", "));
   }
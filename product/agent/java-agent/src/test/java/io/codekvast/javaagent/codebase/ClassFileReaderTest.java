@@ -0,0 +1,77 @@
+package io.codekvast.javaagent.codebase;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.codekvast.javaagent.codebase.scannertest.ScannerTest4;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class ClassFileReaderTest {
+
+  @Test
+  public void should_read_methods_and_constructors() throws IOException {
+    ClassFileReader.ClassFile classFile = ClassFileReader.read(readClassFile(ScannerTest4.class));
+
+    assertThat(classFile.getClassName(), is(ScannerTest4.class.getName()));
+
+    List<String> names =
+        classFile.getMethods().stream()
+            .map(ClassFileReader.MethodInfo::getName)
+            .collect(Collectors.toList());
+    assertThat(names, hasItem("<init>"));
+    assertThat(names, hasItem("m4"));
+  }
+
+  @Test
+  public void should_read_array_parameters_and_exceptions() throws IOException {
+    ClassFileReader.ClassFile classFile = ClassFileReader.read(readClassFile(Sample.class));
+
+    ClassFileReader.MethodInfo method =
+        classFile.getMethods().stream().filter(m -> m.getName().equals("m")).findFirst().get();
+    assertThat(
+        method.getParameterTypes(),
+        is(Arrays.asList("[[I", "[Ljava.lang.String;", "long", Sample.class.getName())));
+    assertThat(method.getExceptionTypes(), is(Collections.singletonList("java.io.IOException")));
+    assertThat(method.getReturnType(), is("[Ljava.lang.Object;"));
+  }
+
+  @Test
+  public void should_reject_non_class_file() {
+    assertThrows(IOException.class, () -> ClassFileReader.read(new byte[] {1, 2, 3, 4, 5, 6}));
+  }
+
+  @Test
+  public void should_reject_truncated_class_file() throws IOException {
+    byte[] bytes = readClassFile(ScannerTest4.class);
+    assertThrows(
+        IOException.class, () -> ClassFileReader.read(Arrays.copyOf(bytes, bytes.length / 2)));
+  }
+
+  private static byte[] readClassFile(Class<?> clazz) throws IOException {
+    String resourceName = "/" + clazz.getName().replace('.', '/') + ".class";
+    try (InputStream inputStream = clazz.getResourceAsStream(resourceName)) {
+      byte[] buffer = new byte[100_000];
+      int length = 0;
+      int n;
+      while ((n = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+        length += n;
+      }
+      return Arrays.copyOf(buffer, length);
+    }
+  }
+
+  @SuppressWarnings("unused")
+  static class Sample {
+    Object[] m(int[][] a, String[] b, long c, Sample d) throws IOException {
+      return null;
+    }
+  }
+}
@@ -6,27 +6,47 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.not;
 
+import io.codekvast.javaagent.codebase.bytecodetest.BytecodeScannerSample;
 import io.codekvast.javaagent.codebase.scannertest.ScannerTest1;
 import io.codekvast.javaagent.codebase.scannertest.ScannerTest2;
 import io.codekvast.javaagent.codebase.scannertest.ScannerTest3;
 import io.codekvast.javaagent.codebase.scannertest.ScannerTest4;
 import io.codekvast.javaagent.codebase.scannertest.ScannerTestIf;
 import io.codekvast.javaagent.codebase.scannertest.excluded.ExcludedScannerTest5;
+import io.codekvast.javaagent.config.AgentConfig;
 import io.codekvast.javaagent.config.AgentConfigFactory;
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class CodeBaseScannerTest {
 
   private static final String TEST_CLASSES_DIR = "build/classes/java/test";
   private static final String SPRING_BOOT_EXECUTABLE_JAR_DIR =
       "src/test/resources/sample-spring-boot-executable-jar";
+  private static final String SAMPLE_WEB_APP_DIR = "src/test/resources/sample-web-app";
 
   private final CodeBaseScanner scanner = new CodeBaseScanner();
+  @TempDir File tempDir;
   private CodeBase codeBase;
 
   @BeforeEach
@@ -104,6 +124,193 @@ public class CodeBaseScannerTest {
     assertThat(numClasses, is(4 + 7 + 1));
   }
 
+  @Test
+  public void should_produce_identical_result_with_bytecode_scanner_for_exploded_classes_dir() {
+    assertIdenticalScanResults(codeBase.getConfig());
+  }
+
+  @Test
+  public void should_produce_identical_result_with_bytecode_scanner_for_corner_cases() {
+    assertIdenticalScanResults(
+        codeBase.getConfig().toBuilder()
+            .packages(BytecodeScannerSample.class.getPackage().getName())
+            .build());
+  }
+
+  @Test
+  public void should_produce_identical_result_with_bytecode_scanner_for_jars() {
+    assertIdenticalScanResults(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .codeBase(new File(SAMPLE_WEB_APP_DIR).getAbsolutePath())
+            .packages("sample.app, sample.lib")
+            .build());
+  }
+
+  @Test
+  public void should_produce_identical_result_with_bytecode_scanner_for_spring_boot_jar()
+      throws IOException {
+    File springBootJar = new File(tempDir, "sample-spring-boot.jar");
+    createSpringBootExecutableJar(new File(SAMPLE_WEB_APP_DIR), springBootJar);
+
+    assertIdenticalScanResults(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .codeBase(springBootJar.getAbsolutePath())
+            .packages("sample.app, sample.lib")
+            .build());
+  }
+
+  @Test
+  public void should_rescan_only_changed_roots_when_cached() throws IOException {
+    File webAppDir = new File(tempDir, "sample-web-app");
+    copyDirectory(new File(SAMPLE_WEB_APP_DIR), webAppDir);
+    File cacheDir = new File(tempDir, "cache");
+    AgentConfig config =
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .codeBase(webAppDir.getAbsolutePath())
+            .packages("sample.app, sample.lib")
+            .codeBaseScanCacheDir(cacheDir.getAbsolutePath())
+            .build();
+
+    List<String> cold = scanWithBytecodeScanner(config);
+    int numCacheFiles = cacheDir.list().length;
+    assertThat(numCacheFiles, is(new CodeBase(config).getUrls().length));
+
+    assertThat(scanWithBytecodeScanner(config), is(cold));
+    assertThat(cacheDir.list().length, is(numCacheFiles));
+
+    File jar = new File(webAppDir, "WEB-INF/lib/sample-lib.jar");
+    jar.setLastModified(jar.lastModified() - 10_000L);
+    assertThat(scanWithBytecodeScanner(config), is(cold));
+    assertThat(cacheDir.list().length, is(numCacheFiles + 1));
+  }
+
+  private static List<String> scanWithBytecodeScanner(AgentConfig config) {
+    CodeBase codeBase = new CodeBase(config);
+    new BytecodeCodeBaseScanner().scanSignatures(codeBase);
+    return toComparableStrings(codeBase);
+  }
+
+  private static void copyDirectory(File from, File to) throws IOException {
+    Path root = from.toPath();
+    try (Stream<Path> stream = Files.walk(root)) {
+      for (Path path : stream.collect(Collectors.toList())) {
+        Path target = to.toPath().resolve(root.relativize(path).toString());
+        if (Files.isDirectory(path)) {
+          Files.createDirectories(target);
+        } else {
+          Files.copy(path, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void should_create_configured_scanner() {
+    assertThat(
+        CodeBaseScanner.create(
+                codeBase.getConfig().toBuilder()
+                    .codeBaseScanner(CodeBaseScanner.SCANNER_BYTECODE)
+                    .build())
+            .getClass(),
+        is(BytecodeCodeBaseScanner.class));
+    assertThat(
+        CodeBaseScanner.create(
+                codeBase.getConfig().toBuilder()
+                    .codeBaseScanner(CodeBaseScanner.SCANNER_REFLECTION)
+                    .build())
+            .getClass(),
+        is(CodeBaseScanner.class));
+    assertThat(
+        CodeBaseScanner.create(codeBase.getConfig().toBuilder().codeBaseScanner("foo").build())
+            .getClass(),
+        is(BytecodeCodeBaseScanner.class));
+  }
+
+  /** Repackages an exploded web app as a Spring Boot executable jar with stored nested jars. */
+  private static void createSpringBootExecutableJar(File webAppDir, File jarFile)
+      throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest
+        .getMainAttributes()
+        .put(Attributes.Name.MAIN_CLASS, "org.springframework.boot.loader.JarLauncher");
+
+    Path root = new File(webAppDir, "WEB-INF").toPath();
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(root)) {
+      paths = stream.filter(p -> !p.equals(root)).sorted().collect(Collectors.toList());
+    }
+
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile), manifest)) {
+      jar.putNextEntry(new JarEntry("BOOT-INF/"));
+      jar.closeEntry();
+      for (Path path : paths) {
+        String name = "BOOT-INF/" + root.relativize(path).toString().replace('\\', '/');
+        if (Files.isDirectory(path)) {
+          jar.putNextEntry(new JarEntry(name + "/"));
+        } else {
+          byte[] bytes = Files.readAllBytes(path);
+          JarEntry entry = new JarEntry(name);
+          if (name.endsWith(".jar")) {
+            // Spring Boot requires nested jars to be stored uncompressed
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+          }
+          jar.putNextEntry(entry);
+          jar.write(bytes);
+        }
+        jar.closeEntry();
+      }
+    }
+  }
+
+  private void assertIdenticalScanResults(AgentConfig config) {
+    CodeBase reflectiveCodeBase = new CodeBase(config);
+    int numReflectiveClasses = new CodeBaseScanner().scanSignatures(reflectiveCodeBase);
+
+    CodeBase bytecodeCodeBase = new CodeBase(config);
+    int numBytecodeClasses = new BytecodeCodeBaseScanner().scanSignatures(bytecodeCodeBase);
+
+    assertThat(reflectiveCodeBase.size(), not(is(0)));
+    assertThat(numBytecodeClasses, is(numReflectiveClasses));
+    assertThat(toComparableStrings(bytecodeCodeBase), is(toComparableStrings(reflectiveCodeBase)));
+    assertThat(
+        bytecodeCodeBase.getCodeBasePublication(1L, 1).getEntries().stream()
+            .map(CodeBaseEntry3::toString)
+            .sorted()
+            .collect(Collectors.toList()),
+        is(
+            reflectiveCodeBase.getCodeBasePublication(1L, 1).getEntries().stream()
+                .map(CodeBaseEntry3::toString)
+                .sorted()
+                .collect(Collectors.toList())));
+  }
+
+  private static List<String> toComparableStrings(CodeBase codeBase) {
+    // MethodSignature3.toString() and equals() only cover the aspectjString
+    return codeBase.getSignatures().stream()
+        .map(
+            (MethodSignature3 s) ->
+                String.join(
+                    " | ",
+                    s.getAspectjString(),
+                    String.valueOf(s.getBridge()),
+                    s.getDeclaringType(),
+                    s.getExceptionTypes(),
+                    s.getMethodName(),
+                    s.getModifiers(),
+                    s.getPackageName(),
+                    s.getParameterTypes(),
+                    s.getReturnType(),
+                    String.valueOf(s.getSynthetic()),
+                    s.getLocation()))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
   @Test
   @Disabled("Default disabled")
   public void stability_test() {
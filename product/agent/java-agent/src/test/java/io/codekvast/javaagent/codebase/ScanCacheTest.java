@@ -0,0 +1,159 @@
+package io.codekvast.javaagent.codebase;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import io.codekvast.javaagent.config.AgentConfigFactory;
+import io.codekvast.javaagent.model.v3.MethodSignature3;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ScanCacheTest {
+
+  private static final List<String> PACKAGES = Collections.singletonList("sample");
+
+  @TempDir File tempDir;
+
+  private File cacheDir;
+  private File jarFile;
+  private ScanCache scanCache;
+
+  @BeforeEach
+  public void beforeTest() throws IOException {
+    cacheDir = new File(tempDir, "cache");
+    jarFile = new File(tempDir, "sample.jar");
+    Files.write(jarFile.toPath(), new byte[] {1, 2, 3});
+    scanCache = new ScanCache(cacheDir);
+  }
+
+  @Test
+  public void should_be_disabled_by_keyword() {
+    assertThat(
+        ScanCache.create(
+            AgentConfigFactory.createSampleAgentConfig().toBuilder()
+                .codeBaseScanCacheDir(ScanCache.DISABLED)
+                .build()),
+        nullValue());
+  }
+
+  @Test
+  public void should_create_private_directory() throws IOException {
+    assumeTrue(isPosix());
+
+    ScanCache cache =
+        ScanCache.create(
+            AgentConfigFactory.createSampleAgentConfig().toBuilder()
+                .codeBaseScanCacheDir(cacheDir.getAbsolutePath())
+                .build());
+
+    assertThat(cache, not(nullValue()));
+    assertThat(getPermissions(cacheDir), is("rwx------"));
+  }
+
+  @Test
+  public void should_be_disabled_when_directory_is_shared() throws IOException {
+    assumeTrue(isPosix());
+    Files.createDirectories(cacheDir.toPath());
+    Files.setPosixFilePermissions(cacheDir.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+
+    assertThat(
+        ScanCache.create(
+            AgentConfigFactory.createSampleAgentConfig().toBuilder()
+                .codeBaseScanCacheDir(cacheDir.getAbsolutePath())
+                .build()),
+        nullValue());
+  }
+
+  @Test
+  public void should_return_cached_classes() throws IOException {
+    String key = makeKey();
+    assertThat(scanCache.get(key), nullValue());
+
+    MethodSignature3 signature = MethodSignature3.createSampleMethodSignature();
+    MethodSignature3 signatureWithNulls =
+        signature.toBuilder().aspectjString("other").bridge(null).location(null).build();
+    List<BytecodeCodeBaseScanner.ScannedClass> scannedClasses =
+        Arrays.asList(
+            new BytecodeCodeBaseScanner.ScannedClass(
+                "sample/Foo.class", Arrays.asList(signature, signatureWithNulls)),
+            new BytecodeCodeBaseScanner.ScannedClass("sample/Bar.class", Collections.emptyList()));
+    scanCache.put(key, scannedClasses);
+
+    List<BytecodeCodeBaseScanner.ScannedClass> cached = new ScanCache(cacheDir).get(key);
+    assertThat(cached, is(scannedClasses));
+    assertThat(cached.get(0).getSignatures().get(0).getLocation(), is("location"));
+    assertThat(cached.get(0).getSignatures().get(1).getBridge(), nullValue());
+    assertThat(cached.get(0).getSignatures().get(1).getLocation(), nullValue());
+    assertThat(scanCache.getNumMisses(), is(1));
+  }
+
+  @Test
+  public void should_make_new_key_when_jar_is_modified() throws IOException {
+    String key1 = makeKey();
+    jarFile.setLastModified(jarFile.lastModified() - 10_000L);
+    String key2 = makeKey();
+
+    assertThat(key2, not(is(key1)));
+    assertThat(
+        scanCache.makeKey(Collections.singletonList("other"), "sample.jar", this::update),
+        not(is(key2)));
+  }
+
+  @Test
+  public void should_ignore_unreadable_entry() throws IOException {
+    String key = makeKey();
+    File file = new File(cacheDir, key + ".bin");
+    Files.createDirectories(cacheDir.toPath());
+    Files.write(file.toPath(), new byte[] {4, 5, 6});
+
+    assertThat(scanCache.get(key), nullValue());
+    assertThat(file.exists(), is(false));
+  }
+
+  @Test
+  public void should_prune_old_unused_entries() throws IOException {
+    String usedKey = makeKey();
+    scanCache.put(usedKey, Collections.emptyList());
+    scanCache.put("unused", Collections.emptyList());
+    long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8);
+    for (File file : cacheDir.listFiles()) {
+      file.setLastModified(old);
+    }
+
+    scanCache.get(usedKey);
+    scanCache.prune();
+
+    assertThat(new File(cacheDir, usedKey + ".bin").exists(), is(true));
+    assertThat(new File(cacheDir, "unused.bin").exists(), is(false));
+  }
+
+  private static boolean isPosix() {
+    return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+  }
+
+  private static String getPermissions(File file) throws IOException {
+    return PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath()));
+  }
+
+  private String makeKey() throws IOException {
+    return scanCache.makeKey(PACKAGES, "sample.jar", this::update);
+  }
+
+  private void update(MessageDigest md) {
+    ScanCache.updateWithFile(md, jarFile);
+  }
+}
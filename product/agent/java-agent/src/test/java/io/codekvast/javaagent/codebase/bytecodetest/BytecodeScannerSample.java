@@ -0,0 +1,130 @@
+package io.codekvast.javaagent.codebase.bytecodetest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/** Exercises the corner cases of converting class files to method signatures. */
+@SuppressWarnings({"UnusedDeclaration", "EmptyMethod", "unused"})
+public class BytecodeScannerSample implements Comparable<BytecodeScannerSample> {
+  private static final Supplier<String> SUPPLIER = () -> "lambda";
+
+  static {
+    System.getProperty("static.initializer");
+  }
+
+  private final int value;
+
+  public BytecodeScannerSample() {
+    this(0);
+  }
+
+  private BytecodeScannerSample(int value) {
+    this.value = value;
+  }
+
+  protected BytecodeScannerSample(String... values) throws IOException, InterruptedException {
+    this(values.length);
+  }
+
+  @Override
+  public int compareTo(BytecodeScannerSample other) {
+    return Integer.compare(value, other.value);
+  }
+
+  public static final synchronized long[][] primitiveArrays(byte b, char[] c, double[][] d) {
+    return new long[0][];
+  }
+
+  public String[] objectArrays(Object[] objects, List<String>[] lists) {
+    return new String[0];
+  }
+
+  public void varargs(String format, Object... args) {}
+
+  public Inner.Deeper nestedTypes(Map.Entry<String, Inner> entry, Inner.Deeper[] deepers) {
+    return null;
+  }
+
+  <T extends Comparable<T>> T generic(T t) throws Exception {
+    return t;
+  }
+
+  strictfp float strict(float f, short s, boolean z) {
+    return f;
+  }
+
+  public native void nativeMethod(int i);
+
+  Callable<Integer> anonymous() {
+    return new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return value;
+      }
+    };
+  }
+
+  String lambda() {
+    Runnable r = () -> System.out.println(value);
+    r.run();
+    return SUPPLIER.get();
+  }
+
+  public class Inner {
+    public Inner(long l) {}
+
+    public class Deeper {
+      void deeper() throws RuntimeException {}
+    }
+  }
+
+  static class GenericBase<T> {
+    T get(T t) {
+      return t;
+    }
+  }
+
+  static class GenericSub extends GenericBase<String> {
+    @Override
+    String get(String s) {
+      return s;
+    }
+  }
+
+  public interface SampleInterface {
+    void abstractMethod(int[] values);
+
+    default String defaultMethod() {
+      return "default";
+    }
+
+    static SampleInterface staticMethod() {
+      return null;
+    }
+  }
+
+  public abstract static class AbstractSample {
+    protected abstract void abstractMethod();
+  }
+
+  public enum SampleEnum {
+    ONE,
+    TWO {
+      @Override
+      public String describe() {
+        return "two";
+      }
+    };
+
+    public String describe() {
+      return name();
+    }
+  }
+
+  @interface SampleAnnotation {
+    String value() default "";
+  }
+}
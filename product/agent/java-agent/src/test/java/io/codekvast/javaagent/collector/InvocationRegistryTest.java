@@ -2,14 +2,22 @@ package io.codekvast.javaagent.collector;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import io.codekvast.javaagent.InvocationRegistry;
 import io.codekvast.javaagent.codebase.CodeBaseFingerprint;
 import io.codekvast.javaagent.config.AgentConfigFactory;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
 import io.codekvast.javaagent.publishing.CodekvastPublishingException;
 import io.codekvast.javaagent.publishing.InvocationDataPublisher;
 import io.codekvast.javaagent.util.SignatureUtils;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
@@ -51,6 +59,201 @@ class InvocationRegistryTest {
     assertTrue(doExtremelyConcurrentRegistrationOf(signature1, signature2, signature3));
   }
 
+  @Test
+  void should_handle_concurrent_registrations_when_bitset_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_BITSET)
+            .build());
+    assertThat(InvocationRegistry.isNullRegistry(), is(false));
+    assertTrue(doExtremelyConcurrentRegistrationOf(signature1, signature2, signature3));
+  }
+
+  @Test
+  void should_publish_invocations_when_bitset_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_BITSET)
+            .build());
+    CapturingInvocationDataPublisher publisher = new CapturingInvocationDataPublisher();
+
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.registerMethodInvocation(signature3);
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.publishInvocationData(publisher);
+
+    assertThat(
+        publisher.invocations, containsInAnyOrder(normalized(signature1), normalized(signature3)));
+
+    InvocationRegistry.publishInvocationData(publisher);
+    assertThat(publisher.invocations, empty());
+
+    InvocationRegistry.registerMethodInvocation(signature2);
+    InvocationRegistry.publishInvocationData(publisher);
+    assertThat(publisher.invocations, containsInAnyOrder(normalized(signature2)));
+  }
+
+  @Test
+  void should_handle_concurrent_registrations_when_cached_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_CACHED)
+            .build());
+    assertThat(InvocationRegistry.isNullRegistry(), is(false));
+    assertTrue(doExtremelyConcurrentRegistrationOf(signature1, signature2, signature3));
+  }
+
+  @Test
+  void should_publish_normalized_invocations_when_cached_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_CACHED)
+            .build());
+    CapturingInvocationDataPublisher publisher = new CapturingInvocationDataPublisher();
+
+    InvocationRegistry.registerMethodInvocation(signature2);
+    InvocationRegistry.registerMethodInvocation(signature2);
+    Thread.sleep(50L); // Let the worker thread drain the queue
+    InvocationRegistry.publishInvocationData(publisher);
+
+    assertThat(publisher.invocations, containsInAnyOrder(normalized(signature2)));
+  }
+
+  @Test
+  void should_handle_concurrent_registrations_when_first_hit_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_FIRST_HIT)
+            .build());
+    assertThat(InvocationRegistry.isNullRegistry(), is(false));
+    assertTrue(doExtremelyConcurrentRegistrationOf(signature1, signature2, signature3));
+  }
+
+  @Test
+  void should_record_again_in_next_interval_when_first_hit_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_FIRST_HIT)
+            .build());
+    CapturingInvocationDataPublisher publisher = new CapturingInvocationDataPublisher();
+
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.registerMethodInvocation(signature2);
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.publishInvocationData(publisher);
+    assertThat(
+        publisher.invocations, containsInAnyOrder(normalized(signature1), normalized(signature2)));
+
+    InvocationRegistry.publishInvocationData(publisher);
+    assertThat(publisher.invocations, empty());
+
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.publishInvocationData(publisher);
+    assertThat(publisher.invocations, containsInAnyOrder(normalized(signature1)));
+  }
+
+  @Test
+  void should_handle_concurrent_registrations_when_ring_buffer_overflows() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_RING_BUFFER)
+            .ringBufferCapacity(1)
+            .build());
+    assertThat(InvocationRegistry.isNullRegistry(), is(false));
+    assertTrue(doExtremelyConcurrentRegistrationOf(signature1, signature2, signature3));
+  }
+
+  @Test
+  void should_publish_recording_statistics_when_ring_buffer_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_RING_BUFFER)
+            .ringBufferCapacity(100)
+            .build());
+    CapturingInvocationDataPublisher publisher = new CapturingInvocationDataPublisher();
+
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.registerMethodInvocation(signature3);
+    InvocationRegistry.registerMethodInvocation(signature1);
+    InvocationRegistry.publishInvocationData(publisher);
+
+    assertThat(
+        publisher.invocations, containsInAnyOrder(normalized(signature1), normalized(signature3)));
+    assertThat(publisher.recordingStatistics, notNullValue());
+    assertThat(
+        publisher.recordingStatistics.getRecordingMode(),
+        is(InvocationRegistry.RECORDING_MODE_RING_BUFFER));
+    assertThat(publisher.recordingStatistics.getQueueCapacity(), is(100));
+    assertThat(publisher.recordingStatistics.getOverflowCount(), is(0L));
+  }
+
+  @Test
+  void should_not_keep_discarded_class_loader_when_bitset_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_BITSET)
+            .build());
+
+    assertThat(isCollected(registerInvocationInDiscardedClassLoader()), is(true));
+  }
+
+  @Test
+  void should_not_keep_discarded_class_loader_when_cached_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_CACHED)
+            .build());
+
+    assertThat(isCollected(registerInvocationInDiscardedClassLoader()), is(true));
+  }
+
+  @Test
+  void should_not_keep_discarded_class_loader_when_ring_buffer_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_RING_BUFFER)
+            .build());
+
+    assertThat(isCollected(registerInvocationInDiscardedClassLoader()), is(true));
+  }
+
+  @Test
+  void should_not_keep_discarded_class_loader_when_first_hit_enabled() throws Exception {
+    InvocationRegistry.initialize(
+        AgentConfigFactory.createSampleAgentConfig().toBuilder()
+            .recordingMode(InvocationRegistry.RECORDING_MODE_FIRST_HIT)
+            .build());
+
+    assertThat(isCollected(registerInvocationInDiscardedClassLoader()), is(true));
+  }
+
+  private static String normalized(Signature signature) {
+    return SignatureUtils.normalizeAndStripModifiers(SignatureUtils.signatureToString(signature));
+  }
+
+  /**
+   * Registers an invocation of a class that is loaded by a class loader of its own, like in an
+   * application that is undeployed from a container.
+   */
+  private static WeakReference<ClassLoader> registerInvocationInDiscardedClassLoader()
+      throws Exception {
+    URL testClasses = TestClass.class.getProtectionDomain().getCodeSource().getLocation();
+    try (URLClassLoader classLoader = new URLClassLoader(new URL[] {testClasses}, null)) {
+      Class<?> clazz = classLoader.loadClass(TestClass.class.getName());
+      InvocationRegistry.registerMethodInvocation(
+          SignatureUtils.makeSignature(clazz, clazz.getMethod("m1")));
+      return new WeakReference<>(classLoader);
+    }
+  }
+
+  private static boolean isCollected(WeakReference<?> reference) throws InterruptedException {
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    return reference.get() == null;
+  }
+
   private boolean doExtremelyConcurrentRegistrationOf(final Signature... signatures)
       throws InterruptedException {
 
@@ -84,7 +287,7 @@ class InvocationRegistryTest {
               NullInvocationDataPublisher publisher1 = new NullInvocationDataPublisher();
               try {
                 startingGun.await();
-                while (true) {
+                while (!Thread.currentThread().isInterrupted()) {
                   InvocationRegistry.publishInvocationData(publisher1);
                 }
               } catch (InterruptedException | CodekvastPublishingException ignore) {
@@ -96,6 +299,7 @@ class InvocationRegistryTest {
     startingGun.countDown();
     finishLine.await();
     publisher.interrupt();
+    publisher.join();
     InvocationRegistry.initialize(null);
 
     return true;
@@ -110,6 +314,26 @@ class InvocationRegistryTest {
     public void m3() {}
   }
 
+  private static class CapturingInvocationDataPublisher extends NullInvocationDataPublisher {
+    private Set<String> invocations;
+    private RecordingStatistics2 recordingStatistics;
+
+    @Override
+    public void publishInvocationData(
+        long recordingIntervalStartedAtMillis, Set<String> invocations) {
+      this.invocations = new HashSet<>(invocations);
+    }
+
+    @Override
+    public void publishNormalizedInvocationData(
+        long recordingIntervalStartedAtMillis,
+        Set<String> invocations,
+        RecordingStatistics2 recordingStatistics) {
+      this.recordingStatistics = recordingStatistics;
+      publishInvocationData(recordingIntervalStartedAtMillis, invocations);
+    }
+  }
+
   private static class NullInvocationDataPublisher implements InvocationDataPublisher {
     @Override
     public CodeBaseFingerprint getCodeBaseFingerprint() {
@@ -131,6 +355,9 @@ class InvocationRegistryTest {
     @Override
     public void configure(long customerId, String keyValuePairs) {}
 
+    @Override
+    public void setUploadCompression(String uploadCompression) {}
+
     @Override
     public int getSequenceNumber() {
       return 0;
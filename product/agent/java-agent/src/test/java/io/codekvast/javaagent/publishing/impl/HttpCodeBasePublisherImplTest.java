@@ -9,15 +9,20 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import io.codekvast.javaagent.codebase.CodeBase;
 import io.codekvast.javaagent.config.AgentConfig;
 import io.codekvast.javaagent.config.AgentConfigFactory;
+import io.codekvast.javaagent.model.Endpoints;
 import io.codekvast.javaagent.model.v3.MethodSignature3;
+import io.codekvast.javaagent.model.v4.CodeBasePublication4;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /** @author olle.hallin@crisp.se */
 public class HttpCodeBasePublisherImplTest {
@@ -26,12 +31,19 @@ public class HttpCodeBasePublisherImplTest {
       AgentConfigFactory.createSampleAgentConfig().toBuilder()
           .appName("appName")
           .appVersion("appVersion")
+          .codeBaseScanCacheDir(PublishedCodeBaseStore.DISABLED)
           .build();
   private final CodeBase codeBase = new CodeBase(config);
-  private final HttpCodeBasePublisherImpl publisher = new TestableHttpCodeBasePublisherImpl();
+  private final HttpCodeBasePublisherImpl publisher = new TestableHttpCodeBasePublisherImpl(config);
+
+  @TempDir File tempDir;
 
   private File uploadedFile;
   private int uploadedPublicationSize;
+  private String uploadedUrl;
+  private Map<String, String> uploadedFormData;
+  private int deltaResponseCode = 200;
+  private int binaryResponseCode = 200;
 
   @Test
   public void should_create_and_upload_file() throws Exception {
@@ -44,32 +56,180 @@ public class HttpCodeBasePublisherImplTest {
     // then
     assertThat(uploadedFile, notNullValue());
     assertThat(uploadedFile.getName(), startsWith("codebase-appname-appversion-"));
-    assertThat(uploadedFile.getName(), endsWith(".ser"));
+    assertThat(uploadedFile.getName(), endsWith(".ckv"));
     assertThat(uploadedFile.exists(), is(false));
+    assertThat(uploadedUrl, is(config.getBinaryCodeBaseUploadEndpoint()));
 
     assertThat(uploadedPublicationSize, is(1));
   }
 
+  @Test
+  public void should_fall_back_to_serialization_when_server_does_not_accept_binary()
+      throws Exception {
+    // given
+    codeBase.getSignatures().add(MethodSignature3.createSampleMethodSignature());
+    binaryResponseCode = 404;
+
+    // when
+    publisher.doPublishCodeBase(codeBase);
+
+    // then
+    assertThat(uploadedFile.getName(), endsWith(".ser"));
+    assertThat(uploadedUrl, is(config.getCodeBaseUploadEndpoint()));
+
+    // when
+    uploadedFile = null;
+    publisher.doPublishCodeBase(codeBase);
+
+    // then
+    assertThat(uploadedUrl, is(config.getCodeBaseDeltaUploadEndpoint()));
+    assertThat(uploadedFile.getName(), endsWith(".ser"));
+  }
+
+  @Test
+  public void should_upload_delta_when_code_base_changes() throws Exception {
+    // given
+    addSignatures(codeBase, 1, 2, 3, 4);
+    publisher.doPublishCodeBase(codeBase);
+    assertThat(uploadedUrl, is(config.getBinaryCodeBaseUploadEndpoint()));
+
+    CodeBase newCodeBase = new CodeBase(config);
+    addSignatures(newCodeBase, 1, 2, 3, 5);
+
+    // when
+    publisher.doPublishCodeBase(newCodeBase);
+
+    // then
+    assertThat(uploadedUrl, is(config.getCodeBaseDeltaUploadEndpoint()));
+    assertThat(uploadedPublicationSize, is(4));
+    assertThat(
+        uploadedFormData.get(Endpoints.Agent.PARAM_BASE_FINGERPRINT),
+        is(codeBase.getFingerprint().toString()));
+    assertThat(uploadedFormData.get(Endpoints.Agent.PARAM_APP_NAME), is("appName"));
+  }
+
+  @Test
+  public void should_upload_delta_after_restart() throws Exception {
+    // given
+    AgentConfig persistentConfig =
+        config.toBuilder().codeBaseScanCacheDir(tempDir.getAbsolutePath()).build();
+    addSignatures(codeBase, 1, 2, 3, 4);
+    new TestableHttpCodeBasePublisherImpl(persistentConfig).doPublishCodeBase(codeBase);
+    assertThat(uploadedUrl, is(config.getBinaryCodeBaseUploadEndpoint()));
+
+    CodeBase newCodeBase = new CodeBase(persistentConfig);
+    addSignatures(newCodeBase, 1, 2, 3, 5);
+
+    // when
+    new TestableHttpCodeBasePublisherImpl(persistentConfig).doPublishCodeBase(newCodeBase);
+
+    // then
+    assertThat(uploadedUrl, is(config.getCodeBaseDeltaUploadEndpoint()));
+    assertThat(
+        uploadedFormData.get(Endpoints.Agent.PARAM_BASE_FINGERPRINT),
+        is(codeBase.getFingerprint().toString()));
+  }
+
+  @Test
+  public void should_upload_all_methods_after_restart_of_other_app() throws Exception {
+    // given
+    AgentConfig persistentConfig =
+        config.toBuilder().codeBaseScanCacheDir(tempDir.getAbsolutePath()).build();
+    addSignatures(codeBase, 1, 2, 3, 4);
+    new TestableHttpCodeBasePublisherImpl(persistentConfig).doPublishCodeBase(codeBase);
+
+    AgentConfig otherConfig = persistentConfig.toBuilder().appName("otherApp").build();
+    CodeBase otherCodeBase = new CodeBase(otherConfig);
+    addSignatures(otherCodeBase, 1, 2, 3, 5);
+
+    // when
+    new TestableHttpCodeBasePublisherImpl(otherConfig).doPublishCodeBase(otherCodeBase);
+
+    // then
+    assertThat(uploadedUrl, is(config.getBinaryCodeBaseUploadEndpoint()));
+  }
+
+  @Test
+  public void should_make_delta_publication() throws Exception {
+    // given
+    addSignatures(codeBase, 1, 2, 3, 4, 5);
+    publisher.doPublishCodeBase(codeBase);
+    CodeBase newCodeBase = new CodeBase(config);
+    addSignatures(newCodeBase, 1, 2, 3, 4, 6);
+
+    // when
+    CodeBasePublication4 delta =
+        publisher.makeDeltaPublication(newCodeBase.getCodeBasePublication(1L, 2));
+
+    // then
+    assertThat(delta.getCodeBaseSize(), is(5));
+    assertThat(delta.getAddedEntries().size(), is(1));
+    assertThat(delta.getAddedEntries().iterator().next().getSignature(), is("sample.Sample.m6()"));
+    assertThat(delta.getRemovedSignatures(), is(Collections.singletonList("sample.Sample.m5()")));
+  }
+
+  @Test
+  public void should_upload_all_methods_when_server_does_not_know_base() throws Exception {
+    // given
+    addSignatures(codeBase, 1, 2, 3, 4);
+    publisher.doPublishCodeBase(codeBase);
+    deltaResponseCode = 409;
+
+    CodeBase newCodeBase = new CodeBase(config);
+    addSignatures(newCodeBase, 1, 2, 3, 5);
+
+    // when
+    publisher.doPublishCodeBase(newCodeBase);
+
+    // then
+    assertThat(uploadedUrl, is(config.getBinaryCodeBaseUploadEndpoint()));
+    assertThat(uploadedPublicationSize, is(4));
+  }
+
+  private static void addSignatures(CodeBase codeBase, int... numbers) {
+    for (int n : numbers) {
+      codeBase
+          .getSignatures()
+          .add(
+              MethodSignature3.createSampleMethodSignature().toBuilder()
+                  .aspectjString("public void sample.Sample.m" + n + "()")
+                  .build());
+    }
+  }
+
   @SuppressWarnings("ClassTooDeepInInheritanceTree")
   private class TestableHttpCodeBasePublisherImpl extends HttpCodeBasePublisherImpl {
 
-    TestableHttpCodeBasePublisherImpl() {
-      super(HttpCodeBasePublisherImplTest.this.config);
+    TestableHttpCodeBasePublisherImpl(AgentConfig config) {
+      super(config);
     }
 
     @Override
-    void doPost(File file, String url, String fingerprint, int publicationSize) throws IOException {
-      super.doPost(file, url, fingerprint, publicationSize);
+    void doPost(
+        File file,
+        String url,
+        String fingerprint,
+        int publicationSize,
+        Map<String, String> extraFormData)
+        throws IOException {
+      super.doPost(file, url, fingerprint, publicationSize, extraFormData);
       uploadedFile = file;
       uploadedPublicationSize = publicationSize;
+      uploadedUrl = url;
+      uploadedFormData = extraFormData;
     }
 
     @Override
     Response executeRequest(Request request) {
+      String url = request.url().toString();
+      int code =
+          url.equals(config.getCodeBaseDeltaUploadEndpoint())
+              ? deltaResponseCode
+              : url.equals(config.getBinaryCodeBaseUploadEndpoint()) ? binaryResponseCode : 200;
       return new Response.Builder()
           .request(request)
           .protocol(Protocol.HTTP_1_1)
-          .code(200)
+          .code(code)
           .message("OK")
           .body(ResponseBody.create(MediaType.parse("text/plain"), "OK"))
           .build();
@@ -6,14 +6,30 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import io.codekvast.javaagent.codebase.CodeBaseFingerprint;
 import io.codekvast.javaagent.config.AgentConfig;
 import io.codekvast.javaagent.config.AgentConfigFactory;
+import io.codekvast.javaagent.model.binary.PublicationCodec;
+import io.codekvast.javaagent.model.v2.GetConfigResponse2;
+import io.codekvast.javaagent.model.v2.InvocationDataPublication2;
+import io.codekvast.javaagent.model.v2.RecordingStatistics2;
+import io.codekvast.javaagent.publishing.CodekvastPublishingException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
@@ -21,44 +37,210 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /** @author olle.hallin@crisp.se */
 public class HttpInvocationDataPublisherImplTest {
 
-  private final AgentConfig config =
+  private AgentConfig config =
       AgentConfigFactory.createSampleAgentConfig().toBuilder()
           .appName("appName")
           .appVersion("appVersion")
+          .invocationSpoolDir(InvocationDataSpool.DISABLED)
           .build();
-  private final HttpInvocationDataPublisherImpl publisher =
-      new TestableHttpInvocationDataPublisherImpl();
+  private HttpInvocationDataPublisherImpl publisher = new TestableHttpInvocationDataPublisherImpl();
   private File uploadedFile;
   private int uploadedPublicationSize;
+  private String uploadedUrl;
+  private InvocationDataPublication2 uploadedPublication;
+  private int responseCode = 200;
+
+  @TempDir File spoolDir;
 
   @Test
   public void should_create_and_upload_file_when_invocations_exist() throws Exception {
     Set<String> invocations = new HashSet<>(Arrays.asList("a", "b", "c"));
     publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
-    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations);
+    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations, null);
 
     assertThat(uploadedFile, notNullValue());
     assertThat(uploadedFile.getName(), startsWith("invocations-appname-appversion-"));
-    assertThat(uploadedFile.getName(), endsWith(".ser"));
+    assertThat(uploadedFile.getName(), endsWith(".ckv"));
     assertThat(uploadedFile.exists(), is(false));
+    assertThat(uploadedUrl, is(config.getBinaryInvocationDataUploadEndpoint()));
 
     assertThat(uploadedPublicationSize, is(invocations.size()));
   }
 
+  @Test
+  public void should_upload_serialized_file_when_configured() throws Exception {
+    config = config.toBuilder().publicationFormat("serialized").build();
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+
+    Set<String> invocations = new HashSet<>(Arrays.asList("a", "b", "c"));
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations, null);
+
+    assertThat(uploadedFile.getName(), endsWith(".ser"));
+    assertThat(uploadedUrl, is(config.getInvocationDataUploadEndpoint()));
+  }
+
+  @Test
+  public void should_gzip_serialized_file_when_server_accepts_it() throws Exception {
+    config = config.toBuilder().publicationFormat("serialized").build();
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+    publisher.setUploadCompression(GetConfigResponse2.UPLOAD_COMPRESSION_GZIP);
+
+    Set<String> invocations = new HashSet<>(Arrays.asList("a", "b", "c"));
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations, null);
+
+    assertThat(uploadedFile.getName(), endsWith(".ser.gz"));
+    assertThat(uploadedFile.exists(), is(false));
+    assertThat(uploadedUrl, is(config.getInvocationDataUploadEndpoint()));
+  }
+
+  @Test
+  public void should_not_gzip_serialized_file_when_compression_is_disabled() throws Exception {
+    config = config.toBuilder().publicationFormat("serialized").compressPublications(false).build();
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+    publisher.setUploadCompression(GetConfigResponse2.UPLOAD_COMPRESSION_GZIP);
+
+    Set<String> invocations = new HashSet<>(Arrays.asList("a", "b", "c"));
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations, null);
+
+    assertThat(uploadedFile.getName(), endsWith(".ser"));
+  }
+
   @Test
   public void should_not_create_and_upload_file_when_no_invocations_exist() throws Exception {
     Set<String> invocations = new HashSet<>();
     publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
-    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations);
+    publisher.doPublishInvocationData(System.currentTimeMillis(), invocations, null);
 
     assertThat(uploadedFile, nullValue());
     assertThat(uploadedPublicationSize, is(0));
   }
 
+  @Test
+  public void should_coalesce_intervals_while_server_is_unreachable() throws Exception {
+    config = config.toBuilder().invocationSpoolDir(spoolDir.getAbsolutePath()).build();
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+
+    responseCode = 503;
+    assertThrows(
+        CodekvastPublishingException.class,
+        () ->
+            publisher.doPublishInvocationData(
+                1000L, new HashSet<>(Arrays.asList("a", "b")), statistics(10, 1L)));
+    assertThrows(
+        CodekvastPublishingException.class,
+        () ->
+            publisher.doPublishInvocationData(
+                2000L, new HashSet<>(Arrays.asList("b", "c")), statistics(20, 2L)));
+    assertThat(countSpoolFiles(), is(1));
+
+    responseCode = 200;
+    publisher.doPublishInvocationData(3000L, new HashSet<>(Arrays.asList("d")), null);
+
+    assertThat(uploadedPublicationSize, is(4));
+    assertThat(uploadedPublication.getRecordingIntervalStartedAtMillis(), is(1000L));
+    assertThat(
+        uploadedPublication.getInvocations(), is(new HashSet<>(Arrays.asList("a", "b", "c", "d"))));
+    assertThat(uploadedPublication.getRecordingStatistics().getMaxQueueDepth(), is(20));
+    assertThat(uploadedPublication.getRecordingStatistics().getOverflowCount(), is(3L));
+    assertThat(countSpoolFiles(), is(0));
+  }
+
+  @Test
+  public void should_upload_invocations_spooled_by_previous_jvm() throws Exception {
+    config = config.toBuilder().invocationSpoolDir(spoolDir.getAbsolutePath()).build();
+    writeSpoolFile("previous-jvm", config, 1000L, "a", "b");
+
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+    publisher.doPublishInvocationData(5000L, new HashSet<>(Arrays.asList("c")), null);
+
+    assertThat(uploadedPublication.getRecordingIntervalStartedAtMillis(), is(1000L));
+    assertThat(
+        uploadedPublication.getInvocations(), is(new HashSet<>(Arrays.asList("a", "b", "c"))));
+    assertThat(countSpoolFiles(), is(0));
+  }
+
+  @Test
+  public void should_not_adopt_invocations_spooled_by_running_jvm() throws Exception {
+    config = config.toBuilder().invocationSpoolDir(spoolDir.getAbsolutePath()).build();
+    File spoolFile = writeSpoolFile("running-jvm", config, 1000L, "a", "b");
+    File lockFile = new File(spoolDir, spoolFile.getName().replace(".ckv", ".lock"));
+
+    try (FileChannel channel =
+            FileChannel.open(
+                lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock ignored = channel.lock()) {
+      publisher = new TestableHttpInvocationDataPublisherImpl();
+      publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+      publisher.doPublishInvocationData(5000L, new HashSet<>(Arrays.asList("c")), null);
+    }
+
+    assertThat(uploadedPublication.getInvocations(), is(new HashSet<>(Arrays.asList("c"))));
+    assertThat(spoolFile.exists(), is(true));
+  }
+
+  @Test
+  public void should_not_adopt_invocations_spooled_by_other_environment() throws Exception {
+    config = config.toBuilder().invocationSpoolDir(spoolDir.getAbsolutePath()).build();
+    File spoolFile =
+        writeSpoolFile(
+            "other-environment", config.toBuilder().environment("other").build(), 1000L, "a");
+
+    publisher = new TestableHttpInvocationDataPublisherImpl();
+    publisher.setCodeBaseFingerprint(CodeBaseFingerprint.builder(config).build());
+    publisher.doPublishInvocationData(5000L, new HashSet<>(Arrays.asList("c")), null);
+
+    assertThat(uploadedPublication.getInvocations(), is(new HashSet<>(Arrays.asList("c"))));
+    assertThat(spoolFile.exists(), is(true));
+  }
+
+  private File writeSpoolFile(
+      String jvmUuid,
+      AgentConfig config,
+      long recordingIntervalStartedAtMillis,
+      String... invocations)
+      throws IOException {
+    File file =
+        new File(
+            spoolDir,
+            config.getFilenamePrefix("invocations-spool") + jvmUuid + PublicationCodec.SUFFIX);
+    InvocationDataPublication2 publication =
+        InvocationDataPublication2.builder()
+            .commonData(
+                config.commonPublicationData().toBuilder()
+                    .customerId(-1L)
+                    .sequenceNumber(1)
+                    .build())
+            .recordingIntervalStartedAtMillis(recordingIntervalStartedAtMillis)
+            .invocations(new HashSet<>(Arrays.asList(invocations)))
+            .build();
+    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+      PublicationCodec.encode(publication, PublicationCodec.Compression.NONE, os);
+    }
+    return file;
+  }
+
+  private int countSpoolFiles() {
+    return spoolDir.list((dir, name) -> name.endsWith(PublicationCodec.SUFFIX)).length;
+  }
+
+  private static RecordingStatistics2 statistics(int maxQueueDepth, long overflowCount) {
+    return RecordingStatistics2.builder()
+        .recordingMode("ringBuffer")
+        .maxQueueDepth(maxQueueDepth)
+        .overflowCount(overflowCount)
+        .build();
+  }
+
   private class TestableHttpInvocationDataPublisherImpl extends HttpInvocationDataPublisherImpl {
 
     TestableHttpInvocationDataPublisherImpl() {
@@ -66,10 +248,22 @@ public class HttpInvocationDataPublisherImplTest {
     }
 
     @Override
-    void doPost(File file, String url, String fingerprint, int publicationSize) throws IOException {
-      super.doPost(file, url, fingerprint, publicationSize);
+    void doPost(
+        File file,
+        String url,
+        String fingerprint,
+        int publicationSize,
+        Map<String, String> extraFormData)
+        throws IOException {
+      super.doPost(file, url, fingerprint, publicationSize, extraFormData);
       uploadedFile = file;
       uploadedPublicationSize = publicationSize;
+      uploadedUrl = url;
+      if (file.getName().endsWith(PublicationCodec.SUFFIX)) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+          uploadedPublication = (InvocationDataPublication2) PublicationCodec.decode(is);
+        }
+      }
     }
 
     @Override
@@ -77,7 +271,7 @@ public class HttpInvocationDataPublisherImplTest {
       return new Response.Builder()
           .request(request)
           .protocol(Protocol.HTTP_1_1)
-          .code(200)
+          .code(responseCode)
           .message("OK")
           .body(ResponseBody.create(MediaType.parse("text/plain"), "OK"))
           .build();
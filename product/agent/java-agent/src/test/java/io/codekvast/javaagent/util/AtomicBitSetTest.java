@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.javaagent.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+public class AtomicBitSetTest {
+
+  private final AtomicBitSet bitSet = new AtomicBitSet();
+
+  @Test
+  public void should_have_zero_capacity_when_created() {
+    assertThat(bitSet.capacity(), is(0));
+    assertThat(bitSet.get(0), is(false));
+  }
+
+  @Test
+  public void should_grow_in_segments() {
+    bitSet.ensureCapacity(1);
+    assertThat(bitSet.capacity(), is(65536));
+
+    bitSet.ensureCapacity(65537);
+    assertThat(bitSet.capacity(), is(2 * 65536));
+
+    bitSet.ensureCapacity(10);
+    assertThat(bitSet.capacity(), is(2 * 65536));
+  }
+
+  @Test
+  public void should_set_and_get_bits() {
+    bitSet.ensureCapacity(100_000);
+    bitSet.set(0);
+    bitSet.set(63);
+    bitSet.set(64);
+    bitSet.set(99_999);
+
+    assertThat(bitSet.get(0), is(true));
+    assertThat(bitSet.get(1), is(false));
+    assertThat(bitSet.get(63), is(true));
+    assertThat(bitSet.get(64), is(true));
+    assertThat(bitSet.get(99_999), is(true));
+    assertThat(bitSet.get(1_000_000), is(false));
+  }
+
+  @Test
+  public void should_keep_bits_when_growing() {
+    bitSet.ensureCapacity(10);
+    bitSet.set(7);
+    bitSet.ensureCapacity(200_000);
+    bitSet.set(199_999);
+
+    assertThat(bitSet.get(7), is(true));
+    assertThat(bitSet.get(199_999), is(true));
+  }
+
+  @Test
+  public void should_drain_set_bits_in_order_and_clear_them() {
+    bitSet.ensureCapacity(70_000);
+    bitSet.set(69_999);
+    bitSet.set(3);
+    bitSet.set(64);
+    bitSet.set(3);
+
+    List<Integer> drained = new ArrayList<>();
+    bitSet.drainTo(drained::add);
+    assertThat(drained, contains(3, 64, 69_999));
+
+    drained.clear();
+    bitSet.drainTo(drained::add);
+    assertThat(drained, empty());
+    assertThat(bitSet.get(3), is(false));
+  }
+
+  @Test
+  public void should_handle_concurrent_updates() throws InterruptedException {
+    val numThreads = 16;
+    val numBits = 10_000;
+    val startingGun = new CountDownLatch(1);
+    val finishLine = new CountDownLatch(numThreads);
+    bitSet.ensureCapacity(numBits);
+
+    for (int i = 0; i < numThreads; i++) {
+      val offset = i;
+      Thread t =
+          new Thread(
+              () -> {
+                try {
+                  startingGun.await();
+                  for (int bit = offset; bit < numBits; bit += numThreads) {
+                    bitSet.set(bit);
+                  }
+                } catch (InterruptedException ignore) {
+                  Thread.currentThread().interrupt();
+                } finally {
+                  finishLine.countDown();
+                }
+              });
+      t.start();
+    }
+
+    startingGun.countDown();
+    finishLine.await();
+
+    List<Integer> drained = new ArrayList<>();
+    bitSet.drainTo(drained::add);
+    assertThat(drained.size(), is(numBits));
+  }
+}
@@ -5,9 +5,11 @@ import static io.codekvast.javaagent.util.SignatureUtils.makeLocation;
 import static io.codekvast.javaagent.util.SignatureUtils.makeMethodLocation;
 import static io.codekvast.javaagent.util.SignatureUtils.makeMethodSignature;
 import static io.codekvast.javaagent.util.SignatureUtils.makeSignature;
+import static io.codekvast.javaagent.util.SignatureUtils.normalizeAndStripModifiers;
 import static io.codekvast.javaagent.util.SignatureUtils.signatureToString;
 import static io.codekvast.javaagent.util.SignatureUtils.stripModifiers;
 import static io.codekvast.javaagent.util.SignatureUtils.stripModifiersAndReturnType;
+import static io.codekvast.javaagent.util.SignatureUtils.toAspectjTypeName;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -40,6 +42,15 @@ public class SignatureUtilsTest {
   private final Method testMethods[] = TestClass.class.getDeclaredMethods();
   private final Constructor testConstructors[] = TestClass.class.getDeclaredConstructors();
 
+  @Test
+  public void should_convert_class_names_to_aspectj_type_names() {
+    assertThat(toAspectjTypeName("int"), is("int"));
+    assertThat(toAspectjTypeName("a.b.Outer$Inner"), is("a.b.Outer.Inner"));
+    assertThat(toAspectjTypeName("[Ljava.lang.String;"), is("java.lang.String[]"));
+    assertThat(toAspectjTypeName("[[La.b.Outer$Inner;"), is("a.b.Outer.Inner[][]"));
+    assertThat(toAspectjTypeName("[[J"), is("long[][]"));
+  }
+
   @Test
   public void should_strip_modifiers_publicStaticMethod1()
       throws IOException, NoSuchMethodException {
@@ -100,6 +111,19 @@ public class SignatureUtilsTest {
     assertThat(s2, is(s));
   }
 
+  @Test
+  public void should_normalize_and_strip_modifiers() throws NoSuchMethodException {
+    String s =
+        normalizeAndStripModifiers(
+            signatureToString(makeSignature(TestClass.class, findTestMethod("privateMethod3"))));
+    assertThat(
+        s,
+        is(
+            "io.codekvast.javaagent.util.SignatureUtilsTest.TestClass.privateMethod3(int, java.lang.String[])"));
+    assertThat(normalizeAndStripModifiers(s), is(s));
+    assertThat(normalizeAndStripModifiers(null), nullValue());
+  }
+
   @SuppressWarnings("Duplicates")
   @Test
   public void should_make_signature_for_protectedMethod2() throws Exception {
@@ -31,11 +31,15 @@ import io.codekvast.common.lock.LockTemplate
 import io.codekvast.common.logging.LoggingUtils.humanReadableDuration
 import org.slf4j.LoggerFactory
 import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowCallbackHandler
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
 import java.sql.Timestamp
 import java.time.Clock
 import java.time.temporal.ChronoUnit
+import java.util.SortedSet
+import java.util.TreeMap
+import java.util.TreeSet
 import javax.inject.Inject
 
 /**
@@ -85,6 +89,10 @@ class WeedingServiceImpl @Inject constructor(private val jdbcTemplate: JdbcTempl
             deletedMethodLocations = methodLocationsBefore - countRows("method_locations")
             deletedRows += deletedInvocations + deletedMethods + deletedMethodLocations
 
+            // The invocations of the applications and environments are removed by cascade, so find out
+            // whose usage must be refreshed before deleting them.
+            val affectedMethodIds = getMethodIdsOfUnusedApplicationsAndEnvironments()
+
             deletedApplications = jdbcTemplate.update("""
                 DELETE a FROM applications AS a
                 LEFT JOIN jvms AS j ON a.id = j.applicationId
@@ -96,6 +104,10 @@ class WeedingServiceImpl @Inject constructor(private val jdbcTemplate: JdbcTempl
                 LEFT JOIN jvms AS j ON e.id = j.environmentId
                 WHERE e.enabled = TRUE AND j.environmentId IS NULL""")
             deletedRows += deletedEnvironments
+
+            if (deletedApplications + deletedEnvironments > 0) {
+                refreshMethodUsage(affectedMethodIds)
+            }
         }
 
         val deletedAgents = jdbcTemplate.update("DELETE FROM agent_state WHERE garbage = TRUE ORDER BY id")
@@ -117,6 +129,56 @@ class WeedingServiceImpl @Inject constructor(private val jdbcTemplate: JdbcTempl
         backofficeMetricsService.countWeededRows(deletedRows)
     }
 
+    /**
+     * Finds the methods that are invoked in applications or environments without JVMs, i.e., the ones
+     * that are about to be deleted.
+     *
+     * @return The method ids by customer id.
+     */
+    private fun getMethodIdsOfUnusedApplicationsAndEnvironments(): Map<Long, SortedSet<Long>> {
+        val result = TreeMap<Long, SortedSet<Long>>()
+        jdbcTemplate.query("""
+                SELECT DISTINCT i.customerId, i.methodId FROM invocations AS i
+                WHERE i.applicationId IN (
+                    SELECT a.id FROM applications AS a
+                    LEFT JOIN jvms AS j ON a.id = j.applicationId
+                    WHERE j.applicationId IS NULL)
+                OR i.environmentId IN (
+                    SELECT e.id FROM environments AS e
+                    LEFT JOIN jvms AS j ON e.id = j.environmentId
+                    WHERE e.enabled = TRUE AND j.environmentId IS NULL)""", RowCallbackHandler { rs ->
+            result.getOrPut(rs.getLong(1)) { TreeSet() }.add(rs.getLong(2))
+        })
+        return result
+    }
+
+    /**
+     * Recomputes the method_usage rollup of some methods from their remaining invocations, one chunk
+     * of methods at a time.
+     */
+    private fun refreshMethodUsage(methodIdsByCustomerId: Map<Long, SortedSet<Long>>) {
+        for ((customerId, methodIds) in methodIdsByCustomerId) {
+            for (chunk in methodIds.chunked(REFRESH_CHUNK_SIZE)) {
+                val placeholders = chunk.joinToString(", ") { "?" }
+                jdbcTemplate.update("""
+                        INSERT INTO method_usage(customerId, methodId, status, invokedAtMillis, createdAt, publishedAt)
+                        SELECT * FROM (
+                            SELECT customerId, methodId, MAX(status), MAX(invokedAtMillis), MAX(createdAt), MAX(timestamp)
+                            FROM invocations WHERE customerId = ? AND methodId IN ($placeholders)
+                            GROUP BY customerId, methodId) AS u
+                        ON DUPLICATE KEY UPDATE status = VALUE(status), invokedAtMillis = VALUE(invokedAtMillis),
+                            createdAt = VALUE(createdAt), publishedAt = VALUE(publishedAt)""",
+                        customerId, *chunk.toTypedArray())
+                jdbcTemplate.update("""
+                        DELETE FROM method_usage WHERE customerId = ? AND methodId IN ($placeholders)
+                        AND NOT EXISTS (SELECT 1 FROM invocations i
+                                        WHERE i.customerId = method_usage.customerId AND i.methodId = method_usage.methodId)""",
+                        customerId, *chunk.toTypedArray())
+            }
+        }
+        logger.debug("Refreshed the usage of {} methods", methodIdsByCustomerId.values.sumOf { it.size })
+    }
+
     private fun countRows(table: String) = jdbcTemplate.queryForObject("SELECT COUNT(1) FROM $table", Int::class.java)!!
 
     @Transactional(rollbackFor = [Exception::class])
@@ -180,4 +242,8 @@ class WeedingServiceImpl @Inject constructor(private val jdbcTemplate: JdbcTempl
         }
         return sum
     }
+
+    companion object {
+        private const val REFRESH_CHUNK_SIZE = 1000
+    }
 }
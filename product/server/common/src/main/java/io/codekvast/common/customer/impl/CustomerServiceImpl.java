@@ -401,6 +401,7 @@ public class CustomerServiceImpl implements CustomerService {
     long customerId = customerData.getCustomerId();
 
     deleteFromTable("invocations", customerId);
+    deleteFromTable("method_usage", customerId);
     deleteFromTable("method_locations", customerId);
     deleteFromTable("methods", customerId);
     deleteFromTable("jvms", customerId);
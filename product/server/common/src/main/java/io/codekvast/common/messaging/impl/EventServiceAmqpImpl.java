@@ -21,7 +21,7 @@
  */
 package io.codekvast.common.messaging.impl;
 
-import static io.codekvast.common.messaging.impl.RabbitmqConfig.CODEKVAST_EVENT_QUEUE;
+import static io.codekvast.common.messaging.impl.RabbitmqConfig.CODEKVAST_EVENT_EXCHANGE;
 
 import io.codekvast.common.messaging.EventService;
 import io.codekvast.common.messaging.model.CodekvastEvent;
@@ -31,10 +31,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.amqp.core.MessageDeliveryMode;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * An AMQP implementation of the EventService.
  *
+ * <p>Events sent inside a transaction are not published until the transaction commits, so that
+ * consumers will see the data that the event tells about.
+ *
  * @author olle.hallin@crisp.se
  */
 @Service
@@ -47,9 +52,24 @@ public class EventServiceAmqpImpl implements EventService {
 
   @Override
   public void send(CodekvastEvent event) {
-    logger.debug("Sending {} to {}", event, CODEKVAST_EVENT_QUEUE);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              doSend(event);
+            }
+          });
+    } else {
+      doSend(event);
+    }
+  }
+
+  private void doSend(CodekvastEvent event) {
+    logger.debug("Sending {} to {}", event, CODEKVAST_EVENT_EXCHANGE);
     amqpTemplate.convertAndSend(
-        CODEKVAST_EVENT_QUEUE,
+        CODEKVAST_EVENT_EXCHANGE,
+        "",
         event,
         message -> {
           logger.trace("Message={}", message);
@@ -27,7 +27,9 @@ import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.context.annotation.Configuration;
@@ -36,6 +38,10 @@ import org.springframework.context.annotation.Configuration;
  * Don't forget to set spring.rabbitmq.listener.simple.default-requeue-rejected=false in
  * application.yml, or else DLQ will not work.
  *
+ * <p>Events are published to a fanout exchange. The durable event queue is bound to it, and is
+ * consumed by one service instance at a time. Other consumers that need to see every event (e.g.,
+ * cache invalidation in each dashboard instance) bind queues of their own to the exchange.
+ *
  * @author olle.hallin@crisp.se
  */
 @Configuration
@@ -44,6 +50,7 @@ import org.springframework.context.annotation.Configuration;
 @Slf4j
 public class RabbitmqConfig {
 
+  public static final String CODEKVAST_EVENT_EXCHANGE = "codekvast.events.fanout";
   public static final String CODEKVAST_EVENT_QUEUE = "codekvast.events";
   public static final String CODEKVAST_EVENT_DLQ = "codekvast.events.dlq";
 
@@ -58,5 +65,9 @@ public class RabbitmqConfig {
     args.put("x-dead-letter-routing-key", CODEKVAST_EVENT_DLQ);
     Queue queue = new Queue(CODEKVAST_EVENT_QUEUE, true, false, false, args);
     amqpAdmin.declareQueue(queue);
+
+    FanoutExchange exchange = new FanoutExchange(CODEKVAST_EVENT_EXCHANGE);
+    amqpAdmin.declareExchange(exchange);
+    amqpAdmin.declareBinding(BindingBuilder.bind(queue).to(exchange));
   }
 }
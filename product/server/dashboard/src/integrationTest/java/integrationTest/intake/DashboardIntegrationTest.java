@@ -1,6 +1,8 @@
 package integrationTest.intake;
 
 import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
@@ -21,17 +23,23 @@ import io.codekvast.dashboard.CodekvastDashboardApplication;
 import io.codekvast.dashboard.dashboard.DashboardService;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest.OrderBy;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse2;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor1;
+import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor2;
 import io.codekvast.dashboard.dashboard.model.status.AgentDescriptor;
 import io.codekvast.dashboard.dashboard.model.status.GetStatusResponse;
 import io.codekvast.javaagent.model.v2.SignatureStatus2;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
@@ -75,6 +83,8 @@ public class DashboardIntegrationTest {
   private static final String DATABASE = "codekvast";
   private static final String USERNAME = "codekvastUser";
   private static final String PASSWORD = "codekvastPassword";
+  private static final long HOUR_MILLIS = 3_600_000L;
+  private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
 
   @ClassRule
   public static MariaDBContainer<?> mariaDB =
@@ -403,6 +413,164 @@ public class DashboardIntegrationTest {
     assertThat(response.getMethods(), hasSize(0));
   }
 
+  @Test
+  @Sql(scripts = "/sql/base-data.sql")
+  public void should_getMethods2_from_the_rolled_up_invocations() {
+    // given
+    long now = System.currentTimeMillis();
+    generateQueryTestData(now);
+    setSecurityContextCustomerId(1L);
+
+    // when
+    GetMethodsResponse2 response = dashboardService.getMethods2(GetMethodsRequest.defaults());
+
+    // then
+    assertThat(getIds(response.getMethods()), contains(1L, 10L, 2L, 3L, 4L, 5L, 6L));
+    assertThat(response.getMethods().get(0).getLastInvokedAtMillis(), is(now - HOUR_MILLIS));
+    assertThat(response.getMethods().get(3).getLastInvokedAtMillis(), is(now - 2 * HOUR_MILLIS));
+    assertThat(response.getMethods().get(4).getLastInvokedAtMillis(), is(0L));
+    assertThat(response.getMethods().get(0).getCollectedDays(), is(20));
+  }
+
+  @Test
+  @Sql(scripts = "/sql/base-data.sql")
+  public void should_getMethods2_for_one_application() {
+    // given
+    long now = System.currentTimeMillis();
+    generateQueryTestData(now);
+    setSecurityContextCustomerId(1L);
+
+    // when
+    GetMethodsResponse2 response =
+        dashboardService.getMethods2(
+            GetMethodsRequest.defaults().toBuilder().applications(singletonList("app1")).build());
+
+    // then
+    assertThat(getIds(response.getMethods()), contains(1L, 10L, 2L, 3L, 4L, 5L, 6L));
+    assertThat(response.getMethods().get(0).getLastInvokedAtMillis(), is(now - 5 * HOUR_MILLIS));
+    assertThat(response.getMethods().get(3).getLastInvokedAtMillis(), is(0L));
+  }
+
+  @Test
+  @Sql(scripts = "/sql/base-data.sql")
+  public void should_getMethods3_by_last_invoked_at_in_pages() {
+    // given
+    generateQueryTestData(System.currentTimeMillis());
+    setSecurityContextCustomerId(1L);
+
+    // when
+    List<List<Long>> pages =
+        getAllPages(
+            GetMethodsRequest.defaults().toBuilder()
+                .orderBy(OrderBy.LAST_INVOKED_AT)
+                .maxResults(2)
+                .build());
+
+    // then the never invoked methods are ordered by id, also across pages
+    assertThat(pages, contains(asList(4L, 5L), asList(10L, 6L), asList(2L, 3L), singletonList(1L)));
+  }
+
+  @Test
+  @Sql(scripts = "/sql/base-data.sql")
+  public void should_getMethods3_by_signature_in_pages() {
+    // given
+    generateQueryTestData(System.currentTimeMillis());
+    setSecurityContextCustomerId(1L);
+
+    // when
+    List<List<Long>> pages =
+        getAllPages(
+            GetMethodsRequest.defaults().toBuilder()
+                .orderBy(OrderBy.SIGNATURE)
+                .maxResults(2)
+                .build());
+
+    // then
+    assertThat(pages, contains(asList(1L, 10L), asList(2L, 3L), asList(4L, 5L), singletonList(6L)));
+  }
+
+  @Test
+  @Sql(scripts = "/sql/base-data.sql")
+  public void should_search_signature_case_insensitively() {
+    // given
+    generateQueryTestData(System.currentTimeMillis());
+    setSecurityContextCustomerId(1L);
+    GetMethodsRequest request = GetMethodsRequest.defaults().toBuilder().signature("M1").build();
+
+    // when
+    GetMethodsResponse2 response2 = dashboardService.getMethods2(request);
+    List<List<Long>> pages =
+        getAllPages(request.toBuilder().orderBy(OrderBy.SIGNATURE).maxResults(1).build());
+
+    // then
+    assertThat(getIds(response2.getMethods()), contains(1L, 10L));
+    assertThat(pages, contains(singletonList(1L), singletonList(10L)));
+  }
+
+  /**
+   * Invokes the methods of base-data.sql in two applications, and rolls up the invocations into
+   * method_usage like the intake does.
+   *
+   * <ul>
+   *   <li>m1, m2, m3 and m6 are invoked, m1 and m3 most recently in app2.
+   *   <li>m4, m5 and m10 are not invoked.
+   *   <li>m7 is not tracked, m8 is not in any application and m9 is abstract.
+   * </ul>
+   */
+  private void generateQueryTestData(long now) {
+    jdbcTemplate.update("UPDATE methods SET modifiers = '' WHERE customerId = 1");
+    jdbcTemplate.update("UPDATE methods SET modifiers = 'abstract' WHERE id = 9");
+
+    Timestamp createdAt = new Timestamp(now - 20 * DAY_MILLIS);
+    Object[][] invocations = {
+      {1L, 1L, 1L, now - 5 * HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {2L, 2L, 1L, now - HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {1L, 1L, 2L, now - 3 * HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {1L, 1L, 3L, 0L, SignatureStatus2.NOT_INVOKED},
+      {2L, 2L, 3L, now - 2 * HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {1L, 1L, 4L, 0L, SignatureStatus2.NOT_INVOKED},
+      {1L, 1L, 5L, 0L, SignatureStatus2.NOT_INVOKED},
+      {1L, 1L, 6L, now - 4 * HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {1L, 1L, 7L, 0L, SignatureStatus2.EXCLUDED_BY_VISIBILITY},
+      {1L, 1L, 9L, now - 6 * HOUR_MILLIS, SignatureStatus2.INVOKED},
+      {1L, 1L, 10L, 0L, SignatureStatus2.NOT_INVOKED},
+    };
+    for (Object[] i : invocations) {
+      jdbcTemplate.update(
+          "INSERT INTO invocations(customerId, applicationId, environmentId, methodId, "
+              + "invokedAtMillis, status, createdAt) VALUES (1, ?, ?, ?, ?, ?, ?)",
+          i[0],
+          i[1],
+          i[2],
+          i[3],
+          ((SignatureStatus2) i[4]).name(),
+          createdAt);
+    }
+
+    jdbcTemplate.update(
+        "INSERT INTO method_usage(customerId, methodId, status, invokedAtMillis, createdAt, publishedAt) "
+            + "SELECT customerId, methodId, MAX(status), MAX(invokedAtMillis), MAX(createdAt), MAX(timestamp) "
+            + "FROM invocations WHERE customerId = 1 GROUP BY customerId, methodId");
+    assertThat(countRowsInTable("method_usage"), is(9));
+  }
+
+  private List<List<Long>> getAllPages(GetMethodsRequest request) {
+    List<List<Long>> result = new ArrayList<>();
+    GetMethodsRequest pageRequest = request;
+    while (true) {
+      GetMethodsResponse3 response = dashboardService.getMethods3(pageRequest);
+      result.add(getIds(response.getMethods()));
+      if (response.getContinuationToken() == null) {
+        return result;
+      }
+      pageRequest = request.toBuilder().continuationToken(response.getContinuationToken()).build();
+    }
+  }
+
+  private static List<Long> getIds(List<MethodDescriptor2> methods) {
+    return methods.stream().map(MethodDescriptor2::getId).collect(Collectors.toList());
+  }
+
   @Test
   public void should_query_by_known_id() {
     // given
@@ -50,6 +50,15 @@ public class CodekvastDashboardSettings {
   /** Should imported files be deleted after successful import? */
   private boolean deleteImportedFiles = true;
 
+  /**
+   * For how long may a customer's status be cached? Changes are normally signalled by events, but
+   * an agent that stops polling sends no event.
+   */
+  private int statusCacheSeconds = 60;
+
+  /** For how long may a customer's methods form data be cached? */
+  private int methodsFormDataCacheSeconds = 600;
+
   @PostConstruct
   public void logStartup() {
     //noinspection UseOfSystemOutOrSystemErr
@@ -26,20 +26,34 @@ import io.codekvast.dashboard.dashboard.model.ServerSettings;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse2;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor1;
+import io.codekvast.dashboard.dashboard.model.methods.MethodsExportFormat;
 import io.codekvast.dashboard.dashboard.model.status.GetStatusResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Optional;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -64,6 +78,11 @@ public class DashboardApiController {
     return ResponseEntity.badRequest().body(violations.toString());
   }
 
+  @ExceptionHandler
+  public ResponseEntity<String> onIllegalArgumentException(IllegalArgumentException e) {
+    return ResponseEntity.badRequest().body(e.getMessage());
+  }
+
   @GetMapping("/dashboard/api/v1/serverSettings")
   public ServerSettings getServerSettings() {
     String displayVersion = this.commonSettings.getDisplayVersion();
@@ -87,6 +106,58 @@ public class DashboardApiController {
     return response;
   }
 
+  @PostMapping("/dashboard/api/v3/methods")
+  public GetMethodsResponse3 getMethods3(@Valid @RequestBody GetMethodsRequest request) {
+    logger.debug("Request: {}", request);
+    GetMethodsResponse3 response = dashboardService.getMethods3(request);
+    logger.trace("Response: {}", response);
+    return response;
+  }
+
+  /**
+   * Exports all methods matching the request, regardless of maxResults. The methods are written to
+   * the response while they are read from the database.
+   *
+   * @param request The request.
+   * @param format csv or ndjson.
+   * @param response The response to write the methods to.
+   */
+  @PostMapping("/dashboard/api/v3/methods/export")
+  public void exportMethods(
+      @Valid @RequestBody GetMethodsRequest request,
+      @RequestParam(value = "format", defaultValue = "csv") String format,
+      HttpServletResponse response)
+      throws IOException {
+    logger.debug("Request: {}, format: {}", request, format);
+    MethodsExportFormat exportFormat = MethodsExportFormat.valueOf(format.toUpperCase(Locale.ROOT));
+
+    response.setContentType(exportFormat.getContentType());
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    response.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.attachment()
+            .filename("codekvast-methods." + exportFormat.getFileExtension())
+            .build()
+            .toString());
+
+    MethodsExportWriter writer =
+        new MethodsExportWriter(
+            exportFormat,
+            new BufferedWriter(
+                new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)));
+    dashboardService.exportMethods(
+        request,
+        method -> {
+          try {
+            writer.write(method);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+    int count = writer.finish();
+    logger.debug("Exported {} methods", count);
+  }
+
   @GetMapping("/dashboard/api/v1/method/detail/{id}")
   public ResponseEntity<MethodDescriptor1> getMethod1(@PathVariable(value = "id") Long methodId) {
     long startedAt = System.currentTimeMillis();
@@ -105,16 +176,26 @@ public class DashboardApiController {
   }
 
   @GetMapping("/dashboard/api/v1/status")
-  public GetStatusResponse getStatus1() {
+  public ResponseEntity<GetStatusResponse> getStatus1() {
     GetStatusResponse status = dashboardService.getStatus();
     logger.trace("{}", status);
-    return status;
+    return withETag(status);
   }
 
   @GetMapping("/dashboard/api/v1/methodsFormData")
-  public GetMethodsFormData getMethodsFormData() {
+  public ResponseEntity<GetMethodsFormData> getMethodsFormData() {
     GetMethodsFormData data = dashboardService.getMethodsFormData();
     logger.debug("{}", data);
-    return data;
+    return withETag(data);
+  }
+
+  /**
+   * Tags a response with a digest of its contents. The response body is cached by the service until
+   * the data changes, so Spring answers a request with a matching If-None-Match header with 304 Not
+   * Modified. The browser must revalidate each time it uses its copy.
+   */
+  private static <T> ResponseEntity<T> withETag(T body) {
+    String eTag = DigestUtils.md5DigestAsHex(body.toString().getBytes(StandardCharsets.UTF_8));
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(eTag).body(body);
   }
 }
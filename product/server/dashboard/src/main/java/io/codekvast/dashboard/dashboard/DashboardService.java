@@ -24,9 +24,12 @@ package io.codekvast.dashboard.dashboard;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse2;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor1;
+import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor2;
 import io.codekvast.dashboard.dashboard.model.status.GetStatusResponse;
 import java.util.Optional;
+import java.util.function.Consumer;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
@@ -52,6 +55,32 @@ public interface DashboardService {
    */
   GetMethodsResponse2 getMethods2(@Valid GetMethodsRequest request);
 
+  /**
+   * Retrieve information about a set of methods, one page at a time.
+   *
+   * <p>The methods are ordered by {@link GetMethodsRequest#getOrderBy()}. The next page is
+   * retrieved by repeating the request with the continuationToken of the previous response.
+   *
+   * @param request The request parameters.
+   * @return A response object. Does never return null.
+   * @throws IllegalArgumentException if the continuationToken is invalid.
+   */
+  GetMethodsResponse3 getMethods3(@Valid GetMethodsRequest request);
+
+  /**
+   * Export all methods matching a request, without any limit on the number of methods.
+   *
+   * <p>The methods are read from a forward-only cursor and handed to the consumer one at a time, so
+   * the memory used does not grow with the number of methods.
+   *
+   * @param request The request parameters. maxResults is ignored. A continuationToken returned by
+   *     {@link #getMethods3(GetMethodsRequest)} starts the export after that page.
+   * @param consumer Receives the methods, in the order of {@link GetMethodsRequest#getOrderBy()}.
+   * @return The number of exported methods.
+   * @throws IllegalArgumentException if the continuationToken is invalid.
+   */
+  int exportMethods(@Valid GetMethodsRequest request, Consumer<MethodDescriptor2> consumer);
+
   /**
    * Retrieve information about a particular method.
    *
@@ -63,6 +92,9 @@ public interface DashboardService {
   /**
    * Retrieve status for the authenticated customer.
    *
+   * <p>The status is cached per customer until an event tells that the customer's data has changed,
+   * or for at most {@code codekvast.dashboard.statusCacheSeconds}.
+   *
    * @return A status object. Does never return null.
    */
   GetStatusResponse getStatus();
@@ -70,6 +102,8 @@ public interface DashboardService {
   /**
    * Get data to use in the search methods form.
    *
+   * <p>The form data is cached per customer in the same way as {@link #getStatus()}.
+   *
    * @return A GetMethodsFormData object. Does never return null.
    */
   GetMethodsFormData getMethodsFormData();
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.dashboard.dashboard;
+
+import com.google.gson.Gson;
+import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor2;
+import io.codekvast.dashboard.dashboard.model.methods.MethodsExportFormat;
+import java.io.IOException;
+import java.io.Writer;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Writes exported methods in a {@link MethodsExportFormat}, one method at a time.
+ *
+ * <p>Nothing is written before the first method, so that a request that fails before that still can
+ * be answered with a proper error status. The first method is flushed at once, so that the client
+ * does not have to wait for the rest of the export.
+ */
+@RequiredArgsConstructor
+class MethodsExportWriter {
+  private static final String CSV_HEADER =
+      "id,signature,trackedPercent,collectedDays,lastInvokedAtMillis,collectedToMillis,"
+          + "methodAnnotation,methodLocationAnnotation,typeAnnotation,packageAnnotation";
+  private static final String CSV_LINE_SEPARATOR = "\r\n";
+
+  private final MethodsExportFormat format;
+  private final Writer writer;
+  private final Gson gson = new Gson();
+  private int count;
+
+  void write(MethodDescriptor2 method) throws IOException {
+    if (count == 0) {
+      writeHeader();
+    }
+    if (format == MethodsExportFormat.CSV) {
+      writeCsv(method);
+    } else {
+      writer.write(gson.toJson(method));
+      writer.write('\n');
+    }
+    count += 1;
+    if (count == 1) {
+      writer.flush();
+    }
+  }
+
+  /**
+   * Completes the export.
+   *
+   * @return The number of written methods.
+   */
+  int finish() throws IOException {
+    if (count == 0) {
+      writeHeader();
+    }
+    writer.flush();
+    return count;
+  }
+
+  private void writeHeader() throws IOException {
+    if (format == MethodsExportFormat.CSV) {
+      writer.write(CSV_HEADER);
+      writer.write(CSV_LINE_SEPARATOR);
+    }
+  }
+
+  private void writeCsv(MethodDescriptor2 method) throws IOException {
+    writer.write(
+        String.join(
+            ",",
+            csvField(method.getId()),
+            csvField(method.getSignature()),
+            csvField(method.getTrackedPercent()),
+            csvField(method.getCollectedDays()),
+            csvField(method.getLastInvokedAtMillis()),
+            csvField(method.getCollectedToMillis()),
+            csvField(method.getMethodAnnotation()),
+            csvField(method.getMethodLocationAnnotation()),
+            csvField(method.getTypeAnnotation()),
+            csvField(method.getPackageAnnotation())));
+    writer.write(CSV_LINE_SEPARATOR);
+  }
+
+  /** Quotes a value according to RFC 4180. Signatures often contain commas. */
+  private static String csvField(Object value) {
+    if (value == null) {
+      return "";
+    }
+    String s = value.toString();
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+      return s;
+    }
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+}
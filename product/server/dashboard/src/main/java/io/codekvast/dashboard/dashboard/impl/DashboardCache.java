@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.dashboard.dashboard.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.codekvast.dashboard.bootstrap.CodekvastDashboardSettings;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
+import io.codekvast.dashboard.dashboard.model.status.GetStatusResponse;
+import java.time.Duration;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * A per-customer cache of the dashboard responses that are polled by the web UI.
+ *
+ * <p>The entries are evicted by {@link DashboardCacheInvalidator} as soon as an event tells that
+ * something has happened to the customer's data. The entries also expire after a configurable time,
+ * since not all changes are signalled by events.
+ */
+@Component
+@Slf4j
+public class DashboardCache {
+  private static final int MAX_CUSTOMERS = 1000;
+
+  private final Cache<Long, GetStatusResponse> statuses;
+  private final Cache<Long, GetMethodsFormData> methodsFormData;
+
+  public DashboardCache(CodekvastDashboardSettings settings) {
+    this.statuses = newCache(settings.getStatusCacheSeconds());
+    this.methodsFormData = newCache(settings.getMethodsFormDataCacheSeconds());
+  }
+
+  private static <V> Cache<Long, V> newCache(int expireAfterWriteSeconds) {
+    return Caffeine.newBuilder()
+        .maximumSize(MAX_CUSTOMERS)
+        .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds))
+        .build();
+  }
+
+  /**
+   * Gets the cached status of a customer.
+   *
+   * @param customerId The customer.
+   * @param loader Computes the status if not cached. Concurrent requests for the same customer wait
+   *     for the same computation.
+   * @return The status. Is never null.
+   */
+  GetStatusResponse getStatus(Long customerId, Function<Long, GetStatusResponse> loader) {
+    return statuses.get(customerId, loader);
+  }
+
+  /**
+   * Gets the cached methods form data of a customer.
+   *
+   * @param customerId The customer.
+   * @param loader Computes the form data if not cached.
+   * @return The form data. Is never null.
+   */
+  GetMethodsFormData getMethodsFormData(
+      Long customerId, Function<Long, GetMethodsFormData> loader) {
+    return methodsFormData.get(customerId, loader);
+  }
+
+  /**
+   * Evicts everything cached for a customer.
+   *
+   * @param customerId The customer.
+   */
+  public void evict(Long customerId) {
+    logger.trace("Evicting cached responses for customer {}", customerId);
+    statuses.invalidate(customerId);
+    methodsFormData.invalidate(customerId);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.dashboard.dashboard.impl;
+
+import static io.codekvast.common.messaging.impl.RabbitmqConfig.CODEKVAST_EVENT_EXCHANGE;
+
+import io.codekvast.common.messaging.model.CodekvastEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evicts the {@link DashboardCache} entries of a customer when a {@link CodekvastEvent} for it is
+ * received, e.g., an AgentPolledEvent, CodeBaseReceivedEvent or InvocationDataReceivedEvent.
+ *
+ * <p>Each dashboard instance has a cache of its own, so each instance consumes the events from an
+ * anonymous, auto-deleted queue bound to the event exchange. Evicting is idempotent, so there is no
+ * need to de-duplicate the messages.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DashboardCacheInvalidator {
+
+  private final DashboardCache dashboardCache;
+
+  @RabbitListener(
+      bindings =
+          @QueueBinding(
+              value = @Queue,
+              exchange = @Exchange(value = CODEKVAST_EVENT_EXCHANGE, type = ExchangeTypes.FANOUT)))
+  public void onCodekvastEvent(@Payload CodekvastEvent event) {
+    Long customerId = event.getCustomerId();
+    if (customerId != null && customerId >= 0) {
+      logger.debug("Received {}", event);
+      dashboardCache.evict(customerId);
+    }
+  }
+}
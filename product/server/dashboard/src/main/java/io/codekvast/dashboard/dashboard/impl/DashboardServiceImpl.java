@@ -32,7 +32,9 @@ import io.codekvast.dashboard.dashboard.model.methods.ApplicationDescriptor;
 import io.codekvast.dashboard.dashboard.model.methods.EnvironmentDescriptor;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest.OrderBy;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse2;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor1;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor2;
 import io.codekvast.dashboard.dashboard.model.status.AgentDescriptor;
@@ -51,9 +53,11 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
@@ -75,129 +79,317 @@ import org.springframework.validation.annotation.Validated;
 public class DashboardServiceImpl implements DashboardService {
 
   private static final long ONE_DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+  private static final int EXPORT_FETCH_SIZE = 1000;
   private final JdbcTemplate jdbcTemplate;
   private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
   private final CustomerIdProvider customerIdProvider;
   private final CustomerService customerService;
   private final Clock clock;
+  private final DashboardCache dashboardCache;
 
   @Override
   @Transactional(readOnly = true)
   public GetMethodsResponse2 getMethods2(@Valid GetMethodsRequest request) {
     long startedAt = clock.millis();
+
+    List<MethodDescriptor2> methods = new ArrayList<>(request.getMaxResults());
+    queryMethods(
+        namedParameterJdbcTemplate,
+        request,
+        OrderBy.LAST_INVOKED_AT,
+        null,
+        request.getMaxResults(),
+        (method, position) -> methods.add(method));
+
+    methods.sort(Comparator.comparing(MethodDescriptor2::getSignature));
+
+    long queryTimeMillis = clock.millis() - startedAt;
+    logger.debug("Processed {} in {} ms.", request, queryTimeMillis);
+
+    return GetMethodsResponse2.builder()
+        .timestamp(startedAt)
+        .request(request)
+        .numMethods(methods.size())
+        .methods(methods)
+        .queryTimeMillis(queryTimeMillis)
+        .build();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public GetMethodsResponse3 getMethods3(@Valid GetMethodsRequest request) {
+    long startedAt = clock.millis();
+    OrderBy orderBy = request.getOrderBy();
+    MethodsContinuationToken after = parseContinuationToken(request);
+
+    // Fetch one extra method, to find out if there is a next page.
+    int maxResults = request.getMaxResults();
+    List<MethodDescriptor2> methods = new ArrayList<>(maxResults + 1);
+    List<MethodsContinuationToken> positions = new ArrayList<>(maxResults + 1);
+    queryMethods(
+        namedParameterJdbcTemplate,
+        request,
+        orderBy,
+        after,
+        maxResults + 1,
+        (method, position) -> {
+          methods.add(method);
+          positions.add(position);
+        });
+
+    String continuationToken = null;
+    if (methods.size() > maxResults) {
+      methods.remove(maxResults);
+      continuationToken = positions.get(maxResults - 1).toString();
+    }
+
+    long queryTimeMillis = clock.millis() - startedAt;
+    logger.debug("Processed {} in {} ms.", request, queryTimeMillis);
+
+    return GetMethodsResponse3.builder()
+        .timestamp(startedAt)
+        .request(request)
+        .numMethods(methods.size())
+        .methods(methods)
+        .continuationToken(continuationToken)
+        .queryTimeMillis(queryTimeMillis)
+        .build();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public int exportMethods(@Valid GetMethodsRequest request, Consumer<MethodDescriptor2> consumer) {
+    long startedAt = clock.millis();
+    int[] count = {0};
+    queryMethods(
+        getStreamingJdbcTemplate(),
+        request,
+        request.getOrderBy(),
+        parseContinuationToken(request),
+        Integer.MAX_VALUE,
+        (method, position) -> {
+          consumer.accept(method);
+          count[0] += 1;
+        });
+
+    logger.debug(
+        "Exported {} methods for {} in {} ms.", count[0], request, clock.millis() - startedAt);
+    return count[0];
+  }
+
+  private static MethodsContinuationToken parseContinuationToken(GetMethodsRequest request) {
+    if (request.getContinuationToken() == null) {
+      return null;
+    }
+    MethodsContinuationToken result =
+        MethodsContinuationToken.parse(request.getContinuationToken());
+    if (result.getOrderBy() != request.getOrderBy()) {
+      throw new IllegalArgumentException(
+          "The continuationToken is not ordered by " + request.getOrderBy());
+    }
+    return result;
+  }
+
+  /**
+   * MariaDB Connector/J streams a result set from the server when a fetch size is set, instead of
+   * reading all rows into memory before the first one is handed out. The connection cannot be used
+   * for anything else until the result set has been read, so the row handler must not query the
+   * database.
+   */
+  private NamedParameterJdbcTemplate getStreamingJdbcTemplate() {
+    JdbcTemplate template = new JdbcTemplate(jdbcTemplate.getDataSource());
+    template.setFetchSize(EXPORT_FETCH_SIZE);
+    return new NamedParameterJdbcTemplate(template);
+  }
+
+  /**
+   * Queries the methods matching a request, in a certain order.
+   *
+   * @param template The template to query with.
+   * @param request The request.
+   * @param orderBy The order in which the methods are passed to the handler.
+   * @param after If not null, only methods after this position are queried.
+   * @param limit The max number of methods to query.
+   * @param handler Receives each method and its position.
+   */
+  private void queryMethods(
+      NamedParameterJdbcTemplate template,
+      GetMethodsRequest request,
+      OrderBy orderBy,
+      MethodsContinuationToken after,
+      int limit,
+      MethodHandler handler) {
     Long customerId = customerIdProvider.getCustomerId();
     PricePlan pricePlan = customerService.getCustomerDataByCustomerId(customerId).getPricePlan();
 
     MapSqlParameterSource params = new MapSqlParameterSource();
     params.addValue(
         "latestCollectedSince", clock.instant().minus(request.getMinCollectedDays(), DAYS));
-    params.addValue("now", new Timestamp(clock.millis()));
     params.addValue("customerId", customerId);
-    String whereClause = "i.customerId = :customerId AND m.modifiers NOT LIKE '%abstract%'";
+    params.addValue("limit", limit);
+    String whereClause =
+        "u.customerId = :customerId AND u.createdAt <= :latestCollectedSince "
+            + "AND m.modifiers NOT LIKE '%abstract%'";
 
     String normalizedSignature = request.getNormalizedSignature();
     if (!normalizedSignature.equals("%")) {
-      params.addValue("signature", normalizedSignature);
-      whereClause +=
-          " AND m.signature LIKE :signature COLLATE utf8mb4_general_ci"; // Make it case-insensitive
+      // A case-insensitive search, which can use the index on (customerId, searchSignature) as long
+      // as the signature does not start with a wildcard.
+      params.addValue("signature", normalizedSignature.toLowerCase(Locale.ROOT));
+      whereClause += " AND m.searchSignature LIKE :signature";
     }
+
+    String invocationsWhereClause = "customerId = :customerId";
     if (request.getApplications() != null && !request.getApplications().isEmpty()) {
       params.addValue(
           "applicationIds", translateNamesToIds("applications", "name", request.getApplications()));
-      whereClause += " AND i.applicationId IN (:applicationIds)";
+      invocationsWhereClause += " AND applicationId IN (:applicationIds)";
     }
     if (request.getEnvironments() != null && !request.getEnvironments().isEmpty()) {
       params.addValue(
           "environmentIds", translateNamesToIds("environments", "name", request.getEnvironments()));
-      whereClause += " AND i.environmentId IN (:environmentIds)";
+      invocationsWhereClause += " AND environmentId IN (:environmentIds)";
     }
+
+    String locationCondition = "ml.methodId = m.id AND ml.customerId = m.customerId";
     if (request.getLocations() != null && !request.getLocations().isEmpty()) {
       params.addValue(
           "locationIds",
           translateNamesToIds("method_locations", "locationNoVersion", request.getLocations()));
-      whereClause += " AND ml.id IN (:locationIds)";
+      locationCondition += " AND ml.id IN (:locationIds)";
+      whereClause +=
+          " AND EXISTS (SELECT 1 FROM method_locations ml WHERE " + locationCondition + ")";
+    }
+
+    if (request.isSuppressUntrackedMethods()) {
+      params.addValue("trackedStatuses", getTrackedStatuses());
+      whereClause += " AND u.status IN (:trackedStatuses)";
+    }
+    whereClause += getInvokedAtMillisCondition(request, pricePlan, params);
+
+    if (after != null) {
+      params.addValue("afterMethodId", after.getMethodId());
+      if (orderBy == OrderBy.SIGNATURE) {
+        params.addValue("afterSignature", after.getValue());
+        whereClause +=
+            " AND (m.signature > :afterSignature "
+                + "OR (m.signature = :afterSignature AND u.methodId > :afterMethodId))";
+      } else {
+        params.addValue("afterInvokedAtMillis", Long.parseLong(after.getValue()));
+        whereClause +=
+            " AND (u.invokedAtMillis > :afterInvokedAtMillis "
+                + "OR (u.invokedAtMillis = :afterInvokedAtMillis AND u.methodId > :afterMethodId))";
+      }
     }
 
+    // The method_usage table is a rollup of all invocations of each method. Only a filter on
+    // applications or environments requires aggregating the invocations.
+    String usageTable =
+        params.hasValue("applicationIds") || params.hasValue("environmentIds")
+            ? "(SELECT customerId, methodId, "
+                + "MAX(status) AS status, "
+                + "MAX(invokedAtMillis) AS invokedAtMillis, "
+                + "MAX(createdAt) AS createdAt, "
+                + "MAX(timestamp) AS publishedAt "
+                + "FROM invocations WHERE "
+                + invocationsWhereClause
+                + " GROUP BY customerId, methodId)"
+            : "method_usage";
+
     String sql =
         "SELECT m.id, m.signature, "
-            + "MAX(i.createdAt) AS latestCollectedSince, "
-            + "MAX(i.status) AS status, "
-            + "MAX(i.invokedAtMillis) AS lastInvokedAtMillis, "
-            + "MAX(i.timestamp) AS lastPublishedAt, "
+            + "u.createdAt AS latestCollectedSince, "
+            + "u.status, "
+            + "u.invokedAtMillis AS lastInvokedAtMillis, "
+            + "u.publishedAt AS lastPublishedAt, "
             + "m.annotation AS methodAnnotation, "
-            + "ml.annotation AS methodLocationAnnotation, "
+            + "(SELECT MAX(ml.annotation) FROM method_locations ml WHERE "
+            + locationCondition
+            + ") AS methodLocationAnnotation, "
             + "p.annotation AS packageAnnotation, "
             + "t.annotation AS typeAnnotation "
-            + "FROM invocations i "
-            + "  INNER JOIN methods m ON i.methodId = m.id AND m.customerId = i.customerId "
+            + "FROM "
+            + usageTable
+            + " u "
+            + "  INNER JOIN methods m ON u.methodId = m.id AND m.customerId = u.customerId "
             + "  INNER JOIN types t ON m.declaringType = t.name AND t.customerId = m.customerId "
             + "  INNER JOIN packages p ON m.packageName = p.name AND p.customerId = m.customerId "
-            + "  LEFT JOIN method_locations ml ON ml.methodId = m.id AND ml.customerId = m.customerId "
             + "WHERE "
             + whereClause
-            + " GROUP BY i.methodId "
-            + "HAVING latestCollectedSince <= :latestCollectedSince "
-            + "ORDER BY lastInvokedAtMillis ";
-
-    List<MethodDescriptor2> methods = new ArrayList<>(request.getMaxResults());
+            + (orderBy == OrderBy.SIGNATURE
+                ? " ORDER BY m.signature, u.methodId "
+                : " ORDER BY u.invokedAtMillis, u.methodId ")
+            + "LIMIT :limit ";
 
-    namedParameterJdbcTemplate.query(
+    template.query(
         sql,
         params,
         rs -> {
-          if (methods.size() >= request.getMaxResults()) {
-            logger.trace("Ignoring row {}, since max result already achieved", rs.getRow());
-            return;
-          }
-
+          long id = rs.getLong("id");
           String signature = rs.getString("signature");
-
+          long lastInvokedAtMillis = rs.getLong("lastInvokedAtMillis");
           SignatureStatus2 status = SignatureStatus2.valueOf(rs.getString("status"));
-          if (request.isSuppressUntrackedMethods() && !status.isTracked()) {
-            logger.trace("Suppressing untracked method {} with status {}", signature, status);
-            return;
-          }
-
-          Long lastInvokedAtMillis =
-              pricePlan.adjustTimestampMillis(rs.getLong("lastInvokedAtMillis"), clock);
-          if (lastInvokedAtMillis > request.getOnlyInvokedBeforeMillis()) {
-            logger.trace("Suppressing method invoked after requested range");
-            return;
-          }
-          if (lastInvokedAtMillis < request.getOnlyInvokedAfterMillis()) {
-            logger.trace("Suppressing method invoked before requested range");
-            return;
-          }
-
-          methods.add(
+          handler.handle(
               MethodDescriptor2.builder()
-                  .id(rs.getLong("id"))
+                  .id(id)
                   .signature(signature)
                   .trackedPercent(status.isTracked() ? 100 : 0)
                   .collectedDays(
                       pricePlan.adjustCollectedDays(
                           getCollectedDays(rs.getTimestamp("latestCollectedSince"))))
-                  .lastInvokedAtMillis(lastInvokedAtMillis)
+                  .lastInvokedAtMillis(pricePlan.adjustTimestampMillis(lastInvokedAtMillis, clock))
                   .collectedToMillis(rs.getTimestamp("lastPublishedAt").getTime())
                   .methodAnnotation(rs.getString("methodAnnotation"))
                   .methodLocationAnnotation(rs.getString("methodLocationAnnotation"))
                   .typeAnnotation(rs.getString("typeAnnotation"))
                   .packageAnnotation(rs.getString("packageAnnotation"))
-                  .build());
+                  .build(),
+              new MethodsContinuationToken(
+                  orderBy,
+                  orderBy == OrderBy.SIGNATURE ? signature : Long.toString(lastInvokedAtMillis),
+                  id));
         });
+  }
 
-    methods.sort(Comparator.comparing(MethodDescriptor2::getSignature));
+  /**
+   * Translates onlyInvokedBeforeMillis and onlyInvokedAfterMillis to SQL. They apply to the
+   * timestamps presented to the user, i.e., after {@link PricePlan#adjustTimestampMillis(Long,
+   * Clock)} has moved them to the start of the retention period.
+   */
+  private String getInvokedAtMillisCondition(
+      GetMethodsRequest request, PricePlan pricePlan, MapSqlParameterSource params) {
+    long retentionPeriodStart =
+        pricePlan.getRetentionPeriodDays() > 0
+            ? clock.instant().minus(pricePlan.getRetentionPeriodDays(), DAYS).toEpochMilli()
+            : Long.MIN_VALUE;
+
+    String result = "";
+    long before = request.getOnlyInvokedBeforeMillis();
+    if (retentionPeriodStart > before) {
+      result += " AND u.invokedAtMillis = 0";
+    } else if (before < Long.MAX_VALUE) {
+      params.addValue("onlyInvokedBeforeMillis", before);
+      result += " AND u.invokedAtMillis <= :onlyInvokedBeforeMillis";
+    }
 
-    long queryTimeMillis = clock.millis() - startedAt;
-    logger.debug("Processed {} in {} ms.", request, queryTimeMillis);
+    long after = request.getOnlyInvokedAfterMillis();
+    if (after > 0 && retentionPeriodStart >= after) {
+      result += " AND u.invokedAtMillis <> 0";
+    } else if (after > 0) {
+      params.addValue("onlyInvokedAfterMillis", after);
+      result += " AND u.invokedAtMillis >= :onlyInvokedAfterMillis";
+    }
+    return result;
+  }
 
-    return GetMethodsResponse2.builder()
-        .timestamp(startedAt)
-        .request(request)
-        .numMethods(methods.size())
-        .methods(methods)
-        .queryTimeMillis(queryTimeMillis)
-        .build();
+  private static List<String> getTrackedStatuses() {
+    List<String> result = new ArrayList<>();
+    for (SignatureStatus2 status : SignatureStatus2.values()) {
+      if (status.isTracked()) {
+        result.add(status.name());
+      }
+    }
+    return result;
   }
 
   private int getCollectedDays(Timestamp latestCollectedSince) {
@@ -263,9 +455,12 @@ public class DashboardServiceImpl implements DashboardService {
   @Override
   @Transactional(readOnly = true)
   public GetStatusResponse getStatus() {
+    return dashboardCache.getStatus(customerIdProvider.getCustomerId(), this::doGetStatus);
+  }
+
+  private GetStatusResponse doGetStatus(Long customerId) {
     long startedAt = clock.millis();
 
-    Long customerId = customerIdProvider.getCustomerId();
     CustomerData customerData = customerService.getCustomerDataByCustomerId(customerId);
 
     PricePlan pricePlan = customerData.getPricePlan();
@@ -386,7 +581,11 @@ public class DashboardServiceImpl implements DashboardService {
   @Override
   @Transactional(readOnly = true)
   public @NotNull GetMethodsFormData getMethodsFormData() {
-    Long customerId = customerIdProvider.getCustomerId();
+    return dashboardCache.getMethodsFormData(
+        customerIdProvider.getCustomerId(), this::doGetMethodsFormData);
+  }
+
+  private GetMethodsFormData doGetMethodsFormData(Long customerId) {
     CustomerData customerData = customerService.getCustomerDataByCustomerId(customerId);
 
     List<String> applications =
@@ -470,6 +669,10 @@ public class DashboardServiceImpl implements DashboardService {
     return result;
   }
 
+  private interface MethodHandler {
+    void handle(MethodDescriptor2 method, MethodsContinuationToken position);
+  }
+
   @RequiredArgsConstructor
   private static class QueryState {
     private final long methodId;
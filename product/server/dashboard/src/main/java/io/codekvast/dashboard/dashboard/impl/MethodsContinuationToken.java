@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.dashboard.dashboard.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest.OrderBy;
+import java.util.Base64;
+import lombok.Value;
+
+/**
+ * The position after the last method of a page, in the order of the query.
+ *
+ * <p>It is passed to the client as an opaque string, and is used for keyset pagination, i.e., the
+ * next page starts after the position instead of skipping an offset.
+ */
+@Value
+class MethodsContinuationToken {
+  OrderBy orderBy;
+
+  /** The lastInvokedAtMillis (as stored in the database) or the signature of the method. */
+  String value;
+
+  long methodId;
+
+  static MethodsContinuationToken parse(String token) {
+    String[] parts;
+    try {
+      parts = new String(Base64.getUrlDecoder().decode(token), UTF_8).split(":", 3);
+    } catch (IllegalArgumentException e) {
+      parts = new String[0];
+    }
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("Invalid continuationToken: " + token);
+    }
+    try {
+      OrderBy orderBy = OrderBy.valueOf(parts[0]);
+      long methodId = Long.parseLong(parts[1]);
+      if (orderBy == OrderBy.LAST_INVOKED_AT) {
+        Long.parseLong(parts[2]);
+      }
+      return new MethodsContinuationToken(orderBy, parts[2], methodId);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid continuationToken: " + token, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString((orderBy + ":" + methodId + ":" + value).getBytes(UTF_8));
+  }
+}
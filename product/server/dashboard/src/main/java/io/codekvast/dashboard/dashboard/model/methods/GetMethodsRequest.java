@@ -31,7 +31,8 @@ import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * A validated parameters object for {@link DashboardService#getMethods2(GetMethodsRequest)}
+ * A validated parameters object for {@link DashboardService#getMethods2(GetMethodsRequest)} and
+ * {@link DashboardService#getMethods3(GetMethodsRequest)}.
  *
  * @author olle.hallin@crisp.se
  */
@@ -71,6 +72,15 @@ public class GetMethodsRequest {
 
   private final List<String> locations;
 
+  /** The order of the methods. Only used by getMethods3. */
+  private final OrderBy orderBy;
+
+  /**
+   * The continuationToken of the previous response, when fetching the next page. Only used by
+   * getMethods3.
+   */
+  private final String continuationToken;
+
   public static GetMethodsRequest defaults() {
     return builder()
         .onlyInvokedBeforeMillis(Long.MAX_VALUE)
@@ -80,9 +90,14 @@ public class GetMethodsRequest {
         .minCollectedDays(14)
         .normalizeSignature(true)
         .signature("")
+        .orderBy(OrderBy.LAST_INVOKED_AT)
         .build();
   }
 
+  public OrderBy getOrderBy() {
+    return orderBy == null ? OrderBy.LAST_INVOKED_AT : orderBy;
+  }
+
   public String getNormalizedSignature() {
     String result;
     if (!normalizeSignature) {
@@ -97,4 +112,13 @@ public class GetMethodsRequest {
     }
     return result;
   }
+
+  /** The orders in which getMethods3 can return methods. */
+  public enum OrderBy {
+    /** Least recently invoked methods first. */
+    LAST_INVOKED_AT,
+
+    /** Alphabetical order. */
+    SIGNATURE
+  }
 }
@@ -1,6 +1,9 @@
 package io.codekvast.dashboard.dashboard;
 
 import static java.util.Collections.emptyList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
@@ -8,6 +11,7 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -18,11 +22,14 @@ import io.codekvast.dashboard.dashboard.model.methods.EnvironmentDescriptor;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse2;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor1;
+import io.codekvast.dashboard.dashboard.model.methods.MethodDescriptor2;
 import io.codekvast.javaagent.model.v2.SignatureStatus2;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -71,6 +78,133 @@ public class DashboardApiControllerTest {
         .andExpect(jsonPath("$.methods").isArray());
   }
 
+  @Test
+  public void should_getMethods_V3() throws Exception {
+    // given
+    GetMethodsRequest request =
+        GetMethodsRequest.defaults().toBuilder().signature("some signature").build();
+    when(dashboardService.getMethods3(request))
+        .thenReturn(
+            GetMethodsResponse3.builder().methods(emptyList()).continuationToken("token").build());
+
+    // when
+    //noinspection deprecation
+    mockMvc
+        .perform(
+            post("/dashboard/api/v3/methods")
+                .accept(APPLICATION_JSON)
+                .contentType(APPLICATION_JSON)
+                .content(gson.toJson(request)))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+        .andExpect(jsonPath("$.methods").isArray())
+        .andExpect(jsonPath("$.continuationToken").value("token"));
+  }
+
+  @Test
+  public void should_reject_getMethods_V3_with_invalid_continuationToken() throws Exception {
+    // given
+    GetMethodsRequest request =
+        GetMethodsRequest.defaults().toBuilder().continuationToken("garbage").build();
+    when(dashboardService.getMethods3(request))
+        .thenThrow(new IllegalArgumentException("Invalid continuationToken: garbage"));
+
+    // when
+    mockMvc
+        .perform(
+            post("/dashboard/api/v3/methods")
+                .accept(APPLICATION_JSON)
+                .contentType(APPLICATION_JSON)
+                .content(gson.toJson(request)))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void should_export_methods_as_csv() throws Exception {
+    // given
+    GetMethodsRequest request = GetMethodsRequest.defaults();
+    givenExportedMethods(
+        request,
+        sampleMethod(1L, "a.B.c(int, java.lang.String)"),
+        sampleMethod(2L, "a.B.d()").toBuilder().methodAnnotation("@Deprecated(\"x\")").build());
+
+    // when
+    mockMvc
+        .perform(
+            post("/dashboard/api/v3/methods/export")
+                .param("format", "csv")
+                .contentType(APPLICATION_JSON)
+                .content(gson.toJson(request)))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("text/csv;charset=UTF-8"))
+        .andExpect(
+            header()
+                .string("Content-Disposition", "attachment; filename=\"codekvast-methods.csv\""))
+        .andExpect(
+            content()
+                .string(
+                    "id,signature,trackedPercent,collectedDays,"
+                        + "lastInvokedAtMillis,collectedToMillis,methodAnnotation,"
+                        + "methodLocationAnnotation,typeAnnotation,packageAnnotation\r\n"
+                        + "1,\"a.B.c(int, java.lang.String)\",100,14,1000,2000,,,,\r\n"
+                        + "2,a.B.d(),100,14,1000,2000,\"@Deprecated(\"\"x\"\")\",,,\r\n"));
+  }
+
+  @Test
+  public void should_export_methods_as_ndjson() throws Exception {
+    // given
+    GetMethodsRequest request = GetMethodsRequest.defaults();
+    MethodDescriptor2 method1 = sampleMethod(1L, "a.B.c()");
+    MethodDescriptor2 method2 = sampleMethod(2L, "a.B.d()");
+    givenExportedMethods(request, method1, method2);
+
+    // when
+    mockMvc
+        .perform(
+            post("/dashboard/api/v3/methods/export")
+                .param("format", "ndjson")
+                .contentType(APPLICATION_JSON)
+                .content(gson.toJson(request)))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-ndjson;charset=UTF-8"))
+        .andExpect(content().string(gson.toJson(method1) + "\n" + gson.toJson(method2) + "\n"));
+  }
+
+  @Test
+  public void should_reject_export_in_unknown_format() throws Exception {
+    mockMvc
+        .perform(
+            post("/dashboard/api/v3/methods/export")
+                .param("format", "xml")
+                .contentType(APPLICATION_JSON)
+                .content(gson.toJson(GetMethodsRequest.defaults())))
+        .andExpect(status().isBadRequest());
+  }
+
+  private void givenExportedMethods(GetMethodsRequest request, MethodDescriptor2... methods) {
+    doAnswer(
+            invocation -> {
+              Consumer<MethodDescriptor2> consumer = invocation.getArgument(1);
+              for (MethodDescriptor2 method : methods) {
+                consumer.accept(method);
+              }
+              return methods.length;
+            })
+        .when(dashboardService)
+        .exportMethods(eq(request), any());
+  }
+
+  private static MethodDescriptor2 sampleMethod(long id, String signature) {
+    return MethodDescriptor2.builder()
+        .id(id)
+        .signature(signature)
+        .trackedPercent(100)
+        .collectedDays(14)
+        .lastInvokedAtMillis(1000L)
+        .collectedToMillis(2000L)
+        .build();
+  }
+
   @Test
   public void should_get_methodById() throws Exception {
     Instant now = Instant.now();
@@ -133,4 +267,32 @@ public class DashboardApiControllerTest {
         .andExpect(jsonPath("$.environments").isArray())
         .andExpect(jsonPath("$.locations").isArray());
   }
+
+  @Test
+  public void should_not_resend_unmodified_filterData() throws Exception {
+    // given
+    when(dashboardService.getMethodsFormData()).thenReturn(GetMethodsFormData.sample());
+    String eTag =
+        mockMvc
+            .perform(get("/dashboard/api/v1/methodsFormData"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Cache-Control", "no-cache"))
+            .andReturn()
+            .getResponse()
+            .getHeader("ETag");
+
+    // when
+    mockMvc
+        .perform(get("/dashboard/api/v1/methodsFormData").header("If-None-Match", eTag))
+        .andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+
+    // when
+    when(dashboardService.getMethodsFormData())
+        .thenReturn(GetMethodsFormData.builder().retentionPeriodDays(30).build());
+    mockMvc
+        .perform(get("/dashboard/api/v1/methodsFormData").header("If-None-Match", eTag))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.retentionPeriodDays").value(30));
+  }
 }
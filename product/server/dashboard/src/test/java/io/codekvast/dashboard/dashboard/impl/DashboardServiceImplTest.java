@@ -3,12 +3,20 @@ package io.codekvast.dashboard.dashboard.impl;
 import static java.time.temporal.ChronoUnit.DAYS;
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -17,17 +25,32 @@ import io.codekvast.common.customer.CustomerData;
 import io.codekvast.common.customer.CustomerService;
 import io.codekvast.common.customer.PricePlan;
 import io.codekvast.common.customer.PricePlanDefaults;
+import io.codekvast.common.messaging.model.InvocationDataReceivedEvent;
 import io.codekvast.common.security.CustomerIdProvider;
+import io.codekvast.dashboard.bootstrap.CodekvastDashboardSettings;
 import io.codekvast.dashboard.dashboard.model.methods.GetMethodsFormData;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest.OrderBy;
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsResponse3;
 import io.codekvast.dashboard.dashboard.model.status.GetStatusResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 /** @author olle.hallin@crisp.se */
@@ -39,14 +62,21 @@ public class DashboardServiceImplTest {
   @Mock private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
   @Mock private CustomerService customerService;
   @Mock private CustomerIdProvider customerIdProvider;
+  private DashboardCache dashboardCache;
   private DashboardServiceImpl dashboardService;
 
   @BeforeEach
   public void beforeTest() {
     MockitoAnnotations.openMocks(this);
+    dashboardCache = new DashboardCache(new CodekvastDashboardSettings());
     dashboardService =
         new DashboardServiceImpl(
-            jdbcTemplate, namedParameterJdbcTemplate, customerIdProvider, customerService, clock);
+            jdbcTemplate,
+            namedParameterJdbcTemplate,
+            customerIdProvider,
+            customerService,
+            clock,
+            dashboardCache);
   }
 
   @Test
@@ -153,6 +183,36 @@ public class DashboardServiceImplTest {
     assertThat(status.getTrialPeriodExpired(), is(false));
   }
 
+  @Test
+  public void should_serve_cached_status_until_event_is_received() {
+    // given
+    when(customerIdProvider.getCustomerId()).thenReturn(1L);
+    when(customerService.getCustomerDataByCustomerId(eq(1L))).thenReturn(CustomerData.sample());
+    DashboardCacheInvalidator invalidator = new DashboardCacheInvalidator(dashboardCache);
+
+    // when
+    GetStatusResponse status1 = dashboardService.getStatus();
+    GetStatusResponse status2 = dashboardService.getStatus();
+
+    // then
+    assertThat(status2, is(status1));
+    verify(customerService, times(1)).getCustomerDataByCustomerId(eq(1L));
+
+    // when
+    invalidator.onCodekvastEvent(() -> 2L);
+    dashboardService.getStatus();
+
+    // then
+    verify(customerService, times(1)).getCustomerDataByCustomerId(eq(1L));
+
+    // when
+    invalidator.onCodekvastEvent(InvocationDataReceivedEvent.sample());
+    dashboardService.getStatus();
+
+    // then
+    verify(customerService, times(2)).getCustomerDataByCustomerId(eq(1L));
+  }
+
   @Test
   public void should_getFilterData() {
     // given
@@ -197,4 +257,224 @@ public class DashboardServiceImplTest {
                 .retentionPeriodDays(ppd.getRetentionPeriodDays())
                 .build()));
   }
+
+  @Test
+  public void should_getMethods2_from_method_usage() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+
+    // when
+    dashboardService.getMethods2(GetMethodsRequest.defaults());
+
+    // then
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MapSqlParameterSource> params =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(namedParameterJdbcTemplate)
+        .query(sql.capture(), params.capture(), any(RowCallbackHandler.class));
+
+    assertThat(sql.getValue(), containsString("FROM method_usage u "));
+    assertThat(sql.getValue(), containsString("LIMIT :limit"));
+    assertThat(params.getValue().getValue("limit"), is(100));
+
+    @SuppressWarnings("unchecked")
+    List<String> trackedStatuses = (List<String>) params.getValue().getValue("trackedStatuses");
+    assertThat(trackedStatuses, hasItem("INVOKED"));
+    assertThat(trackedStatuses, not(hasItem("EXCLUDED_SINCE_TRIVIAL")));
+  }
+
+  @Test
+  public void should_getMethods2_by_lowercase_search_signature() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+
+    // when
+    dashboardService.getMethods2(
+        GetMethodsRequest.defaults().toBuilder().signature("io.Codekvast#Foo").build());
+
+    // then
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MapSqlParameterSource> params =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(namedParameterJdbcTemplate)
+        .query(sql.capture(), params.capture(), any(RowCallbackHandler.class));
+
+    assertThat(sql.getValue(), containsString("m.searchSignature LIKE :signature"));
+    assertThat(sql.getValue(), not(containsString("COLLATE")));
+    assertThat(params.getValue().getValue("signature"), is("io.codekvast.foo%"));
+  }
+
+  @Test
+  public void should_getMethods2_from_invocations_when_filtering_by_application() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+
+    // when
+    dashboardService.getMethods2(
+        GetMethodsRequest.defaults().toBuilder().applications(asList("app1")).build());
+
+    // then
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(namedParameterJdbcTemplate)
+        .query(sql.capture(), any(MapSqlParameterSource.class), any(RowCallbackHandler.class));
+
+    assertThat(
+        sql.getValue(),
+        containsString("FROM invocations WHERE customerId = :customerId AND applicationId IN"));
+  }
+
+  @Test
+  public void should_getMethods2_invoked_before_retention_period_as_never_invoked() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+    long beforeRetentionPeriod = now.minus(60, DAYS).toEpochMilli();
+
+    // when
+    dashboardService.getMethods2(
+        GetMethodsRequest.defaults().toBuilder()
+            .onlyInvokedBeforeMillis(beforeRetentionPeriod)
+            .build());
+
+    // then
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(namedParameterJdbcTemplate)
+        .query(sql.capture(), any(MapSqlParameterSource.class), any(RowCallbackHandler.class));
+
+    assertThat(sql.getValue(), containsString("u.invokedAtMillis = 0"));
+  }
+
+  @Test
+  public void should_getMethods3_with_continuationToken_when_more_methods() throws Exception {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getLong("id")).thenReturn(1L, 2L, 3L);
+    when(rs.getString("signature")).thenReturn("a()", "b()", "c()");
+    when(rs.getLong("lastInvokedAtMillis")).thenReturn(0L);
+    when(rs.getString("status")).thenReturn("NOT_INVOKED");
+    when(rs.getTimestamp(anyString())).thenReturn(new Timestamp(now.toEpochMilli()));
+    doAnswer(
+            invocation -> {
+              RowCallbackHandler rch = invocation.getArgument(2);
+              for (int i = 0; i < 3; i++) {
+                rch.processRow(rs);
+              }
+              return null;
+            })
+        .when(namedParameterJdbcTemplate)
+        .query(anyString(), any(MapSqlParameterSource.class), any(RowCallbackHandler.class));
+
+    // when
+    GetMethodsResponse3 response =
+        dashboardService.getMethods3(
+            GetMethodsRequest.defaults().toBuilder().maxResults(2).build());
+
+    // then
+    assertThat(response.getNumMethods(), is(2));
+    assertThat(response.getMethods().get(1).getSignature(), is("b()"));
+    assertThat(
+        MethodsContinuationToken.parse(response.getContinuationToken()),
+        is(new MethodsContinuationToken(OrderBy.LAST_INVOKED_AT, "0", 2L)));
+
+    ArgumentCaptor<MapSqlParameterSource> params =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(namedParameterJdbcTemplate)
+        .query(anyString(), params.capture(), any(RowCallbackHandler.class));
+    assertThat(params.getValue().getValue("limit"), is(3));
+  }
+
+  @Test
+  public void should_getMethods3_after_continuationToken() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+    String token = new MethodsContinuationToken(OrderBy.SIGNATURE, "b()", 2L).toString();
+
+    // when
+    GetMethodsResponse3 response =
+        dashboardService.getMethods3(
+            GetMethodsRequest.defaults().toBuilder()
+                .orderBy(OrderBy.SIGNATURE)
+                .continuationToken(token)
+                .build());
+
+    // then
+    assertThat(response.getContinuationToken(), is(nullValue()));
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MapSqlParameterSource> params =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(namedParameterJdbcTemplate)
+        .query(sql.capture(), params.capture(), any(RowCallbackHandler.class));
+    assertThat(sql.getValue(), containsString("m.signature > :afterSignature"));
+    assertThat(sql.getValue(), containsString("ORDER BY m.signature, u.methodId"));
+    assertThat(params.getValue().getValue("afterSignature"), is("b()"));
+    assertThat(params.getValue().getValue("afterMethodId"), is(2L));
+  }
+
+  @Test
+  public void should_reject_getMethods3_with_continuationToken_of_other_order() {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+    String token = new MethodsContinuationToken(OrderBy.SIGNATURE, "b()", 2L).toString();
+
+    // when, then
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            dashboardService.getMethods3(
+                GetMethodsRequest.defaults().toBuilder().continuationToken(token).build()));
+  }
+
+  @Test
+  public void should_export_all_methods_from_a_streamed_result_set() throws Exception {
+    // given
+    givenCustomerWithPricePlan(PricePlan.of(PricePlanDefaults.TEST));
+    DataSource dataSource = mock(DataSource.class);
+    Connection connection = mock(Connection.class);
+    PreparedStatement statement = mock(PreparedStatement.class);
+    ResultSet rs = mock(ResultSet.class);
+    when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+    when(statement.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(true, true, true, false);
+    when(rs.getLong("id")).thenReturn(1L, 2L, 3L);
+    when(rs.getString("signature")).thenReturn("a()", "b()", "c()");
+    when(rs.getLong("lastInvokedAtMillis")).thenReturn(0L);
+    when(rs.getString("status")).thenReturn("NOT_INVOKED");
+    when(rs.getTimestamp(anyString())).thenReturn(new Timestamp(now.toEpochMilli()));
+    List<String> signatures = new ArrayList<>();
+
+    // when
+    int count =
+        dashboardService.exportMethods(
+            GetMethodsRequest.defaults().toBuilder()
+                .maxResults(1)
+                .orderBy(OrderBy.SIGNATURE)
+                .build(),
+            method -> signatures.add(method.getSignature()));
+
+    // then
+    assertThat(count, is(3));
+    assertThat(signatures, is(asList("a()", "b()", "c()")));
+    verify(statement).setFetchSize(1000);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(connection).prepareStatement(sql.capture());
+    assertThat(sql.getValue(), containsString("ORDER BY m.signature, u.methodId"));
+    verify(rs).close();
+    verify(connection).close();
+  }
+
+  private void givenCustomerWithPricePlan(PricePlan pricePlan) {
+    when(customerIdProvider.getCustomerId()).thenReturn(1L);
+    when(customerService.getCustomerDataByCustomerId(eq(1L)))
+        .thenReturn(
+            CustomerData.builder()
+                .customerId(1L)
+                .customerName("customerName")
+                .pricePlan(pricePlan)
+                .source("source")
+                .build());
+  }
 }
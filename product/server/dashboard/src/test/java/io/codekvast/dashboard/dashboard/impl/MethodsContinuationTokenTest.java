@@ -0,0 +1,39 @@
+package io.codekvast.dashboard.dashboard.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.codekvast.dashboard.dashboard.model.methods.GetMethodsRequest.OrderBy;
+import org.junit.jupiter.api.Test;
+
+public class MethodsContinuationTokenTest {
+
+  @Test
+  public void should_parse_formatted_token_with_colons_in_signature() {
+    MethodsContinuationToken token =
+        new MethodsContinuationToken(OrderBy.SIGNATURE, "foo.Bar.baz(java.lang.String:int)", 17L);
+
+    assertThat(MethodsContinuationToken.parse(token.toString()), is(token));
+  }
+
+  @Test
+  public void should_parse_formatted_token_with_invokedAtMillis() {
+    MethodsContinuationToken token =
+        new MethodsContinuationToken(OrderBy.LAST_INVOKED_AT, "1600000000000", 4711L);
+
+    assertThat(MethodsContinuationToken.parse(token.toString()), is(token));
+  }
+
+  @Test
+  public void should_reject_garbage() {
+    assertThrows(IllegalArgumentException.class, () -> MethodsContinuationToken.parse("@@@"));
+  }
+
+  @Test
+  public void should_reject_token_with_invalid_invokedAtMillis() {
+    String token = new MethodsContinuationToken(OrderBy.LAST_INVOKED_AT, "foo", 1L).toString();
+
+    assertThrows(IllegalArgumentException.class, () -> MethodsContinuationToken.parse(token));
+  }
+}
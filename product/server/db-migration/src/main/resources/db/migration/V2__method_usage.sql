@@ -0,0 +1,47 @@
+--
+-- Copyright (c) 2015-2022 Hallin Information Technology AB
+--
+-- Permission is hereby granted, free of charge, to any person obtaining a copy
+-- of this software and associated documentation files (the "Software"), to deal
+-- in the Software without restriction, including without limitation the rights
+-- to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+-- copies of the Software, and to permit persons to whom the Software is
+-- furnished to do so, subject to the following conditions:
+--
+-- The above copyright notice and this permission notice shall be included in
+-- all copies or substantial portions of the Software.
+--
+-- THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+-- IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+-- FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+-- AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+-- LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+-- OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+-- THE SOFTWARE.
+--
+
+-- A per-method rollup of the invocations table, maintained by the intake whenever it changes the
+-- invocations of a method. Lets the dashboard find methods without grouping all invocations.
+CREATE TABLE method_usage (
+    customerId      BIGINT                                                                                                                                                             NOT NULL,
+    methodId        BIGINT                                                                                                                                                             NOT NULL,
+    status          ENUM ('NOT_INVOKED', 'INVOKED', 'FOUND_IN_PARENT_CLASS', 'NOT_FOUND_IN_CODE_BASE', 'EXCLUDED_BY_PACKAGE_NAME', 'EXCLUDED_BY_VISIBILITY', 'EXCLUDED_SINCE_TRIVIAL') NOT NULL COMMENT 'MAX(invocations.status)',
+    invokedAtMillis BIGINT                                                                                                                                                             NOT NULL COMMENT 'MAX(invocations.invokedAtMillis)',
+    createdAt       TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3)                                                                                                                          NOT NULL COMMENT 'MAX(invocations.createdAt)',
+    publishedAt     TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3)                                                                                                                          NOT NULL COMMENT 'MAX(invocations.timestamp)',
+
+    PRIMARY KEY (customerId, methodId),
+    CONSTRAINT ix_method_usage_customerId
+        FOREIGN KEY (customerId) REFERENCES customers (id)
+            ON DELETE CASCADE,
+    CONSTRAINT ix_method_usage_methodId
+        FOREIGN KEY (methodId) REFERENCES methods (id)
+            ON DELETE CASCADE,
+    INDEX ix_method_usage_invokedAtMillis
+        (customerId, invokedAtMillis)
+);
+
+INSERT INTO method_usage(customerId, methodId, status, invokedAtMillis, createdAt, publishedAt)
+SELECT customerId, methodId, MAX(status), MAX(invokedAtMillis), MAX(createdAt), MAX(timestamp)
+FROM invocations
+GROUP BY customerId, methodId;
@@ -832,6 +832,11 @@ public class IntakeIntegrationTest {
     assertThat(countRowsInTable("invocations WHERE status = ?", NOT_INVOKED.name()), is(1));
     assertThat(countRowsInTable("invocations WHERE status = ?", INVOKED.name()), is(1));
 
+    assertThat(countRowsInTable("method_usage"), is(2));
+    assertThat(
+        countRowsInTable("method_usage WHERE invokedAtMillis = ?", intervalStartedAtMillis2),
+        is(1));
+
     // given
     setSecurityContextCustomerId(commonData.getCustomerId());
   }
@@ -873,6 +878,12 @@ public class IntakeIntegrationTest {
     assertThat(
         countRowsInTable("invocations WHERE invokedAtMillis = ?", intervalStartedAtMillis), is(1));
     assertThat(countRowsInTable("invocations WHERE status = ?", INVOKED.name()), is(1));
+    assertThat(
+        countRowsInTable(
+            "method_usage WHERE invokedAtMillis = ? AND status = ?",
+            intervalStartedAtMillis,
+            INVOKED.name()),
+        is(1));
   }
 
   private void setSecurityContextCustomerId(Long customerId) {
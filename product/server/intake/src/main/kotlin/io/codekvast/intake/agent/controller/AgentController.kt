@@ -27,22 +27,31 @@ import io.codekvast.intake.agent.service.AgentService
 import io.codekvast.intake.model.PublicationType
 import io.codekvast.intake.model.PublicationType.CODEBASE
 import io.codekvast.intake.model.PublicationType.INVOCATIONS
+import io.codekvast.intake.model.PublicationTooLargeException
+import io.codekvast.intake.model.UnknownCodeBaseException
 import io.codekvast.javaagent.model.Endpoints.Agent.*
 import io.codekvast.javaagent.model.v1.rest.GetConfigRequest1
 import io.codekvast.javaagent.model.v1.rest.GetConfigResponse1
 import io.codekvast.javaagent.model.v2.GetConfigRequest2
 import io.codekvast.javaagent.model.v2.GetConfigResponse2
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
 import org.springframework.http.MediaType.*
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.*
 import org.springframework.web.multipart.MultipartFile
+import java.io.InputStream
+import java.util.zip.GZIPInputStream
 import javax.inject.Inject
+import javax.servlet.http.HttpServletRequest
 import javax.validation.Valid
 
 /**
  * The codekvast-javaagent REST controller.
  *
+ * Uploaded publications may be gzipped, as announced in [GetConfigResponse2.uploadCompression].
+ * They are decompressed while they are saved.
+ *
  * @author olle.hallin@crisp.se
  */
 @RestController
@@ -57,6 +66,18 @@ class AgentController @Inject constructor(private val agentService: AgentService
         return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.message)
     }
 
+    @ExceptionHandler
+    fun onUnknownCodeBaseException(e: UnknownCodeBaseException): ResponseEntity<String> {
+        logger.info("Rejected delta publication: {}", e.message)
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.message)
+    }
+
+    @ExceptionHandler
+    fun onPublicationTooLargeException(e: PublicationTooLargeException): ResponseEntity<String> {
+        logger.warn("Rejected publication: {}", e.message)
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.message)
+    }
+
     @Suppress("DEPRECATION")
     @PostMapping(
             value = [V1_POLL_CONFIG],
@@ -87,7 +108,7 @@ class AgentController @Inject constructor(private val agentService: AgentService
         return response
     }
 
-    @PostMapping(value = [V2_UPLOAD_CODEBASE, V3_UPLOAD_CODEBASE])
+    @PostMapping(value = [V2_UPLOAD_CODEBASE, V3_UPLOAD_CODEBASE, V5_UPLOAD_CODEBASE])
     fun uploadCodeBase(
             @RequestParam(PARAM_LICENSE_KEY) licenseKey: String,
             @RequestParam(PARAM_FINGERPRINT) fingerprint: String,
@@ -100,7 +121,37 @@ class AgentController @Inject constructor(private val agentService: AgentService
         return "OK"
     }
 
-    @PostMapping(value = [V2_UPLOAD_INVOCATION_DATA])
+    @PostMapping(value = [V4_UPLOAD_CODEBASE])
+    fun uploadCodeBaseDelta(
+            @RequestParam(PARAM_LICENSE_KEY) licenseKey: String,
+            @RequestParam(PARAM_APP_NAME) appName: String,
+            @RequestParam(PARAM_BASE_FINGERPRINT) baseFingerprint: String,
+            @RequestParam(PARAM_FINGERPRINT) fingerprint: String,
+            @RequestParam(PARAM_PUBLICATION_SIZE) publicationSize: Int,
+            @RequestParam(PARAM_PUBLICATION_FILE) file: MultipartFile
+    ): String {
+
+        logger.info(
+                "Received {} ({} {} delta, {})",
+                file.originalFilename,
+                publicationSize,
+                CODEBASE,
+                humanReadableByteCount(file.size)
+        )
+
+        agentService.saveCodeBaseDeltaPublication(
+                licenseKey,
+                appName,
+                baseFingerprint,
+                fingerprint,
+                publicationSize,
+                getInputStream(file)
+        )
+
+        return "OK"
+    }
+
+    @PostMapping(value = [V2_UPLOAD_INVOCATION_DATA, V5_UPLOAD_INVOCATION_DATA])
     fun uploadInvocationData2(
             @RequestParam(PARAM_LICENSE_KEY) licenseKey: String,
             @RequestParam(PARAM_FINGERPRINT) fingerprint: String,
@@ -113,6 +164,60 @@ class AgentController @Inject constructor(private val agentService: AgentService
         return "OK"
     }
 
+    @PostMapping(value = [V6_UPLOAD_CODEBASE], consumes = [APPLICATION_OCTET_STREAM_VALUE])
+    fun uploadCodeBaseStream(
+            @RequestParam(PARAM_LICENSE_KEY) licenseKey: String,
+            @RequestParam(PARAM_FINGERPRINT) fingerprint: String,
+            @RequestParam(PARAM_PUBLICATION_SIZE) publicationSize: Int,
+            request: HttpServletRequest
+    ): String {
+
+        saveStreamedPublication(CODEBASE, licenseKey, fingerprint, publicationSize, request)
+
+        return "OK"
+    }
+
+    @PostMapping(value = [V6_UPLOAD_INVOCATION_DATA], consumes = [APPLICATION_OCTET_STREAM_VALUE])
+    fun uploadInvocationDataStream(
+            @RequestParam(PARAM_LICENSE_KEY) licenseKey: String,
+            @RequestParam(PARAM_FINGERPRINT) fingerprint: String,
+            @RequestParam(PARAM_PUBLICATION_SIZE) publicationSize: Int,
+            request: HttpServletRequest
+    ): String {
+
+        saveStreamedPublication(INVOCATIONS, licenseKey, fingerprint, publicationSize, request)
+
+        return "OK"
+    }
+
+    /**
+     * Saves the request body straight into the import queue, without first buffering it in a
+     * multipart temp file.
+     */
+    private fun saveStreamedPublication(
+            publicationType: PublicationType,
+            licenseKey: String,
+            fingerprint: String,
+            publicationSize: Int,
+            request: HttpServletRequest
+    ) {
+
+        logger.info(
+                "Receiving {} {} ({})",
+                publicationSize,
+                publicationType,
+                humanReadableByteCount(request.contentLengthLong)
+        )
+
+        agentService.savePublication(
+                publicationType,
+                licenseKey,
+                fingerprint,
+                publicationSize,
+                getInputStream(request)
+        )
+    }
+
     private fun saveUploadedPublication(
             publicationType: PublicationType,
             licenseKey: String,
@@ -134,8 +239,26 @@ class AgentController @Inject constructor(private val agentService: AgentService
                 licenseKey,
                 fingerprint,
                 publicationSize,
-                file.inputStream
+                getInputStream(file)
         )
     }
 
+    private fun getInputStream(file: MultipartFile): InputStream =
+            if (file.contentType == APPLICATION_GZIP_VALUE) {
+                GZIPInputStream(file.inputStream, 65536)
+            } else {
+                file.inputStream
+            }
+
+    private fun getInputStream(request: HttpServletRequest): InputStream =
+            if (request.getHeader(HttpHeaders.CONTENT_ENCODING) == GetConfigResponse2.UPLOAD_COMPRESSION_GZIP) {
+                GZIPInputStream(request.inputStream, 65536)
+            } else {
+                request.inputStream
+            }
+
+    companion object {
+        private const val APPLICATION_GZIP_VALUE = "application/gzip"
+    }
+
 }
@@ -77,6 +77,31 @@ interface AgentService {
             inputStream: InputStream
     ): File
 
+    /**
+     * Save an uploaded delta code base publication into the import area where it will be processed
+     * by another task.
+     *
+     * @param licenseKey The javaagent's licenseKey.
+     * @param appName The name of the application that published the code base.
+     * @param baseFingerprint The fingerprint of the code base that the publication is relative to.
+     * @param codebaseFingerprint The publication's origin codebase's fingerprint
+     * @param publicationSize The size of the complete code base. Used for price plan enforcement.
+     * @param inputStream The data input stream.
+     * @return the resulting file in the queue directory.
+     * @throws io.codekvast.intake.model.LicenseViolationException If invalid license or license violations.
+     * @throws io.codekvast.intake.model.UnknownCodeBaseException If the base code base has not been
+     * imported. The agent shall then upload the complete code base.
+     * @see io.codekvast.javaagent.model.v4.CodeBasePublication4
+     */
+    fun saveCodeBaseDeltaPublication(
+            licenseKey: String,
+            appName: String,
+            baseFingerprint: String,
+            codebaseFingerprint: String,
+            publicationSize: Int,
+            inputStream: InputStream
+    ): File
+
     /**
      * Generates a file name from the supplied parameters.
      *
@@ -84,7 +109,8 @@ interface AgentService {
      * @param customerId The customer ID.
      * @param correlationId The correlation ID.
      * @return A filename to use when saving a publication file. The generated file name can be parsed
-     * by [getPublicationTypeFromPublicationFile] and [getCorrelationIdFromPublicationFile].
+     * by [getPublicationTypeFromPublicationFile], [getCustomerIdFromPublicationFile] and
+     * [getCorrelationIdFromPublicationFile].
      */
     fun generatePublicationFile(
             publicationType: PublicationType,
@@ -100,6 +126,14 @@ interface AgentService {
      */
     fun getPublicationTypeFromPublicationFile(publicationFile: File): Optional<PublicationType>
 
+    /**
+     * Retrieve the customerId from a file name generated by [generatePublicationFile].
+     *
+     * @param publicationFile A file created by [savePublication].
+     * @return The customerId part of the file name or Optional.empty()
+     */
+    fun getCustomerIdFromPublicationFile(publicationFile: File): Optional<Long>
+
     /**
      * Retrieve the correlationId from a file name generated by [generatePublicationFile].
      *
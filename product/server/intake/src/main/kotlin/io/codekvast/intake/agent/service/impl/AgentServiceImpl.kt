@@ -32,6 +32,8 @@ import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType
 import io.codekvast.intake.model.PublicationType.CODEBASE
 import io.codekvast.intake.model.PublicationType.values
+import io.codekvast.intake.model.PublicationTooLargeException
+import io.codekvast.intake.model.UnknownCodeBaseException
 import io.codekvast.javaagent.model.v1.rest.GetConfigRequest1
 import io.codekvast.javaagent.model.v1.rest.GetConfigResponse1
 import io.codekvast.javaagent.model.v2.GetConfigRequest2
@@ -41,8 +43,12 @@ import org.springframework.transaction.annotation.Transactional
 import java.io.File
 import java.io.IOException
 import java.io.InputStream
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.file.Files
 import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption.CREATE_NEW
+import java.nio.file.StandardOpenOption.WRITE
 import java.util.*
 import java.util.regex.Pattern
 import java.util.stream.Collectors
@@ -106,6 +112,7 @@ class AgentServiceImpl(
                 .invocationDataPublisherIntervalSeconds(pp.publishIntervalSeconds)
                 .invocationDataPublisherName("http")
                 .invocationDataPublisherRetryIntervalSeconds(pp.retryIntervalSeconds)
+                .uploadCompression(GetConfigResponse2.UPLOAD_COMPRESSION_GZIP)
                 .build()
     }
 
@@ -129,6 +136,27 @@ class AgentServiceImpl(
         }
     }
 
+    @Transactional(readOnly = true)
+    override fun saveCodeBaseDeltaPublication(
+            licenseKey: String,
+            appName: String,
+            baseFingerprint: String,
+            codebaseFingerprint: String,
+            publicationSize: Int,
+            inputStream: InputStream
+    ): File {
+        inputStream.use {
+            val customerData = customerService.getCustomerDataByLicenseKey(licenseKey)
+            customerService.assertPublicationSize(customerData, publicationSize)
+            if (!intakeDAO.isCodeBaseFingerprintKnown(customerData.customerId, appName, baseFingerprint)) {
+                throw UnknownCodeBaseException("Unknown base code base $baseFingerprint")
+            }
+            return doSaveInputStream(
+                    CODEBASE, customerData.customerId, codebaseFingerprint, inputStream
+            )
+        }
+    }
+
     override fun generatePublicationFile(
             publicationType: PublicationType,
             customerId: Long,
@@ -152,6 +180,16 @@ class AgentServiceImpl(
         return Optional.empty()
     }
 
+    override fun getCustomerIdFromPublicationFile(publicationFile: File): Optional<Long> {
+        val fileName = publicationFile.name
+        val matcher = correlationIdPattern.matcher(fileName)
+        if (matcher.matches()) {
+            return Optional.of(matcher.group(2).toLong())
+        }
+        logger.warn("Could not parse customerId from publication file name {}", fileName)
+        return Optional.empty()
+    }
+
     override fun getCorrelationIdFromPublicationFile(publicationFile: File): String {
         val fileName = publicationFile.name
         val matcher = correlationIdPattern.matcher(fileName)
@@ -176,8 +214,15 @@ class AgentServiceImpl(
 
         // Hide the file from the FileImportTask until it is complete.
         val tmpPath = result.toPath().resolveSibling(result.name + ".tmp")
-        Files.copy(inputStream, tmpPath)
-        Files.move(tmpPath, result.toPath(), StandardCopyOption.ATOMIC_MOVE)
+        try {
+            FileChannel.open(tmpPath, CREATE_NEW, WRITE).use { channel ->
+                transferFrom(inputStream, channel)
+            }
+            Files.move(tmpPath, result.toPath(), StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: Exception) {
+            Files.deleteIfExists(tmpPath)
+            throw e
+        }
         logger.info(
                 "Saved {} ({}), fingerprint = {}",
                 result.name,
@@ -188,6 +233,27 @@ class AgentServiceImpl(
         return result
     }
 
+    /**
+     * Lets the file channel pull the bytes from the stream, and aborts as soon as the stream turns
+     * out to be larger than [CodekvastIntakeSettings.maxPublicationBytes].
+     */
+    private fun transferFrom(inputStream: InputStream, channel: FileChannel) {
+        val source = Channels.newChannel(inputStream)
+        val maxBytes = settings.maxPublicationBytes
+        var size = 0L
+        do {
+            // Ask for one byte more than allowed, to detect too large publications.
+            val count = minOf(TRANSFER_CHUNK_BYTES, maxBytes + 1 - size)
+            val transferred = channel.transferFrom(source, size, count)
+            size += transferred
+            if (size > maxBytes) {
+                throw PublicationTooLargeException(
+                        "Publication is larger than ${humanReadableByteCount(maxBytes)}"
+                )
+            }
+        } while (transferred > 0)
+    }
+
     private fun createDirectory(directory: File) {
         if (!directory.isDirectory) {
             logger.debug("Creating {}", directory)
@@ -198,4 +264,8 @@ class AgentServiceImpl(
             logger.info("Created {}", directory)
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val TRANSFER_CHUNK_BYTES = 1024L * 1024
+    }
+}
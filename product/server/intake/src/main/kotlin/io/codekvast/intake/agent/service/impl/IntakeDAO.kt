@@ -104,6 +104,16 @@ interface IntakeDAO {
      */
     fun updateAgentEnabledState(customerId: Long, thisJvmUuid: String, enabled: Boolean)
 
+    /**
+     * Has a certain code base been imported for an application?
+     *
+     * @param customerId The customer ID.
+     * @param appName The name of the application.
+     * @param codeBaseFingerprint The fingerprint of the code base.
+     * @return true if the code base has been imported.
+     */
+    fun isCodeBaseFingerprintKnown(customerId: Long, appName: String, codeBaseFingerprint: String): Boolean
+
     /**
      * Get agent statistics.
      *
@@ -149,6 +149,20 @@ class IntakeDAOImpl(private val jdbcTemplate: JdbcTemplate) : IntakeDAO {
         )
     }
 
+    override fun isCodeBaseFingerprintKnown(
+            customerId: Long, appName: String, codeBaseFingerprint: String
+    ): Boolean {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM codebase_fingerprints cf, applications a "
+                        + "WHERE cf.customerId = ? AND cf.codeBaseFingerprint = ? "
+                        + "AND a.id = cf.applicationId AND a.name = ? ",
+                Int::class.java,
+                customerId,
+                codeBaseFingerprint,
+                appName
+        ) > 0
+    }
+
     override fun getAgentStatistics(nextPollExpectedAfter: Instant): AgentStatistics {
         val numDisabled = AtomicInteger()
         val numDead = AtomicInteger()
@@ -43,8 +43,26 @@ data class CodekvastIntakeSettings(
         /** How often to scan fileImportQueuePath for new files.  */
         val fileImportIntervalSeconds: Int = 0,
 
+        /** Should fileImportQueuePath be watched for new files? If so, the periodic scan is just a fallback.  */
+        val fileImportWatchQueue: Boolean = true,
+
+        /** How many publication files may be imported in parallel? Files for the same customer are always imported in sequence.  */
+        val fileImportThreads: Int = 4,
+
         /** Should imported files be deleted after successful import?  */
-        val deleteImportedFiles: Boolean = true
+        val deleteImportedFiles: Boolean = true,
+
+        /** The max number of bytes in an uploaded publication. Larger uploads are aborted while streaming.  */
+        val maxPublicationBytes: Long = 100L * 1024 * 1024,
+
+        /** How many rows to send to the database in each JDBC batch when importing a code base.  */
+        val importBatchSize: Int = 1000,
+
+        /** How many code base entries to decode and import at a time. Bounds the memory needed for big code bases.  */
+        val codeBaseImportChunkSize: Int = 10_000,
+
+        /** The max total number of signatures to keep in the per-customer signature -> methodId cache.  */
+        val methodIdCacheMaxSignatures: Long = 500_000
 ) {
     val logger by LoggerDelegate()
 
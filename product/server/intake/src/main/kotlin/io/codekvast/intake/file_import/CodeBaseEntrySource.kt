@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.intake.file_import
+
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3
+
+/**
+ * A source of code base entries that is consumed in chunks, so that a big code base can be
+ * imported without holding all its entries in memory.
+ *
+ * Each call to [forEachChunk] must deliver all entries from the beginning, since an import may be
+ * restarted.
+ */
+fun interface CodeBaseEntrySource {
+    /**
+     * Delivers all entries, in chunks of at most chunkSize entries.
+     *
+     * @param chunkSize The max number of entries in each chunk.
+     * @param consumer Invoked once for each chunk.
+     */
+    fun forEachChunk(chunkSize: Int, consumer: (List<CodeBaseEntry3>) -> Unit)
+
+    companion object {
+        /** Creates a source of entries that already are in memory. */
+        fun of(entries: Collection<CodeBaseEntry3>) = CodeBaseEntrySource { chunkSize, consumer ->
+            entries.chunked(chunkSize).forEach(consumer)
+        }
+    }
+}
@@ -21,7 +21,9 @@
  */
 package io.codekvast.intake.file_import
 
+import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v3.CodeBasePublication3
+import io.codekvast.javaagent.model.v4.CodeBasePublication4
 
 /** @author olle.hallin@crisp.se
  */
@@ -33,4 +35,26 @@ interface CodeBaseImporter {
      * @return true iff the publication was handled
      */
     fun importPublication(publication: CodeBasePublication3): Boolean
+
+    /**
+     * Imports a complete code base, whose entries are consumed in chunks.
+     *
+     * @param data The common data of the publication.
+     * @param codeBaseSize The number of entries in the code base.
+     * @param entries The code base entries.
+     * @return true iff the publication was handled
+     */
+    fun importPublication(
+            data: CommonPublicationData2,
+            codeBaseSize: Int,
+            entries: CodeBaseEntrySource
+    ): Boolean
+
+    /**
+     * Imports a CodeBasePublication4, i.e., a delta relative to an already imported code base.
+     *
+     * @param publication The publication to import.
+     * @return true iff the publication was handled
+     */
+    fun importDeltaPublication(publication: CodeBasePublication4): Boolean
 }
\ No newline at end of file
@@ -21,28 +21,61 @@
  */
 package io.codekvast.intake.file_import
 
-import io.codekvast.common.lock.Lock
-import io.codekvast.common.lock.LockTemplate
 import io.codekvast.common.logging.LoggerDelegate
 import io.codekvast.common.logging.LoggingUtils
 import io.codekvast.common.thread.NamedThreadTemplate
+import io.codekvast.intake.agent.service.AgentService
 import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
 import io.codekvast.intake.metrics.IntakeMetricsService
+import io.codekvast.intake.model.PublicationType
+import io.codekvast.intake.model.PublicationType.CODEBASE
+import io.codekvast.intake.model.PublicationType.INVOCATIONS
 import lombok.RequiredArgsConstructor
 import lombok.extern.slf4j.Slf4j
 import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Component
 import java.io.File
+import java.io.IOException
+import java.nio.file.ClosedWatchServiceException
 import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds.ENTRY_CREATE
+import java.nio.file.StandardWatchEventKinds.OVERFLOW
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.stream.Collectors
 import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
 
 /**
  * Scans a certain directory for files produced by the Codekvast agents and imports them to the
  * database.
  *
+ * New files are normally detected by watching the directory, with a periodic scan as fallback. The
+ * agent service renames complete files into the directory, so a file is never seen half-written.
+ *
+ * Files are imported by a bounded pool of worker threads. The files for one customer are imported in
+ * sequence, but different customers are imported in parallel. Thus, a big code base publication for
+ * one customer does not delay the publications from other customers.
+ *
+ * Invocation publications are small and frequent, code base publications are big and rare. Each
+ * import job therefore covers one publication type for one customer, with invocations before code
+ * bases. Waiting jobs are run in order of a virtual deadline: the arrival time of the oldest file,
+ * plus a penalty for code bases and a penalty proportional to the size. Invocations thus overtake
+ * code bases, but a code base that has waited long enough is not starved.
+ *
+ * Concurrent imports of the same file by several intake instances are prevented by the publication
+ * lock in [PublicationImporter], and the importers serialize the database work per customer with a
+ * customer lock.
+ *
  * @author olle.hallin@crisp.se
  */
 @Component
@@ -52,17 +85,95 @@ class FileImportTask(
         private val settings: CodekvastIntakeSettings,
         private val publicationImporter: PublicationImporter,
         private val metricsService: IntakeMetricsService,
-        private val lockTemplate: LockTemplate
+        private val agentService: AgentService
 ) {
     private val logger by LoggerDelegate()
 
+    private val threadNumber = AtomicInteger(0)
+    private val executor = ThreadPoolExecutor(
+            settings.fileImportThreads,
+            settings.fileImportThreads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            PriorityBlockingQueue(),
+            ThreadFactory { runnable -> Thread(runnable, "import-${threadNumber.incrementAndGet()}") }
+    )
+
+    /** The customers for which an import is submitted or running. */
+    private val busyCustomers: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+    /** The busy customers for which new files have arrived. */
+    private val rescanCustomers: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+    private var watchService: WatchService? = null
+
     @PostConstruct
     fun postConstruct() {
         logger.info(
-                "Looking for files in {} every {} seconds",
+                "Looking for files in {} every {} seconds, importing with {} threads",
                 settings.fileImportQueuePath,
-                settings.fileImportIntervalSeconds
+                settings.fileImportIntervalSeconds,
+                settings.fileImportThreads
         )
+        if (settings.fileImportWatchQueue) {
+            startWatching()
+        }
+    }
+
+    private fun startWatching() {
+        val queuePath = getQueuePath().toPath()
+        try {
+            val ws = queuePath.fileSystem.newWatchService()
+            queuePath.register(ws, ENTRY_CREATE)
+            watchService = ws
+            Thread({ watchQueue(ws) }, "import-watcher").apply {
+                isDaemon = true
+                start()
+            }
+            logger.info("Watching {} for new files", queuePath)
+        } catch (e: IOException) {
+            logger.warn("Cannot watch $queuePath, will rely on periodic scans", e)
+        }
+    }
+
+    private fun watchQueue(ws: WatchService) {
+        try {
+            while (true) {
+                var key: WatchKey? = ws.take()
+                var newFiles = false
+                while (key != null) {
+                    // Drain all pending events, so that a burst of new files results in one scan.
+                    for (event in key.pollEvents()) {
+                        newFiles = newFiles || event.kind() == OVERFLOW ||
+                                event.context().toString().endsWith(".ser")
+                    }
+                    if (!key.reset()) {
+                        logger.warn(
+                                "{} can no longer be watched, will rely on periodic scans",
+                                settings.fileImportQueuePath
+                        )
+                        return
+                    }
+                    key = ws.poll()
+                }
+                if (newFiles) {
+                    importPublicationFiles()
+                }
+            }
+        } catch (e: InterruptedException) {
+            logger.debug("Watcher interrupted")
+        } catch (e: ClosedWatchServiceException) {
+            logger.debug("Watcher closed")
+        }
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        watchService?.close()
+        executor.shutdown()
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warn("Imports still running after {} seconds", SHUTDOWN_TIMEOUT_SECONDS)
+        }
     }
 
     @Scheduled(
@@ -74,45 +185,107 @@ class FileImportTask(
     }
 
     private fun processQueue() {
-        lockTemplate.doWithLock(Lock.forTask("fileImport", 120), this::doProcessQueue)
+        if (executor.isShutdown) {
+            return
+        }
+        val jobs = mutableListOf<ImportJob>()
+        for ((customerId, files) in collectFilesInQueue().groupBy(QueuedFile::customerId)) {
+            if (busyCustomers.add(customerId)) {
+                jobs.add(createImportJob(customerId, files))
+            } else {
+                logger.debug("Import for customer {} is already in progress", customerId)
+                rescanCustomers.add(customerId)
+            }
+        }
+
+        // Idle workers start at once, so submit in priority order
+        jobs.sort()
+        for (job in jobs) {
+            logger.debug("Submitting {}", job)
+            executor.execute(job)
+        }
     }
 
-    private fun doProcessQueue() {
-        val queue: List<File> = collectFilesInQueue();
-        val queueLength = queue.size
-        if (queueLength > 0) {
-            logger.info("Importing {} new publication files", queueLength)
-            val startedAt = Instant.now()
+    private fun createImportJob(customerId: Long, files: List<QueuedFile>): ImportJob {
+        val invocations = files.filter { it.type == INVOCATIONS }
+        val type = if (invocations.isEmpty()) CODEBASE else INVOCATIONS
+        val jobFiles = (if (invocations.isEmpty()) files else invocations)
+                .sortedWith(compareBy<QueuedFile>({ it.lastModified }, { it.file.name }))
 
-            queue.forEach(this::doProcessFile)
+        val penaltyMillis = if (type == CODEBASE) CODEBASE_PENALTY_MILLIS else 0L
+        val deadline = jobFiles.first().lastModified + penaltyMillis +
+                jobFiles.sumOf { it.length } / BYTES_PER_PENALTY_MILLI
+        return ImportJob(customerId, type, jobFiles, deadline, jobFiles.size < files.size)
+    }
 
+    private fun processImportJob(job: ImportJob) {
+        try {
+            val startedAt = Instant.now()
+            job.files.forEach { doProcessFile(it.file) }
             logger.info(
-                    "Imported {} new publications files in {}",
-                    queueLength,
+                    "Imported {} {} publication files for customer {} in {}",
+                    job.files.size,
+                    job.type,
+                    job.customerId,
                     LoggingUtils.humanReadableDuration(startedAt, Instant.now())
             )
+        } catch (e: Exception) {
+            logger.error("Failed to import publication files for customer ${job.customerId}", e)
+        } finally {
+            busyCustomers.remove(job.customerId)
+        }
+        val rescan = rescanCustomers.remove(job.customerId)
+        if (job.moreFilesWaiting || rescan) {
+            // Pick up the remaining files, and the ones that arrived while we were busy. Should this
+            // race with another scan, the next periodic scan will catch up.
+            importPublicationFiles()
         }
     }
 
-    private fun collectFilesInQueue(): List<File> {
+    private fun getQueuePath(): File {
         val queuePath = settings.fileImportQueuePath
         if (queuePath.mkdirs()) {
             logger.info("Created {}", queuePath.absolutePath)
         }
+        return queuePath
+    }
 
-        Files.list(queuePath.toPath()).use {
+    private fun collectFilesInQueue(): List<QueuedFile> {
+        Files.list(getQueuePath().toPath()).use {
             val result = it
                     .peek { p -> logger.debug("Found {}", p) }
                     .map(Path::toFile)
                     .filter { file -> file.name.endsWith(".ser") }
+                    .map { file ->
+                        QueuedFile(
+                                file = file,
+                                customerId = agentService.getCustomerIdFromPublicationFile(file)
+                                        .orElse(UNKNOWN_CUSTOMER_ID),
+                                // Files of unknown type are imported last.
+                                type = agentService.getPublicationTypeFromPublicationFile(file)
+                                        .orElse(CODEBASE),
+                                lastModified = file.lastModified(),
+                                length = file.length()
+                        )
+                    }
                     .collect(Collectors.toList())
             metricsService.gaugePublicationQueueLength(result.size)
+            for (type in PublicationType.values()) {
+                metricsService.gaugePublicationQueueDepth(type, result.count { f -> f.type == type })
+            }
             return result
         }
     }
 
     private fun doProcessFile(file: File) {
+        if (!file.exists()) {
+            // Imported by another intake instance since the queue was collected.
+            return
+        }
+        val startedAt = Instant.now()
+        val queueWait = Duration.between(Instant.ofEpochMilli(file.lastModified()), startedAt)
         val handled = publicationImporter.importPublicationFile(file)
+        metricsService.recordPublicationFileImport(queueWait, Duration.between(startedAt, Instant.now()))
         if (handled && settings.deleteImportedFiles) {
             deleteFile(file)
         }
@@ -126,4 +299,40 @@ class FileImportTask(
             logger.warn("Could not delete {}", file)
         }
     }
+
+    private data class QueuedFile(
+            val file: File,
+            val customerId: Long,
+            val type: PublicationType,
+            val lastModified: Long,
+            val length: Long
+    )
+
+    private inner class ImportJob(
+            val customerId: Long,
+            val type: PublicationType,
+            val files: List<QueuedFile>,
+            val deadline: Long,
+            val moreFilesWaiting: Boolean
+    ) : Runnable, Comparable<ImportJob> {
+
+        override fun run() = processImportJob(this)
+
+        override fun compareTo(other: ImportJob) = deadline.compareTo(other.deadline)
+
+        override fun toString() =
+                "ImportJob(customerId=$customerId, type=$type, files=${files.size}, " +
+                        "deadline=${Instant.ofEpochMilli(deadline)})"
+    }
+
+    companion object {
+        private const val UNKNOWN_CUSTOMER_ID = -1L
+
+        /** How much later a code base may start than an invocation publication that arrived at the same time. */
+        private const val CODEBASE_PENALTY_MILLIS = 60_000L
+
+        /** Each 10 kB of publication delays the start by 1 ms, i.e., 50 MB delays 5 seconds. */
+        private const val BYTES_PER_PENALTY_MILLI = 10_000L
+        private const val SHUTDOWN_TIMEOUT_SECONDS = 60L
+    }
 }
@@ -28,12 +28,14 @@ import io.codekvast.common.logging.LoggerDelegate
 import io.codekvast.common.logging.LoggingUtils.humanReadableDuration
 import io.codekvast.common.messaging.EventService
 import io.codekvast.common.messaging.model.CodeBaseReceivedEvent
+import io.codekvast.intake.file_import.CodeBaseEntrySource
 import io.codekvast.intake.file_import.CodeBaseImporter
 import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType.CODEBASE
 import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3
 import io.codekvast.javaagent.model.v3.CodeBasePublication3
+import io.codekvast.javaagent.model.v4.CodeBasePublication4
 import org.springframework.stereotype.Component
 import org.springframework.transaction.annotation.Transactional
 import java.time.Clock
@@ -59,15 +61,78 @@ internal class CodeBaseImporterImpl(
     @Transactional(rollbackFor = [Exception::class])
     @Restartable
     override fun importPublication(publication: CodeBasePublication3): Boolean {
+        logger.debug("Importing {}", publication)
+        return importPublication(
+                publication.commonData,
+                publication.entries.size,
+                CodeBaseEntrySource.of(publication.entries)
+        )
+    }
+
+    @Transactional(rollbackFor = [Exception::class])
+    @Restartable
+    override fun importPublication(
+            data: CommonPublicationData2,
+            codeBaseSize: Int,
+            entries: CodeBaseEntrySource
+    ): Boolean {
+        var importedEntries = 0
+        var ignoredSyntheticSignatures = 0
+        val nonSyntheticEntries = CodeBaseEntrySource { chunkSize, consumer ->
+            importedEntries = 0
+            ignoredSyntheticSignatures = 0
+            entries.forEachChunk(chunkSize) { chunk ->
+                val filtered = chunk.filter { e: CodeBaseEntry3 ->
+                    !syntheticSignatureService.isSyntheticMethod(e.signature)
+                }
+                importedEntries += filtered.size
+                ignoredSyntheticSignatures += chunk.size - filtered.size
+                consumer(filtered)
+            }
+        }
+        // The entries are not read at all if the code base has been imported before.
+        val importedSize = {
+            if (importedEntries + ignoredSyntheticSignatures == 0) codeBaseSize else importedEntries
+        }
+        val duration = lockTemplate.doWithLockOrThrow(
+                Lock.forCustomer(data.customerId)
+        ) {
+            doImportCodeBase(data, importedSize) { importContext ->
+                importDAO.importMethods(data, importContext, nonSyntheticEntries)
+            }
+        }
+        logger.info(
+                "Imported code base {}:{} with {} entries in {} (ignoring {} synthetic signatures)",
+                data.appName,
+                data.appVersion,
+                codeBaseSize,
+                humanReadableDuration(duration),
+                ignoredSyntheticSignatures
+        )
+        metricsService.recordImportedPublication(
+                CODEBASE, importedSize(), ignoredSyntheticSignatures, duration
+        )
+        return true
+    }
+
+    @Transactional(rollbackFor = [Exception::class])
+    @Restartable
+    override fun importDeltaPublication(publication: CodeBasePublication4): Boolean {
         logger.debug("Importing {}", publication)
         val data = publication.commonData
-        val entries: Collection<CodeBaseEntry3> = publication.entries.stream()
+        val addedEntries: Collection<CodeBaseEntry3> = publication.addedEntries.stream()
                 .filter { e: CodeBaseEntry3 -> !syntheticSignatureService.isSyntheticMethod(e.signature) }
                 .collect(Collectors.toList())
-        val ignoredSyntheticSignatures = publication.entries.size - entries.size
+        val ignoredSyntheticSignatures = publication.addedEntries.size - addedEntries.size
         val duration = lockTemplate.doWithLockOrThrow(
                 Lock.forCustomer(data.customerId)
-        ) { doImportCodeBase(data, entries) }
+        ) {
+            doImportCodeBase(data, { publication.codeBaseSize }) { importContext ->
+                importDAO.importMethodDelta(
+                        data, importContext, addedEntries, publication.removedSignatures
+                )
+            }
+        }
         logger.info(
                 "Imported {} in {} (ignoring {} synthetic signatures)",
                 publication,
@@ -75,19 +140,21 @@ internal class CodeBaseImporterImpl(
                 ignoredSyntheticSignatures
         )
         metricsService.recordImportedPublication(
-                CODEBASE, entries.size, ignoredSyntheticSignatures, duration
+                CODEBASE, addedEntries.size, ignoredSyntheticSignatures, duration
         )
         return true
     }
 
     private fun doImportCodeBase(
-            data: CommonPublicationData2, entries: Collection<CodeBaseEntry3>
+            data: CommonPublicationData2,
+            codeBaseSize: () -> Int,
+            importMethods: (CommonImporter.ImportContext) -> Unit
     ): Duration {
         val startedAt = clock.instant()
         val importContext = commonImporter.importCommonData(data)
         val isNewCodebase = importDAO.importCodeBaseFingerprint(data, importContext)
         if (isNewCodebase) {
-            importDAO.importMethods(data, importContext, entries)
+            importMethods(importContext)
         }
         eventService.send(
                 CodeBaseReceivedEvent.builder()
@@ -97,7 +164,7 @@ internal class CodeBaseImporterImpl(
                         .agentVersion(data.agentVersion)
                         .environment(data.environment)
                         .hostname(data.hostname)
-                        .size(entries.size)
+                        .size(codeBaseSize())
                         .receivedAt(Instant.ofEpochMilli(data.publishedAtMillis))
                         .trialPeriodEndsAt(importContext.trialPeriodEndsAt)
                         .build()
@@ -21,12 +21,16 @@
  */
 package io.codekvast.intake.file_import.impl
 
+import io.codekvast.intake.file_import.CodeBaseEntrySource
 import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3
 
 /**
  * Interface for importing publications to the database.
  *
+ * Methods that change the invocations table also keep the per-method rollup in the method_usage
+ * table up to date.
+ *
  * @author olle.hallin@crisp.se
  */
 interface ImportDAO {
@@ -76,14 +80,36 @@ interface ImportDAO {
      * Inserts missing rows into the database's methods and invocations tables. Does never update
      * existing rows.
      *
+     * The entries are imported in chunks, so the memory needed does not depend on the size of the
+     * code base.
+     *
      * @param data The common publication data
      * @param importContext The import importContext returned by CommonImporter.importCommonData()
-     * @param entries The collection of code base entries to store.
+     * @param entries The source of code base entries to store.
      */
     fun importMethods(
             data: CommonPublicationData2,
             importContext: CommonImporter.ImportContext,
-            entries: Collection<CodeBaseEntry3>
+            entries: CodeBaseEntrySource
+    )
+
+    /**
+     * Applies a code base delta to the database's methods and invocations tables.
+     *
+     * Added entries are imported like in [importMethods]. Invocations of removed signatures are
+     * deleted unless they have been invoked. No stale invocations are removed, since a delta does
+     * not contain the complete code base.
+     *
+     * @param data The common publication data
+     * @param importContext The import importContext returned by CommonImporter.importCommonData()
+     * @param addedEntries The code base entries that have been added since the base code base.
+     * @param removedSignatures The signatures that have been removed since the base code base.
+     */
+    fun importMethodDelta(
+            data: CommonPublicationData2,
+            importContext: CommonImporter.ImportContext,
+            addedEntries: Collection<CodeBaseEntry3>,
+            removedSignatures: Collection<String>
     )
 
     /**
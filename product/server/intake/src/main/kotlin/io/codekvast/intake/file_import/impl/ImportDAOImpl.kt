@@ -24,20 +24,21 @@ package io.codekvast.intake.file_import.impl
 import io.codekvast.common.customer.CustomerService
 import io.codekvast.common.logging.LoggerDelegate
 import io.codekvast.database.DatabaseLimits
+import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
+import io.codekvast.intake.file_import.CodeBaseEntrySource
+import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v2.SignatureStatus2
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3
 import io.codekvast.javaagent.model.v3.MethodSignature3
+import org.springframework.jdbc.core.ConnectionCallback
 import org.springframework.jdbc.core.JdbcTemplate
 import org.springframework.jdbc.core.PreparedStatementCreator
-import org.springframework.jdbc.support.GeneratedKeyHolder
-import org.springframework.jdbc.support.KeyHolder
 import org.springframework.stereotype.Component
 import java.sql.*
 import java.time.Duration
 import java.time.Instant
 import java.util.*
-import java.util.concurrent.atomic.AtomicInteger
 import java.util.stream.Collectors
 
 /** @author olle.hallin@crisp.se
@@ -45,7 +46,10 @@ import java.util.stream.Collectors
 @Component
 class ImportDAOImpl(
         private val jdbcTemplate: JdbcTemplate,
-        private val customerService: CustomerService
+        private val customerService: CustomerService,
+        private val settings: CodekvastIntakeSettings,
+        private val metricsService: IntakeMetricsService,
+        private val methodIdCache: MethodIdCache
 ) : ImportDAO {
 
     private val logger by LoggerDelegate()
@@ -220,55 +224,80 @@ class ImportDAOImpl(
     override fun importMethods(
             data: CommonPublicationData2,
             importContext: CommonImporter.ImportContext,
-            entries: Collection<CodeBaseEntry3>
+            entries: CodeBaseEntrySource
+    ) {
+        val now: Instant = Instant.now()
+        val existingMethods = importEntries(data, importContext, entries, now)
+        removeStaleInvocations(
+                importContext.customerId,
+                importContext.appId,
+                importContext.environmentId,
+                now,
+                existingMethods
+        )
+        customerService.assertDatabaseSize(importContext.customerId)
+    }
+
+    override fun importMethodDelta(
+            data: CommonPublicationData2,
+            importContext: CommonImporter.ImportContext,
+            addedEntries: Collection<CodeBaseEntry3>,
+            removedSignatures: Collection<String>
     ) {
+        val existingMethods = importEntries(
+                data, importContext, CodeBaseEntrySource.of(addedEntries), Instant.now()
+        )
+        removeInvocations(
+                importContext.customerId,
+                importContext.appId,
+                importContext.environmentId,
+                removedSignatures,
+                existingMethods
+        )
+        customerService.assertDatabaseSize(importContext.customerId)
+    }
+
+    private fun importEntries(
+            data: CommonPublicationData2,
+            importContext: CommonImporter.ImportContext,
+            entries: CodeBaseEntrySource,
+            now: Instant
+    ): Map<String, Long?> {
         val customerId: Long = importContext.customerId
         val appId: Long = importContext.appId
         val publishedAtMillis: Long = importContext.publishedAtMillis
         val environmentId: Long = importContext.environmentId
-        val existingPackages = getExistingPackages(customerId)
-        val existingTypes = getExistingTypes(customerId)
-        val existingMethods = getExistingMethods(customerId)
-        val incompleteMethods = getIncompleteMethods(customerId)
-        val invocationsNotFoundInCodeBase = getInvocationsNotFoundInCodeBase(customerId)
-        val existingMethodLocations = getExistingMethodLocations(customerId)
-        importNewPackages(customerId, publishedAtMillis, entries, existingPackages)
-        importNewTypes(customerId, publishedAtMillis, entries, existingTypes)
-        importNewMethods(customerId, publishedAtMillis, entries, existingMethods)
-        insertMethodLocations(customerId, entries, existingMethods, existingMethodLocations)
-        updateIncompleteMethods(
-                customerId,
-                publishedAtMillis,
-                entries,
-                incompleteMethods,
-                existingMethods,
-                invocationsNotFoundInCodeBase
-        )
 
-        val now: Instant = Instant.now()
+        // Only the signature -> methodId index is kept for the whole code base, since it is shared
+        // with other imports by the MethodIdCache. The rest is looked up per chunk.
+        val existingMethods = getExistingMethods(customerId)
+        entries.forEachChunk(settings.codeBaseImportChunkSize) { chunk ->
+            importNewPackages(customerId, publishedAtMillis, chunk)
+            importNewTypes(customerId, publishedAtMillis, chunk)
+            importNewMethods(customerId, publishedAtMillis, chunk, existingMethods)
+            insertMethodLocations(customerId, chunk, existingMethods)
+            updateIncompleteMethods(customerId, publishedAtMillis, chunk, existingMethods)
 
-        ensureInitialInvocations(
-                data,
-                customerId,
-                appId,
-                environmentId,
-                entries,
-                existingMethods,
-                now
-        )
-        removeStaleInvocations(customerId, appId, environmentId, now, existingMethods)
-        customerService.assertDatabaseSize(customerId)
+            ensureInitialInvocations(
+                    data,
+                    customerId,
+                    appId,
+                    environmentId,
+                    chunk,
+                    existingMethods,
+                    now
+            )
+        }
+        return existingMethods
     }
 
     private fun importNewPackages(
             customerId: Long,
             publishedAtMillis: Long,
-            entries: Collection<CodeBaseEntry3>,
-            existingPackages: MutableSet<String>
+            entries: Collection<CodeBaseEntry3>
     ) {
         val startedAt: Instant = Instant.now()
-        val createdAt = Timestamp(publishedAtMillis)
-        var count = 0
+        val packages: MutableSet<String> = LinkedHashSet()
         for (entry in entries) {
             val methodSignature: MethodSignature3? = entry.methodSignature
             if (methodSignature == null) {
@@ -277,41 +306,25 @@ class ImportDAOImpl(
                         entry
                 )
             } else {
-                val packageName: String = methodSignature.packageName
-                if (!existingPackages.contains(packageName)) {
-                    val updated = jdbcTemplate.update(
-                            "INSERT INTO packages(customerId, name, createdAt) VALUES (?, ?, ?)",
-                            customerId,
-                            packageName,
-                            createdAt
-                    )
-                    if (updated == 1) {
-                        existingPackages.add(packageName)
-                    } else {
-                        logger.warn(
-                                "Failed to insert {}:{} into packages",
-                                customerId,
-                                packageName
-                        )
-                    }
-                    count += 1
-                }
+                packages.add(methodSignature.packageName)
             }
         }
+        val newPackages = getNewNames("packages", customerId, packages)
+        batchInsertNames("packages", customerId, publishedAtMillis, newPackages)
         logger.debug(
-                "Imported {} packages in {} ms", count, Duration.between(startedAt, Instant.now())
+                "Imported {} packages in {} ms",
+                newPackages.size,
+                Duration.between(startedAt, Instant.now())
         )
     }
 
     private fun importNewTypes(
             customerId: Long,
             publishedAtMillis: Long,
-            entries: Collection<CodeBaseEntry3>,
-            existingTypes: MutableSet<String>
+            entries: Collection<CodeBaseEntry3>
     ) {
         val startedAt: Instant = Instant.now()
-        val createdAt = Timestamp(publishedAtMillis)
-        var count = 0
+        val types: MutableSet<String> = LinkedHashSet()
         for (entry in entries) {
             val methodSignature: MethodSignature3? = entry.methodSignature
             if (methodSignature == null) {
@@ -320,32 +333,53 @@ class ImportDAOImpl(
                         entry
                 )
             } else {
-                val declaringType: String = methodSignature.declaringType
-                if (!existingTypes.contains(declaringType)) {
-                    val updated = jdbcTemplate.update(
-                            "INSERT INTO types(customerId, name, createdAt) VALUES (?, ?, ?)",
-                            customerId,
-                            declaringType,
-                            createdAt
-                    )
-                    if (updated == 1) {
-                        existingTypes.add(declaringType)
-                    } else {
-                        logger.warn(
-                                "Failed to insert {}:{} into types",
-                                customerId,
-                                declaringType
-                        )
-                    }
-                    count += 1
-                }
+                types.add(methodSignature.declaringType)
             }
         }
+        val newTypes = getNewNames("types", customerId, types)
+        batchInsertNames("types", customerId, publishedAtMillis, newTypes)
         logger.debug(
-                "Imported {} packages in {} ms", count, Duration.between(startedAt, Instant.now())
+                "Imported {} types in {} ms", newTypes.size, Duration.between(startedAt, Instant.now())
         )
     }
 
+    /** Looks up which of some package or type names are not yet imported. */
+    private fun getNewNames(table: String, customerId: Long, names: Set<String>): Set<String> {
+        val result: MutableSet<String> = LinkedHashSet(names)
+        for (chunk in names.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            result.removeAll(
+                    jdbcTemplate.queryForList(
+                            "SELECT name FROM $table WHERE customerId = ? AND name IN ($placeholders)",
+                            String::class.java,
+                            customerId,
+                            *chunk.toTypedArray()
+                    )
+            )
+        }
+        return result
+    }
+
+    private fun batchInsertNames(
+            table: String,
+            customerId: Long,
+            publishedAtMillis: Long,
+            names: Collection<String>
+    ) {
+        if (names.isNotEmpty()) {
+            val createdAt = Timestamp(publishedAtMillis)
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO $table(customerId, name, createdAt) VALUES (?, ?, ?)",
+                    names,
+                    settings.importBatchSize
+            ) { ps: PreparedStatement, name: String ->
+                ps.setLong(1, customerId)
+                ps.setString(2, name)
+                ps.setTimestamp(3, createdAt)
+            }
+        }
+    }
+
     override fun importInvocations(
             importContext: CommonImporter.ImportContext,
             recordingIntervalStartedAtMillis: Long,
@@ -389,86 +423,134 @@ class ImportDAOImpl(
             invokedSignatures: Set<String>,
             existingMethods: MutableMap<String, Long?>
     ) {
+        val newSignatures: MutableSet<String> = LinkedHashSet()
         for (sig in invokedSignatures) {
             val signature: String = DatabaseLimits.normalizeSignature(sig)
-            var methodId = existingMethods[signature]
-            if (methodId == null) {
-                logger.trace("Inserting incomplete method {}:{}", methodId, signature)
-                methodId = doInsertRow(
-                        InsertIncompleteMethodStatement(customerId, signature, invokedAtMillis)
-                )
-                existingMethods[signature] = methodId
+            if (!existingMethods.containsKey(signature)) {
+                logger.trace("Inserting incomplete method {}:{}", customerId, signature)
+                newSignatures.add(signature)
             }
-            logger.trace("Upserting invocation {}", signature)
-            jdbcTemplate.update(
-                    UpsertInvocationStatement(
-                            customerId,
-                            appId,
-                            environmentId,
-                            methodId,
-                            SignatureStatus2.INVOKED,
-                            invokedAtMillis,
-                            null
-                    )
-            )
         }
-    }
+        for (chunk in newSignatures.chunked(settings.importBatchSize)) {
+            val methodIds = batchInsertIncompleteMethods(customerId, invokedAtMillis, chunk)
+            chunk.forEachIndexed { i, signature -> existingMethods[signature] = methodIds[i] }
+            methodIdCache.recordInserted(customerId, methodIds)
+        }
 
-    private fun getExistingPackages(customerId: Long): MutableSet<String> {
-        return HashSet(
-                jdbcTemplate.queryForList(
-                        "SELECT name FROM packages WHERE customerId = ?", String::class.java, customerId
-                )
+        // Upsert in primary key order, so that concurrent imports lock the rows in the same order.
+        val methodIds: SortedSet<Long> = TreeSet()
+        invokedSignatures.mapTo(methodIds) { existingMethods[DatabaseLimits.normalizeSignature(it)]!! }
+        for (chunk in methodIds.chunked(settings.importBatchSize)) {
+            val startedAt: Instant = Instant.now()
+            jdbcTemplate.update(UpsertInvocationsStatement(
+                    customerId, appId, environmentId, chunk, invokedAtMillis
+            ))
+            metricsService.recordInvocationUpsertBatch(
+                    chunk.size, Duration.between(startedAt, Instant.now())
+            )
+            // An invocation only moves the rollup forward, so there is no need to re-aggregate.
+            jdbcTemplate.update(UpsertMethodUsageStatement(customerId, chunk, invokedAtMillis))
+        }
+        logger.debug(
+                "Imported {} invocations ({} new methods) for {}:{}:{}",
+                methodIds.size,
+                newSignatures.size,
+                customerId,
+                appId,
+                environmentId
         )
     }
 
-    private fun getExistingTypes(customerId: Long): MutableSet<String> {
-        return HashSet(
-                jdbcTemplate.queryForList(
-                        "SELECT name FROM types WHERE customerId = ?", String::class.java, customerId
-                )
-        )
-    }
+    /**
+     * Inserts a chunk of incomplete methods, i.e., methods that are invoked but not (yet) found in
+     * any code base, in one JDBC batch.
+     *
+     * @return the generated method ids, in the same order as the chunk.
+     */
+    private fun batchInsertIncompleteMethods(
+            customerId: Long,
+            invokedAtMillis: Long,
+            chunk: List<String>
+    ): List<Long> = jdbcTemplate.execute(ConnectionCallback { con: Connection ->
+        con.prepareStatement(
+                "INSERT INTO methods(customerId, visibility, signature, createdAt) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS
+        ).use { ps ->
+            val createdAt = Timestamp(invokedAtMillis)
+            for (signature in chunk) {
+                ps.setLong(1, customerId)
+                ps.setString(2, "")
+                ps.setString(3, signature)
+                ps.setTimestamp(4, createdAt)
+                ps.addBatch()
+            }
+            ps.executeBatch()
+            getGeneratedIds(ps, chunk.size)
+        }
+    })!!
 
     private fun getExistingMethods(customerId: Long): MutableMap<String, Long?> {
+        val fingerprint = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1), COALESCE(MAX(id), 0) FROM methods WHERE customerId = ? ",
+                { rs: ResultSet, _: Int -> MethodIdCache.Fingerprint(rs.getLong(1), rs.getLong(2)) },
+                customerId
+        )!!
+        val cached = methodIdCache.get(customerId, fingerprint)
+        if (cached != null) {
+            logger.debug("Using {} cached methods for customer {}", cached.size, customerId)
+            return cached
+        }
+
         val result: MutableMap<String, Long?> = HashMap()
         jdbcTemplate.query(
                 "SELECT id, signature FROM methods WHERE customerId = ? ",
                 { rs: ResultSet -> result[rs.getString(2)] = rs.getLong(1) },
                 customerId
         )
+        methodIdCache.put(customerId, result, fingerprint)
         return result
     }
 
-    private fun getIncompleteMethods(customerId: Long): Set<String> {
-        return HashSet(
-                jdbcTemplate.queryForList(
-                        "SELECT signature FROM methods WHERE customerId = ? AND methodName IS NULL ",
-                        String::class.java,
-                        customerId
-                )
-        )
-    }
-
-    private fun getExistingMethodLocations(customerId: Long): MutableSet<Long> {
-        return HashSet(
-                jdbcTemplate.queryForList(
-                        "SELECT methodId FROM method_locations WHERE customerId = ? ",
-                        Long::class.java,
-                        customerId
-                )
-        )
+    /** Looks up which of some methods already have a location. */
+    private fun getMethodsWithLocation(customerId: Long, methodIds: Collection<Long>): Set<Long> {
+        val result: MutableSet<Long> = HashSet()
+        for (chunk in methodIds.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            result.addAll(
+                    jdbcTemplate.queryForList(
+                            "SELECT methodId FROM method_locations WHERE customerId = ? AND methodId IN ($placeholders)",
+                            Long::class.java,
+                            customerId,
+                            *chunk.toTypedArray()
+                    )
+            )
+        }
+        return result
     }
 
-    private fun getInvocationsNotFoundInCodeBase(customerId: Long): Set<Long> {
-        return HashSet(
-                jdbcTemplate.queryForList(
-                        "SELECT methodId FROM invocations WHERE customerId = ? AND status = ?",
-                        Long::class.java,
-                        customerId,
-                        SignatureStatus2.NOT_FOUND_IN_CODE_BASE.name
-                )
-        )
+    /**
+     * Looks up which of some methods are incomplete, i.e., were invoked before they were found in a
+     * code base, or have invocations with the status NOT_FOUND_IN_CODE_BASE.
+     */
+    private fun getIncompleteMethods(customerId: Long, methodIds: Collection<Long>): Set<Long> {
+        val result: MutableSet<Long> = HashSet()
+        for (chunk in methodIds.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            result.addAll(
+                    jdbcTemplate.queryForList(
+                            """SELECT m.id FROM methods m
+                               WHERE m.customerId = ? AND m.id IN ($placeholders)
+                               AND (m.methodName IS NULL OR EXISTS (
+                                   SELECT 1 FROM invocations i
+                                   WHERE i.customerId = m.customerId AND i.methodId = m.id AND i.status = ?))""",
+                            Long::class.java,
+                            customerId,
+                            *chunk.toTypedArray(),
+                            SignatureStatus2.NOT_FOUND_IN_CODE_BASE.name
+                    )
+            )
+        }
+        return result
     }
 
     private fun importNewMethods(
@@ -478,29 +560,60 @@ class ImportDAOImpl(
             existingMethods: MutableMap<String, Long?>
     ) {
         val startedAt: Instant = Instant.now()
-        var count = 0
+        val newMethods: MutableMap<String, CodeBaseEntry3> = LinkedHashMap()
         for (entry in entries) {
             val signature = truncateTooLongSignature(customerId, entry.signature)
             if (!existingMethods.containsKey(signature)) {
-                existingMethods[signature] = doInsertRow(
-                        InsertCompleteMethodStatement(
-                                customerId,
-                                publishedAtMillis,
-                                entry.methodSignature,
-                                entry.visibility,
-                                signature
-                        )
-                )
-                count += 1
+                newMethods.putIfAbsent(signature, entry)
             }
         }
+        for (chunk in newMethods.entries.chunked(settings.importBatchSize)) {
+            val methodIds = batchInsertCompleteMethods(customerId, publishedAtMillis, chunk)
+            chunk.forEachIndexed { i, (signature, _) -> existingMethods[signature] = methodIds[i] }
+            methodIdCache.recordInserted(customerId, methodIds)
+        }
         logger.debug(
                 "Imported {} methods in {} ms",
-                count,
+                newMethods.size,
                 Duration.between(startedAt, Instant.now())
         )
     }
 
+    /**
+     * Inserts a chunk of methods in one JDBC batch.
+     *
+     * @return the generated method ids, in the same order as the chunk.
+     */
+    private fun batchInsertCompleteMethods(
+            customerId: Long,
+            publishedAtMillis: Long,
+            chunk: List<Map.Entry<String, CodeBaseEntry3>>
+    ): List<Long> = jdbcTemplate.execute(ConnectionCallback { con: Connection ->
+        con.prepareStatement(INSERT_COMPLETE_METHOD_SQL, Statement.RETURN_GENERATED_KEYS).use { ps ->
+            for ((signature, entry) in chunk) {
+                setCompleteMethodParameters(
+                        ps, customerId, publishedAtMillis, entry.methodSignature, entry.visibility, signature
+                )
+                ps.addBatch()
+            }
+            ps.executeBatch()
+            getGeneratedIds(ps, chunk.size)
+        }
+    })!!
+
+    private fun getGeneratedIds(ps: PreparedStatement, expectedCount: Int): List<Long> {
+        val result = ArrayList<Long>(expectedCount)
+        ps.generatedKeys.use { rs ->
+            while (rs.next()) {
+                result.add(rs.getLong(1))
+            }
+        }
+        check(result.size == expectedCount) {
+            "Expected $expectedCount generated method ids, got ${result.size}"
+        }
+        return result
+    }
+
     private fun truncateTooLongSignature(customerId: Long, signature: String): String {
         if (signature.length > DatabaseLimits.MAX_METHOD_SIGNATURE_LENGTH) {
             val inserted = jdbcTemplate.update(
@@ -527,30 +640,32 @@ class ImportDAOImpl(
     private fun insertMethodLocations(
             customerId: Long,
             entries: Collection<CodeBaseEntry3>,
-            existingMethods: MutableMap<String, Long?>,
-            existingMethodLocations: MutableSet<Long>
+            existingMethods: MutableMap<String, Long?>
     ) {
         val startedAt: Instant = Instant.now()
-        var count = 0
+        val newLocations: MutableMap<Long, String> = LinkedHashMap()
         for (entry in entries) {
             val location: String? = entry.methodSignature.location
-            val signature: String = DatabaseLimits.normalizeSignature(entry.signature)
-            val methodId = existingMethods[signature]!!
-            if (location != null && !existingMethodLocations.contains(methodId)) {
-                logger.debug("Inserting {} ({})", signature, location)
-                count += jdbcTemplate.update(
-                        InsertMethodLocationStatement(
-                                customerId,
-                                methodId,
-                                location
-                        )
-                )
-                existingMethodLocations.add(methodId)
+            if (location != null) {
+                val methodId = existingMethods[DatabaseLimits.normalizeSignature(entry.signature)]!!
+                newLocations.putIfAbsent(methodId, location)
+            }
+        }
+        newLocations.keys.removeAll(getMethodsWithLocation(customerId, newLocations.keys))
+        if (newLocations.isNotEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO method_locations(customerId, methodId, location) VALUES(?, ?, ?) ",
+                    newLocations.entries,
+                    settings.importBatchSize
+            ) { ps: PreparedStatement, (methodId, location) ->
+                ps.setLong(1, customerId)
+                ps.setLong(2, methodId)
+                ps.setString(3, location)
             }
         }
         logger.debug(
                 "Inserted {} method locations in {} ms",
-                count,
+                newLocations.size,
                 Duration.between(startedAt, Instant.now())
         )
     }
@@ -559,16 +674,17 @@ class ImportDAOImpl(
             customerId: Long,
             publishedAtMillis: Long,
             entries: Collection<CodeBaseEntry3>,
-            incompleteMethods: Set<String>,
-            existingMethods: Map<String, Long?>,
-            incompleteInvocations: Set<Long>
+            existingMethods: Map<String, Long?>
     ) {
         val startedAt: Instant = Instant.now()
+        val incompleteMethods = getIncompleteMethods(
+                customerId,
+                entries.map { existingMethods[DatabaseLimits.normalizeSignature(it.signature)]!! }
+        )
         var count = 0
         for (entry in entries) {
             val signature: String = DatabaseLimits.normalizeSignature(entry.signature)
-            val methodId = existingMethods[signature]
-            if (incompleteMethods.contains(signature) || incompleteInvocations.contains(methodId)) {
+            if (incompleteMethods.contains(existingMethods[signature])) {
                 logger.debug("Updating {}", signature)
                 jdbcTemplate.update(
                         UpdateIncompleteMethodStatement(customerId, publishedAtMillis, entry)
@@ -593,21 +709,42 @@ class ImportDAOImpl(
             now: Instant
     ) {
         val startedAt: Instant = Instant.now()
-        var importCount = 0
+
+        // Upsert in primary key order, so that concurrent imports lock the rows in the same order.
+        val initialStatuses: SortedMap<Long, SignatureStatus2> = TreeMap()
         for (entry in entries) {
-            val signature: String = DatabaseLimits.normalizeSignature(entry.signature)
-            val methodId = existingMethods[signature]!!
-            val initialStatus: SignatureStatus2 = calculateInitialStatus(data, entry)
-            val updated: Int = jdbcTemplate.update(
-                    UpsertInvocationStatement(
-                            customerId, appId, environmentId, methodId, initialStatus, 0L, now
-                    )
-            )
-            importCount += if (updated == 1) 1 else 0
+            val methodId = existingMethods[DatabaseLimits.normalizeSignature(entry.signature)]!!
+            initialStatuses.putIfAbsent(methodId, calculateInitialStatus(data, entry))
+        }
+        val insertedMethodIds = ArrayList<Long>()
+        val updatedMethodIds = ArrayList<Long>()
+        for (chunk in initialStatuses.entries.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            val existing = HashSet(jdbcTemplate.queryForList(
+                    "SELECT methodId FROM invocations WHERE customerId = ? AND applicationId = ? AND environmentId = ? "
+                            + "AND methodId IN ($placeholders)",
+                    Long::class.java,
+                    customerId,
+                    appId,
+                    environmentId,
+                    *chunk.map { it.key }.toTypedArray()
+            ))
+            chunk.forEach { (methodId, _) ->
+                (if (existing.contains(methodId)) updatedMethodIds else insertedMethodIds).add(methodId)
+            }
+            jdbcTemplate.update(UpsertInitialInvocationsStatement(
+                    customerId, appId, environmentId, chunk, now
+            ))
         }
+
+        // An existing invocation only gets a new lastSeenAtMillis, which changes nothing in the
+        // rollup but the timestamp.
+        refreshMethodUsage(customerId, insertedMethodIds)
+        touchMethodUsage(customerId, updatedMethodIds)
         logger.debug(
-                "Imported {} initial invocations in {} ms",
-                importCount,
+                "Imported {} new initial invocations and updated {} in {} ms",
+                insertedMethodIds.size,
+                updatedMethodIds.size,
                 Duration.between(startedAt, Instant.now())
         )
     }
@@ -672,7 +809,7 @@ class ImportDAOImpl(
         // TODO: Convert to a simple DELETE once the erroneous stale deletions have been fixed
         val methodsById = existingMethods.entries.stream()
                 .collect(Collectors.toMap({ it.value }, { it.key }) { _, b -> b })
-        val deleted = AtomicInteger(0)
+        val deletedMethodIds = ArrayList<Long>()
         jdbcTemplate.query(
                 "DELETE FROM invocations WHERE customerId = ? AND applicationId = ? AND environmentId = ? "
                         + "AND lastSeenAtMillis < ? AND status <> ? "
@@ -692,7 +829,7 @@ class ImportDAOImpl(
                             rs.getTimestamp("timestamp").toInstant(),
                             now
                     )
-                    deleted.incrementAndGet()
+                    deletedMethodIds.add(methodId)
                 },
                 customerId,
                 appId,
@@ -700,10 +837,11 @@ class ImportDAOImpl(
                 now.toEpochMilli(),
                 SignatureStatus2.INVOKED.name
         )
-        if (deleted.get() > 0) {
+        refreshMethodUsage(customerId, deletedMethodIds)
+        if (deletedMethodIds.isNotEmpty()) {
             logger.info(
                     "Removed {} stale invocations for {}:{}:{}",
-                    deleted,
+                    deletedMethodIds.size,
                     customerId,
                     appId,
                     environmentId
@@ -718,6 +856,89 @@ class ImportDAOImpl(
         }
     }
 
+    private fun removeInvocations(
+            customerId: Long,
+            appId: Long,
+            environmentId: Long,
+            removedSignatures: Collection<String>,
+            existingMethods: Map<String, Long?>
+    ) {
+        val methodIds: SortedSet<Long> = TreeSet()
+        removedSignatures.mapNotNullTo(methodIds) { existingMethods[DatabaseLimits.normalizeSignature(it)] }
+        val deletedMethodIds = ArrayList<Long>()
+        for (chunk in methodIds.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            jdbcTemplate.query(
+                    "DELETE FROM invocations WHERE customerId = ? AND applicationId = ? AND environmentId = ? "
+                            + "AND methodId IN ($placeholders) AND status <> ? RETURNING methodId ",
+                    { rs: ResultSet -> deletedMethodIds.add(rs.getLong(1)) },
+                    customerId,
+                    appId,
+                    environmentId,
+                    *chunk.toTypedArray(),
+                    SignatureStatus2.INVOKED.name
+            )
+        }
+        refreshMethodUsage(customerId, deletedMethodIds)
+        logger.debug(
+                "Removed {} invocations of {} removed signatures for {}:{}:{}",
+                deletedMethodIds.size,
+                removedSignatures.size,
+                customerId,
+                appId,
+                environmentId
+        )
+    }
+
+    /**
+     * Recomputes the method_usage rollup of some methods from their invocations. Must be invoked
+     * after invocations are inserted with an initial status or removed, in the same transaction.
+     */
+    private fun refreshMethodUsage(customerId: Long, methodIds: Collection<Long>) {
+        val startedAt: Instant = Instant.now()
+        val sortedMethodIds: SortedSet<Long> = TreeSet(methodIds)
+        for (chunk in sortedMethodIds.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            jdbcTemplate.update(
+                    """INSERT INTO method_usage(customerId, methodId, status, invokedAtMillis, createdAt, publishedAt)
+                       SELECT * FROM (
+                           SELECT customerId, methodId, MAX(status), MAX(invokedAtMillis), MAX(createdAt), MAX(timestamp)
+                           FROM invocations WHERE customerId = ? AND methodId IN ($placeholders)
+                           GROUP BY customerId, methodId) AS u
+                       ON DUPLICATE KEY UPDATE status = VALUE(status), invokedAtMillis = VALUE(invokedAtMillis),
+                           createdAt = VALUE(createdAt), publishedAt = VALUE(publishedAt)""",
+                    customerId, *chunk.toTypedArray()
+            )
+            jdbcTemplate.update(
+                    """DELETE FROM method_usage WHERE customerId = ? AND methodId IN ($placeholders)
+                       AND NOT EXISTS (SELECT 1 FROM invocations i
+                                       WHERE i.customerId = method_usage.customerId AND i.methodId = method_usage.methodId)""",
+                    customerId, *chunk.toTypedArray()
+            )
+        }
+        logger.trace(
+                "Refreshed the usage of {} methods in {}",
+                sortedMethodIds.size,
+                Duration.between(startedAt, Instant.now())
+        )
+    }
+
+    /**
+     * Moves the method_usage.publishedAt of some methods to now, after their invocations were updated
+     * without any other change than the timestamp. Must be invoked in the same transaction.
+     */
+    private fun touchMethodUsage(customerId: Long, methodIds: Collection<Long>) {
+        val sortedMethodIds: SortedSet<Long> = TreeSet(methodIds)
+        for (chunk in sortedMethodIds.chunked(settings.importBatchSize)) {
+            val placeholders = chunk.joinToString(", ") { "?" }
+            jdbcTemplate.update(
+                    """UPDATE method_usage SET publishedAt = GREATEST(publishedAt, CURRENT_TIMESTAMP(3))
+                       WHERE customerId = ? AND methodId IN ($placeholders)""",
+                    customerId, *chunk.toTypedArray()
+            )
+        }
+    }
+
     private fun formatInvokedAt(status: String, invokedAtMillis: Long): String {
         return if (invokedAtMillis == 0L) status else "$status at ${
             Instant.ofEpochMilli(
@@ -726,44 +947,28 @@ class ImportDAOImpl(
         }"
     }
 
-    private fun doInsertRow(psc: PreparedStatementCreator): Long {
-        val keyHolder: KeyHolder = GeneratedKeyHolder()
-        jdbcTemplate.update(psc, keyHolder)
-        return keyHolder.key!!.toLong()
-    }
-
-    private class InsertCompleteMethodStatement(
-            private val customerId: Long,
-            private val publishedAtMillis: Long,
-            private val method: MethodSignature3,
-            private val visibility: String,
-            private val signature: String
-    ) : PreparedStatementCreator {
-
-        override fun createPreparedStatement(con: Connection): PreparedStatement {
-            val ps: PreparedStatement = con.prepareStatement(
-                    """INSERT INTO methods(customerId, visibility, signature, createdAt,
-                       declaringType, exceptionTypes, methodName, bridge, synthetic, modifiers,
-                       packageName, parameterTypes, returnType) 
-                       VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)""",
-                    Statement.RETURN_GENERATED_KEYS
-            )
-            var column = 0
-            ps.setLong(++column, customerId)
-            ps.setString(++column, visibility)
-            ps.setString(++column, signature)
-            ps.setTimestamp(++column, Timestamp(publishedAtMillis))
-            ps.setString(++column, method.declaringType)
-            ps.setString(++column, method.exceptionTypes)
-            ps.setString(++column, method.methodName)
-            ps.setObject(++column, method.bridge, Types.BOOLEAN)
-            ps.setObject(++column, method.synthetic, Types.BOOLEAN)
-            ps.setString(++column, method.modifiers)
-            ps.setString(++column, method.packageName)
-            ps.setString(++column, method.parameterTypes)
-            ps.setString(++column, method.returnType)
-            return ps
-        }
+    private fun setCompleteMethodParameters(
+            ps: PreparedStatement,
+            customerId: Long,
+            publishedAtMillis: Long,
+            method: MethodSignature3,
+            visibility: String,
+            signature: String
+    ) {
+        var column = 0
+        ps.setLong(++column, customerId)
+        ps.setString(++column, visibility)
+        ps.setString(++column, signature)
+        ps.setTimestamp(++column, Timestamp(publishedAtMillis))
+        ps.setString(++column, method.declaringType)
+        ps.setString(++column, method.exceptionTypes)
+        ps.setString(++column, method.methodName)
+        ps.setObject(++column, method.bridge, Types.BOOLEAN)
+        ps.setObject(++column, method.synthetic, Types.BOOLEAN)
+        ps.setString(++column, method.modifiers)
+        ps.setString(++column, method.packageName)
+        ps.setString(++column, method.parameterTypes)
+        ps.setString(++column, method.returnType)
     }
 
     private class UpdateIncompleteMethodStatement(
@@ -799,77 +1004,93 @@ class ImportDAOImpl(
         }
     }
 
-    private class UpsertInvocationStatement(
+    private class UpsertInitialInvocationsStatement(
             private val customerId: Long,
             private val appId: Long,
             private val environmentId: Long,
-            private val methodId: Long,
-            private val status: SignatureStatus2,
-            private val invokedAtMillis: Long,
-            private val lastSeenAt: Instant?
+            private val initialStatuses: List<Map.Entry<Long, SignatureStatus2>>,
+            private val lastSeenAt: Instant
     ) : PreparedStatementCreator {
 
         override fun createPreparedStatement(con: Connection): PreparedStatement {
-            val sqlCodebase =
-                    """INSERT INTO invocations(customerId, applicationId, environmentId, methodId, status, invokedAtMillis, lastSeenAtMillis) 
-                   VALUES(?, ?, ?, ?, ?, ?, ?) 
-                   ON DUPLICATE KEY UPDATE lastSeenAtMillis = ? """
-            val sqlInvocation =
-                    """INSERT INTO invocations(customerId, applicationId, environmentId, methodId, status, invokedAtMillis)
-                   VALUES(?, ?, ?, ?, ?, ?)
-                   ON DUPLICATE KEY UPDATE invokedAtMillis = GREATEST(invokedAtMillis, VALUE(invokedAtMillis)), status = VALUE(status)"""
-            val ps: PreparedStatement =
-                    con.prepareStatement(if (invokedAtMillis == 0L) sqlCodebase else sqlInvocation)
-
+            val sql = initialStatuses.joinToString(
+                    separator = ", ",
+                    prefix = "INSERT INTO invocations(customerId, applicationId, environmentId, methodId, status, invokedAtMillis, lastSeenAtMillis) VALUES ",
+                    postfix = " ON DUPLICATE KEY UPDATE lastSeenAtMillis = VALUE(lastSeenAtMillis)"
+            ) { "(?, ?, ?, ?, ?, ?, ?)" }
+            val ps: PreparedStatement = con.prepareStatement(sql)
             var column = 0
-            ps.setLong(++column, customerId)
-            ps.setLong(++column, appId)
-            ps.setLong(++column, environmentId)
-            ps.setLong(++column, methodId)
-            ps.setString(++column, status.name)
-            ps.setLong(++column, invokedAtMillis)
-            if (invokedAtMillis == 0L) { // codebase
-                ps.setLong(++column, lastSeenAt!!.toEpochMilli()) // insert
-                ps.setLong(++column, lastSeenAt.toEpochMilli()) // update
+            for ((methodId, status) in initialStatuses) {
+                ps.setLong(++column, customerId)
+                ps.setLong(++column, appId)
+                ps.setLong(++column, environmentId)
+                ps.setLong(++column, methodId)
+                ps.setString(++column, status.name)
+                ps.setLong(++column, 0L)
+                ps.setLong(++column, lastSeenAt.toEpochMilli())
             }
             return ps
         }
     }
 
-    private class InsertMethodLocationStatement(
+    private class UpsertInvocationsStatement(
             private val customerId: Long,
-            private val methodId: Long,
-            private val location: String
+            private val appId: Long,
+            private val environmentId: Long,
+            private val methodIds: List<Long>,
+            private val invokedAtMillis: Long
     ) : PreparedStatementCreator {
 
         override fun createPreparedStatement(con: Connection): PreparedStatement {
-            val ps: PreparedStatement = con.prepareStatement(
-                    "INSERT INTO method_locations(customerId, methodId, location) VALUES(?, ?, ?) "
-            )
+            val sql = methodIds.joinToString(
+                    separator = ", ",
+                    prefix = "INSERT INTO invocations(customerId, applicationId, environmentId, methodId, status, invokedAtMillis) VALUES ",
+                    postfix = " ON DUPLICATE KEY UPDATE invokedAtMillis = GREATEST(invokedAtMillis, VALUE(invokedAtMillis)), status = VALUE(status)"
+            ) { "(?, ?, ?, ?, ?, ?)" }
+            val ps: PreparedStatement = con.prepareStatement(sql)
             var column = 0
-            ps.setLong(++column, customerId)
-            ps.setLong(++column, methodId)
-            ps.setString(++column, location)
+            for (methodId in methodIds) {
+                ps.setLong(++column, customerId)
+                ps.setLong(++column, appId)
+                ps.setLong(++column, environmentId)
+                ps.setLong(++column, methodId)
+                ps.setString(++column, SignatureStatus2.INVOKED.name)
+                ps.setLong(++column, invokedAtMillis)
+            }
             return ps
         }
     }
 
-    private class InsertIncompleteMethodStatement(
+    /**
+     * Rolls up a chunk of invocations straight into method_usage, without reading the invocations.
+     *
+     * GREATEST compares the status as a string, like MAX(status) does. An existing rollup can
+     * therefore keep the status that the invoked row had before, e.g. NOT_INVOKED. All tracked
+     * statuses sort after the untracked ones, so the rollup is tracked if any invocation is, which
+     * is all the dashboard uses it for. The createdAt of an existing rollup is kept.
+     */
+    private class UpsertMethodUsageStatement(
             private val customerId: Long,
-            private val signature: String,
+            private val methodIds: List<Long>,
             private val invokedAtMillis: Long
     ) : PreparedStatementCreator {
 
         override fun createPreparedStatement(con: Connection): PreparedStatement {
-            val ps: PreparedStatement = con.prepareStatement(
-                    "INSERT INTO methods(customerId, visibility, signature, createdAt) VALUES (?, ?, ?, ?)",
-                    Statement.RETURN_GENERATED_KEYS
-            )
+            val sql = methodIds.joinToString(
+                    separator = ", ",
+                    prefix = "INSERT INTO method_usage(customerId, methodId, status, invokedAtMillis) VALUES ",
+                    postfix = """ ON DUPLICATE KEY UPDATE status = GREATEST(status, VALUE(status)),
+                                  invokedAtMillis = GREATEST(invokedAtMillis, VALUE(invokedAtMillis)),
+                                  publishedAt = GREATEST(publishedAt, CURRENT_TIMESTAMP(3))"""
+            ) { "(?, ?, ?, ?)" }
+            val ps: PreparedStatement = con.prepareStatement(sql)
             var column = 0
-            ps.setLong(++column, customerId)
-            ps.setString(++column, "")
-            ps.setString(++column, signature)
-            ps.setTimestamp(++column, Timestamp(invokedAtMillis))
+            for (methodId in methodIds) {
+                ps.setLong(++column, customerId)
+                ps.setLong(++column, methodId)
+                ps.setString(++column, SignatureStatus2.INVOKED.name)
+                ps.setLong(++column, invokedAtMillis)
+            }
             return ps
         }
     }
@@ -908,5 +1129,11 @@ class ImportDAOImpl(
         private const val VISIBILITY_PROTECTED = "protected"
         private const val VISIBILITY_PUBLIC = "public"
         private const val DEFAULT_ENVIRONMENT_NAME = "<default>"
+
+        private const val INSERT_COMPLETE_METHOD_SQL =
+                """INSERT INTO methods(customerId, visibility, signature, createdAt,
+                   declaringType, exceptionTypes, methodName, bridge, synthetic, modifiers,
+                   packageName, parameterTypes, returnType)
+                   VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"""
     }
 }
\ No newline at end of file
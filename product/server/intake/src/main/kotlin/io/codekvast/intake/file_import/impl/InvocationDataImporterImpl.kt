@@ -78,6 +78,17 @@ class InvocationDataImporterImpl(
         metricsService.recordImportedPublication(
                 INVOCATIONS, invocations.size, ignoredSyntheticSignatures, duration
         )
+        publication.recordingStatistics?.let {
+            if (it.overflowCount > 0) {
+                logger.warn(
+                        "Agent in {}:{} overflowed its invocation queue: {}",
+                        data.appName,
+                        data.appVersion,
+                        it
+                )
+            }
+            metricsService.recordAgentRecordingStatistics(it)
+        }
         return true
     }
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-2022 Hallin Information Technology AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.codekvast.intake.file_import.impl
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
+import org.springframework.stereotype.Component
+
+/**
+ * A bounded, per-customer index of signature -> methodId, shared between imports.
+ *
+ * The intake is not the only one writing to the methods table (weeding and other intake instances
+ * also do), so each entry carries a [Fingerprint] of the customer's methods rows. An entry is only
+ * handed out if the fingerprint still matches what is in the database.
+ *
+ * The index is only touched while holding the customer lock, which serializes all imports for a
+ * customer.
+ */
+@Component
+class MethodIdCache(settings: CodekvastIntakeSettings) {
+
+    /**
+     * Identifies the state of a customer's methods rows. Method ids are never reused, so any insert
+     * increases [maxId], and any delete decreases [count].
+     */
+    data class Fingerprint(val count: Long, val maxId: Long)
+
+    private class Entry(val methods: MutableMap<String, Long?>, val fingerprint: Fingerprint)
+
+    private val cache: Cache<Long, Entry> = Caffeine.newBuilder()
+            .maximumWeight(settings.methodIdCacheMaxSignatures)
+            .weigher { _: Long, entry: Entry -> entry.methods.size }
+            .build()
+
+    /**
+     * Gets the cached methods for a customer.
+     *
+     * @param customerId The customer.
+     * @param fingerprint The current fingerprint of the customer's methods in the database.
+     * @return The cached signature -> methodId map, or null if not cached or stale.
+     */
+    fun get(customerId: Long, fingerprint: Fingerprint): MutableMap<String, Long?>? {
+        val entry = cache.getIfPresent(customerId) ?: return null
+        if (entry.fingerprint != fingerprint) {
+            cache.invalidate(customerId)
+            return null
+        }
+        return entry.methods
+    }
+
+    /**
+     * Caches the methods for a customer, as loaded from the database.
+     */
+    fun put(customerId: Long, methods: MutableMap<String, Long?>, fingerprint: Fingerprint) {
+        cache.put(customerId, Entry(methods, fingerprint))
+    }
+
+    /**
+     * Records that methods have been inserted for a customer.
+     *
+     * The caller has already added the new ids to the map returned by [get], so only the
+     * fingerprint is updated. Should the transaction be rolled back, the fingerprint will not match
+     * the database any more, and the entry is discarded at the next [get].
+     *
+     * @param customerId The customer.
+     * @param methodIds The ids of the inserted methods.
+     */
+    fun recordInserted(customerId: Long, methodIds: Collection<Long>) {
+        val entry = cache.getIfPresent(customerId)
+        if (entry != null && methodIds.isNotEmpty()) {
+            val fingerprint = Fingerprint(
+                    count = entry.fingerprint.count + methodIds.size,
+                    maxId = maxOf(entry.fingerprint.maxId, methodIds.maxOrNull()!!)
+            )
+            // Re-put so that the weight reflects the new size
+            cache.put(customerId, Entry(entry.methods, fingerprint))
+        }
+    }
+}
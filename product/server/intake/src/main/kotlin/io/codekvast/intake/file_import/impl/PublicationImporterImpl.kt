@@ -28,24 +28,31 @@ import io.codekvast.common.lock.LockTimeoutException
 import io.codekvast.common.logging.LoggerDelegate
 import io.codekvast.common.messaging.CorrelationIdHolder
 import io.codekvast.intake.agent.service.AgentService
+import io.codekvast.intake.file_import.CodeBaseEntrySource
 import io.codekvast.intake.file_import.CodeBaseImporter
 import io.codekvast.intake.file_import.InvocationDataImporter
 import io.codekvast.intake.file_import.PublicationImporter
+import io.codekvast.javaagent.model.binary.InvalidPublicationException
+import io.codekvast.javaagent.model.binary.PublicationCodec
 import io.codekvast.javaagent.model.v2.CodeBasePublication2
+import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v2.InvocationDataPublication2
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3
 import io.codekvast.javaagent.model.v3.CodeBasePublication3
+import io.codekvast.javaagent.model.v4.CodeBasePublication4
 import org.springframework.dao.DataAccessException
 import org.springframework.stereotype.Service
 import java.io.*
-import java.util.stream.Collectors
 import javax.validation.Validator
 
 /**
  * Importer for serialized publications.
  *
  *
- * Deserialize the object and dispatch to the specialized importer.
+ * Deserialize the object and dispatch to the specialized importer. Both Java serialized and
+ * [PublicationCodec] encoded publications are recognized. The entries of an encoded
+ * CodeBasePublication3 are decoded in chunks while importing, so that big code bases do not have to
+ * fit in memory.
  *
  * @author olle.hallin@crisp.se
  * @see CodeBasePublication2
@@ -81,9 +88,9 @@ class PublicationImporterImpl(
         var handled: Boolean
         CorrelationIdHolder.set(agentService.getCorrelationIdFromPublicationFile(file))
         try {
-            ObjectInputStream(BufferedInputStream(FileInputStream(file))).use { ois ->
+            BufferedInputStream(FileInputStream(file)).use { inputStream ->
                 val startedAt = System.currentTimeMillis()
-                val obj: Any = ois.readObject()
+                val obj: Any = readPublication(file, inputStream)
                 logger.debug(
                         "Deserialized a {} in {} ms",
                         obj.javaClass.simpleName,
@@ -116,6 +123,16 @@ class PublicationImporterImpl(
                     e.toString()
             )
             handled = true
+        } catch (e: InvalidPublicationException) {
+            // A malformed binary publication file was lying in the queue.
+            // The publication data is lost.
+            // Prevent the file from being processed again.
+            logger.error(
+                    "Could not import {}: {}. Will not try again.",
+                    file,
+                    e.toString()
+            )
+            handled = true
         } catch (e: LicenseViolationException) {
             // Prevent the file from being processed again.
             // The agent will keep retrying uploading new publication files.
@@ -132,10 +149,68 @@ class PublicationImporterImpl(
         return handled
     }
 
+    /**
+     * Reads a publication in either the binary format or Java serialization format. The queue file
+     * names do not tell them apart, so the format is recognized by the first bytes.
+     */
+    private fun readPublication(file: File, inputStream: InputStream): Any {
+        if (!PublicationCodec.isEncoded(inputStream)) {
+            return ObjectInputStream(inputStream).readObject()
+        }
+        val reader = PublicationCodec.open(inputStream)
+        if (!reader.isCodeBasePublication3) {
+            return reader.readPublication()
+        }
+        val commonData = reader.readCommonData()
+        return StreamedCodeBase(commonData, reader.remainingEntries, streamEntries(file, reader))
+    }
+
+    /**
+     * The entries are first read from the already opened reader. Should the import be restarted, the
+     * file is decoded again from the beginning.
+     */
+    private fun streamEntries(
+            file: File,
+            openedReader: PublicationCodec.PublicationReader
+    ): CodeBaseEntrySource {
+        var firstReader: PublicationCodec.PublicationReader? = openedReader
+        return CodeBaseEntrySource { chunkSize, consumer ->
+            val reader = firstReader
+            firstReader = null
+            if (reader != null) {
+                readEntries(reader, chunkSize, consumer)
+            } else {
+                BufferedInputStream(FileInputStream(file)).use { inputStream ->
+                    val r = PublicationCodec.open(inputStream)
+                    r.readCommonData()
+                    readEntries(r, chunkSize, consumer)
+                }
+            }
+        }
+    }
+
+    private fun readEntries(
+            reader: PublicationCodec.PublicationReader,
+            chunkSize: Int,
+            consumer: (List<CodeBaseEntry3>) -> Unit
+    ) {
+        var chunk = reader.readEntries(chunkSize)
+        while (chunk.isNotEmpty()) {
+            consumer(chunk)
+            chunk = reader.readEntries(chunkSize)
+        }
+    }
+
     private fun handlePublication(obj: Any): Boolean {
         return when (obj) {
-            is CodeBasePublication2 -> codeBaseImporter.importPublication(toCodeBasePublication3(obj))
+            is CodeBasePublication2 -> codeBaseImporter.importPublication(
+                    obj.commonData, obj.entries.size, toCodeBaseEntrySource(obj)
+            )
             is CodeBasePublication3 -> codeBaseImporter.importPublication(obj)
+            is StreamedCodeBase -> codeBaseImporter.importPublication(
+                    obj.commonData, obj.codeBaseSize, obj.entries
+            )
+            is CodeBasePublication4 -> codeBaseImporter.importDeltaPublication(obj)
             is InvocationDataPublication2 -> invocationDataImporter.importPublication(obj)
             else -> {
                 logger.warn("Don't know how to handle {}", obj.javaClass.name)
@@ -144,19 +219,22 @@ class PublicationImporterImpl(
         }
     }
 
-    private fun toCodeBasePublication3(publication2: CodeBasePublication2): CodeBasePublication3 {
-        return CodeBasePublication3.builder()
-                .commonData(publication2.commonData)
-                .entries(
-                        publication2.entries.stream()
-                                .map(CodeBaseEntry3::fromFormat2)
-                                .collect(Collectors.toList())
-                )
-                .build()
-    }
+    /** Converts the entries to the current format a chunk at a time, instead of copying them all. */
+    private fun toCodeBaseEntrySource(publication2: CodeBasePublication2) =
+            CodeBaseEntrySource { chunkSize, consumer ->
+                publication2.entries.asSequence()
+                        .chunked(chunkSize)
+                        .forEach { chunk -> consumer(chunk.map(CodeBaseEntry3::fromFormat2)) }
+            }
 
     private fun isValidObject(obj: Any): Boolean {
-        val violations = validator.validate(obj)
+        // The entries of a streamed code base are validated by the decoder while importing.
+        val validated = if (obj is StreamedCodeBase) {
+            CodeBasePublication3.builder().commonData(obj.commonData).entries(emptyList()).build()
+        } else {
+            obj
+        }
+        val violations = validator.validate(validated)
         for (v in violations) {
             logger.error(
                     "Invalid {}: {}={}: {}",
@@ -168,4 +246,13 @@ class PublicationImporterImpl(
         }
         return violations.isEmpty()
     }
+
+    /** An encoded CodeBasePublication3 whose entries have not been read yet. */
+    private class StreamedCodeBase(
+            val commonData: CommonPublicationData2,
+            val codeBaseSize: Int,
+            val entries: CodeBaseEntrySource
+    ) {
+        override fun toString() = "CodeBasePublication3(commonData=$commonData, entries.size=$codeBaseSize)"
+    }
 }
@@ -22,6 +22,7 @@
 package io.codekvast.intake.metrics
 
 import io.codekvast.intake.model.PublicationType
+import io.codekvast.javaagent.model.v2.RecordingStatistics2
 import java.time.Duration
 
 /**
@@ -44,6 +45,14 @@ interface IntakeMetricsService {
      */
     fun gaugePublicationQueueLength(queueLength: Int)
 
+    /**
+     * Updates the gauge for the number of queued publications of a certain type.
+     *
+     * @param type The type of publication.
+     * @param queueDepth The number of queued publications of that type.
+     */
+    fun gaugePublicationQueueDepth(type: PublicationType, queueDepth: Int)
+
     /**
      * Gauge the size in bytes of a received publication.
      *
@@ -67,6 +76,29 @@ interface IntakeMetricsService {
             duration: Duration
     )
 
+    /**
+     * Record the processing of one file in the publication queue.
+     *
+     * @param queueWait The time the file was waiting in the queue before the import started.
+     * @param importDuration The time it took to import it.
+     */
+    fun recordPublicationFileImport(queueWait: Duration, importDuration: Duration)
+
+    /**
+     * Record the execution of one multi-row invocation upsert.
+     *
+     * @param rows The number of invocation rows in the batch.
+     * @param duration The time it took to execute it.
+     */
+    fun recordInvocationUpsertBatch(rows: Int, duration: Duration)
+
     /** Count that an agent has polled  */
     fun countAgentPoll()
+
+    /**
+     * Record the statistics about how an agent recorded the invocations in a publication.
+     *
+     * @param statistics The recording statistics.
+     */
+    fun recordAgentRecordingStatistics(statistics: RecordingStatistics2)
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ package io.codekvast.intake.metrics.impl
 import io.codekvast.intake.metrics.AgentStatistics
 import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType
+import io.codekvast.javaagent.model.v2.RecordingStatistics2
 import io.micrometer.core.instrument.MeterRegistry
 import io.micrometer.core.instrument.Tags
 import lombok.RequiredArgsConstructor
@@ -49,6 +50,8 @@ class IntakeMetricsServiceImpl(private val meterRegistry: MeterRegistry) : Intak
             EnumMap(PublicationType::class.java)
     private val ignoredSyntheticSignaturesGauges: MutableMap<PublicationType, AtomicInteger> =
             EnumMap(PublicationType::class.java)
+    private val queueDepthGauges: MutableMap<PublicationType, AtomicInteger> =
+            EnumMap(PublicationType::class.java)
 
     @PostConstruct
     fun createGauges() {
@@ -70,6 +73,9 @@ class IntakeMetricsServiceImpl(private val meterRegistry: MeterRegistry) : Intak
             val ignoredSynthetic = AtomicInteger(0)
             ignoredSyntheticSignaturesGauges[type] = ignoredSynthetic
             meterRegistry.gauge("codekvast.publication.synthetic", tags, ignoredSynthetic)
+            val queueDepth = AtomicInteger(0)
+            queueDepthGauges[type] = queueDepth
+            meterRegistry.gauge("codekvast.publication.queue.depth", tags, queueDepth)
         }
     }
 
@@ -83,6 +89,10 @@ class IntakeMetricsServiceImpl(private val meterRegistry: MeterRegistry) : Intak
         queueLengthGauge.set(queueLength)
     }
 
+    override fun gaugePublicationQueueDepth(type: PublicationType, queueDepth: Int) {
+        queueDepthGauges[type]!!.set(queueDepth)
+    }
+
     override fun gaugePhysicalPublicationSize(type: PublicationType, sizeInBytes: Long) {
         publicationPhysicalSizeGauges[type]!!.set(sizeInBytes)
     }
@@ -100,9 +110,31 @@ class IntakeMetricsServiceImpl(private val meterRegistry: MeterRegistry) : Intak
         meterRegistry.timer("codekvast.publication.import.duration", tags).record(duration)
     }
 
+    override fun recordPublicationFileImport(queueWait: Duration, importDuration: Duration) {
+        meterRegistry.timer("codekvast.publication.queue.wait").record(queueWait)
+        meterRegistry.timer("codekvast.publication.file.import.duration").record(importDuration)
+    }
+
+    override fun recordInvocationUpsertBatch(rows: Int, duration: Duration) {
+        meterRegistry.summary("codekvast.import.invocations.batch.rows").record(rows.toDouble())
+        meterRegistry.timer("codekvast.import.invocations.batch.duration").record(duration)
+    }
+
     override fun countAgentPoll() {
         meterRegistry.counter("codekvast.agent.polls").increment()
     }
 
+    override fun recordAgentRecordingStatistics(statistics: RecordingStatistics2) {
+        val tags = Tags.of("recordingMode", statistics.recordingMode)
+        meterRegistry.summary("codekvast.agent.recording.queue.depth", tags)
+                .record(statistics.maxQueueDepth.toDouble())
+        meterRegistry.counter("codekvast.agent.recording.overflow", tags)
+                .increment(statistics.overflowCount.toDouble())
+        meterRegistry.counter("codekvast.agent.recording.dropped", tags)
+                .increment(statistics.droppedCount.toDouble())
+        meterRegistry.timer("codekvast.agent.recording.drain.latency", tags)
+                .record(Duration.ofMillis(statistics.drainLatencyMillis))
+    }
+
     private fun getTags(type: PublicationType) = Tags.of("type", type.toString())
 }
\ No newline at end of file
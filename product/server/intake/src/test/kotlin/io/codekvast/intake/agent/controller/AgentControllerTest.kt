@@ -4,11 +4,14 @@ import com.google.gson.Gson
 import com.nhaarman.mockitokotlin2.*
 import io.codekvast.intake.agent.service.AgentService
 import io.codekvast.intake.model.LicenseViolationException
+import io.codekvast.intake.model.PublicationTooLargeException
+import io.codekvast.intake.model.UnknownCodeBaseException
 import io.codekvast.javaagent.model.Endpoints
 import io.codekvast.javaagent.model.v1.rest.GetConfigRequest1
 import io.codekvast.javaagent.model.v1.rest.GetConfigResponse1
 import io.codekvast.javaagent.model.v2.GetConfigRequest2
 import io.codekvast.javaagent.model.v2.GetConfigResponse2
+import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.springframework.http.MediaType
@@ -175,6 +178,24 @@ class AgentControllerTest {
         )
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun should_accept_upload_binary_codebase_publication_when_valid_license() {
+        assertUploadPublication(
+                io.codekvast.intake.model.PublicationType.CODEBASE,
+                Endpoints.Agent.V5_UPLOAD_CODEBASE
+        )
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun should_accept_upload_binary_invocation_data_publication_when_valid_license() {
+        assertUploadPublication(
+                io.codekvast.intake.model.PublicationType.INVOCATIONS,
+                Endpoints.Agent.V5_UPLOAD_INVOCATION_DATA
+        )
+    }
+
     @Test
     @Throws(Exception::class)
     fun should_accept_upload_invocation_data_publication2_when_valid_license() {
@@ -184,6 +205,189 @@ class AgentControllerTest {
         )
     }
 
+    @Test
+    fun should_accept_streamed_codebase_publication_when_valid_license() {
+        assertStreamPublication(
+                io.codekvast.intake.model.PublicationType.CODEBASE,
+                Endpoints.Agent.V6_UPLOAD_CODEBASE
+        )
+    }
+
+    @Test
+    fun should_accept_streamed_invocation_data_publication_when_valid_license() {
+        assertStreamPublication(
+                io.codekvast.intake.model.PublicationType.INVOCATIONS,
+                Endpoints.Agent.V6_UPLOAD_INVOCATION_DATA
+        )
+    }
+
+    @Test
+    fun should_reject_streamed_publication_when_too_large() {
+        whenever(agentService.savePublication(any(), any(), any(), any(), any()))
+                .thenThrow(PublicationTooLargeException("Publication is larger than 100 MB"))
+
+        mockMvc
+                .perform(streamUpload(Endpoints.Agent.V6_UPLOAD_CODEBASE, "PublicationContent"))
+                .andExpect(status().isPayloadTooLarge)
+    }
+
+    @Test
+    fun should_reject_streamed_publication_when_multipart() {
+        mockMvc
+                .perform(
+                        multipart(Endpoints.Agent.V6_UPLOAD_CODEBASE)
+                                .file(
+                                        MockMultipartFile(
+                                                Endpoints.Agent.PARAM_PUBLICATION_FILE,
+                                                "codekvast-codebase-9128371293719273.ser",
+                                                MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                                                "PublicationContent".toByteArray()
+                                        )
+                                )
+                                .param(Endpoints.Agent.PARAM_LICENSE_KEY, "licenseKey")
+                                .param(Endpoints.Agent.PARAM_FINGERPRINT, "fingerprint")
+                                .param(Endpoints.Agent.PARAM_PUBLICATION_SIZE, "10000")
+                )
+                .andExpect(status().isUnsupportedMediaType)
+    }
+
+    @Test
+    fun should_decompress_gzipped_upload() {
+        var savedContent: String? = null
+        whenever(agentService.savePublication(any(), any(), any(), any(), any())).thenAnswer {
+            savedContent = String((it.arguments[4] as java.io.InputStream).readBytes())
+            null
+        }
+
+        mockMvc
+                .perform(
+                        multipart(Endpoints.Agent.V3_UPLOAD_CODEBASE)
+                                .file(
+                                        MockMultipartFile(
+                                                Endpoints.Agent.PARAM_PUBLICATION_FILE,
+                                                "codekvast-codebase-9128371293719273.ser.gz",
+                                                "application/gzip",
+                                                gzip("PublicationContent")
+                                        )
+                                )
+                                .param(Endpoints.Agent.PARAM_LICENSE_KEY, "licenseKey")
+                                .param(Endpoints.Agent.PARAM_FINGERPRINT, "fingerprint")
+                                .param(Endpoints.Agent.PARAM_PUBLICATION_SIZE, "10000")
+                )
+                .andExpect(status().isOk)
+
+        assertEquals("PublicationContent", savedContent)
+    }
+
+    @Test
+    fun should_decompress_gzipped_streamed_publication() {
+        var savedContent: String? = null
+        whenever(agentService.savePublication(any(), any(), any(), any(), any())).thenAnswer {
+            savedContent = String((it.arguments[4] as java.io.InputStream).readBytes())
+            null
+        }
+
+        mockMvc
+                .perform(
+                        post(Endpoints.Agent.V6_UPLOAD_INVOCATION_DATA)
+                                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .header("Content-Encoding", "gzip")
+                                .content(gzip("PublicationContent"))
+                                .param(Endpoints.Agent.PARAM_LICENSE_KEY, "licenseKey")
+                                .param(Endpoints.Agent.PARAM_FINGERPRINT, "fingerprint")
+                                .param(Endpoints.Agent.PARAM_PUBLICATION_SIZE, "10000")
+                )
+                .andExpect(status().isOk)
+
+        assertEquals("PublicationContent", savedContent)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun should_accept_upload_codebase_publication4_when_base_is_known() {
+        mockMvc
+                .perform(codeBaseDeltaUpload())
+                .andExpect(status().isOk)
+                .andExpect(content().string("OK"))
+        verify(agentService)
+                .saveCodeBaseDeltaPublication(
+                        eq("licenseKey"),
+                        eq("appName"),
+                        eq("baseFingerprint"),
+                        eq("fingerprint"),
+                        eq(10000),
+                        any()
+                )
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun should_reject_upload_codebase_publication4_when_base_is_unknown() {
+        whenever(agentService.saveCodeBaseDeltaPublication(any(), any(), any(), any(), any(), any()))
+                .thenThrow(UnknownCodeBaseException("Unknown base code base baseFingerprint"))
+
+        mockMvc
+                .perform(codeBaseDeltaUpload())
+                .andExpect(status().isConflict)
+    }
+
+    private fun codeBaseDeltaUpload() =
+            multipart(Endpoints.Agent.V4_UPLOAD_CODEBASE)
+                    .file(
+                            MockMultipartFile(
+                                    Endpoints.Agent.PARAM_PUBLICATION_FILE,
+                                    "codekvast-codebase-9128371293719273.ser",
+                                    MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                                    "PublicationContent".toByteArray()
+                            )
+                    )
+                    .param(Endpoints.Agent.PARAM_LICENSE_KEY, "licenseKey")
+                    .param(Endpoints.Agent.PARAM_APP_NAME, "appName")
+                    .param(Endpoints.Agent.PARAM_BASE_FINGERPRINT, "baseFingerprint")
+                    .param(Endpoints.Agent.PARAM_FINGERPRINT, "fingerprint")
+                    .param(Endpoints.Agent.PARAM_PUBLICATION_SIZE, "10000")
+
+    private fun gzip(content: String): ByteArray {
+        val bytes = java.io.ByteArrayOutputStream()
+        java.util.zip.GZIPOutputStream(bytes).use { it.write(content.toByteArray()) }
+        return bytes.toByteArray()
+    }
+
+    private fun streamUpload(endpoint: String, content: String) =
+            post(endpoint)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .content(content.toByteArray())
+                    .param(Endpoints.Agent.PARAM_LICENSE_KEY, "licenseKey")
+                    .param(Endpoints.Agent.PARAM_FINGERPRINT, "fingerprint")
+                    .param(Endpoints.Agent.PARAM_PUBLICATION_SIZE, "10000")
+
+    private fun assertStreamPublication(
+            publicationType: io.codekvast.intake.model.PublicationType,
+            endpoint: String
+    ) {
+        val body = "PublicationContent-$publicationType"
+        var savedContent: String? = null
+        whenever(agentService.savePublication(any(), any(), any(), any(), any())).thenAnswer {
+            savedContent = String((it.arguments[4] as java.io.InputStream).readBytes())
+            null
+        }
+
+        mockMvc
+                .perform(streamUpload(endpoint, body))
+                .andExpect(status().isOk)
+                .andExpect(content().string("OK"))
+
+        verify(agentService)
+                .savePublication(
+                        eq(publicationType),
+                        eq("licenseKey"),
+                        eq("fingerprint"),
+                        eq(10000),
+                        any()
+                )
+        assertEquals(body, savedContent)
+    }
+
     @Throws(Exception::class)
     private fun assertUploadPublication(
             publicationType: io.codekvast.intake.model.PublicationType,
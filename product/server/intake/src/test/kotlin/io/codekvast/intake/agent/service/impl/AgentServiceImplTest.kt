@@ -1,5 +1,6 @@
 package io.codekvast.intake.agent.service.impl
 
+import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.whenever
 import io.codekvast.common.customer.CustomerData
@@ -11,6 +12,8 @@ import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
 import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType.CODEBASE
 import io.codekvast.intake.model.PublicationType.INVOCATIONS
+import io.codekvast.intake.model.PublicationTooLargeException
+import io.codekvast.intake.model.UnknownCodeBaseException
 import io.codekvast.javaagent.model.v1.rest.GetConfigRequest1
 import org.hamcrest.CoreMatchers
 import org.hamcrest.CoreMatchers.`is`
@@ -97,6 +100,7 @@ internal class AgentServiceImplTest {
     fun should_close_inputStream_after_not_throwing() {
         // given
         val inputStream = Mockito.mock(InputStream::class.java)
+        whenever(inputStream.read(any(), any(), any())).thenReturn(-1)
 
         // when
         service.savePublication(
@@ -142,6 +146,98 @@ internal class AgentServiceImplTest {
         )
     }
 
+    @Test
+    fun should_reject_too_large_publication_and_remove_partial_file() {
+        // given
+        val service = AgentServiceImpl(
+                CodekvastIntakeSettings(fileImportQueuePath = temporaryFolder, maxPublicationBytes = 10),
+                customerService,
+                intakeDAO,
+                mock(),
+                intakeMetricsService
+        )
+
+        try {
+            // when
+            service.savePublication(
+                    INVOCATIONS,
+                    "key",
+                    "fingerprint",
+                    1000,
+                    ByteArrayInputStream("Too large publication".toByteArray())
+            )
+
+            // then
+            fail<Any>("Expected a PublicationTooLargeException")
+        } catch (expected: PublicationTooLargeException) {
+            // Expected outcome
+        }
+        MatcherAssert.assertThat(temporaryFolder.list()!!.toList(), `is`(emptyList<String>()))
+    }
+
+    @Test
+    fun should_save_publication_of_max_size() {
+        // given
+        val service = AgentServiceImpl(
+                CodekvastIntakeSettings(fileImportQueuePath = temporaryFolder, maxPublicationBytes = 10),
+                customerService,
+                intakeDAO,
+                mock(),
+                intakeMetricsService
+        )
+
+        // when
+        val resultingFile: File = service.savePublication(
+                INVOCATIONS,
+                "key",
+                "fingerprint",
+                1000,
+                ByteArrayInputStream("0123456789".toByteArray())
+        )
+
+        // then
+        MatcherAssert.assertThat(resultingFile.length(), `is`(10L))
+    }
+
+    @Test
+    fun should_reject_codebase_delta_with_unknown_base() {
+        // given
+        val inputStream = Mockito.mock(InputStream::class.java)
+        whenever(intakeDAO.isCodeBaseFingerprintKnown(customerData.customerId, "appName", "base"))
+                .thenReturn(false)
+        try {
+            // when
+            service.saveCodeBaseDeltaPublication(
+                    "key", "appName", "base", "fingerprint", 1000, inputStream
+            )
+
+            // then
+            fail<Any>("Expected an UnknownCodeBaseException")
+        } catch (expected: UnknownCodeBaseException) {
+            // Expected outcome
+        } finally {
+            Mockito.verify(inputStream).close()
+        }
+    }
+
+    @Test
+    fun should_save_uploaded_codebase_delta_with_known_base() {
+        // given
+        val contents = "Dummy Code Base Delta Publication"
+        whenever(intakeDAO.isCodeBaseFingerprintKnown(customerData.customerId, "appName", "base"))
+                .thenReturn(true)
+
+        // when
+        val resultingFile: File = service.saveCodeBaseDeltaPublication(
+                "key", "appName", "base", "fingerprint", 1000,
+                ByteArrayInputStream(contents.toByteArray())
+        )
+
+        // then
+        MatcherAssert.assertThat(resultingFile.name, CoreMatchers.startsWith("codebase-"))
+        MatcherAssert.assertThat(resultingFile.length(), `is`(contents.length.toLong()))
+    }
+
     @Test
     @Throws(Exception::class)
     fun should_save_uploaded_invocations() {
@@ -191,6 +287,26 @@ internal class AgentServiceImplTest {
         MatcherAssert.assertThat(correlationId2, `is`(correlationId))
     }
 
+    @Test
+    fun should_parse_customerId_from_publication_file() {
+        // given
+        val file: File = service.generatePublicationFile(
+                INVOCATIONS,
+                17L,
+                CorrelationIdHolder.generateNew()
+        )
+
+        // when
+        val customerId = service.getCustomerIdFromPublicationFile(file)
+
+        // then
+        MatcherAssert.assertThat(customerId, `is`(Optional.of(17L)))
+        MatcherAssert.assertThat(
+                service.getCustomerIdFromPublicationFile(File("foo.ser")),
+                `is`(Optional.empty())
+        )
+    }
+
     @Test
     fun should_count_agent_polls() {
 
@@ -1,21 +1,23 @@
 package io.codekvast.intake.file_import
 
 import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.inOrder
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.whenever
-import io.codekvast.common.lock.Lock
-import io.codekvast.common.lock.LockManager
-import io.codekvast.common.lock.LockTemplate
+import io.codekvast.intake.agent.service.AgentService
 import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
+import io.codekvast.intake.model.PublicationType
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
-import org.mockito.ArgumentMatchers
 import org.mockito.Mock
+import org.mockito.Mockito.timeout
 import org.mockito.Mockito.verify
 import org.mockito.Mockito.verifyNoMoreInteractions
 import org.mockito.MockitoAnnotations
 import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
 import java.util.*
 import kotlin.test.assertFalse
 import kotlin.test.assertTrue
@@ -30,21 +32,33 @@ class FileImportTaskTest {
     private lateinit var importer: PublicationImporter
 
     @Mock
-    private lateinit var lockManager: LockManager
+    private lateinit var agentService: AgentService
 
     @BeforeEach
     fun beforeTest() {
         MockitoAnnotations.openMocks(this)
-        whenever(lockManager.acquireLock(ArgumentMatchers.any()))
-                .thenReturn(Optional.of(Lock.forTask("test", 60)))
+        whenever(agentService.getCustomerIdFromPublicationFile(any())).thenAnswer {
+            val name = (it.arguments[0] as File).name
+            Optional.ofNullable(Regex("[a-z]+-(\\d+)-.*").find(name)?.groupValues?.get(1)?.toLong())
+        }
+        whenever(agentService.getPublicationTypeFromPublicationFile(any())).thenAnswer {
+            val name = (it.arguments[0] as File).name
+            PublicationType.values().firstOrNull { t -> name.startsWith("$t-") }.let { t -> Optional.ofNullable(t) }
+        }
     }
 
-    private fun createFileImportTask(deleteImportedFiles: Boolean): FileImportTask {
+    private fun createFileImportTask(
+            deleteImportedFiles: Boolean,
+            watchQueue: Boolean = false,
+            threads: Int = 4
+    ): FileImportTask {
         val settings = CodekvastIntakeSettings(
                 fileImportQueuePath = temporaryFolder,
+                fileImportThreads = threads,
+                fileImportWatchQueue = watchQueue,
                 deleteImportedFiles = deleteImportedFiles
         )
-        return FileImportTask(settings, importer, mock(), LockTemplate(lockManager))
+        return FileImportTask(settings, importer, mock(), agentService)
     }
 
     @Test
@@ -55,6 +69,7 @@ class FileImportTaskTest {
 
         // when
         task.importPublicationFiles()
+        task.shutdown()
 
         // then
         verifyNoMoreInteractions(importer)
@@ -68,6 +83,7 @@ class FileImportTaskTest {
 
         // when
         task.importPublicationFiles()
+        task.shutdown()
 
         // then
         assertTrue(file.exists())
@@ -83,6 +99,7 @@ class FileImportTaskTest {
 
         // when
         task.importPublicationFiles()
+        task.shutdown()
 
         // then
         verify(importer).importPublicationFile(file)
@@ -98,6 +115,7 @@ class FileImportTaskTest {
 
         // when
         task.importPublicationFiles()
+        task.shutdown()
 
         // then
         verify(importer).importPublicationFile(file)
@@ -112,12 +130,90 @@ class FileImportTaskTest {
 
         // when
         task.importPublicationFiles()
+        task.shutdown()
 
         // then
         verify(importer).importPublicationFile(file)
         assertTrue(file.exists())
     }
 
+    @Test
+    fun should_import_files_for_same_customer_in_arrival_order() {
+        // given
+        whenever(importer.importPublicationFile(any())).thenReturn(true)
+        val file1 = createImportFile("invocations", 17L, 3, 1000L)
+        val file2 = createImportFile("invocations", 17L, 1, 2000L)
+        val file3 = createImportFile("invocations", 4711L, 2, 1500L)
+        val task = createFileImportTask(true)
+
+        // when
+        task.importPublicationFiles()
+        task.shutdown()
+
+        // then
+        inOrder(importer) {
+            verify(importer).importPublicationFile(file1)
+            verify(importer).importPublicationFile(file2)
+        }
+        verify(importer).importPublicationFile(file3)
+        assertFalse(file1.exists())
+        assertFalse(file2.exists())
+        assertFalse(file3.exists())
+    }
+
+    @Test
+    fun should_import_invocations_before_code_bases() {
+        // given
+        whenever(importer.importPublicationFile(any())).thenReturn(true)
+        val codeBaseFile = createImportFile("codebase", 17L, 1, 1000L)
+        val invocationsFile1 = createImportFile("invocations", 17L, 2, 2000L)
+        val invocationsFile2 = createImportFile("invocations", 4711L, 3, 3000L)
+        val task = createFileImportTask(deleteImportedFiles = true, threads = 1)
+
+        // when
+        task.importPublicationFiles()
+        verify(importer, timeout(10_000)).importPublicationFile(codeBaseFile)
+        task.shutdown()
+
+        // then
+        inOrder(importer) {
+            verify(importer).importPublicationFile(invocationsFile1)
+            verify(importer).importPublicationFile(invocationsFile2)
+            verify(importer).importPublicationFile(codeBaseFile)
+        }
+    }
+
+    @Test
+    fun should_import_file_as_soon_as_it_is_moved_into_the_queue() {
+        // given
+        whenever(importer.importPublicationFile(any())).thenReturn(true)
+        val task = createFileImportTask(deleteImportedFiles = true, watchQueue = true)
+        task.postConstruct()
+
+        // when
+        val tmpFile = File(temporaryFolder, "invocations-17-1.ser.tmp")
+        tmpFile.writeText("x")
+        val file = File(temporaryFolder, "invocations-17-1.ser")
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE)
+
+        // then
+        verify(importer, timeout(10_000)).importPublicationFile(file)
+        task.shutdown()
+        assertFalse(file.exists())
+    }
+
+    private fun createImportFile(
+            type: String,
+            customerId: Long,
+            sequence: Int,
+            lastModified: Long
+    ): File {
+        val file = File(temporaryFolder, "$type-$customerId-$sequence.ser")
+        file.writeText("x")
+        file.setLastModified(lastModified)
+        return file
+    }
+
     private fun createImportFile(suffix: String): File {
         return File.createTempFile("import-", suffix, temporaryFolder)
     }
@@ -4,11 +4,15 @@ import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.whenever
 import io.codekvast.common.lock.LockTemplate
 import io.codekvast.common.messaging.EventService
+import io.codekvast.intake.file_import.CodeBaseEntrySource
 import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType.CODEBASE
 import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v3.CodeBaseEntry3
 import io.codekvast.javaagent.model.v3.CodeBasePublication3
+import io.codekvast.javaagent.model.v4.CodeBasePublication4
+import org.hamcrest.CoreMatchers.`is`
+import org.hamcrest.MatcherAssert.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.InjectMocks
@@ -70,11 +74,74 @@ class CodeBaseImporterImplTest {
                 )
                 .build()
         whenever(syntheticSignatureService.isSyntheticMethod(syntheticSignature)).thenReturn(true)
+        whenever(commonImporter.importCommonData(any())).thenReturn(
+                CommonImporter.ImportContext(1L, 2L, 3L, 4L, 5L, null)
+        )
+        whenever(importDAO.importCodeBaseFingerprint(any(), any())).thenReturn(true)
+        whenever(importDAO.importMethods(any(), any(), any<CodeBaseEntrySource>())).thenAnswer {
+            val entries = mutableListOf<CodeBaseEntry3>()
+            (it.arguments[2] as CodeBaseEntrySource).forEachChunk(1000) { chunk -> entries.addAll(chunk) }
+            assertThat(entries, `is`(listOf(CodeBaseEntry3.sampleCodeBaseEntry())))
+        }
+        whenever(lockTemplate.doWithLockOrThrow(any(), any<Callable<Any>>())).thenAnswer {
+            (it.arguments[1] as Callable<*>).call()
+            Duration.ofSeconds(1)
+        }
+
+        // when
+        codeBaseImporter.importPublication(publication)
+
+        // then
+        verify(metricsService).recordImportedPublication(CODEBASE, 1, 1, Duration.ofSeconds(1))
+    }
+
+    @Test
+    fun should_not_read_entries_of_already_imported_code_base() {
+        // given
+        val source = CodeBaseEntrySource { _, _ -> throw AssertionError("Should not be read") }
+        whenever(commonImporter.importCommonData(any())).thenReturn(
+                CommonImporter.ImportContext(1L, 2L, 3L, 4L, 5L, null)
+        )
+        whenever(importDAO.importCodeBaseFingerprint(any(), any())).thenReturn(false)
+        whenever(lockTemplate.doWithLockOrThrow(any(), any<Callable<Any>>())).thenAnswer {
+            (it.arguments[1] as Callable<*>).call()
+            Duration.ofSeconds(1)
+        }
+
+        // when
+        codeBaseImporter.importPublication(
+                CommonPublicationData2.sampleCommonPublicationData(), 4711, source
+        )
+
+        // then
+        verify(metricsService).recordImportedPublication(CODEBASE, 4711, 0, Duration.ofSeconds(1))
+    }
+
+    @Test
+    fun should_ignore_synthetic_signatures_in_delta() {
+        // given
+        val syntheticSignature =
+                "customer1.FooConfig..EnhancerBySpringCGLIB..96aac875.CGLIB\$BIND_CALLBACKS(java.lang.Object)"
+        val publication = CodeBasePublication4.builder()
+                .commonData(CommonPublicationData2.sampleCommonPublicationData())
+                .baseCodeBaseFingerprint("baseFingerprint")
+                .codeBaseSize(100)
+                .addedEntries(
+                        listOf(
+                                CodeBaseEntry3.sampleCodeBaseEntry(),
+                                CodeBaseEntry3.sampleCodeBaseEntry().toBuilder()
+                                        .signature(syntheticSignature)
+                                        .build()
+                        )
+                )
+                .removedSignatures(listOf("public void sample.Sample.removed()"))
+                .build()
+        whenever(syntheticSignatureService.isSyntheticMethod(syntheticSignature)).thenReturn(true)
         whenever(lockTemplate.doWithLockOrThrow(any(), any<Callable<Any>>()))
                 .thenReturn(Duration.ofSeconds(1))
 
         // when
-        codeBaseImporter.importPublication(publication)
+        codeBaseImporter.importDeltaPublication(publication)
 
         // then
         verify(metricsService).recordImportedPublication(CODEBASE, 1, 1, Duration.ofSeconds(1))
@@ -1,6 +1,7 @@
 package io.codekvast.intake.file_import.impl
 
 import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.never
 import com.nhaarman.mockitokotlin2.whenever
 import io.codekvast.common.lock.LockTemplate
 import io.codekvast.common.messaging.EventService
@@ -8,6 +9,7 @@ import io.codekvast.intake.metrics.IntakeMetricsService
 import io.codekvast.intake.model.PublicationType.INVOCATIONS
 import io.codekvast.javaagent.model.v2.CommonPublicationData2
 import io.codekvast.javaagent.model.v2.InvocationDataPublication2
+import io.codekvast.javaagent.model.v2.RecordingStatistics2
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.InjectMocks
@@ -76,6 +78,34 @@ class InvocationDataImporterImplTest {
         // then
         verify(metricsService)
                 .recordImportedPublication(INVOCATIONS, 1, 1, Duration.ofSeconds(1))
+        verify(metricsService, never()).recordAgentRecordingStatistics(any())
+    }
+
+    @Test
+    fun should_record_agent_recording_statistics() {
+        // given
+        val statistics = RecordingStatistics2.builder()
+                .recordingMode("ring-buffer")
+                .queueCapacity(8192)
+                .maxQueueDepth(17)
+                .overflowCount(0)
+                .droppedCount(0)
+                .drainLatencyMillis(3)
+                .build()
+        val publication: InvocationDataPublication2 = InvocationDataPublication2.builder()
+                .commonData(CommonPublicationData2.sampleCommonPublicationData())
+                .recordingIntervalStartedAtMillis(now.toEpochMilli())
+                .invocations(HashSet(listOf("signature")))
+                .recordingStatistics(statistics)
+                .build()
+        whenever(lockTemplate.doWithLockOrThrow(any(), any<Callable<Any>>()))
+                .thenReturn(Duration.ofSeconds(1))
+
+        // when
+        invocationDataImporter.importPublication(publication)
+
+        // then
+        verify(metricsService).recordAgentRecordingStatistics(statistics)
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package io.codekvast.intake.file_import.impl
+
+import io.codekvast.intake.bootstrap.CodekvastIntakeSettings
+import io.codekvast.intake.file_import.impl.MethodIdCache.Fingerprint
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.CoreMatchers.nullValue
+import org.hamcrest.CoreMatchers.sameInstance
+import org.junit.jupiter.api.Test
+import java.io.File
+
+class MethodIdCacheTest {
+
+    private val cache = MethodIdCache(CodekvastIntakeSettings(fileImportQueuePath = File("/tmp")))
+
+    @Test
+    fun should_return_null_when_not_cached() {
+        assertThat(cache.get(1L, Fingerprint(0, 0)), nullValue())
+    }
+
+    @Test
+    fun should_return_cached_methods_when_fingerprint_matches() {
+        val methods: MutableMap<String, Long?> = mutableMapOf("a()" to 1L, "b()" to 2L)
+        cache.put(1L, methods, Fingerprint(2, 2))
+
+        assertThat(cache.get(1L, Fingerprint(2, 2)), sameInstance(methods))
+        assertThat(cache.get(2L, Fingerprint(2, 2)), nullValue())
+    }
+
+    @Test
+    fun should_discard_stale_methods() {
+        cache.put(1L, mutableMapOf("a()" to 1L, "b()" to 2L), Fingerprint(2, 2))
+
+        // E.g., weeding has deleted a method
+        assertThat(cache.get(1L, Fingerprint(1, 2)), nullValue())
+        assertThat(cache.get(1L, Fingerprint(2, 2)), nullValue())
+    }
+
+    @Test
+    fun should_track_inserted_methods() {
+        val methods: MutableMap<String, Long?> = mutableMapOf("a()" to 1L, "b()" to 2L)
+        cache.put(1L, methods, Fingerprint(2, 2))
+
+        methods["c()"] = 17L
+        methods["d()"] = 18L
+        cache.recordInserted(1L, listOf(17L, 18L))
+
+        assertThat(cache.get(1L, Fingerprint(4, 18)), sameInstance(methods))
+    }
+
+    @Test
+    fun should_discard_methods_inserted_by_someone_else() {
+        cache.put(1L, mutableMapOf("a()" to 1L, "b()" to 2L), Fingerprint(2, 2))
+
+        assertThat(cache.get(1L, Fingerprint(3, 3)), nullValue())
+    }
+}
@@ -1,6 +1,7 @@
 package io.codekvast.intake.file_import.impl
 
 import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.eq
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.whenever
 import io.codekvast.common.lock.Lock
@@ -9,10 +10,17 @@ import io.codekvast.common.lock.LockTemplate
 import io.codekvast.common.lock.LockTimeoutException
 import io.codekvast.common.messaging.CorrelationIdHolder
 import io.codekvast.intake.agent.service.AgentService
+import io.codekvast.intake.file_import.CodeBaseEntrySource
 import io.codekvast.intake.file_import.CodeBaseImporter
 import io.codekvast.intake.file_import.InvocationDataImporter
 import io.codekvast.intake.file_import.PublicationImporter
+import io.codekvast.javaagent.model.binary.PublicationCodec
+import io.codekvast.javaagent.model.v2.CommonPublicationData2
+import io.codekvast.javaagent.model.v3.CodeBaseEntry3
+import io.codekvast.javaagent.model.v3.CodeBasePublication3
 import org.assertj.core.util.Files
+import org.hamcrest.CoreMatchers.`is`
+import org.hamcrest.MatcherAssert.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.ArgumentMatchers
@@ -77,7 +85,7 @@ internal class PublicationImporterImplTest {
     fun should_import_CodeBasePublication3() {
         // given
         val file = getResourceAsFile("/sample-publications/codebase-v2.ser")
-        whenever(codeBaseImporter.importPublication(any()))
+        whenever(codeBaseImporter.importPublication(any(), any(), any<CodeBaseEntrySource>()))
                 .thenReturn(true)
 
         // when
@@ -86,7 +94,7 @@ internal class PublicationImporterImplTest {
         // then
         assertTrue(handled)
 
-        verify(codeBaseImporter).importPublication(any())
+        verify(codeBaseImporter).importPublication(any(), any(), any<CodeBaseEntrySource>())
         verify(validator).validate(any<Any>())
         verifyNoMoreInteractions(codeBaseImporter, invocationDataImporter, validator)
     }
@@ -95,7 +103,7 @@ internal class PublicationImporterImplTest {
     fun should_retry_CodeBasePublication3_when_DuplicateKeyException() {
         // given
         val file = getResourceAsFile("/sample-publications/codebase-v2.ser")
-        whenever(codeBaseImporter.importPublication(any()))
+        whenever(codeBaseImporter.importPublication(any(), any(), any<CodeBaseEntrySource>()))
                 .thenThrow(DuplicateKeyException("Thrown by mock"))
 
         // when
@@ -103,7 +111,7 @@ internal class PublicationImporterImplTest {
 
         // then
         assertFalse(handled)
-        verify(codeBaseImporter).importPublication(any())
+        verify(codeBaseImporter).importPublication(any(), any(), any<CodeBaseEntrySource>())
         verify(validator).validate(any<Any>())
         verifyNoMoreInteractions(codeBaseImporter, invocationDataImporter, validator)
     }
@@ -220,5 +228,62 @@ internal class PublicationImporterImplTest {
         verifyNoMoreInteractions(codeBaseImporter, invocationDataImporter, validator)
     }
 
+    @Test
+    fun should_import_binary_CodeBasePublication3() {
+        // given
+        val entries = (1..3).map {
+            CodeBaseEntry3.sampleCodeBaseEntry().toBuilder().signature("sample.Sample$it.m()").build()
+        }
+        val file = Files.newTemporaryFile()
+        file.deleteOnExit()
+        BufferedOutputStream(FileOutputStream(file)).use { os ->
+            PublicationCodec.encode(
+                    CodeBasePublication3.builder()
+                            .commonData(CommonPublicationData2.sampleCommonPublicationData())
+                            .entries(entries)
+                            .build(),
+                    PublicationCodec.Compression.GZIP,
+                    os
+            )
+        }
+        val readEntries = mutableListOf<CodeBaseEntry3>()
+        whenever(codeBaseImporter.importPublication(any(), any(), any<CodeBaseEntrySource>()))
+                .thenAnswer {
+                    val source = it.arguments[2] as CodeBaseEntrySource
+                    // Read twice, like a restarted import does
+                    repeat(2) { source.forEachChunk(2) { chunk -> readEntries.addAll(chunk) } }
+                    true
+                }
+
+        // when
+        val handled = publicationImporter.importPublicationFile(file)
+
+        // then
+        assertTrue(handled)
+        verify(codeBaseImporter).importPublication(
+                eq(CommonPublicationData2.sampleCommonPublicationData()),
+                eq(3),
+                any<CodeBaseEntrySource>()
+        )
+        verify(validator).validate(any<Any>())
+        verifyNoMoreInteractions(codeBaseImporter, invocationDataImporter, validator)
+        assertThat(readEntries, `is`(entries + entries))
+    }
+
+    @Test
+    fun should_swallow_malformed_binary_publication() {
+        // given
+        val file = Files.newTemporaryFile()
+        file.deleteOnExit()
+        FileOutputStream(file).use { os -> os.write("CKVB\u0001\u0000garbage".toByteArray()) }
+
+        // when
+        val handled = publicationImporter.importPublicationFile(file)
+
+        // then
+        assertTrue(handled)
+        verifyNoMoreInteractions(codeBaseImporter, invocationDataImporter, validator)
+    }
+
     private fun getResourceAsFile(path: String) = File(javaClass.getResource(path).toURI())
 }